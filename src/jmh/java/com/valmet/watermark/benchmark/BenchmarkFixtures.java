@@ -0,0 +1,224 @@
+package com.valmet.watermark.benchmark;
+
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+import com.valmet.watermark.config.WatermarkProfileSettings;
+import com.valmet.watermark.config.WatermarkSettings;
+import com.valmet.watermark.config.WatermarkSettingsHolder;
+import com.valmet.watermark.service.FileDeletionService;
+import com.valmet.watermark.service.PdfBuffer;
+import com.valmet.watermark.service.PdfBufferPool;
+import com.valmet.watermark.service.WatermarkMetrics;
+import com.valmet.watermark.service.WatermarkProfiles;
+import com.valmet.watermark.service.impl.AddWaterMarkToPdfServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Shared fixtures of the JMH benchmarks: the watermark engine wired without a
+ * Spring context and a generator for synthetic PDF corpora.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+public final class BenchmarkFixtures {
+    /**
+     * Watermark text of a typical request, person ID and client system.
+     */
+    public static final String WATERMARK_TEXT = "Downloaded by 20019364/SAP-PLM";
+    private static final int SCAN_WIDTH = 1240;
+    private static final int SCAN_HEIGHT = 1754;
+    private static final int DISTINCT_SCANS = 16;
+    private static final String LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore 0123456789";
+
+    private BenchmarkFixtures () {
+    }
+
+    /**
+     * Content of the generated pages.
+     */
+    public enum Content {
+        /**
+         * Pages filled with lines of text in a standard font.
+         */
+        TEXT,
+        /**
+         * Pages covered by a grayscale JPEG, as produced by a document scanner.
+         */
+        SCAN
+    }
+
+    /**
+     * Returns the watermark settings of {@code watermark-settings.properties}.
+     *
+     * @return the watermark settings
+     * @throws IOException if the properties cannot be read
+     */
+    public static WatermarkSettings watermarkSettings () throws IOException {
+        Properties properties = new Properties ();
+        try (InputStream inputStream = BenchmarkFixtures.class.getResourceAsStream ("/watermark-settings.properties")) {
+            properties.load (inputStream);
+        }
+        WatermarkSettings settings = new WatermarkSettings ();
+        settings.setOpacity (Float.parseFloat (properties.getProperty ("watermark.settings.opacity")));
+        settings.setLogoOpacity (Float.parseFloat (properties.getProperty ("watermark.settings.logoOpacity")));
+        settings.setColorCode (properties.getProperty ("watermark.settings.colorCode"));
+        settings.setXAxis (Integer.parseInt (properties.getProperty ("watermark.settings.xAxis")));
+        settings.setYAxis (Integer.parseInt (properties.getProperty ("watermark.settings.yAxis")));
+        settings.setFontName (properties.getProperty ("watermark.settings.fontName"));
+        settings.setFontStyle (properties.getProperty ("watermark.settings.fontStyle"));
+        return settings;
+    }
+
+    /**
+     * Creates the watermark engine with the default settings and profile and a
+     * throw-away meter registry. Text images are not cached, so every document renders
+     * its text.
+     *
+     * @return the watermark engine
+     * @throws IOException if the settings cannot be read
+     */
+    public static AddWaterMarkToPdfServiceImpl watermarkEngine () throws IOException {
+        WatermarkSettingsHolder settingsHolder = new WatermarkSettingsHolder (watermarkSettings (), null, new SimpleMeterRegistry (), "",
+                Duration.ZERO);
+        WatermarkProfiles profiles = new WatermarkProfiles (settingsHolder, new WatermarkProfileSettings (), new DefaultResourceLoader (),
+                new SimpleMeterRegistry ());
+        return new AddWaterMarkToPdfServiceImpl (profiles, new WatermarkMetrics (new SimpleMeterRegistry ()), 0);
+    }
+
+    /**
+     * Creates a buffer pool with the default sizing that spills to the
+     * temporary directory.
+     *
+     * @return the buffer pool
+     */
+    public static PdfBufferPool pdfBufferPool () {
+        FileDeletionService fileDeletionService = new FileDeletionService (1, new SimpleMeterRegistry ());
+        return new PdfBufferPool (fileDeletionService, DataSize.ofKilobytes (64), DataSize.ofMegabytes (8),
+                DataSize.ofGigabytes (1), DataSize.ofMegabytes (32), Path.of (System.getProperty ("java.io.tmpdir"), "watermark-benchmark").toString ());
+    }
+
+    /**
+     * Copies bytes into a new, readable buffer.
+     *
+     * @param pool  the pool to allocate from
+     * @param name  the buffer name
+     * @param bytes the content
+     * @return the buffer
+     * @throws IOException if a spill file cannot be written
+     */
+    public static PdfBuffer bufferOf (PdfBufferPool pool, String name, byte[] bytes) throws IOException {
+        PdfBuffer buffer = pool.allocate (name, bytes.length);
+        try (OutputStream outputStream = buffer.getOutputStream ()) {
+            outputStream.write (bytes);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the page size of the given ISO A format.
+     *
+     * @param name the format name, {@code A0} to {@code A4}
+     * @return the page size
+     */
+    public static PageSize pageSize (String name) {
+        return switch (name) {
+            case "A0" -> PageSize.A0;
+            case "A1" -> PageSize.A1;
+            case "A2" -> PageSize.A2;
+            case "A3" -> PageSize.A3;
+            case "A4" -> PageSize.A4;
+            default -> throw new IllegalArgumentException ("Unknown page size: " + name);
+        };
+    }
+
+    /**
+     * Generates a PDF document.
+     * <p>
+     * Scanned pages cycle through a small set of distinct images so that large
+     * corpora stay within the benchmark heap while every page still carries its
+     * own image reference.
+     * </p>
+     *
+     * @param pages    the number of pages
+     * @param pageSize the page size
+     * @param content  the page content
+     * @return the PDF document
+     * @throws IOException if the document cannot be written
+     */
+    public static byte[] generatePdf (int pages, PageSize pageSize, Content content) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream ();
+        try (PdfDocument pdfDocument = new PdfDocument (new PdfWriter (outputStream))) {
+            PdfFont font = PdfFontFactory.createFont (StandardFonts.HELVETICA);
+            PdfImageXObject[] scans = content == Content.SCAN ? scans () : null;
+            for (int i = 0; i < pages; i++) {
+                PdfPage page = pdfDocument.addNewPage (pageSize);
+                PdfCanvas canvas = new PdfCanvas (page);
+                if (content == Content.SCAN) {
+                    canvas.addXObjectFittedIntoRectangle (scans[i % scans.length], new Rectangle (0, 0, pageSize.getWidth (), pageSize.getHeight ()));
+                } else {
+                    writeText (canvas, font, pageSize, i + 1);
+                }
+                canvas.release ();
+            }
+        }
+        return outputStream.toByteArray ();
+    }
+
+    private static void writeText (PdfCanvas canvas, PdfFont font, PageSize pageSize, int pageNumber) {
+        float fontSize = 10;
+        float leading = 12;
+        canvas.beginText ().setFontAndSize (font, fontSize).setLeading (leading)
+                .moveText (36, pageSize.getHeight () - 48);
+        canvas.showText ("Page " + pageNumber);
+        int lines = (int) ((pageSize.getHeight () - 96) / leading);
+        int repeat = Math.max (1, (int) ((pageSize.getWidth () - 72) / (font.getWidth (LINE, fontSize) + fontSize)));
+        String line = (LINE + " ").repeat (repeat);
+        for (int i = 0; i < lines; i++) {
+            canvas.newlineShowText (line);
+        }
+        canvas.endText ();
+    }
+
+    private static PdfImageXObject[] scans () throws IOException {
+        Random random = new Random (42);
+        PdfImageXObject[] scans = new PdfImageXObject[DISTINCT_SCANS];
+        for (int i = 0; i < scans.length; i++) {
+            BufferedImage image = new BufferedImage (SCAN_WIDTH, SCAN_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] pixels = new byte[SCAN_WIDTH];
+            for (int y = 0; y < SCAN_HEIGHT; y++) {
+                random.nextBytes (pixels);
+                for (int x = 0; x < SCAN_WIDTH; x++) {
+                    // Mostly white paper with noise, darker bands every few lines like scanned text
+                    int ink = (y / 8) % 3 == 0 ? 96 : 224;
+                    image.getRaster ().setSample (x, y, 0, ink + (pixels[x] & 0x1f));
+                }
+            }
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream ();
+            ImageIO.write (image, "jpg", jpeg);
+            scans[i] = new PdfImageXObject (ImageDataFactory.create (jpeg.toByteArray ()));
+        }
+        return scans;
+    }
+}
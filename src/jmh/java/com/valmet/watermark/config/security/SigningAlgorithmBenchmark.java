@@ -0,0 +1,107 @@
+package com.valmet.watermark.config.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.dto.MetadataDto;
+import com.valmet.watermark.dto.SecretDto;
+import com.valmet.watermark.enums.TokenType;
+import com.valmet.watermark.service.JwtTokenService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares token issuance and verification across the signing algorithms of
+ * {@link SigningKeyHolder}: RS256 with a 2048 bit RSA key and ES256 with a
+ * P-256 key. The keys go through the same snapshot, key cache and verifier as
+ * in the service, from a secret holding both key pairs.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 5)
+@Fork (1)
+public class SigningAlgorithmBenchmark {
+    @Param ({"RS256", "ES256"})
+    private String algorithm;
+
+    private JwtTokenService jwtTokenService;
+    private JwtVerifier jwtVerifier;
+    private SigningKeySnapshot signingKey;
+    private Authentication authentication;
+    private String token;
+
+    @Setup
+    public void setUp () throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance ("RSA");
+        rsaGenerator.initialize (2048);
+        KeyPair rsaKeyPair = rsaGenerator.generateKeyPair ();
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance ("EC");
+        ecGenerator.initialize (new ECGenParameterSpec ("secp256r1"));
+        KeyPair ecKeyPair = ecGenerator.generateKeyPair ();
+        Map<String, String> data = new HashMap<> ();
+        data.put (Constants.PRIVATE_KEY, Base64.getEncoder ().encodeToString (rsaKeyPair.getPrivate ().getEncoded ()));
+        data.put (Constants.PUBLIC_KEY, Base64.getEncoder ().encodeToString (rsaKeyPair.getPublic ().getEncoded ()));
+        data.put (Constants.EC_PRIVATE_KEY, Base64.getEncoder ().encodeToString (ecKeyPair.getPrivate ().getEncoded ()));
+        data.put (Constants.EC_PUBLIC_KEY, Base64.getEncoder ().encodeToString (ecKeyPair.getPublic ().getEncoded ()));
+        SecretDto secretDto = SecretDto.builder ().data (data).metadata (MetadataDto.builder ().version (1).build ()).build ();
+        // The secret is served from memory instead of Vault
+        WatermarkSecretsManager watermarkSecretsManager = new WatermarkSecretsManager (null, new ObjectMapper ()) {
+            @Override
+            public SecretDto getSecretDto () {
+                return secretDto;
+            }
+
+            @Override
+            public Map<String, Object> findSecretData (int version) {
+                return version == 1 ? Map.copyOf (data) : null;
+            }
+        };
+        SigningKeyHolder signingKeyHolder = new SigningKeyHolder (watermarkSecretsManager, null, Duration.ofMinutes (1),
+                SignatureAlgorithm.from (algorithm));
+        signingKey = signingKeyHolder.getSnapshot ();
+        PublicKeyCache publicKeyCache = new PublicKeyCache (watermarkSecretsManager, signingKeyHolder, new SimpleMeterRegistry (), 1,
+                Duration.ofSeconds (30));
+        // The verified token cache is off, every call checks the signature
+        jwtVerifier = new JwtVerifier (publicKeyCache, new VerifiedTokenCache (publicKeyCache, new SimpleMeterRegistry (), 0, Duration.ofMinutes (30)));
+        jwtTokenService = new JwtTokenService (jwtVerifier);
+        authentication = new UsernamePasswordAuthenticationToken ("benchmark", null);
+        token = issue ();
+    }
+
+    @Benchmark
+    public String issue () {
+        return jwtTokenService.generateToken (authentication, 1440, "valmet-watermark-service", TokenType.ACCESS, signingKey, Constants.WATERMARK_ADD);
+    }
+
+    @Benchmark
+    public Jwt verify () {
+        return jwtVerifier.decode (token);
+    }
+}
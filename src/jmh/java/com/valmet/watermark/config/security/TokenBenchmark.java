@@ -0,0 +1,156 @@
+package com.valmet.watermark.config.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.enums.TokenType;
+import com.valmet.watermark.service.JwtTokenService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the token paths of every authenticated request: single-pass
+ * verification with {@link JwtVerifier}, a repeated token served from the
+ * {@link VerifiedTokenCache}, and for comparison the former path of
+ * extracting the key version with
+ * {@link WatermarkSecretsManager#getVaultKeyVersionFromToken} and verifying
+ * the JWT with a long-lived decoder or a per-request one (parse the public key,
+ * build a decoder, decode). {@code issue} signs an access token with a
+ * {@link SigningKeySnapshot}, as a login or token renewal does.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 5)
+@Fork (1)
+public class TokenBenchmark {
+    private WatermarkSecretsManager watermarkSecretsManager;
+    private String token;
+    private String publicKeyEncoded;
+    private RSAPublicKey publicKey;
+    private JwtDecoder jwtDecoder;
+    private JwtVerifier jwtVerifier;
+    private JwtVerifier cachingJwtVerifier;
+    private JwtTokenService jwtTokenService;
+    private SigningKeySnapshot signingKey;
+    private Authentication authentication;
+
+    @Setup
+    public void setUp () throws Exception {
+        // Only the key parsing and token helpers are used, which do not call Vault
+        watermarkSecretsManager = new WatermarkSecretsManager (null, new ObjectMapper ());
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance ("RSA");
+        keyPairGenerator.initialize (2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair ();
+        publicKey = (RSAPublicKey) keyPair.getPublic ();
+        publicKeyEncoded = Base64.getEncoder ().encodeToString (publicKey.getEncoded ());
+        RSAKey rsaKey = new RSAKey.Builder (publicKey).privateKey ((RSAPrivateKey) keyPair.getPrivate ())
+                .keyID (SigningKeySnapshot.keyIdOf (SignatureAlgorithm.RS256, 7)).build ();
+        JWKSet jwkSet = new JWKSet (rsaKey);
+        JWKSource<SecurityContext> jwkSource = (jwkSelector, securityContext) -> jwkSelector.select (jwkSet);
+        Instant now = Instant.now ();
+        JwtClaimsSet claims = JwtClaimsSet.builder ()
+                .issuer ("valmet-watermark-service")
+                .issuedAt (now)
+                .expiresAt (now.plus (1, ChronoUnit.DAYS))
+                .subject ("benchmark")
+                .claim (Constants.TOKEN_TYPE, TokenType.ACCESS).claim (Constants.RSA_KEY_VERSION, 7)
+                .claim ("scope", "ROLE_USER").build ();
+        token = new NimbusJwtEncoder (jwkSource).encode (JwtEncoderParameters.from (claims)).getTokenValue ();
+        jwtDecoder = NimbusJwtDecoder.withPublicKey (publicKey).build ();
+        signingKey = SigningKeySnapshot.builder ().version (7).signatureAlgorithm (SignatureAlgorithm.RS256)
+                .privateKey (keyPair.getPrivate ()).publicKey (publicKey)
+                .jwtEncoder (new NimbusJwtEncoder (jwkSource)).build ();
+        SigningKeyHolder signingKeyHolder = new SigningKeyHolder (null, null, Duration.ofMinutes (1), SignatureAlgorithm.RS256) {
+            @Override
+            public SigningKeySnapshot getSnapshot () {
+                return signingKey;
+            }
+        };
+        PublicKeyCache publicKeyCache = new PublicKeyCache (new WatermarkSecretsManager (null, new ObjectMapper ()) {
+            @Override
+            public Map<String, Object> findSecretData (int version) {
+                return Map.of (Constants.PUBLIC_KEY, publicKeyEncoded);
+            }
+        }, signingKeyHolder, new SimpleMeterRegistry (), 1, Duration.ofSeconds (30));
+        jwtVerifier = new JwtVerifier (publicKeyCache, new VerifiedTokenCache (publicKeyCache, new SimpleMeterRegistry (), 0, Duration.ofMinutes (30)));
+        cachingJwtVerifier = new JwtVerifier (publicKeyCache,
+                new VerifiedTokenCache (publicKeyCache, new SimpleMeterRegistry (), 10000, Duration.ofMinutes (30)));
+        cachingJwtVerifier.decode (token);
+        jwtTokenService = new JwtTokenService (jwtVerifier);
+        authentication = new UsernamePasswordAuthenticationToken ("benchmark", null);
+    }
+
+    @Benchmark
+    public Jwt verify () {
+        return jwtVerifier.decode (token);
+    }
+
+    @Benchmark
+    public Jwt verifyCached () {
+        return cachingJwtVerifier.decode (token);
+    }
+
+    @Benchmark
+    public String issue () {
+        return jwtTokenService.generateToken (authentication, 1440, "valmet-watermark-service", TokenType.ACCESS, signingKey, Constants.WATERMARK_ADD);
+    }
+
+    @Benchmark
+    public Integer getVaultKeyVersionFromToken () throws JsonProcessingException {
+        return watermarkSecretsManager.getVaultKeyVersionFromToken (token);
+    }
+
+    @Benchmark
+    public Jwt decode () {
+        return jwtDecoder.decode (token);
+    }
+
+    @Benchmark
+    public Jwt decodeWithNewDecoder () {
+        return NimbusJwtDecoder.withPublicKey (publicKey).build ().decode (token);
+    }
+
+    @Benchmark
+    public Jwt readPublicKeyAndDecode () throws Exception {
+        RSAPublicKey rsaPublicKey = watermarkSecretsManager.readPublicKey (publicKeyEncoded);
+        return NimbusJwtDecoder.withPublicKey (rsaPublicKey).build ().decode (token);
+    }
+}
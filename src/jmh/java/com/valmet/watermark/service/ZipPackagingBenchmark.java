@@ -0,0 +1,71 @@
+package com.valmet.watermark.service;
+
+import com.valmet.watermark.benchmark.BenchmarkFixtures;
+import com.itextpdf.kernel.geom.PageSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the ZIP packaging of multi-file requests
+ * ({@link AddWaterMarkToPdfService#writeZipArchive}). The archived buffers are
+ * released while they are written, so they are recreated before every
+ * invocation.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 5)
+@Measurement (iterations = 5, time = 10)
+@Fork (value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ZipPackagingBenchmark {
+    @Param ({"2", "10", "50"})
+    private int files;
+    @Param ({"1", "50"})
+    private int pages;
+    @Param ({"TEXT", "SCAN"})
+    private BenchmarkFixtures.Content content;
+
+    private PdfBufferPool pdfBufferPool;
+    private byte[] pdf;
+    private Map<String, PdfBuffer> outputs;
+
+    @Setup (Level.Trial)
+    public void generate () throws IOException {
+        pdfBufferPool = BenchmarkFixtures.pdfBufferPool ();
+        pdf = BenchmarkFixtures.generatePdf (pages, PageSize.A4, content);
+    }
+
+    @Setup (Level.Invocation)
+    public void fillOutputs () throws IOException {
+        outputs = new LinkedHashMap<> ();
+        for (int i = 0; i < files; i++) {
+            outputs.put ("drawing-" + i + ".pdf", BenchmarkFixtures.bufferOf (pdfBufferPool, "output", pdf));
+        }
+    }
+
+    @Benchmark
+    public long writeZipArchive () throws IOException {
+        try (PdfBuffer zipOutput = pdfBufferPool.allocate ("zip", (long) pdf.length * files)) {
+            AddWaterMarkToPdfService.writeZipArchive (outputs, zipOutput.getOutputStream ());
+            return zipOutput.size ();
+        }
+    }
+}
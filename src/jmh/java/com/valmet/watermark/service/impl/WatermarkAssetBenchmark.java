@@ -0,0 +1,59 @@
+package com.valmet.watermark.service.impl;
+
+import com.itextpdf.layout.element.Image;
+import com.valmet.watermark.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-request watermark assets: rendering the watermark text
+ * with Java2D ({@code createTextToImage}) and loading the logo
+ * ({@code loadLogoWatermark}).
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 5)
+@Fork (value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class WatermarkAssetBenchmark {
+    @Param ({"12", "20", "40"})
+    private int fontSize;
+
+    private AddWaterMarkToPdfServiceImpl watermarkEngine;
+
+    @Setup
+    public void setUp () throws IOException {
+        watermarkEngine = BenchmarkFixtures.watermarkEngine ();
+    }
+
+    @Benchmark
+    public byte[] createTextToImage () throws IOException {
+        return watermarkEngine.createTextToImage (BenchmarkFixtures.WATERMARK_TEXT, fontSize);
+    }
+
+    @Benchmark
+    public Image getWaterMarkedImageByPdfFontSize () {
+        return watermarkEngine.getWaterMarkedImageByPdfFontSize (BenchmarkFixtures.WATERMARK_TEXT, fontSize);
+    }
+
+    @Benchmark
+    public Image loadLogoWatermark () throws IOException {
+        return watermarkEngine.loadLogoWatermark ();
+    }
+}
@@ -0,0 +1,71 @@
+package com.valmet.watermark.service.impl;
+
+import com.valmet.watermark.benchmark.BenchmarkFixtures;
+import com.valmet.watermark.service.PdfBuffer;
+import com.valmet.watermark.service.PdfBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link AddWaterMarkToPdfServiceImpl#addWatermarkToExistingPdf}
+ * over generated documents of 1, 50 and 1000 pages, A4 to A0, with text-only
+ * or scanned pages.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 5)
+@Measurement (iterations = 5, time = 10)
+@Fork (value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-Djava.awt.headless=true"})
+public class WatermarkEngineBenchmark {
+    private static final Map<String, String> CUSTOM_PROPERTIES = Map.of ("Download date", "18.10.2026", "Downloader's ID", "20019364", "System", "SAP-PLM");
+    private static final String KEYWORDS = "Download date: 18.10.2026, Downloader's ID: 20019364, System: SAP-PLM";
+
+    @Param ({"1", "50", "1000"})
+    private int pages;
+    @Param ({"A4", "A3", "A2", "A1", "A0"})
+    private String pageSize;
+    @Param ({"TEXT", "SCAN"})
+    private BenchmarkFixtures.Content content;
+
+    private AddWaterMarkToPdfServiceImpl watermarkEngine;
+    private PdfBufferPool pdfBufferPool;
+    private PdfBuffer input;
+
+    @Setup
+    public void setUp () throws IOException {
+        watermarkEngine = BenchmarkFixtures.watermarkEngine ();
+        pdfBufferPool = BenchmarkFixtures.pdfBufferPool ();
+        byte[] pdf = BenchmarkFixtures.generatePdf (pages, BenchmarkFixtures.pageSize (pageSize), content);
+        input = BenchmarkFixtures.bufferOf (pdfBufferPool, "input", pdf);
+    }
+
+    @TearDown
+    public void tearDown () {
+        input.close ();
+    }
+
+    @Benchmark
+    public int addWatermarkToExistingPdf () throws IOException {
+        try (PdfBuffer output = pdfBufferPool.allocate ("output", input.size ())) {
+            return watermarkEngine.addWatermarkToExistingPdf (input, output, KEYWORDS, CUSTOM_PROPERTIES, BenchmarkFixtures.WATERMARK_TEXT);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.valmet.watermark.loadtest;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocation budget regression test, run by failsafe in the
+ * {@code integration-tests} profile.
+ * <p>
+ * Starts the {@link LoadTestEnvironment} on a random port, runs each scenario
+ * sequentially from a single client and reads the bytes allocated per request
+ * from the {@code watermark.request.allocated} and
+ * {@code watermark.stage.allocated} summaries, which are measured with the
+ * thread allocation counters of {@link com.sun.management.ThreadMXBean}.
+ * Every {@code <scenario>.<stage>} entry of
+ * {@code allocation-budgets.properties} declares the budget of a stage per
+ * request; a scenario fails when one of its stages exceeds its budget or
+ * recorded nothing.
+ * </p>
+ *
+ * <p>
+ * <b>Scenarios:</b>
+ * </p>
+ * <ul>
+ * <li>{@code single-file}: {@code /api/watermark} with one 5 page A4 PDF</li>
+ * <li>{@code multi-file}: {@code /api/watermark} with five 5 page A4 PDFs, zipped</li>
+ * <li>{@code authenticate}: {@code /api/authenticate} with the service credentials</li>
+ * <li>{@code renew-token}: {@code /api/renewToken}</li>
+ * </ul>
+ *
+ * <p>
+ * <b>Stages:</b> {@code request} is everything allocated on behalf of a
+ * request, by the request thread, the pipeline stages and the writing of the
+ * response; the other stages are the {@code watermark.stage.allocated} stages
+ * of {@code WatermarkMetrics}. The system properties
+ * {@code allocation.warmup} and {@code allocation.iterations} set the
+ * requests per scenario before and during the measurement, default 50 and
+ * 100. Every scenario logs its measured values with 50% headroom in the
+ * format of the budget file, to recalibrate it after an intended change.
+ * </p>
+ *
+ * <pre>
+ * mvn -Pintegration-tests verify -Dit.test=AllocationBudgetIT
+ * </pre>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+class AllocationBudgetIT {
+    private static final String BUDGETS = "allocation-budgets.properties";
+    private static final String STAGE_REQUEST = "request";
+    private static final double CALIBRATION_HEADROOM = 1.5;
+    private static final int WARMUP = Integer.getInteger ("allocation.warmup", 50);
+    private static final int ITERATIONS = Integer.getInteger ("allocation.iterations", 100);
+    private static Map<String, Long> budgets;
+    private static LoadTestEnvironment environment;
+    private static MeterRegistry meterRegistry;
+
+    @BeforeAll
+    static void startEnvironment () throws Exception {
+        budgets = loadBudgets ();
+        if (System.getProperty ("loadtest.server.port") == null) {
+            System.setProperty ("loadtest.server.port", "0");
+        }
+        environment = LoadTestEnvironment.start ();
+        meterRegistry = environment.getContext ().getBean (MeterRegistry.class);
+    }
+
+    @AfterAll
+    static void stopEnvironment () throws IOException {
+        if (environment != null) {
+            environment.close ();
+        }
+    }
+
+    @Test
+    void singleFileWatermarkStaysWithinBudget () throws Exception {
+        check (new Scenario ("single-file", LoadDriver.Operation.WATERMARK, "/api/watermark", "--files=1", "--pages=5"));
+    }
+
+    @Test
+    void multiFileWatermarkStaysWithinBudget () throws Exception {
+        check (new Scenario ("multi-file", LoadDriver.Operation.WATERMARK, "/api/watermark", "--files=5", "--pages=5"));
+    }
+
+    @Test
+    void authenticateStaysWithinBudget () throws Exception {
+        check (new Scenario ("authenticate", LoadDriver.Operation.AUTHENTICATE, "/api/authenticate"));
+    }
+
+    @Test
+    void renewTokenStaysWithinBudget () throws Exception {
+        check (new Scenario ("renew-token", LoadDriver.Operation.RENEW, "/api/renewToken"));
+    }
+
+    private static void check (Scenario scenario) throws IOException, InterruptedException {
+        Map<String, Long> measured = run (scenario);
+        log.warn ("Measured allocation per request of {} with {}% headroom:{}", scenario.name,
+                Math.round ((CALIBRATION_HEADROOM - 1) * 100), calibration (measured));
+        StringBuilder report = new StringBuilder (String.format ("%n%-28s %14s %14s  %s%n", "stage", "allocated", "budget", "result"));
+        int failures = 0;
+        for (Map.Entry<String, Long> budget : budgets.entrySet ()) {
+            if (!budget.getKey ().startsWith (scenario.name + ".")) {
+                continue;
+            }
+            Long allocated = measured.get (budget.getKey ());
+            String result;
+            if (allocated == null) {
+                result = "FAIL (no samples)";
+                failures++;
+            } else if (allocated > budget.getValue ()) {
+                result = String.format ("FAIL (+%.0f%%)", 100.0 * (allocated - budget.getValue ()) / budget.getValue ());
+                failures++;
+            } else {
+                result = "ok";
+            }
+            report.append (String.format ("%-28s %14s %14s  %s%n", budget.getKey (), allocated == null ? "-" : format (allocated),
+                    format (budget.getValue ()), result));
+        }
+        measured.keySet ().stream ().filter (stage -> !budgets.containsKey (stage)).forEach (stage ->
+                report.append (String.format ("%-28s %14s %14s  %s%n", stage, format (measured.get (stage)), "-", "no budget")));
+        assertTrue (budgets.containsKey (scenario.name + "." + STAGE_REQUEST), "No request budget for " + scenario.name + " in " + BUDGETS);
+        assertEquals (0, failures, failures + " allocation budget(s) of " + scenario.name + " exceeded:" + report);
+    }
+
+    private static Map<String, Long> run (Scenario scenario) throws IOException, InterruptedException {
+        List<String> driverArgs = new ArrayList<> (List.of (scenario.driverArgs));
+        driverArgs.add ("--base-url=" + environment.getBaseUrl ());
+        LoadDriver loadDriver = new LoadDriver (driverArgs.toArray (String[]::new));
+        LoadDriver.Session session = new LoadDriver.Session ();
+        if (scenario.operation != LoadDriver.Operation.AUTHENTICATE) {
+            expectOk (scenario, loadDriver.execute (LoadDriver.Operation.AUTHENTICATE, session));
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            expectOk (scenario, loadDriver.execute (scenario.operation, session));
+        }
+        awaitRequests (scenario.uri);
+        Map<String, double[]> before = snapshot (scenario.uri);
+        for (int i = 0; i < ITERATIONS; i++) {
+            expectOk (scenario, loadDriver.execute (scenario.operation, session));
+        }
+        awaitRequests (scenario.uri);
+        Map<String, double[]> after = snapshot (scenario.uri);
+        Map<String, Long> perRequest = new TreeMap<> ();
+        after.forEach ((stage, totals) -> {
+            double[] start = before.getOrDefault (stage, new double[2]);
+            if (totals[1] > start[1]) {
+                perRequest.put (scenario.name + "." + stage, Math.round ((totals[0] - start[0]) / ITERATIONS));
+            }
+        });
+        return perRequest;
+    }
+
+    /**
+     * Returns the total allocated bytes and the sample count of the requests
+     * to the endpoint and of every pipeline stage.
+     */
+    private static Map<String, double[]> snapshot (String uri) {
+        Map<String, double[]> totals = new TreeMap<> ();
+        for (DistributionSummary summary : meterRegistry.find ("watermark.request.allocated").tag ("uri", uri).summaries ()) {
+            add (totals, STAGE_REQUEST, summary);
+        }
+        for (DistributionSummary summary : meterRegistry.find ("watermark.stage.allocated").summaries ()) {
+            add (totals, summary.getId ().getTag ("stage"), summary);
+        }
+        return totals;
+    }
+
+    private static void add (Map<String, double[]> totals, String stage, DistributionSummary summary) {
+        double[] total = totals.computeIfAbsent (stage, key -> new double[2]);
+        total[0] += summary.totalAmount ();
+        total[1] += summary.count ();
+    }
+
+    /**
+     * A request records its allocation when it completes, which may be after
+     * the client has received the response, so wait until the count of the
+     * endpoint is stable.
+     */
+    private static void awaitRequests (String uri) throws InterruptedException {
+        long previous = -1;
+        for (int i = 0; i < 50; i++) {
+            long count = meterRegistry.find ("watermark.request.allocated").tag ("uri", uri).summaries ().stream ()
+                    .mapToLong (DistributionSummary::count).sum ();
+            if (count == previous) {
+                return;
+            }
+            previous = count;
+            Thread.sleep (100);
+        }
+    }
+
+    private static void expectOk (Scenario scenario, int status) {
+        assertEquals (200, status, "Scenario " + scenario.name + " answered with status " + status);
+    }
+
+    private static Map<String, Long> loadBudgets () throws IOException {
+        Properties properties = new Properties ();
+        try (InputStream inputStream = AllocationBudgetIT.class.getClassLoader ().getResourceAsStream (BUDGETS)) {
+            if (inputStream == null) {
+                throw new IllegalStateException (BUDGETS + " not found on the classpath");
+            }
+            properties.load (inputStream);
+        }
+        Map<String, Long> budgets = new TreeMap<> ();
+        properties.stringPropertyNames ().forEach (key -> budgets.put (key, DataSize.parse (properties.getProperty (key).trim ()).toBytes ()));
+        return budgets;
+    }
+
+    private static String calibration (Map<String, Long> measured) {
+        StringBuilder calibration = new StringBuilder ();
+        measured.forEach ((stage, allocated) -> calibration.append (System.lineSeparator ()).append (stage).append ('=')
+                .append ((long) Math.ceil (allocated * CALIBRATION_HEADROOM / 1024)).append ("KB"));
+        return calibration.toString ();
+    }
+
+    private static String format (long bytes) {
+        return bytes >= 1024 * 1024 ? String.format ("%.1f MB", bytes / (1024.0 * 1024)) : String.format ("%.1f KB", bytes / 1024.0);
+    }
+
+    private record Scenario(String name, LoadDriver.Operation operation, String uri, String... driverArgs) {
+    }
+}
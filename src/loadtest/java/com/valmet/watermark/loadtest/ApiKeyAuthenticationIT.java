@@ -0,0 +1,97 @@
+package com.valmet.watermark.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Integration test of machine clients authenticating with an API key,
+ * run by failsafe in the {@code integration-tests} profile.
+ * <p>
+ * Starts the {@link LoadTestEnvironment} on a random port, issues keys through
+ * {@code /api/admin/api-keys} with the service credentials and sends
+ * {@code /api/watermark} requests with the key in the {@code X-API-Key}
+ * header. A watermark request completes in an asynchronous dispatch, which
+ * the API key filter does not see, so a 200 shows that the authentication of
+ * the key holds until the response is written.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+class ApiKeyAuthenticationIT {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper ();
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder ().version (HttpClient.Version.HTTP_1_1).build ();
+    private static LoadTestEnvironment environment;
+
+    @BeforeAll
+    static void startEnvironment () throws Exception {
+        if (System.getProperty ("loadtest.server.port") == null) {
+            System.setProperty ("loadtest.server.port", "0");
+        }
+        environment = LoadTestEnvironment.start ();
+    }
+
+    @AfterAll
+    static void stopEnvironment () throws IOException {
+        if (environment != null) {
+            environment.close ();
+        }
+    }
+
+    @Test
+    void apiKeyCompletesAsynchronousWatermarkRequest () throws Exception {
+        JsonNode key = issue ("SAP");
+
+        assertEquals (200, watermark (key.path ("apiKey").asText (), "--files=1"));
+        assertEquals (200, watermark (key.path ("apiKey").asText (), "--files=3"));
+    }
+
+    @Test
+    void unknownAndRevokedKeysAreRejected () throws Exception {
+        JsonNode key = issue ("PLM");
+        HttpResponse<String> revoked = send (HttpRequest.newBuilder (URI.create (environment.getBaseUrl () + "/api/admin/api-keys/" + key.path ("id").asText ()))
+                .header ("Authorization", basicAuthorization ()).DELETE ());
+
+        assertEquals (200, revoked.statusCode ());
+        assertEquals (401, watermark (key.path ("apiKey").asText (), "--files=1"));
+        assertEquals (401, watermark ("wmk_unknown", "--files=1"));
+    }
+
+    private static JsonNode issue (String name) throws IOException, InterruptedException {
+        String body = OBJECT_MAPPER.writeValueAsString (Map.of ("name", name, "validityDays", 1));
+        HttpResponse<String> response = send (HttpRequest.newBuilder (URI.create (environment.getBaseUrl () + "/api/admin/api-keys"))
+                .header ("Authorization", basicAuthorization ())
+                .header ("Content-Type", "application/json")
+                .POST (HttpRequest.BodyPublishers.ofString (body)));
+        assertEquals (200, response.statusCode (), response.body ());
+        return OBJECT_MAPPER.readTree (response.body ()).path ("result");
+    }
+
+    private static int watermark (String apiKey, String files) throws IOException, InterruptedException {
+        LoadDriver loadDriver = new LoadDriver ("--base-url=" + environment.getBaseUrl (), "--api-key=" + apiKey, files);
+        return loadDriver.execute (LoadDriver.Operation.WATERMARK, new LoadDriver.Session ());
+    }
+
+    private static HttpResponse<String> send (HttpRequest.Builder request) throws IOException, InterruptedException {
+        return HTTP_CLIENT.send (request.build (), HttpResponse.BodyHandlers.ofString ());
+    }
+
+    private static String basicAuthorization () {
+        String credentials = LoadTestEnvironment.SERVICE_USERNAME + ":" + LoadTestEnvironment.SERVICE_PASSWORD;
+        return "Basic " + Base64.getEncoder ().encodeToString (credentials.getBytes (StandardCharsets.UTF_8));
+    }
+}
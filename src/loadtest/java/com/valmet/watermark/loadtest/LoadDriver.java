@@ -0,0 +1,366 @@
+package com.valmet.watermark.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop load driver for {@code /api/authenticate}, {@code /api/renewToken}
+ * and {@code /api/watermark}.
+ * <p>
+ * Every worker picks the next operation at random according to the configured
+ * mix and sends it as soon as the previous one completed. A worker logs in
+ * before its first renewal or watermark request and keeps its tokens.
+ * Watermark requests send a person ID, so they need no directory lookup. Latencies are recorded per operation and only after the
+ * warm-up; the report lists throughput, status codes and latency percentiles.
+ * </p>
+ *
+ * <p>
+ * <b>Options</b> ({@code --name=value}):
+ * </p>
+ * <ul>
+ * <li>{@code base-url}: the service, default {@code http://localhost:8080}</li>
+ * <li>{@code concurrency}: the number of workers, default 16</li>
+ * <li>{@code duration} and {@code warmup}: in seconds, default 60 and 10</li>
+ * <li>{@code mix}: the relative weights of the operations, default
+ * {@code authenticate=1,renew=1,watermark=8}</li>
+ * <li>{@code username} and {@code password}: the login, default the service credentials of the {@link VaultStandIn}</li>
+ * <li>{@code person-id}: the person ID sent with watermark requests, default {@code LOADTEST}</li>
+ * <li>{@code api-key}: an API key sent with watermark requests instead of the access token</li>
+ * <li>{@code files}, {@code pages} and {@code page-size}: the uploaded PDFs, default 1, 5 and A4</li>
+ * <li>{@code system}: the client system sent with watermark requests, default {@code LOADTEST}</li>
+ * </ul>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+public class LoadDriver {
+    private static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+    private final ObjectMapper objectMapper = new ObjectMapper ();
+    private final Map<String, String> options;
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    private final Map<Operation, Integer> mix;
+    private final String username;
+    private final String password;
+    private final byte[] pdf;
+
+    /**
+     * Operations of the mix.
+     */
+    public enum Operation {
+        AUTHENTICATE, RENEW, WATERMARK
+    }
+
+    /**
+     * Creates a driver from {@code --name=value} options.
+     *
+     * @param args the options
+     * @throws IOException if the sample PDF cannot be generated
+     */
+    public LoadDriver (String... args) throws IOException {
+        options = parseOptions (args);
+        baseUri = URI.create (option ("base-url", "http://localhost:8080"));
+        mix = parseMix (option ("mix", "authenticate=1,renew=1,watermark=8"));
+        username = option ("username", LoadTestEnvironment.SERVICE_USERNAME);
+        password = option ("password", LoadTestEnvironment.SERVICE_PASSWORD);
+        pdf = generatePdf (Integer.parseInt (option ("pages", "5")), option ("page-size", "A4"));
+        httpClient = HttpClient.newBuilder ().version (HttpClient.Version.HTTP_1_1)
+                .connectTimeout (Duration.ofSeconds (10)).build ();
+    }
+
+    public static void main (String[] args) throws Exception {
+        new LoadDriver (args).run ();
+    }
+
+    /**
+     * Runs the load and prints the report.
+     *
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void run () throws InterruptedException {
+        int concurrency = Integer.parseInt (option ("concurrency", "16"));
+        long warmupNanos = TimeUnit.SECONDS.toNanos (Long.parseLong (option ("warmup", "10")));
+        long durationNanos = TimeUnit.SECONDS.toNanos (Long.parseLong (option ("duration", "60")));
+        log.warn ("Driving {} with {} workers for {}s after {}s warm-up, mix {}", baseUri, concurrency,
+                TimeUnit.NANOSECONDS.toSeconds (durationNanos), TimeUnit.NANOSECONDS.toSeconds (warmupNanos), mix);
+        long start = System.nanoTime ();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        ExecutorService workers = Executors.newFixedThreadPool (concurrency);
+        List<Future<Results>> futures = new ArrayList<> ();
+        for (int i = 0; i < concurrency; i++) {
+            int worker = i;
+            futures.add (workers.submit (() -> drive (worker, measureFrom, end)));
+        }
+        Results total = new Results ();
+        for (Future<Results> future : futures) {
+            try {
+                total.merge (future.get ());
+            } catch (Exception e) {
+                log.error ("Worker failed", e);
+            }
+        }
+        workers.shutdown ();
+        print (total, durationNanos);
+    }
+
+    private Results drive (int worker, long measureFrom, long end) {
+        Results results = new Results ();
+        Session session = new Session ();
+        long now;
+        while ((now = System.nanoTime ()) < end) {
+            Operation operation = session.accessToken == null ? Operation.AUTHENTICATE : pick ();
+            int status;
+            try {
+                status = execute (operation, session);
+            } catch (IOException e) {
+                status = -1;
+                log.debug ("{} failed: {}", operation, e.getMessage ());
+            } catch (InterruptedException e) {
+                Thread.currentThread ().interrupt ();
+                break;
+            }
+            long finished = System.nanoTime ();
+            if (now >= measureFrom) {
+                results.record (operation, status, finished - now);
+            }
+            if (status == 401) {
+                session.accessToken = null;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sends one request of the given operation.
+     *
+     * @param operation the operation
+     * @param session   the tokens of the worker, updated by logins and renewals
+     * @return the HTTP status of the response
+     * @throws IOException          if the request fails
+     * @throws InterruptedException if interrupted while waiting for the response
+     */
+    int execute (Operation operation, Session session) throws IOException, InterruptedException {
+        return switch (operation) {
+            case AUTHENTICATE -> authenticate (session);
+            case RENEW -> session.refreshToken == null ? authenticate (session) : renew (session);
+            case WATERMARK -> watermark (session);
+        };
+    }
+
+    private int authenticate (Session session) throws IOException, InterruptedException {
+        String body = objectMapper.writeValueAsString (Map.of ("username", username, "password", password));
+        HttpResponse<String> response = send (HttpRequest.newBuilder (baseUri.resolve ("/api/authenticate"))
+                .header ("Content-Type", "application/json")
+                .POST (HttpRequest.BodyPublishers.ofString (body)).build ());
+        if (response.statusCode () == 200) {
+            JsonNode result = objectMapper.readTree (response.body ()).path ("result");
+            session.accessToken = result.path ("accessToken").asText (null);
+            session.refreshToken = result.path ("refreshToken").asText (null);
+        }
+        return response.statusCode ();
+    }
+
+    private int renew (Session session) throws IOException, InterruptedException {
+        String body = objectMapper.writeValueAsString (Map.of ("refreshToken", session.refreshToken));
+        HttpResponse<String> response = send (HttpRequest.newBuilder (baseUri.resolve ("/api/renewToken"))
+                .header ("Content-Type", "application/json")
+                .POST (HttpRequest.BodyPublishers.ofString (body)).build ());
+        if (response.statusCode () == 200) {
+            session.accessToken = objectMapper.readTree (response.body ()).path ("result").path ("accessToken").asText (session.accessToken);
+        }
+        return response.statusCode ();
+    }
+
+    private int watermark (Session session) throws IOException, InterruptedException {
+        String boundary = UUID.randomUUID ().toString ();
+        ByteArrayOutputStream body = new ByteArrayOutputStream ();
+        int files = Integer.parseInt (option ("files", "1"));
+        for (int i = 0; i < files; i++) {
+            writePart (body, boundary, "form-data; name=\"file\"; filename=\"drawing-" + i + ".pdf\"", "application/pdf", pdf);
+        }
+        writePart (body, boundary, "form-data; name=\"personID\"", null, option ("person-id", "LOADTEST").getBytes (StandardCharsets.UTF_8));
+        writePart (body, boundary, "form-data; name=\"system\"", null, option ("system", "LOADTEST").getBytes (StandardCharsets.UTF_8));
+        body.write (("--" + boundary + "--\r\n").getBytes (StandardCharsets.US_ASCII));
+        String apiKey = option ("api-key", null);
+        HttpRequest request = HttpRequest.newBuilder (baseUri.resolve ("/api/watermark"))
+                .header (apiKey != null ? "X-API-Key" : "Authorization", apiKey != null ? apiKey : "Bearer " + session.accessToken)
+                .header ("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST (HttpRequest.BodyPublishers.ofByteArray (body.toByteArray ())).build ();
+        return httpClient.send (request, HttpResponse.BodyHandlers.discarding ()).statusCode ();
+    }
+
+    private HttpResponse<String> send (HttpRequest request) throws IOException, InterruptedException {
+        return httpClient.send (request, HttpResponse.BodyHandlers.ofString ());
+    }
+
+    private Operation pick () {
+        int total = mix.values ().stream ().mapToInt (Integer::intValue).sum ();
+        int value = ThreadLocalRandom.current ().nextInt (total);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet ()) {
+            value -= entry.getValue ();
+            if (value < 0) {
+                return entry.getKey ();
+            }
+        }
+        return Operation.WATERMARK;
+    }
+
+    private static void writePart (ByteArrayOutputStream body, String boundary, String disposition, String contentType, byte[] content) throws IOException {
+        StringBuilder header = new StringBuilder ("--").append (boundary).append ("\r\n")
+                .append ("Content-Disposition: ").append (disposition).append ("\r\n");
+        if (contentType != null) {
+            header.append ("Content-Type: ").append (contentType).append ("\r\n");
+        }
+        body.write (header.append ("\r\n").toString ().getBytes (StandardCharsets.UTF_8));
+        body.write (content);
+        body.write ("\r\n".getBytes (StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] generatePdf (int pages, String pageSize) throws IOException {
+        PageSize size = switch (pageSize) {
+            case "A0" -> PageSize.A0;
+            case "A1" -> PageSize.A1;
+            case "A2" -> PageSize.A2;
+            case "A3" -> PageSize.A3;
+            default -> PageSize.A4;
+        };
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream ();
+        try (PdfDocument pdfDocument = new PdfDocument (new PdfWriter (outputStream))) {
+            PdfFont font = PdfFontFactory.createFont (StandardFonts.HELVETICA);
+            for (int i = 1; i <= pages; i++) {
+                PdfCanvas canvas = new PdfCanvas (pdfDocument.addNewPage (size));
+                canvas.beginText ().setFontAndSize (font, 10).setLeading (12).moveText (36, size.getHeight () - 48);
+                canvas.showText ("Load test drawing, page " + i);
+                for (int line = 0; line < (size.getHeight () - 96) / 12; line++) {
+                    canvas.newlineShowText ("Lorem ipsum dolor sit amet, consectetur adipiscing elit " + line);
+                }
+                canvas.endText ().release ();
+            }
+        }
+        return outputStream.toByteArray ();
+    }
+
+    private void print (Results results, long durationNanos) {
+        double seconds = durationNanos / 1e9;
+        StringBuilder report = new StringBuilder (String.format ("%n%-13s %8s %9s %-24s", "operation", "requests", "req/s", "status"));
+        for (double percentile : PERCENTILES) {
+            report.append (String.format (" %9s", "p" + (percentile % 1 == 0 ? String.valueOf ((int) percentile) : String.valueOf (percentile))));
+        }
+        report.append (String.format (" %9s%n", "max"));
+        for (Operation operation : Operation.values ()) {
+            Latencies latencies = results.latencies.get (operation);
+            if (latencies == null || latencies.size == 0) {
+                continue;
+            }
+            long[] sorted = Arrays.copyOf (latencies.values, latencies.size);
+            Arrays.sort (sorted);
+            report.append (String.format ("%-13s %8d %9.1f %-24s", operation.name ().toLowerCase (), sorted.length, sorted.length / seconds,
+                    results.statuses.get (operation)));
+            for (double percentile : PERCENTILES) {
+                int index = (int) Math.min (sorted.length - 1, Math.ceil (percentile / 100 * sorted.length) - 1);
+                report.append (String.format (" %7.1fms", sorted[Math.max (0, index)] / 1e6));
+            }
+            report.append (String.format (" %7.1fms%n", sorted[sorted.length - 1] / 1e6));
+        }
+        System.out.println (report);
+    }
+
+    private String option (String name, String defaultValue) {
+        return options.getOrDefault (name, defaultValue);
+    }
+
+    private static Map<String, String> parseOptions (String... args) {
+        Map<String, String> options = new LinkedHashMap<> ();
+        for (String arg : args) {
+            if (arg.startsWith ("--") && arg.contains ("=")) {
+                options.put (arg.substring (2, arg.indexOf ('=')), arg.substring (arg.indexOf ('=') + 1));
+            }
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> parseMix (String mix) {
+        Map<Operation, Integer> weights = new EnumMap<> (Operation.class);
+        for (String part : mix.split (",")) {
+            String[] weight = part.trim ().split ("=");
+            weights.put (Operation.valueOf (weight[0].trim ().toUpperCase ()), Integer.parseInt (weight[1].trim ()));
+        }
+        return weights;
+    }
+
+    /**
+     * Tokens of a worker.
+     */
+    static final class Session {
+        private String accessToken;
+        private String refreshToken;
+    }
+
+    /**
+     * Latencies and status codes recorded by a worker, merged at the end.
+     */
+    private static final class Results {
+        private final Map<Operation, Latencies> latencies = new EnumMap<> (Operation.class);
+        private final Map<Operation, Map<Integer, Integer>> statuses = new EnumMap<> (Operation.class);
+
+        private void record (Operation operation, int status, long nanos) {
+            latencies.computeIfAbsent (operation, key -> new Latencies ()).add (nanos);
+            statuses.computeIfAbsent (operation, key -> new TreeMap<> ()).merge (status, 1, Integer::sum);
+        }
+
+        private void merge (Results other) {
+            other.latencies.forEach ((operation, values) -> {
+                Latencies merged = latencies.computeIfAbsent (operation, key -> new Latencies ());
+                for (int i = 0; i < values.size; i++) {
+                    merged.add (values.values[i]);
+                }
+            });
+            other.statuses.forEach ((operation, counts) -> counts.forEach ((status, count) ->
+                    statuses.computeIfAbsent (operation, key -> new TreeMap<> ()).merge (status, count, Integer::sum)));
+        }
+    }
+
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add (long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf (values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+    }
+}
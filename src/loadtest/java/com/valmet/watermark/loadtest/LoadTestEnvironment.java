@@ -0,0 +1,96 @@
+package com.valmet.watermark.loadtest;
+
+import com.valmet.watermark.ValmetWatermarkServiceApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Starts the service for load tests without external infrastructure.
+ * <p>
+ * A Vault KV stand-in ({@link VaultStandIn}) and a Redis-compatible server
+ * ({@link RedisStandIn}) are started on free ports, then the application is
+ * started with the {@code loadtest} profile pointing at them. There is no
+ * directory: logins fall back to the service credentials stored in the Vault
+ * stand-in, and watermark requests carry a person ID instead of an email. Driver options
+ * ({@code --concurrency=32} and so on, see {@link LoadDriver}) run the load
+ * driver against the started service and stop everything afterwards; without
+ * options the environment stays up for an external driver.
+ * </p>
+ *
+ * <pre>
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--concurrency=32 --duration=120"
+ * </pre>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+public class LoadTestEnvironment implements AutoCloseable {
+    /**
+     * Service credentials stored in the Vault stand-in, accepted by {@code /api/authenticate}.
+     */
+    public static final String SERVICE_USERNAME = "loadtest-admin";
+    public static final String SERVICE_PASSWORD = "loadtest-admin";
+    private static final String KV_BACKEND = "secret";
+    private static final String KV_APPLICATION_NAME = "rsa-key-password-loadtest";
+    private final VaultStandIn vault;
+    private final RedisStandIn redis;
+    private final ConfigurableApplicationContext context;
+
+    private LoadTestEnvironment () throws Exception {
+        vault = new VaultStandIn (KV_BACKEND, KV_APPLICATION_NAME, SERVICE_USERNAME, SERVICE_PASSWORD);
+        redis = new RedisStandIn ();
+        System.setProperty ("loadtest.vault.port", String.valueOf (vault.getPort ()));
+        System.setProperty ("loadtest.vault.token", VaultStandIn.TOKEN);
+        System.setProperty ("loadtest.vault.backend", KV_BACKEND);
+        System.setProperty ("loadtest.vault.application-name", KV_APPLICATION_NAME);
+        System.setProperty ("loadtest.redis.port", String.valueOf (redis.getPort ()));
+        context = SpringApplication.run (ValmetWatermarkServiceApplication.class, "--spring.profiles.active=loadtest");
+        log.warn ("Watermark service started for load tests on port {}", getPort ());
+    }
+
+    /**
+     * Starts the stand-ins and the service.
+     *
+     * @return the started environment
+     * @throws Exception if a stand-in or the service cannot be started
+     */
+    public static LoadTestEnvironment start () throws Exception {
+        return new LoadTestEnvironment ();
+    }
+
+    public static void main (String[] args) throws Exception {
+        LoadTestEnvironment environment = start ();
+        if (args.length == 0) {
+            return;
+        }
+        String[] driverArgs = Arrays.copyOf (args, args.length + 1);
+        driverArgs[args.length] = "--base-url=" + environment.getBaseUrl ();
+        try (environment) {
+            new LoadDriver (driverArgs).run ();
+        }
+    }
+
+    public ConfigurableApplicationContext getContext () {
+        return context;
+    }
+
+    public String getPort () {
+        return context.getEnvironment ().getProperty ("local.server.port");
+    }
+
+    public String getBaseUrl () {
+        return "http://localhost:" + getPort ();
+    }
+
+    @Override
+    public void close () throws IOException {
+        context.close ();
+        redis.close ();
+        vault.close ();
+    }
+}
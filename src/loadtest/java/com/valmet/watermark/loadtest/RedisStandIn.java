@@ -0,0 +1,312 @@
+package com.valmet.watermark.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded Redis-compatible server for the cache of the application.
+ * <p>
+ * Speaks RESP2 and implements the commands used by Lettuce and the Spring Data
+ * Redis cache: {@code PING}, {@code ECHO}, {@code SELECT}, {@code CLIENT},
+ * {@code INFO}, {@code GET}, {@code SET} (with {@code EX}, {@code PX},
+ * {@code NX} and {@code XX}), {@code DEL}, {@code EXISTS}, {@code EXPIRE},
+ * {@code PEXPIRE}, {@code TTL}, {@code PTTL}, {@code KEYS}, {@code SCAN},
+ * {@code DBSIZE}, {@code FLUSHDB}, {@code FLUSHALL} and {@code QUIT}. Unknown
+ * commands, including {@code HELLO}, are answered with an error, which makes
+ * Lettuce fall back to RESP2. Keys and values are kept as raw bytes in one
+ * database.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+public class RedisStandIn implements AutoCloseable {
+    private final Map<String, Entry> store = new ConcurrentHashMap<> ();
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool (runnable -> {
+        Thread thread = new Thread (runnable, "RedisStandIn");
+        thread.setDaemon (true);
+        return thread;
+    });
+
+    /**
+     * Starts the server on a free port.
+     *
+     * @throws IOException if the server socket cannot be opened
+     */
+    public RedisStandIn () throws IOException {
+        serverSocket = new ServerSocket (0, 128, InetAddress.getLoopbackAddress ());
+        connections.execute (this::accept);
+        log.warn ("Redis stand-in listening on port {}", getPort ());
+    }
+
+    public int getPort () {
+        return serverSocket.getLocalPort ();
+    }
+
+    private void accept () {
+        while (!serverSocket.isClosed ()) {
+            try {
+                Socket socket = serverSocket.accept ();
+                socket.setTcpNoDelay (true);
+                connections.execute (() -> serve (socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed ()) {
+                    log.error ("Redis stand-in failed to accept a connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve (Socket socket) {
+        try (socket; InputStream inputStream = new BufferedInputStream (socket.getInputStream ());
+             OutputStream outputStream = new BufferedOutputStream (socket.getOutputStream ())) {
+            while (true) {
+                List<byte[]> command = readCommand (inputStream);
+                if (command == null) {
+                    return;
+                }
+                boolean quit = execute (command, outputStream);
+                if (inputStream.available () == 0) {
+                    outputStream.flush ();
+                }
+                if (quit) {
+                    outputStream.flush ();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.debug ("Redis stand-in connection closed: {}", e.getMessage ());
+        }
+    }
+
+    private boolean execute (List<byte[]> command, OutputStream out) throws IOException {
+        String name = text (command.get (0)).toUpperCase (Locale.ROOT);
+        switch (name) {
+            case "PING" -> {
+                if (command.size () > 1) {
+                    writeBulk (out, command.get (1));
+                } else {
+                    writeSimple (out, "PONG");
+                }
+            }
+            case "ECHO" -> writeBulk (out, command.get (1));
+            case "SELECT", "CLIENT", "READONLY", "READWRITE" -> writeSimple (out, "OK");
+            case "INFO" -> writeBulk (out, "# Server\r\nredis_version:7.0.0\r\nredis_mode:standalone\r\n".getBytes (StandardCharsets.US_ASCII));
+            case "GET" -> {
+                Entry entry = live (key (command.get (1)));
+                writeBulk (out, entry == null ? null : entry.value);
+            }
+            case "SET" -> set (command, out);
+            case "DEL", "UNLINK" -> {
+                long removed = 0;
+                for (int i = 1; i < command.size (); i++) {
+                    removed += store.remove (key (command.get (i))) != null ? 1 : 0;
+                }
+                writeInteger (out, removed);
+            }
+            case "EXISTS" -> {
+                long found = 0;
+                for (int i = 1; i < command.size (); i++) {
+                    found += live (key (command.get (i))) != null ? 1 : 0;
+                }
+                writeInteger (out, found);
+            }
+            case "EXPIRE", "PEXPIRE" -> {
+                long millis = Long.parseLong (text (command.get (2))) * (name.equals ("EXPIRE") ? 1000 : 1);
+                Entry entry = live (key (command.get (1)));
+                if (entry != null) {
+                    store.put (key (command.get (1)), new Entry (entry.value, System.currentTimeMillis () + millis));
+                }
+                writeInteger (out, entry == null ? 0 : 1);
+            }
+            case "TTL", "PTTL" -> {
+                Entry entry = live (key (command.get (1)));
+                long ttl = entry == null ? -2 : entry.expiresAt == 0 ? -1 : entry.expiresAt - System.currentTimeMillis ();
+                writeInteger (out, ttl > 0 && name.equals ("TTL") ? ttl / 1000 : ttl);
+            }
+            case "KEYS" -> writeKeys (out, text (command.get (1)));
+            case "SCAN" -> {
+                String match = "*";
+                for (int i = 2; i + 1 < command.size (); i += 2) {
+                    if (text (command.get (i)).equalsIgnoreCase ("MATCH")) {
+                        match = text (command.get (i + 1));
+                    }
+                }
+                // Everything is returned in the first batch, so the cursor is always 0
+                out.write ("*2\r\n".getBytes (StandardCharsets.US_ASCII));
+                writeBulk (out, "0".getBytes (StandardCharsets.US_ASCII));
+                writeKeys (out, match);
+            }
+            case "DBSIZE" -> writeInteger (out, store.size ());
+            case "FLUSHDB", "FLUSHALL" -> {
+                store.clear ();
+                writeSimple (out, "OK");
+            }
+            case "QUIT" -> {
+                writeSimple (out, "OK");
+                return true;
+            }
+            default -> writeError (out, "ERR unknown command '" + name + "'");
+        }
+        return false;
+    }
+
+    private void set (List<byte[]> command, OutputStream out) throws IOException {
+        String key = key (command.get (1));
+        long expiresAt = 0;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < command.size (); i++) {
+            String option = text (command.get (i)).toUpperCase (Locale.ROOT);
+            switch (option) {
+                case "EX" -> expiresAt = System.currentTimeMillis () + Long.parseLong (text (command.get (++i))) * 1000;
+                case "PX" -> expiresAt = System.currentTimeMillis () + Long.parseLong (text (command.get (++i)));
+                case "NX" -> nx = true;
+                case "XX" -> xx = true;
+                default -> {
+                }
+            }
+        }
+        boolean exists = live (key) != null;
+        if ((nx && exists) || (xx && !exists)) {
+            writeBulk (out, null);
+            return;
+        }
+        store.put (key, new Entry (command.get (2), expiresAt));
+        writeSimple (out, "OK");
+    }
+
+    private void writeKeys (OutputStream out, String glob) throws IOException {
+        Pattern pattern = Pattern.compile (globToRegex (glob), Pattern.DOTALL);
+        List<String> keys = new ArrayList<> ();
+        for (String key : store.keySet ()) {
+            if (live (key) != null && pattern.matcher (key).matches ()) {
+                keys.add (key);
+            }
+        }
+        out.write (("*" + keys.size () + "\r\n").getBytes (StandardCharsets.US_ASCII));
+        for (String key : keys) {
+            writeBulk (out, key.getBytes (StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private Entry live (String key) {
+        Entry entry = store.get (key);
+        if (entry != null && entry.expiresAt != 0 && entry.expiresAt <= System.currentTimeMillis ()) {
+            store.remove (key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private static List<byte[]> readCommand (InputStream in) throws IOException {
+        int type = in.read ();
+        if (type == -1) {
+            return null;
+        }
+        if (type != '*') {
+            // Inline command, e.g. from redis-cli or telnet
+            String line = (char) type + readLine (in);
+            List<byte[]> command = new ArrayList<> ();
+            for (String part : line.trim ().split ("\\s+")) {
+                command.add (part.getBytes (StandardCharsets.ISO_8859_1));
+            }
+            return command;
+        }
+        int count = Integer.parseInt (readLine (in));
+        List<byte[]> command = new ArrayList<> (count);
+        for (int i = 0; i < count; i++) {
+            if (in.read () != '$') {
+                throw new IOException ("Expected a bulk string");
+            }
+            int length = Integer.parseInt (readLine (in));
+            command.add (in.readNBytes (length));
+            in.skipNBytes (2);
+        }
+        return command;
+    }
+
+    private static String readLine (InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder ();
+        int b;
+        while ((b = in.read ()) != '\r') {
+            if (b == -1) {
+                throw new EOFException ();
+            }
+            line.append ((char) b);
+        }
+        in.read ();
+        return line.toString ();
+    }
+
+    private static String globToRegex (String glob) {
+        StringBuilder regex = new StringBuilder ();
+        for (char c : glob.toCharArray ()) {
+            switch (c) {
+                case '*' -> regex.append (".*");
+                case '?' -> regex.append ('.');
+                default -> regex.append (Pattern.quote (String.valueOf (c)));
+            }
+        }
+        return regex.toString ();
+    }
+
+    private static String key (byte[] bytes) {
+        return new String (bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String text (byte[] bytes) {
+        return new String (bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeSimple (OutputStream out, String value) throws IOException {
+        out.write (("+" + value + "\r\n").getBytes (StandardCharsets.US_ASCII));
+    }
+
+    private static void writeError (OutputStream out, String message) throws IOException {
+        out.write (("-" + message + "\r\n").getBytes (StandardCharsets.UTF_8));
+    }
+
+    private static void writeInteger (OutputStream out, long value) throws IOException {
+        out.write ((":" + value + "\r\n").getBytes (StandardCharsets.US_ASCII));
+    }
+
+    private static void writeBulk (OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write ("$-1\r\n".getBytes (StandardCharsets.US_ASCII));
+            return;
+        }
+        out.write (("$" + value.length + "\r\n").getBytes (StandardCharsets.US_ASCII));
+        out.write (value);
+        out.write ("\r\n".getBytes (StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void close () throws IOException {
+        serverSocket.close ();
+        connections.shutdownNow ();
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+    }
+}
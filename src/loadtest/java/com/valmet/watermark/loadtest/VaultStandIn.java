@@ -0,0 +1,170 @@
+package com.valmet.watermark.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.valmet.watermark.constants.Constants;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.GeneralSecurityException;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Stand-in for the Vault KV v2 secret holding the service's RSA key pair and
+ * fallback credentials.
+ * <p>
+ * Serves {@code GET /v1/<backend>/data/<application-name>} with an optional
+ * {@code version} query parameter, the way {@code VaultService} reads it, and
+ * {@code GET /v1/auth/token/lookup-self} for the token session. Any other path
+ * answers 404 like a missing secret. Every call to {@link #rotate()} adds a new
+ * key version, so key rotation can be exercised under load.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+public class VaultStandIn implements AutoCloseable {
+    /**
+     * The token the application authenticates with.
+     */
+    public static final String TOKEN = "loadtest";
+    private final ObjectMapper objectMapper = new ObjectMapper ();
+    private final String secretPath;
+    private final String username;
+    private final String password;
+    private final List<KeyPair> versions = new ArrayList<> ();
+    private final List<KeyPair> ecVersions = new ArrayList<> ();
+    private final HttpServer server;
+
+    /**
+     * Starts the stand-in on a free port with a first key version.
+     *
+     * @param backend         the KV backend, {@code spring.cloud.vault.kv.backend}
+     * @param applicationName the secret name, {@code spring.cloud.vault.kv.application-name}
+     * @param username        the fallback user of {@code /api/authenticate}
+     * @param password        the fallback password of {@code /api/authenticate}
+     * @throws IOException if the server cannot be started
+     */
+    public VaultStandIn (String backend, String applicationName, String username, String password) throws IOException {
+        this.secretPath = "/v1/" + backend + "/" + Constants.DATA + "/" + applicationName;
+        this.username = username;
+        this.password = password;
+        rotate ();
+        server = HttpServer.create (new InetSocketAddress ("127.0.0.1", 0), 0);
+        server.setExecutor (Executors.newCachedThreadPool ());
+        server.createContext ("/", this::handle);
+        server.start ();
+        log.warn ("Vault stand-in listening on port {}, serving {}", getPort (), secretPath);
+    }
+
+    public int getPort () {
+        return server.getAddress ().getPort ();
+    }
+
+    /**
+     * Adds a new RSA and EC key pair as the latest version of the secret.
+     *
+     * @return the new version
+     */
+    public synchronized int rotate () {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance ("RSA");
+            keyPairGenerator.initialize (2048);
+            KeyPairGenerator ecKeyPairGenerator = KeyPairGenerator.getInstance ("EC");
+            ecKeyPairGenerator.initialize (new ECGenParameterSpec ("secp256r1"));
+            versions.add (keyPairGenerator.generateKeyPair ());
+            ecVersions.add (ecKeyPairGenerator.generateKeyPair ());
+            return versions.size ();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException (e);
+        }
+    }
+
+    private void handle (HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI ().getPath ();
+            String query = exchange.getRequestURI ().getQuery ();
+            if (path.startsWith (secretPath + "?")) {
+                // The version query of VaultService may arrive encoded as part of the path
+                query = path.substring (secretPath.length () + 1);
+                path = secretPath;
+            }
+            if (path.equals (secretPath)) {
+                Integer version = versionOf (query);
+                Map<String, Object> secret = secret (version);
+                respond (exchange, secret == null ? 404 : 200, secret == null ? Map.of ("errors", List.of ()) : Map.of ("data", secret));
+            } else if (path.equals ("/v1/auth/token/lookup-self")) {
+                respond (exchange, 200, Map.of ("data", Map.of ("id", TOKEN, "ttl", 0, "renewable", false, "policies", List.of ("root"))));
+            } else {
+                respond (exchange, 404, Map.of ("errors", List.of ()));
+            }
+        } finally {
+            exchange.close ();
+        }
+    }
+
+    private synchronized Map<String, Object> secret (Integer version) {
+        int resolved = version == null || version == 0 ? versions.size () : version;
+        if (resolved < 1 || resolved > versions.size ()) {
+            return null;
+        }
+        KeyPair keyPair = versions.get (resolved - 1);
+        KeyPair ecKeyPair = ecVersions.get (resolved - 1);
+        Map<String, String> data = new LinkedHashMap<> ();
+        data.put (Constants.PRIVATE_KEY, Base64.getEncoder ().encodeToString (keyPair.getPrivate ().getEncoded ()));
+        data.put (Constants.PUBLIC_KEY, Base64.getEncoder ().encodeToString (keyPair.getPublic ().getEncoded ()));
+        data.put (Constants.EC_PRIVATE_KEY, Base64.getEncoder ().encodeToString (ecKeyPair.getPrivate ().getEncoded ()));
+        data.put (Constants.EC_PUBLIC_KEY, Base64.getEncoder ().encodeToString (ecKeyPair.getPublic ().getEncoded ()));
+        data.put (Constants.WATERMARK_USERNAME, username);
+        data.put (Constants.WATERMARK_PASSWORD, password);
+        Map<String, Object> metadata = new LinkedHashMap<> ();
+        metadata.put ("created_time", Instant.now ().toString ());
+        metadata.put ("deletion_time", "");
+        metadata.put ("destroyed", false);
+        metadata.put ("version", resolved);
+        Map<String, Object> secret = new LinkedHashMap<> ();
+        secret.put ("data", data);
+        secret.put ("metadata", metadata);
+        return secret;
+    }
+
+    private static Integer versionOf (String query) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split ("&")) {
+            if (parameter.startsWith ("version=")) {
+                return Integer.valueOf (parameter.substring ("version=".length ()));
+            }
+        }
+        return null;
+    }
+
+    private void respond (HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString (body).getBytes (StandardCharsets.UTF_8);
+        exchange.getResponseHeaders ().set ("Content-Type", "application/json");
+        exchange.sendResponseHeaders (status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody ()) {
+            outputStream.write (bytes);
+        }
+    }
+
+    @Override
+    public void close () {
+        server.stop (0);
+    }
+}
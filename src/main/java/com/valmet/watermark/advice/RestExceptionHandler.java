@@ -3,6 +3,7 @@ package com.valmet.watermark.advice;
 import com.valmet.watermark.constants.ErrorCode;
 import com.valmet.watermark.constants.Messages;
 import com.valmet.watermark.exception.InvalidJwtToken;
+import com.valmet.watermark.exception.ServiceOverloadedException;
 import com.valmet.watermark.exception.WatermarkApplicationException;
 import com.valmet.watermark.logging.ErrorMessageInfo;
 import com.valmet.watermark.logging.LogMessageConfig;
@@ -13,6 +14,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -182,6 +184,24 @@ public class RestExceptionHandler {
         return buildResponseEntity (message, ex.getErrorCode (), ex.getStatus (), ex);
     }
 
+    /**
+     * Handles {@link ServiceOverloadedException} and returns a SERVICE_UNAVAILABLE
+     * response with a Retry-After header.
+     *
+     * @param ex the exception to handle.
+     * @return a {@link ResponseEntity} with the error details.
+     */
+    @ExceptionHandler ({ServiceOverloadedException.class})
+    public ResponseEntity<Object> handleOverload (ServiceOverloadedException ex) {
+        ErrorMessageInfo errorMessageInfo = logMessageConfig.getErrorMessageInfo (ex.getErrorCode ());
+        log.warn ("Request rejected by admission control, retry after {}s", ex.getRetryAfterSeconds ());
+        return ResponseEntity.status (ex.getStatus ())
+                .header (HttpHeaders.RETRY_AFTER, String.valueOf (ex.getRetryAfterSeconds ()))
+                .body (BaseResponse.builder ().responseType (ERROR)
+                        .message (Collections.singleton (errorMessageInfo.getMessageTemplate ()))
+                        .code (ex.getErrorCode ()).build ());
+    }
+
     /**
      * Handles validation exceptions for method arguments.
      * <p>
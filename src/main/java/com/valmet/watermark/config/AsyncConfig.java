@@ -1,17 +1,38 @@
 package com.valmet.watermark.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 /**
- * Configuration class for setting up asynchronous execution with a custom thread pool.
+ * Configuration class for setting up asynchronous execution.
+ * <p>
+ * CPU-bound work (PDF stamping and Java2D rendering) runs on pools sized to the
+ * number of cores: the {@code taskExecutor} and the watermark scheduling lanes.
+ * Blocking calls such as LDAP lookups and file copies run on the
+ * {@code blockingTaskExecutor}, which uses virtual threads on Java 21 or newer
+ * when {@code watermark.executor.blocking.virtual-threads} is set, and a bounded platform
+ * thread pool otherwise.
+ * </p>
+ * <p>
+ * All executors are instrumented through {@link ExecutorMetrics}.
+ * </p>
  *
  * @author BJIT
  * @version 1.0
@@ -21,17 +42,29 @@ import java.util.concurrent.TimeUnit;
 @EnableAsync
 public class AsyncConfig implements AsyncConfigurer {
     private static final int N_CORE = Runtime.getRuntime ().availableProcessors ();
-    private static final int TPTE_CORE_POOL_SIZE = 2 * N_CORE; // initial thread size in pool
-    private static final int TPTE_MAX_POOL_SIZE = 128 * TPTE_CORE_POOL_SIZE;
-    private static final int TPTE_QUEUE_CAPACITY = 2 * TPTE_MAX_POOL_SIZE;
+    private static final int TPTE_CORE_POOL_SIZE = N_CORE; // CPU-bound work gains nothing from more threads than cores
+    private static final int TPTE_MAX_POOL_SIZE = N_CORE;
+    private static final int TPTE_QUEUE_CAPACITY = 64 * N_CORE;
     private static final int TPTE_KEEP_ALIVE_SECONDS = (int) TimeUnit.MINUTES.toSeconds (1);
+    private static final int VIRTUAL_THREADS_MIN_FEATURE_VERSION = 21;
+    private final MeterRegistry meterRegistry;
 
     /**
-     * Creates and configures a ThreadPoolTaskExecutor for asynchronous method execution.
+     * Constructor to inject dependencies.
+     *
+     * @param meterRegistry the registry used to publish saturation metrics
+     */
+    public AsyncConfig (MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Creates and configures a ThreadPoolTaskExecutor for CPU-bound asynchronous method execution.
      *
      * @return the configured Executor instance
      */
     @Bean (name = "taskExecutor")
+    @Override
     public Executor getAsyncExecutor () {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor ();
         log.info ("Creating async executor with core pool size: {}, max pool size: {}, queue capacity: {}, keep alive seconds: {}",
@@ -41,7 +74,87 @@ public class AsyncConfig implements AsyncConfigurer {
         executor.setQueueCapacity (TPTE_QUEUE_CAPACITY);
         executor.setKeepAliveSeconds (TPTE_KEEP_ALIVE_SECONDS);
         executor.setThreadNamePrefix ("AsyncExecutor-");
+        executor.setTaskDecorator (ExecutorMetrics.timingDecorator (meterRegistry, "taskExecutor"));
+        executor.setRejectedExecutionHandler (ExecutorMetrics.countingRejections (meterRegistry, "taskExecutor", new ThreadPoolExecutor.AbortPolicy ()));
         executor.initialize ();
+        ExecutorMetrics.bindPoolGauges (meterRegistry, executor.getThreadPoolExecutor (), "taskExecutor");
+        registerSaturationGauge ("taskExecutor", executor::getActiveCount, TPTE_MAX_POOL_SIZE);
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the executor for blocking calls such as LDAP lookups and file copies.
+     *
+     * @param virtualThreadsEnabled whether virtual threads should be used when the runtime supports them
+     * @param maxConcurrency        the maximum number of blocking tasks that run at the same time
+     * @param queueCapacity         the queue capacity of the platform thread fallback
+     * @return the configured executor
+     */
+    @Bean (name = "blockingTaskExecutor")
+    public AsyncTaskExecutor blockingTaskExecutor (@Value ("${watermark.executor.blocking.virtual-threads:false}") boolean virtualThreadsEnabled,
+                                                   @Value ("${watermark.executor.blocking.max-concurrency:256}") int maxConcurrency,
+                                                   @Value ("${watermark.executor.blocking.queue-capacity:1000}") int queueCapacity) {
+        AtomicInteger inFlight = new AtomicInteger ();
+        if (virtualThreadsEnabled && Runtime.version ().feature () >= VIRTUAL_THREADS_MIN_FEATURE_VERSION) {
+            log.info ("Creating blocking executor on virtual threads with concurrency limit: {}", maxConcurrency);
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor ("BlockingExecutor-");
+            executor.setVirtualThreads (true);
+            executor.setConcurrencyLimit (maxConcurrency);
+            TaskDecorator timing = ExecutorMetrics.timingDecorator (meterRegistry, "blockingTaskExecutor");
+            executor.setTaskDecorator (task -> timing.decorate (countInFlight (inFlight, task)));
+            ExecutorMetrics.bindActiveGauge (meterRegistry, inFlight::get, "blockingTaskExecutor");
+            registerSaturationGauge ("blockingTaskExecutor", inFlight::get, maxConcurrency);
+            return executor;
+        }
+        log.info ("Creating blocking executor on platform threads with max pool size: {}, queue capacity: {}", maxConcurrency, queueCapacity);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor ();
+        executor.setCorePoolSize (maxConcurrency);
+        executor.setMaxPoolSize (maxConcurrency);
+        executor.setAllowCoreThreadTimeOut (true);
+        executor.setQueueCapacity (queueCapacity);
+        executor.setKeepAliveSeconds (TPTE_KEEP_ALIVE_SECONDS);
+        executor.setThreadNamePrefix ("BlockingExecutor-");
+        executor.setTaskDecorator (ExecutorMetrics.timingDecorator (meterRegistry, "blockingTaskExecutor"));
+        executor.setRejectedExecutionHandler (ExecutorMetrics.countingRejections (meterRegistry, "blockingTaskExecutor", new ThreadPoolExecutor.AbortPolicy ()));
+        executor.initialize ();
+        ExecutorMetrics.bindPoolGauges (meterRegistry, executor.getThreadPoolExecutor (), "blockingTaskExecutor");
+        registerSaturationGauge ("blockingTaskExecutor", executor::getActiveCount, maxConcurrency);
+        return executor;
+    }
+
+    /**
+     * Creates the scheduler used for delayed work such as retry back-off.
+     *
+     * @param poolSize the number of scheduler threads
+     * @return the configured scheduler
+     */
+    @Bean (name = "taskScheduler")
+    public ThreadPoolTaskScheduler taskScheduler (@Value ("${watermark.executor.scheduler.pool-size:2}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler ();
+        scheduler.setPoolSize (poolSize);
+        scheduler.setThreadNamePrefix ("TaskScheduler-");
+        scheduler.setTaskDecorator (ExecutorMetrics.executionTimingDecorator (meterRegistry, "taskScheduler"));
+        scheduler.setRejectedExecutionHandler (ExecutorMetrics.countingRejections (meterRegistry, "taskScheduler", new ThreadPoolExecutor.AbortPolicy ()));
+        scheduler.initialize ();
+        ExecutorMetrics.bindPoolGauges (meterRegistry, scheduler.getScheduledThreadPoolExecutor (), "taskScheduler");
+        return scheduler;
+    }
+
+    private static Runnable countInFlight (AtomicInteger inFlight, Runnable task) {
+        return () -> {
+            inFlight.incrementAndGet ();
+            try {
+                task.run ();
+            } finally {
+                inFlight.decrementAndGet ();
+            }
+        };
+    }
+
+    private void registerSaturationGauge (String name, IntSupplier active, int capacity) {
+        Gauge.builder ("watermark.executor.saturation", () -> (double) active.getAsInt () / capacity)
+                .description ("Busy workers as a fraction of the executor's capacity")
+                .tag ("name", name)
+                .register (meterRegistry);
+    }
+}
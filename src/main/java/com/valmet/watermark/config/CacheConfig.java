@@ -6,6 +6,7 @@ import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachingConfigurer;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.interceptor.CacheErrorHandler;
+import org.springframework.cache.support.NullValue;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
@@ -32,16 +33,24 @@ public class CacheConfig implements CachingConfigurer {
     private long ttl;
 
     /**
-     * Configures the {@link CacheManager} bean to use Redis with a specified TTL
-     * and disables caching of null values.
+     * Time-to-live of cached null values, which record lookups that found
+     * nothing.
+     */
+    @Value("${watermark.identity-cache.negative-ttl:5m}")
+    private Duration negativeTtl;
+
+    /**
+     * Configures the {@link CacheManager} bean to use Redis with a specified TTL.
+     * Null values are cached with the shorter negative TTL.
      *
      * @param redisConnectionFactory the Redis connection factory
      * @return a configured {@link CacheManager} instance
      */
     @Bean
     public CacheManager cacheManager(RedisConnectionFactory redisConnectionFactory) {
-	RedisCacheConfiguration config = RedisCacheConfiguration.defaultCacheConfig().entryTtl(Duration.ofMillis(ttl))
-		.disableCachingNullValues();
+	Duration positiveTtl = Duration.ofMillis(ttl);
+	RedisCacheConfiguration config = RedisCacheConfiguration.defaultCacheConfig()
+		.entryTtl((key, value) -> value == null || value instanceof NullValue ? negativeTtl : positiveTtl);
 	return RedisCacheManager.builder(redisConnectionFactory).cacheDefaults(config).build();
     }
 
@@ -1,29 +1,38 @@
 package com.valmet.watermark.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.valmet.watermark.config.security.WatermarkSecretsManager;
 import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.dto.ApiKey;
 import com.valmet.watermark.enums.TokenType;
 import com.valmet.watermark.exception.InvalidJwtToken;
+import com.valmet.watermark.service.ApiKeyStore;
+import com.valmet.watermark.service.RequestAllocation;
+import com.valmet.watermark.service.WatermarkMetrics;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
 
 import java.io.IOException;
-import java.security.interfaces.RSAPublicKey;
-import java.util.Map;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Custom JWT authentication filter for validating incoming requests.
@@ -34,6 +43,14 @@ import java.util.concurrent.ConcurrentHashMap;
  * . If the token is invalid or expired, an appropriate
  * error response is returned.
  * </p>
+ * <p>
+ * Requests without a JWT can authenticate with an API key in the
+ * {@code X-API-Key} header, checked against the {@link ApiKeyStore}. A valid
+ * key authenticates the request as its client system with the
+ * {@code watermark:add} scope. The authentication is saved in the request, as
+ * the resource server does for JWTs, so it also holds for the asynchronous
+ * dispatch completing a watermark request, which this filter skips.
+ * </p>
  *
  * <p>
  * <b>Key Features:</b>
@@ -79,20 +96,19 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 public class CustomJwtAuthenticationFilter extends OncePerRequestFilter {
     private static final Logger logger = LoggerFactory.getLogger ("REQUEST_RESPONSE_LOGGER");
-    @Getter
-    private static Map<Integer, RSAPublicKey> mapRsaPublicKey = new ConcurrentHashMap<> ();
-    @Getter
-    private static Map<String, Integer> mapVersion = new ConcurrentHashMap<> ();
     /**
-     * The {@link JwtDecoder} used for decoding and validating JWT tokens.
+     * The {@link JwtDecoder} used for decoding and validating JWT tokens; it
+     * keeps the verified token in the request for the resource server.
      */
-
     @Autowired
     private JwtDecoder jwtDecoder;
     @Autowired
-    private ObjectMapper objectMapper;
-    @Autowired
     private WatermarkSecretsManager watermarkSecretsManager;
+    @Autowired
+    private WatermarkMetrics watermarkMetrics;
+    @Autowired
+    private ApiKeyStore apiKeyStore;
+    private final SecurityContextRepository securityContextRepository = new RequestAttributeSecurityContextRepository ();
 
     /**
      * Processes each incoming request, validating the JWT token if present.
@@ -119,6 +135,7 @@ public class CustomJwtAuthenticationFilter extends OncePerRequestFilter {
         log.info ("Incoming request: {} {}", request.getMethod (), request.getRequestURI ());
         logger.info ("Incoming request: {} {}", request.getMethod (), request.getRequestURI ());
         long startTime = System.currentTimeMillis ();
+        long startAllocatedBytes = watermarkMetrics.currentThreadAllocatedBytes ();
         // Extract and validate the JWT token
         String token = watermarkSecretsManager.extractTokenFromRequest (request);
         if (token != null && !token.isEmpty ()) {
@@ -126,7 +143,17 @@ public class CustomJwtAuthenticationFilter extends OncePerRequestFilter {
                 String requestId = UUID.randomUUID ().toString ();
                 request.setAttribute (Constants.REQUEST_ID, requestId);
                 log.info ("Request ID: {} -", requestId);
-                validateToken (token, requestId);
+                validateToken (token);
+            } catch (Exception e) {
+                handleException (response, e);
+                return;
+            }
+        } else if (request.getHeader (Constants.API_KEY_HEADER_NAME) != null) {
+            try {
+                String requestId = UUID.randomUUID ().toString ();
+                request.setAttribute (Constants.REQUEST_ID, requestId);
+                log.info ("Request ID: {} -", requestId);
+                validateApiKey (request, response, request.getHeader (Constants.API_KEY_HEADER_NAME));
             } catch (Exception e) {
                 handleException (response, e);
                 return;
@@ -134,35 +161,41 @@ public class CustomJwtAuthenticationFilter extends OncePerRequestFilter {
         }
         // Pass the request down the filter chain
         filterChain.doFilter (request, response);
+        recordRequestAllocation (request, startAllocatedBytes);
 
         // Log outgoing response
         log.info ("Outgoing response: {} {} - {} (took {} ms)", response.getStatus (), request.getMethod (), request.getRequestURI (), System.currentTimeMillis () - startTime);
         logger.info ("Outgoing response: {} {} - {} (took {} ms)", response.getStatus (), request.getMethod (), request.getRequestURI (), System.currentTimeMillis () - startTime);
     }
 
+    /**
+     * Records the bytes allocated for a request: by the request thread and, for a
+     * request processed asynchronously, by the pipeline stages and the writing of
+     * the response, once the asynchronous processing has ended.
+     */
+    private void recordRequestAllocation (HttpServletRequest request, long startAllocatedBytes) {
+        RequestAllocation allocation = RequestAllocation.of (request);
+        watermarkMetrics.addAllocation (allocation, startAllocatedBytes);
+        String uri = (String) request.getAttribute (HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (request.isAsyncStarted ()) {
+            request.getAsyncContext ().addListener (new AllocationListener (watermarkMetrics, uri, allocation, new AtomicBoolean ()));
+        } else {
+            watermarkMetrics.recordRequestAllocation (uri, allocation);
+        }
+    }
+
     /**
      * Validates the JWT token.
      * <p>
-     * This method fetches the RSA public key version from the token, retrieves the
-     * corresponding public key, and decodes the token using the {@link JwtDecoder}.
-     * It also checks if the token type is ACCESS.
+     * This method verifies the token with the {@link JwtDecoder}, which selects
+     * the public key by the RSA key version of the token, and checks that the
+     * token type is ACCESS.
      * </p>
      *
-     * @param token     the JWT token to validate
-     * @param requestId the unique request ID for logging purposes
+     * @param token the JWT token to validate
      * @throws Exception if the token is invalid or missing
      */
-    private void validateToken (String token, String requestId) throws Exception {
-        Integer intVersion = watermarkSecretsManager.getVaultKeyVersionFromToken (token);
-        log.info ("RSA key version in Custom JWT Authentication Filter: {}", intVersion);
-        if (intVersion != null) {
-            RSAPublicKey publicKey = watermarkSecretsManager.fetchPublicKey (intVersion);
-            if (publicKey != null) {
-                mapRsaPublicKey.put (intVersion, publicKey);
-                mapVersion.put (requestId, intVersion);
-            }
-        }
-
+    private void validateToken (String token) throws Exception {
         Jwt decodedJwt = jwtDecoder.decode (token);
         log.info ("Decoded JWT: {}", decodedJwt);
 
@@ -172,6 +205,28 @@ public class CustomJwtAuthenticationFilter extends OncePerRequestFilter {
         }
     }
 
+    /**
+     * Validates an API key and authenticates the request as its client system.
+     *
+     * @param request  the {@link HttpServletRequest} the authentication is saved in
+     * @param response the {@link HttpServletResponse} object
+     * @param apiKey   the API key of the request
+     * @throws InvalidJwtToken if the key is unknown, revoked or expired
+     */
+    private void validateApiKey (HttpServletRequest request, HttpServletResponse response, String apiKey) throws InvalidJwtToken {
+        ApiKey key = apiKeyStore.authenticate (apiKey);
+        if (key == null) {
+            log.error ("Invalid or expired API key.");
+            throw new InvalidJwtToken ("Invalid or missing API key.");
+        }
+        log.info ("API key {} of {}", key.getId (), key.getName ());
+        SecurityContext context = SecurityContextHolder.createEmptyContext ();
+        context.setAuthentication (UsernamePasswordAuthenticationToken.authenticated (key.getName (), null,
+                List.of (new SimpleGrantedAuthority ("SCOPE_" + Constants.WATERMARK_ADD))));
+        SecurityContextHolder.setContext (context);
+        securityContextRepository.saveContext (context, request, response);
+    }
+
     /**
      * Handles exceptions during token validation.
      * <p>
@@ -191,4 +246,37 @@ public class CustomJwtAuthenticationFilter extends OncePerRequestFilter {
         String errorMessage = e.getMessage ().contains ("Jwt expired") ? "Token has expired" : "Invalid or missing token.";
         response.getWriter ().write ("{\"error\": \"" + errorMessage + "\", \"code\":\"500\"}");
     }
-}
\ No newline at end of file
+
+    /**
+     * Records the allocation of a request when its asynchronous processing ends.
+     */
+    private record AllocationListener(WatermarkMetrics metrics, String uri, RequestAllocation allocation,
+                                      AtomicBoolean recorded) implements AsyncListener {
+        @Override
+        public void onComplete (AsyncEvent event) {
+            record ();
+        }
+
+        @Override
+        public void onTimeout (AsyncEvent event) {
+            record ();
+        }
+
+        @Override
+        public void onError (AsyncEvent event) {
+            record ();
+        }
+
+        @Override
+        public void onStartAsync (AsyncEvent event) {
+            // Listeners are dropped when the processing is restarted
+            event.getAsyncContext ().addListener (this);
+        }
+
+        private void record () {
+            if (recorded.compareAndSet (false, true)) {
+                metrics.recordRequestAllocation (uri, allocation);
+            }
+        }
+    }
+}
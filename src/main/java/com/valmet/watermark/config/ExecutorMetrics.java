@@ -0,0 +1,158 @@
+package com.valmet.watermark.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Micrometer instrumentation shared by all executors owned by the service.
+ * <p>
+ * Every executor is tagged with {@code name} and reports:
+ * </p>
+ * <ul>
+ * <li>{@code executor.active}, {@code executor.queued} and the other pool gauges
+ * of {@link ExecutorServiceMetrics},</li>
+ * <li>{@code executor.idle}: the time a task waited between submission and start,</li>
+ * <li>{@code executor}: the execution time of a task,</li>
+ * <li>{@code executor.rejected}: the number of rejected tasks.</li>
+ * </ul>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+public final class ExecutorMetrics {
+    private ExecutorMetrics () {
+    }
+
+    /**
+     * Binds the pool gauges (active threads, queue depth, pool size, completed
+     * tasks) of a thread pool.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param executor      the thread pool
+     * @param name          the executor name used as {@code name} tag
+     */
+    public static void bindPoolGauges (MeterRegistry meterRegistry, ThreadPoolExecutor executor, String name) {
+        new ExecutorServiceMetrics (executor, name, Tags.empty ()).bindTo (meterRegistry);
+    }
+
+    /**
+     * Binds the active-task gauge of an executor without a thread pool, such as
+     * a virtual thread executor.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param active        the number of running tasks
+     * @param name          the executor name used as {@code name} tag
+     */
+    public static void bindActiveGauge (MeterRegistry meterRegistry, IntSupplier active, String name) {
+        Gauge.builder ("executor.active", active, IntSupplier::getAsInt)
+                .description ("The approximate number of threads that are actively executing tasks")
+                .tag ("name", name)
+                .register (meterRegistry);
+    }
+
+    /**
+     * Returns a decorator that records the wait and execution time of every task.
+     * The decorator must be applied when the task is submitted.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param name          the executor name used as {@code name} tag
+     * @return the timing decorator
+     */
+    public static TaskDecorator timingDecorator (MeterRegistry meterRegistry, String name) {
+        Timer waitTimer = waitTimer (meterRegistry, name);
+        Timer executionTimer = executionTimer (meterRegistry, name);
+        return task -> {
+            long submittedAt = System.nanoTime ();
+            return () -> {
+                long startedAt = System.nanoTime ();
+                waitTimer.record (startedAt - submittedAt, TimeUnit.NANOSECONDS);
+                try {
+                    task.run ();
+                } finally {
+                    executionTimer.record (System.nanoTime () - startedAt, TimeUnit.NANOSECONDS);
+                }
+            };
+        };
+    }
+
+    /**
+     * Returns a decorator that records only the execution time of every task,
+     * for schedulers whose wait time is the intended delay.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param name          the executor name used as {@code name} tag
+     * @return the timing decorator
+     */
+    public static TaskDecorator executionTimingDecorator (MeterRegistry meterRegistry, String name) {
+        Timer executionTimer = executionTimer (meterRegistry, name);
+        return task -> () -> executionTimer.record (task);
+    }
+
+    /**
+     * Returns a timer for the time tasks of an executor wait before they start.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param name          the executor name used as {@code name} tag
+     * @return the wait timer
+     */
+    public static Timer waitTimer (MeterRegistry meterRegistry, String name) {
+        return Timer.builder ("executor.idle")
+                .description ("Time a task waited between submission and start")
+                .tag ("name", name)
+                .register (meterRegistry);
+    }
+
+    /**
+     * Returns a timer for the execution time of the tasks of an executor.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param name          the executor name used as {@code name} tag
+     * @return the execution timer
+     */
+    public static Timer executionTimer (MeterRegistry meterRegistry, String name) {
+        return Timer.builder ("executor")
+                .description ("Execution time of a task")
+                .tag ("name", name)
+                .register (meterRegistry);
+    }
+
+    /**
+     * Returns the counter of rejected tasks of an executor.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param name          the executor name used as {@code name} tag
+     * @return the rejection counter
+     */
+    public static Counter rejectionCounter (MeterRegistry meterRegistry, String name) {
+        return Counter.builder ("executor.rejected")
+                .description ("Tasks rejected because the executor was saturated or shut down")
+                .tag ("name", name)
+                .register (meterRegistry);
+    }
+
+    /**
+     * Wraps a rejection handler so that every rejection is counted.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param name          the executor name used as {@code name} tag
+     * @param delegate      the handler that decides what happens to the rejected task
+     * @return the counting rejection handler
+     */
+    public static RejectedExecutionHandler countingRejections (MeterRegistry meterRegistry, String name, RejectedExecutionHandler delegate) {
+        Counter rejected = rejectionCounter (meterRegistry, name);
+        return (task, executor) -> {
+            rejected.increment ();
+            delegate.rejectedExecution (task, executor);
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package com.valmet.watermark.config;
+
+import com.valmet.watermark.enums.JobLane;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configuration class for the size-class scheduling lanes.
+ * <p>
+ * Watermark jobs are classified as {@link JobLane#SMALL}, {@link JobLane#MEDIUM}
+ * or {@link JobLane#LARGE} by upload size and page count. A job belongs to the
+ * first lane whose {@code maxBytes} and {@code maxPages} it does not exceed;
+ * the large lane takes everything else. Each lane has its own workers and
+ * queue. Stamping is CPU-bound, so a lane with {@code workers} set to 0 gets
+ * its share of the available cores: half for the small lane, a quarter for the
+ * medium lane and the rest for the large lane.
+ * </p>
+ *
+ * <p>
+ * <b>Example Configuration:</b>
+ * </p>
+ *
+ * <pre>
+ * watermark.lanes.small.max-bytes=2MB
+ * watermark.lanes.small.max-pages=20
+ * watermark.lanes.small.workers=0
+ * watermark.lanes.small.queue-capacity=200
+ * watermark.lanes.small.lendable=false
+ * </pre>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Configuration
+@ConfigurationProperties (prefix = "watermark.lanes")
+@Data
+public class LaneSettings {
+    /**
+     * Lane for interactive, single-page or few-page downloads.
+     */
+    private Lane small = new Lane (DataSize.ofMegabytes (2), 20, 0, 200, false);
+    /**
+     * Lane for regular documents and small batches.
+     */
+    private Lane medium = new Lane (DataSize.ofMegabytes (50), 500, 0, 50, true);
+    /**
+     * Lane for large batches.
+     */
+    private Lane large = new Lane (null, 0, 0, 10, true);
+
+    /**
+     * Returns the settings of the given lane.
+     *
+     * @param jobLane the lane
+     * @return the settings of the lane
+     */
+    public Lane get (JobLane jobLane) {
+        return switch (jobLane) {
+            case SMALL -> small;
+            case MEDIUM -> medium;
+            case LARGE -> large;
+        };
+    }
+
+    /**
+     * Returns the number of workers of the given lane, deriving it from the
+     * available cores when it is not configured.
+     *
+     * @param jobLane the lane
+     * @return the number of workers, at least one
+     */
+    public int resolveWorkers (JobLane jobLane) {
+        int configured = get (jobLane).getWorkers ();
+        if (configured > 0) {
+            return configured;
+        }
+        int cores = Runtime.getRuntime ().availableProcessors ();
+        int smallWorkers = Math.max (1, cores / 2);
+        int mediumWorkers = Math.max (1, cores / 4);
+        return switch (jobLane) {
+            case SMALL -> smallWorkers;
+            case MEDIUM -> mediumWorkers;
+            case LARGE -> Math.max (1, cores - smallWorkers - mediumWorkers);
+        };
+    }
+
+    /**
+     * Settings of a single lane.
+     */
+    @Data
+    public static class Lane {
+        /**
+         * Largest request, in bytes, that belongs to this lane.
+         */
+        private DataSize maxBytes;
+        /**
+         * Largest page count that belongs to this lane.
+         */
+        private long maxPages;
+        /**
+         * Number of worker threads of this lane, or 0 to derive it from the available cores.
+         */
+        private int workers;
+        /**
+         * Number of jobs that may wait for a worker of this lane.
+         */
+        private int queueCapacity;
+        /**
+         * Whether idle workers of this lane may run jobs of other lanes.
+         */
+        private boolean lendable;
+
+        public Lane () {
+        }
+
+        public Lane (DataSize maxBytes, long maxPages, int workers, int queueCapacity, boolean lendable) {
+            this.maxBytes = maxBytes;
+            this.maxPages = maxPages;
+            this.workers = workers;
+            this.queueCapacity = queueCapacity;
+            this.lendable = lendable;
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package com.valmet.watermark.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.Map;
 
 /**
  * Configuration class for setting up LDAP (Lightweight Directory Access Protocol) integration.
+ * <p>
+ * Searches of the {@link LdapTemplate} run over the service account connections
+ * of the {@link PooledLdapContextSource}; user binds open their own connection
+ * with the {@link LdapContextSource}.
+ * </p>
  */
 @Slf4j
 @Configuration
@@ -27,24 +37,44 @@ public class LdapConfig {
     private String ldapPassword;
 
     /**
-     * Creates and configures an LdapTemplate bean.
+     * Creates and configures an LdapTemplate bean searching over pooled connections.
      *
+     * @param pooledContextSource the pool of service account connections
      * @return a configured LdapTemplate instance
      */
     @Bean
-    public LdapTemplate ldapTemplate () {
-        LdapTemplate ldapTemplate = new LdapTemplate (contextSource ());
+    public LdapTemplate ldapTemplate (PooledLdapContextSource pooledContextSource) {
+        LdapTemplate ldapTemplate = new LdapTemplate (pooledContextSource);
         ldapTemplate.setIgnorePartialResultException (true);
         return ldapTemplate;
     }
 
     /**
-     * Creates and configures an LdapContextSource bean.
+     * Creates the pool of service account connections used for searches.
+     *
+     * @param contextSource    the context source opening the connections
+     * @param taskScheduler    the scheduler running the idle connection eviction
+     * @param ldapPoolSettings the pool settings
+     * @param meterRegistry    the registry used to publish pool metrics
+     * @return the pooled context source
+     */
+    @Bean
+    public PooledLdapContextSource pooledContextSource (LdapContextSource contextSource,
+                                                        @Qualifier ("taskScheduler") ThreadPoolTaskScheduler taskScheduler,
+                                                        LdapPoolSettings ldapPoolSettings, MeterRegistry meterRegistry) {
+        return new PooledLdapContextSource (contextSource, taskScheduler, ldapPoolSettings, meterRegistry);
+    }
+
+    /**
+     * Creates and configures an LdapContextSource bean. Every context it
+     * returns is a new connection; pooling is done by the
+     * {@link PooledLdapContextSource}.
      *
+     * @param ldapPoolSettings the LDAP connection settings
      * @return a configured LdapContextSource instance
      */
     @Bean
-    public LdapContextSource contextSource () {
+    public LdapContextSource contextSource (LdapPoolSettings ldapPoolSettings) {
         try {
             LdapContextSource contextSource = new LdapContextSource ();
             contextSource.setUrl (ldapUrls);
@@ -53,6 +83,8 @@ public class LdapConfig {
             contextSource.setPassword (ldapPassword);
             contextSource.setPooled (false);
             contextSource.setReferral ("ignore");
+            contextSource.setBaseEnvironmentProperties (Map.of ("com.sun.jndi.ldap.read.timeout",
+                    String.valueOf (ldapPoolSettings.getReadTimeout ().toMillis ())));
             log.info ("Creating LDAP context source with URLs: {}, base: {}", ldapUrls, ldapBase);
             return contextSource;
         } catch (Exception e) {
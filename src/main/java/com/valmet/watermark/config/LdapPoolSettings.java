@@ -0,0 +1,76 @@
+package com.valmet.watermark.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Configuration class for the pool of service account LDAP connections.
+ * <p>
+ * Directory searches run with the service account over pooled connections, so
+ * only the first search of a connection pays for the LDAPS handshake and the
+ * bind. User binds that check passwords never use the pool. Active Directory
+ * drops connections idle for 15 minutes by default, so idle connections are
+ * closed before that and validated before reuse.
+ * </p>
+ *
+ * <p>
+ * <b>Example Configuration:</b>
+ * </p>
+ *
+ * <pre>
+ * watermark.ldap.pool.enabled=true
+ * watermark.ldap.pool.max-active=8
+ * watermark.ldap.pool.min-idle=1
+ * watermark.ldap.pool.max-wait=5s
+ * watermark.ldap.pool.max-idle-time=10m
+ * watermark.ldap.pool.validation-interval=30s
+ * watermark.ldap.pool.eviction-interval=1m
+ * watermark.ldap.pool.read-timeout=30s
+ * </pre>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Configuration
+@ConfigurationProperties (prefix = "watermark.ldap.pool")
+@Data
+public class LdapPoolSettings {
+    /**
+     * Whether searches use pooled connections; otherwise every search opens a
+     * new connection.
+     */
+    private boolean enabled = true;
+    /**
+     * Maximum number of connections lent out at the same time.
+     */
+    private int maxActive = 8;
+    /**
+     * Number of idle connections kept open by the eviction run.
+     */
+    private int minIdle = 1;
+    /**
+     * Maximum time a search waits for a connection when all are lent out.
+     */
+    private Duration maxWait = Duration.ofSeconds (5);
+    /**
+     * Idle connections unused for longer are closed.
+     */
+    private Duration maxIdleTime = Duration.ofMinutes (10);
+    /**
+     * Idle connections unused for longer are validated before they are lent
+     * out; 0 validates on every borrow.
+     */
+    private Duration validationInterval = Duration.ofSeconds (30);
+    /**
+     * Interval of the background run closing and validating idle connections.
+     */
+    private Duration evictionInterval = Duration.ofMinutes (1);
+    /**
+     * Read timeout of all LDAP connections, so a search on a connection the
+     * server has dropped fails instead of blocking.
+     */
+    private Duration readTimeout = Duration.ofSeconds (30);
+}
@@ -0,0 +1,72 @@
+package com.valmet.watermark.config;
+
+import com.valmet.watermark.service.PdfBufferScope;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Closes the {@link PdfBufferScope} of a request when the request is done.
+ * <p>
+ * For a request processed asynchronously, such as {@code /api/watermark}, the
+ * scope is closed when the asynchronous processing completes, fails or times
+ * out, i.e. after the response body has been written or abandoned. Otherwise it
+ * is closed when the request returns from the filter chain.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Component
+public class PdfBufferScopeFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal (HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        try {
+            filterChain.doFilter (request, response);
+        } finally {
+            PdfBufferScope scope = PdfBufferScope.find (request);
+            if (scope != null) {
+                if (request.isAsyncStarted ()) {
+                    request.getAsyncContext ().addListener (new ScopeListener (scope));
+                } else {
+                    scope.close ();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes a scope when the asynchronous processing of its request ends.
+     */
+    private record ScopeListener(PdfBufferScope scope) implements AsyncListener {
+        @Override
+        public void onComplete (AsyncEvent event) {
+            scope.close ();
+        }
+
+        @Override
+        public void onTimeout (AsyncEvent event) {
+            scope.close ();
+        }
+
+        @Override
+        public void onError (AsyncEvent event) {
+            scope.close ();
+        }
+
+        @Override
+        public void onStartAsync (AsyncEvent event) {
+            // Listeners are dropped when the processing is restarted
+            event.getAsyncContext ().addListener (this);
+        }
+    }
+}
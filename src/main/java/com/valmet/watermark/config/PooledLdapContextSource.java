@@ -0,0 +1,312 @@
+package com.valmet.watermark.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.ldap.UncategorizedLdapException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ContextSource} lending out pooled service account connections for
+ * directory searches.
+ * <p>
+ * Read-only and read-write contexts are taken from a pool of at most
+ * {@code max-active} connections opened by the target context source; closing
+ * such a context returns the connection to the pool. Idle connections are
+ * reused newest first, validated with a read of the base entry when they have
+ * been idle for longer than {@code validation-interval}, and closed after
+ * {@code max-idle-time}. A connection that failed with a communication error
+ * is closed instead of being returned. Contexts for other principals, the user
+ * binds checking passwords, are always opened by the target and never pooled.
+ * </p>
+ * <p>
+ * The pool publishes {@code ldap.pool.active}, {@code ldap.pool.idle} and
+ * {@code ldap.pool.max}, the time spent getting a connection as
+ * {@code ldap.pool.wait}, and opened and closed connections as
+ * {@code ldap.pool.connections.created} and {@code ldap.pool.connections.closed}
+ * tagged with the {@code reason}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+public class PooledLdapContextSource implements ContextSource, AutoCloseable {
+    private static final String[] VALIDATION_ATTRIBUTES = {"objectClass"};
+    private final ContextSource target;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final LdapPoolSettings settings;
+    private final MeterRegistry meterRegistry;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<> ();
+    private final AtomicInteger active = new AtomicInteger ();
+    private final Semaphore permits;
+    private final Timer waitTimer;
+    private final Counter created;
+    private final Map<String, Counter> closedCounters = new ConcurrentHashMap<> ();
+    private volatile boolean closed;
+    private ScheduledFuture<?> evictionTask;
+
+    /**
+     * Constructor to initialize the pool.
+     *
+     * @param target        the context source opening the connections
+     * @param taskScheduler the scheduler running the eviction
+     * @param settings      the pool settings
+     * @param meterRegistry the registry used to publish pool metrics
+     */
+    public PooledLdapContextSource (ContextSource target, ThreadPoolTaskScheduler taskScheduler, LdapPoolSettings settings,
+                                    MeterRegistry meterRegistry) {
+        this.target = target;
+        this.taskScheduler = taskScheduler;
+        this.settings = settings;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore (Math.max (1, settings.getMaxActive ()), true);
+        this.waitTimer = Timer.builder ("ldap.pool.wait")
+                .description ("Time spent getting a pooled LDAP connection, including opening one")
+                .register (meterRegistry);
+        this.created = Counter.builder ("ldap.pool.connections.created")
+                .description ("LDAP connections opened by the pool").register (meterRegistry);
+        Gauge.builder ("ldap.pool.active", active, AtomicInteger::get)
+                .description ("Pooled LDAP connections lent out").register (meterRegistry);
+        Gauge.builder ("ldap.pool.idle", idle, LinkedBlockingDeque::size)
+                .description ("Pooled LDAP connections waiting for reuse").register (meterRegistry);
+        Gauge.builder ("ldap.pool.max", settings, poolSettings -> poolSettings.isEnabled () ? Math.max (1, poolSettings.getMaxActive ()) : 0)
+                .description ("Maximum number of pooled LDAP connections").register (meterRegistry);
+    }
+
+    /**
+     * Opens the minimum idle connections and schedules the eviction.
+     */
+    @EventListener (ApplicationReadyEvent.class)
+    public synchronized void start () {
+        if (!settings.isEnabled () || evictionTask != null || closed) {
+            return;
+        }
+        evictionTask = taskScheduler.scheduleWithFixedDelay (this::evict, Instant.now (), settings.getEvictionInterval ());
+    }
+
+    /**
+     * Closes the idle connections; lent out connections are closed when they
+     * are returned.
+     */
+    @Override
+    public synchronized void close () {
+        closed = true;
+        if (evictionTask != null) {
+            evictionTask.cancel (false);
+        }
+        PooledConnection connection;
+        while ((connection = idle.pollFirst ()) != null) {
+            destroy (connection, "shutdown");
+        }
+    }
+
+    @Override
+    public DirContext getReadOnlyContext () {
+        return borrow ();
+    }
+
+    @Override
+    public DirContext getReadWriteContext () {
+        return borrow ();
+    }
+
+    /**
+     * Opens a context for another principal with the target context source.
+     * These contexts are not pooled.
+     */
+    @Override
+    public DirContext getContext (String principal, String credentials) {
+        return target.getContext (principal, credentials);
+    }
+
+    private DirContext borrow () {
+        if (!settings.isEnabled () || closed) {
+            return target.getReadOnlyContext ();
+        }
+        long start = System.nanoTime ();
+        try {
+            if (!permits.tryAcquire (settings.getMaxWait ().toNanos (), TimeUnit.NANOSECONDS)) {
+                throw new UncategorizedLdapException ("No pooled LDAP connection available within " + settings.getMaxWait ());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            throw new UncategorizedLdapException ("Interrupted while waiting for a pooled LDAP connection", e);
+        }
+        try {
+            long validationIntervalNanos = settings.getValidationInterval ().toNanos ();
+            PooledConnection connection;
+            while ((connection = idle.pollFirst ()) != null) {
+                if (System.nanoTime () - connection.lastUsed < validationIntervalNanos || validate (connection)) {
+                    break;
+                }
+                destroy (connection, "invalid");
+            }
+            if (connection == null) {
+                connection = create ();
+            }
+            active.incrementAndGet ();
+            waitTimer.record (System.nanoTime () - start, TimeUnit.NANOSECONDS);
+            return lease (connection);
+        } catch (RuntimeException e) {
+            permits.release ();
+            throw e;
+        }
+    }
+
+    private void release (PooledConnection connection) {
+        active.decrementAndGet ();
+        try {
+            if (connection.broken) {
+                destroy (connection, "broken");
+            } else if (closed) {
+                destroy (connection, "shutdown");
+            } else {
+                connection.lastUsed = System.nanoTime ();
+                idle.offerFirst (connection);
+            }
+        } finally {
+            permits.release ();
+        }
+    }
+
+    /**
+     * Runs under the lock of {@link #close()}, so no connection is put back or
+     * opened after the idle connections have been closed.
+     */
+    private synchronized void evict () {
+        long maxIdleNanos = settings.getMaxIdleTime ().toNanos ();
+        long validationIntervalNanos = settings.getValidationInterval ().toNanos ();
+        for (PooledConnection connection : new ArrayList<> (idle)) {
+            // Connections borrowed in the meantime are skipped
+            if (!idle.removeFirstOccurrence (connection)) {
+                continue;
+            }
+            long idleNanos = System.nanoTime () - connection.lastUsed;
+            if (idleNanos >= maxIdleNanos) {
+                destroy (connection, "idle");
+            } else if (idleNanos >= validationIntervalNanos && !validate (connection)) {
+                destroy (connection, "invalid");
+            } else {
+                idle.offerLast (connection);
+            }
+        }
+        try {
+            while (!closed && idle.size () < settings.getMinIdle () && idle.size () + active.get () < settings.getMaxActive ()) {
+                idle.offerLast (create ());
+            }
+        } catch (RuntimeException e) {
+            log.warn ("Could not open an idle LDAP connection: {}", e.getMessage ());
+        }
+    }
+
+    private PooledConnection create () {
+        DirContext context = target.getReadOnlyContext ();
+        created.increment ();
+        return new PooledConnection (context);
+    }
+
+    private boolean validate (PooledConnection connection) {
+        try {
+            connection.context.getAttributes ("", VALIDATION_ATTRIBUTES);
+            return true;
+        } catch (NamingException e) {
+            log.debug ("Pooled LDAP connection failed validation: {}", e.getMessage ());
+            return false;
+        }
+    }
+
+    private void destroy (PooledConnection connection, String reason) {
+        closedCounters.computeIfAbsent (reason, key -> Counter.builder ("ldap.pool.connections.closed").tag ("reason", key)
+                .description ("LDAP connections closed by the pool").register (meterRegistry)).increment ();
+        try {
+            connection.context.close ();
+        } catch (NamingException e) {
+            log.debug ("Error closing pooled LDAP connection: {}", e.getMessage ());
+        }
+    }
+
+    private DirContext lease (PooledConnection connection) {
+        Class<?> contextType = connection.context instanceof LdapContext ? LdapContext.class : DirContext.class;
+        return (DirContext) Proxy.newProxyInstance (contextType.getClassLoader (), new Class<?>[] {contextType}, new Lease (connection));
+    }
+
+    /**
+     * A connection of the pool with the time it was last returned.
+     */
+    private static final class PooledConnection {
+        private final DirContext context;
+        private volatile long lastUsed = System.nanoTime ();
+        private volatile boolean broken;
+
+        private PooledConnection (DirContext context) {
+            this.context = context;
+        }
+    }
+
+    /**
+     * The context handed out for one borrow; closing it returns the connection.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection connection;
+        private final AtomicBoolean returned = new AtomicBoolean ();
+
+        private Lease (PooledConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke (Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass () == Object.class) {
+                return switch (method.getName ()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode (proxy);
+                    default -> "Pooled " + connection.context;
+                };
+            }
+            if (method.getName ().equals ("close") && method.getParameterCount () == 0) {
+                if (returned.compareAndSet (false, true)) {
+                    release (connection);
+                }
+                return null;
+            }
+            if (returned.get ()) {
+                throw new IllegalStateException ("The LDAP context has been returned to the pool");
+            }
+            try {
+                return method.invoke (connection.context, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause ();
+                if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+                    connection.broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.valmet.watermark.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration class for the watermark profiles of client systems.
+ * <p>
+ * A profile is selected by the client system of a request, the
+ * {@code system} parameter or the {@code X-Client-Application-Name} header,
+ * matched against its {@code systems} without case. Settings a profile does
+ * not set are taken from the watermark settings, so profiles follow reloads
+ * and updates of those. The profile named {@code default} applies to requests
+ * of all other client systems.
+ * </p>
+ *
+ * <p>
+ * <b>Example Configuration:</b>
+ * </p>
+ *
+ * <pre>
+ * watermark.profiles.sap.systems=SAP,SAP-ERP
+ * watermark.profiles.sap.opacity=0.2
+ * watermark.profiles.sap.color-code=#004B87
+ * watermark.profiles.sap.logo=file:/opt/watermark/sap_logo.png
+ * watermark.profiles.sap.compression-level=9
+ * watermark.profiles.sap.full-compression=true
+ * </pre>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Configuration
+@ConfigurationProperties (prefix = "watermark")
+@Data
+public class WatermarkProfileSettings {
+    /**
+     * Name of the profile of client systems without a profile of their own.
+     */
+    public static final String DEFAULT_PROFILE = "default";
+    /**
+     * The profiles by name.
+     */
+    private Map<String, Profile> profiles = new LinkedHashMap<> ();
+
+    /**
+     * Settings of a single profile; unset values are inherited.
+     */
+    @Data
+    public static class Profile {
+        /**
+         * Client systems using this profile.
+         */
+        private List<String> systems = new ArrayList<> ();
+        /**
+         * The opacity of the watermark text (0.0 to 1.0).
+         */
+        private Float opacity;
+        /**
+         * The opacity of the logo (0.0 to 1.0).
+         */
+        private Float logoOpacity;
+        /**
+         * The color code of the watermark text, e.g. #808080.
+         */
+        private String colorCode;
+        /**
+         * The x-axis offset of the watermark text.
+         */
+        private Integer xAxis;
+        /**
+         * The y-axis offset of the watermark text.
+         */
+        private Integer yAxis;
+        /**
+         * The font name of the watermark text.
+         */
+        private String fontName;
+        /**
+         * The font style of the watermark text.
+         */
+        private String fontStyle;
+        /**
+         * Location of the logo image, e.g. classpath:static/images/valmet_logo.png.
+         */
+        private String logo;
+        /**
+         * Compression level of the output streams, -1 (default) to 9.
+         */
+        private Integer compressionLevel;
+        /**
+         * Whether the output uses object and cross-reference streams (PDF 1.5).
+         */
+        private Boolean fullCompression;
+    }
+}
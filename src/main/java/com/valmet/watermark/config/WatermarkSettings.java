@@ -13,6 +13,11 @@ import org.springframework.context.annotation.PropertySource;
  * properties are prefixed with `watermark.settings` and are loaded into this
  * class automatically at runtime.
  * </p>
+ * <p>
+ * These are the settings at startup. The watermark engine reads the settings
+ * through the immutable snapshots of the {@link WatermarkSettingsHolder},
+ * which also publishes reloaded and updated settings.
+ * </p>
  *
  * <p>
  * <b>Key Features:</b>
@@ -0,0 +1,213 @@
+package com.valmet.watermark.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Holds the current {@link WatermarkSettingsSnapshot}.
+ * <p>
+ * The watermark engine reads the current snapshot once per document through a
+ * single atomic reference, without locks. The first snapshot holds the
+ * settings bound at startup. With {@code watermark.settings.file} set, the
+ * settings are read from that file when the application is ready and again
+ * whenever the file changes, checked every
+ * {@code watermark.settings.reload-interval}; updates are written to it.
+ * Without it, the settings are reloaded from the classpath and updates are
+ * kept in memory. An invalid file keeps the current snapshot.
+ * </p>
+ * <p>
+ * Every new snapshot is passed to the registered listeners, so caches derived
+ * from the settings are invalidated with the version they were built for. The
+ * current version is published as {@code watermark.settings.version}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class WatermarkSettingsHolder {
+    private static final String CLASSPATH_SETTINGS = "watermark-settings.properties";
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final Path settingsFile;
+    private final Duration reloadInterval;
+    private final AtomicReference<WatermarkSettingsSnapshot> snapshot = new AtomicReference<> ();
+    private final List<Consumer<WatermarkSettingsSnapshot>> listeners = new CopyOnWriteArrayList<> ();
+    private Properties properties;
+    private FileTime loadedModifiedTime;
+    private ScheduledFuture<?> reloadTask;
+
+    /**
+     * Constructor to initialize the settings holder.
+     *
+     * @param watermarkSettings the settings bound at startup
+     * @param taskScheduler     the scheduler running the reload
+     * @param meterRegistry     the registry used to publish the settings version
+     * @param settingsFile      the file holding the settings, empty to use the classpath
+     * @param reloadInterval    the interval between checks of the settings file
+     */
+    public WatermarkSettingsHolder (WatermarkSettings watermarkSettings,
+                                    @Qualifier ("taskScheduler") ThreadPoolTaskScheduler taskScheduler,
+                                    MeterRegistry meterRegistry,
+                                    @Value ("${watermark.settings.file:}") String settingsFile,
+                                    @Value ("${watermark.settings.reload-interval:30s}") Duration reloadInterval) {
+        this.taskScheduler = taskScheduler;
+        this.settingsFile = settingsFile.isBlank () ? null : Path.of (settingsFile);
+        this.reloadInterval = reloadInterval;
+        this.snapshot.set (WatermarkSettingsSnapshot.of (1, watermarkSettings));
+        Gauge.builder ("watermark.settings.version", snapshot, current -> current.get ().getVersion ())
+                .description ("Version of the watermark settings in use").register (meterRegistry);
+    }
+
+    /**
+     * Loads the settings file and schedules its reload.
+     */
+    @EventListener (ApplicationReadyEvent.class)
+    public synchronized void start () {
+        if (settingsFile == null || reloadTask != null) {
+            return;
+        }
+        reload ();
+        reloadTask = taskScheduler.scheduleWithFixedDelay (this::reloadIfModified, Instant.now ().plus (reloadInterval), reloadInterval);
+    }
+
+    @PreDestroy
+    public synchronized void stop () {
+        if (reloadTask != null) {
+            reloadTask.cancel (false);
+        }
+    }
+
+    /**
+     * Returns the current settings.
+     *
+     * @return the current {@link WatermarkSettingsSnapshot}
+     */
+    public WatermarkSettingsSnapshot getSnapshot () {
+        return snapshot.get ();
+    }
+
+    /**
+     * Registers a listener called with every new snapshot.
+     *
+     * @param listener the listener
+     */
+    public void addListener (Consumer<WatermarkSettingsSnapshot> listener) {
+        listeners.add (listener);
+    }
+
+    /**
+     * Reads the settings again and publishes them as a new version.
+     *
+     * @return the current snapshot, the previous one if the settings are invalid
+     */
+    public synchronized WatermarkSettingsSnapshot reload () {
+        try {
+            // An invalid file is reported once, not on every check until it is fixed
+            loadedModifiedTime = settingsFile != null && Files.isRegularFile (settingsFile) ? Files.getLastModifiedTime (settingsFile) : null;
+            Properties loaded = read ();
+            if (!loaded.equals (properties)) {
+                publish (WatermarkSettingsSnapshot.of (snapshot.get ().getVersion () + 1, loaded), loaded);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn ("Could not reload the watermark settings, keeping version {}: {}", snapshot.get ().getVersion (), e.getMessage ());
+        }
+        return snapshot.get ();
+    }
+
+    /**
+     * Changes one setting and publishes the settings as a new version.
+     *
+     * @param key   the name of the setting, compared without case
+     * @param value the new value
+     * @return the new snapshot
+     * @throws IllegalArgumentException if the key is unknown or the value is invalid
+     * @throws IOException              if the settings file cannot be read or written
+     */
+    public synchronized WatermarkSettingsSnapshot update (String key, String value) throws IOException {
+        if (!WatermarkSettingsSnapshot.isSetting (key)) {
+            throw new IllegalArgumentException ("Unknown watermark setting: " + key);
+        }
+        Properties updated = new Properties ();
+        updated.putAll (properties != null ? properties : read ());
+        String name = updated.stringPropertyNames ().stream ()
+                .filter (candidate -> candidate.equalsIgnoreCase (key))
+                .findFirst ()
+                .orElse (key);
+        updated.setProperty (name, value);
+        // Validates the settings before they are written
+        WatermarkSettingsSnapshot next = WatermarkSettingsSnapshot.of (snapshot.get ().getVersion () + 1, updated);
+        if (settingsFile != null) {
+            write (updated);
+        }
+        log.info ("Updated watermark setting {} to {}", name, value);
+        publish (next, updated);
+        return next;
+    }
+
+    private void reloadIfModified () {
+        try {
+            if (Files.isRegularFile (settingsFile) && !Files.getLastModifiedTime (settingsFile).equals (loadedModifiedTime)) {
+                reload ();
+            }
+        } catch (IOException e) {
+            log.warn ("Could not check the watermark settings {}: {}", settingsFile, e.getMessage ());
+        }
+    }
+
+    private void publish (WatermarkSettingsSnapshot next, Properties loaded) {
+        snapshot.set (next);
+        properties = loaded;
+        log.info ("Watermark settings version {} published", next.getVersion ());
+        listeners.forEach (listener -> listener.accept (next));
+    }
+
+    private Properties read () throws IOException {
+        Properties loaded = new Properties ();
+        try (InputStream inputStream = settingsFile != null && Files.isRegularFile (settingsFile) ? Files.newInputStream (settingsFile)
+                : new ClassPathResource (CLASSPATH_SETTINGS).getInputStream ()) {
+            loaded.load (inputStream);
+        }
+        loaded.stringPropertyNames ().stream ()
+                .filter (name -> !name.toLowerCase (Locale.ROOT).startsWith (WatermarkSettingsSnapshot.PREFIX.toLowerCase (Locale.ROOT)))
+                .forEach (loaded::remove);
+        return loaded;
+    }
+
+    private void write (Properties updated) throws IOException {
+        Path directory = settingsFile.toAbsolutePath ().getParent ();
+        Files.createDirectories (directory);
+        Path tempFile = Files.createTempFile (directory, settingsFile.getFileName ().toString (), ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream (tempFile)) {
+            updated.store (outputStream, null);
+        }
+        Files.move (tempFile, settingsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        loadedModifiedTime = Files.getLastModifiedTime (settingsFile);
+    }
+}
@@ -0,0 +1,217 @@
+package com.valmet.watermark.config;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Immutable snapshot of one version of the watermark settings.
+ * <p>
+ * The values are validated and the font, color and composite used to render
+ * the watermark text are built once when the version is loaded, so a document
+ * is stamped with settings that always belong together, however the settings
+ * are changed while it is processed. Derived caches hold on to the snapshot or
+ * its version and are invalidated when a newer version is published by the
+ * {@link WatermarkSettingsHolder}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Getter
+@Builder
+public class WatermarkSettingsSnapshot {
+    /**
+     * Prefix of the watermark settings properties.
+     */
+    public static final String PREFIX = "watermark.settings.";
+    private static final List<String> NAMES = List.of ("opacity", "logoOpacity", "colorCode", "xAxis", "yAxis", "fontName", "fontStyle");
+    /**
+     * The version of the settings, incremented by every reload or update.
+     */
+    private final long version;
+    /**
+     * The opacity of the watermark text (0.0 to 1.0).
+     */
+    private final float opacity;
+    /**
+     * The opacity of the logo in the watermark (0.0 to 1.0).
+     */
+    private final float logoOpacity;
+    /**
+     * The color code of the watermark text in hexadecimal format.
+     */
+    private final String colorCode;
+    /**
+     * The x-axis offset for the watermark position.
+     */
+    private final int xAxis;
+    /**
+     * The y-axis offset for the watermark position.
+     */
+    private final int yAxis;
+    /**
+     * The font name to use for the watermark text.
+     */
+    private final String fontName;
+    /**
+     * The font style to use for the watermark text.
+     */
+    private final String fontStyle;
+    /**
+     * The decoded color of the watermark text.
+     */
+    private final Color color;
+    /**
+     * The font of the watermark text at size 1, derived to the size of a page.
+     */
+    private final Font font;
+    /**
+     * The composite drawing the watermark text with its opacity.
+     */
+    private final AlphaComposite textComposite;
+
+    /**
+     * Returns whether a property is one of the watermark settings.
+     *
+     * @param key the property name, compared without case
+     * @return true if the key names a setting
+     */
+    public static boolean isSetting (String key) {
+        return key != null && NAMES.stream ().anyMatch (name -> (PREFIX + name).equalsIgnoreCase (key));
+    }
+
+    /**
+     * Creates a snapshot of the settings bound at startup.
+     *
+     * @param version  the version of the snapshot
+     * @param settings the settings
+     * @return the snapshot
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    public static WatermarkSettingsSnapshot of (long version, WatermarkSettings settings) {
+        return of (version, settings.getOpacity (), settings.getLogoOpacity (), settings.getColorCode (), settings.getXAxis (),
+                settings.getYAxis (), settings.getFontName (), settings.getFontStyle ());
+    }
+
+    /**
+     * Creates a snapshot of the {@code watermark.settings} properties.
+     *
+     * @param version    the version of the snapshot
+     * @param properties the properties, keys compared without case
+     * @return the snapshot
+     * @throws IllegalArgumentException if a setting is missing or invalid
+     */
+    public static WatermarkSettingsSnapshot of (long version, Properties properties) {
+        Map<String, String> values = new HashMap<> ();
+        properties.stringPropertyNames ().forEach (name -> values.put (name.toLowerCase (Locale.ROOT), properties.getProperty (name).trim ()));
+        return of (version, parseFloat (values, "opacity"), parseFloat (values, "logoOpacity"), value (values, "colorCode"),
+                parseInt (values, "xAxis"), parseInt (values, "yAxis"), value (values, "fontName"), value (values, "fontStyle"));
+    }
+
+    /**
+     * Creates a snapshot of the same version with some of the settings replaced.
+     *
+     * @param opacity     the opacity of the watermark text, null to keep it
+     * @param logoOpacity the opacity of the logo, null to keep it
+     * @param colorCode   the color code of the watermark text, null to keep it
+     * @param xAxis       the x-axis offset, null to keep it
+     * @param yAxis       the y-axis offset, null to keep it
+     * @param fontName    the font name, null to keep it
+     * @param fontStyle   the font style, null to keep it
+     * @return the snapshot
+     * @throws IllegalArgumentException if a replaced setting is invalid
+     */
+    public WatermarkSettingsSnapshot override (Float opacity, Float logoOpacity, String colorCode, Integer xAxis, Integer yAxis,
+                                               String fontName, String fontStyle) {
+        return of (version,
+                opacity != null ? opacity : this.opacity,
+                logoOpacity != null ? logoOpacity : this.logoOpacity,
+                colorCode != null ? colorCode : this.colorCode,
+                xAxis != null ? xAxis : this.xAxis,
+                yAxis != null ? yAxis : this.yAxis,
+                fontName != null ? fontName : this.fontName,
+                fontStyle != null ? fontStyle : this.fontStyle);
+    }
+
+    private static WatermarkSettingsSnapshot of (long version, float opacity, float logoOpacity, String colorCode, int xAxis, int yAxis,
+                                                 String fontName, String fontStyle) {
+        checkOpacity ("opacity", opacity);
+        checkOpacity ("logoOpacity", logoOpacity);
+        Color color;
+        try {
+            color = Color.decode (colorCode);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid " + PREFIX + "colorCode: " + colorCode, e);
+        }
+        return WatermarkSettingsSnapshot.builder ()
+                .version (version)
+                .opacity (opacity)
+                .logoOpacity (logoOpacity)
+                .colorCode (colorCode)
+                .xAxis (xAxis)
+                .yAxis (yAxis)
+                .fontName (fontName)
+                .fontStyle (fontStyle)
+                .color (color)
+                .font (new Font (fontName, fontStyleOf (fontStyle), 1))
+                .textComposite (AlphaComposite.getInstance (AlphaComposite.SRC_OVER, opacity))
+                .build ();
+    }
+
+    /**
+     * Returns the AWT style of a font style name.
+     *
+     * @param style A string representing the font style (e.g., "BOLD", "ITALIC").
+     * @return The corresponding integer value for the font style.
+     */
+    private static int fontStyleOf (String style) {
+        return switch (style.toUpperCase (Locale.ROOT)) {
+            case "LAYOUT_LEFT_TO_RIGHT" -> Font.LAYOUT_LEFT_TO_RIGHT;
+            case "BOLD" -> Font.BOLD;
+            case "ITALIC" -> Font.ITALIC;
+            case "LAYOUT_RIGHT_TO_LEFT" -> Font.LAYOUT_RIGHT_TO_LEFT;
+            case "BOLDITALIC", "BOLD_ITALIC" -> Font.BOLD | Font.ITALIC;
+            default -> Font.PLAIN;
+        };
+    }
+
+    private static void checkOpacity (String name, float opacity) {
+        if (!(opacity >= 0 && opacity <= 1)) {
+            throw new IllegalArgumentException ("Invalid " + PREFIX + name + ": " + opacity + ", expected 0.0 to 1.0");
+        }
+    }
+
+    private static String value (Map<String, String> values, String name) {
+        String value = values.get ((PREFIX + name).toLowerCase (Locale.ROOT));
+        if (value == null || value.isEmpty ()) {
+            throw new IllegalArgumentException ("Missing " + PREFIX + name);
+        }
+        return value;
+    }
+
+    private static float parseFloat (Map<String, String> values, String name) {
+        String value = value (values, name);
+        try {
+            // Accepts the float literals of the settings file, such as 0.3f
+            return Float.parseFloat (value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid " + PREFIX + name + ": " + value, e);
+        }
+    }
+
+    private static int parseInt (Map<String, String> values, String name) {
+        String value = value (values, name);
+        try {
+            return Integer.parseInt (value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid " + PREFIX + name + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.valmet.watermark.config;
+
+import com.valmet.watermark.service.WatermarkRequestContext;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Spring MVC configuration.
+ * <p>
+ * Resolves {@link WatermarkRequestContext} handler arguments on the servlet
+ * thread, so that asynchronous handlers and their fallbacks can use the
+ * request without the request-scoped proxy.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+    @Override
+    public void addArgumentResolvers (List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add (new WatermarkRequestContextResolver ());
+    }
+
+    /**
+     * Resolves the {@link WatermarkRequestContext} of the current request.
+     */
+    private static final class WatermarkRequestContextResolver implements HandlerMethodArgumentResolver {
+        @Override
+        public boolean supportsParameter (MethodParameter parameter) {
+            return WatermarkRequestContext.class.equals (parameter.getParameterType ());
+        }
+
+        @Override
+        public Object resolveArgument (MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest,
+                                       WebDataBinderFactory binderFactory) {
+            return WatermarkRequestContext.of (webRequest.getNativeRequest (HttpServletRequest.class));
+        }
+    }
+}
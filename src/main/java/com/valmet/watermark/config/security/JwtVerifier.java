@@ -0,0 +1,175 @@
+package com.valmet.watermark.config.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import com.valmet.watermark.constants.Constants;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.MappedJwtClaimSetConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.security.Key;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verifies the JWTs of the service in a single pass.
+ * <p>
+ * The token is parsed once; the key version and algorithm are taken from the
+ * {@code kid} header ({@code rsa-v<version>} for RS256, {@code ec-v<version>}
+ * for ES256) and select the public key from the {@link PublicKeyCache}. Tokens issued before the key ID was stable carry
+ * the version in the {@link Constants#RSA_KEY_VERSION} claim instead, and
+ * tokens without a version are verified with the current key. The verified {@link Jwt} is stored in the
+ * current request under {@link #VERIFIED_JWT_ATTRIBUTE}, so the
+ * {@code CustomJwtAuthenticationFilter} and the resource server's bearer token
+ * authentication share one verification per request. Across requests the
+ * verified {@link Jwt} is kept in the {@link VerifiedTokenCache}, so a reused
+ * token is verified once until it expires or its key version is dropped.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class JwtVerifier implements JwtDecoder {
+    /**
+     * Request attribute holding the {@link Jwt} verified for the request.
+     */
+    public static final String VERIFIED_JWT_ATTRIBUTE = JwtVerifier.class.getName () + ".JWT";
+    private static final String DECODING_ERROR_MESSAGE = "An error occurred while attempting to decode the Jwt: ";
+    private final PublicKeyCache publicKeyCache;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<> ();
+    private final Converter<Map<String, Object>, Map<String, Object>> claimSetConverter = MappedJwtClaimSetConverter.withDefaults (Collections.emptyMap ());
+    private final OAuth2TokenValidator<Jwt> jwtValidator = JwtValidators.createDefault ();
+
+    /**
+     * Constructor that injects the {@link PublicKeyCache} and the
+     * {@link VerifiedTokenCache}.
+     *
+     * @param publicKeyCache     the cache providing the public keys
+     * @param verifiedTokenCache the cache of verified tokens
+     */
+    public JwtVerifier (PublicKeyCache publicKeyCache, VerifiedTokenCache verifiedTokenCache) {
+        this.publicKeyCache = publicKeyCache;
+        this.verifiedTokenCache = verifiedTokenCache;
+        jwtProcessor.setJWTClaimsSetAwareJWSKeySelector (this::selectKeys);
+        // Expiry and not-before are checked by the Spring validators, as in NimbusJwtDecoder
+        jwtProcessor.setJWTClaimsSetVerifier ((claims, context) -> {
+        });
+    }
+
+    /**
+     * Returns the {@link Jwt} already verified for the current request or an
+     * earlier one, or verifies the token and stores the result in the request
+     * and the {@link VerifiedTokenCache}.
+     *
+     * @param token the JWT
+     * @return the verified {@link Jwt}
+     * @throws JwtException if the token is malformed, its signature does not
+     *                      match or it is expired
+     */
+    @Override
+    public Jwt decode (String token) throws JwtException {
+        HttpServletRequest request = currentRequest ();
+        if (request != null && request.getAttribute (VERIFIED_JWT_ATTRIBUTE) instanceof Jwt jwt && jwt.getTokenValue ().equals (token)) {
+            return jwt;
+        }
+        Jwt jwt = verifiedTokenCache.get (token);
+        if (jwt == null) {
+            jwt = verify (token);
+        }
+        if (request != null) {
+            request.setAttribute (VERIFIED_JWT_ATTRIBUTE, jwt);
+        }
+        return jwt;
+    }
+
+    private Jwt verify (String token) {
+        SignedJWT signedJwt;
+        JWTClaimsSet claimsSet;
+        try {
+            signedJwt = SignedJWT.parse (token);
+            claimsSet = jwtProcessor.process (signedJwt, null);
+        } catch (ParseException | BadJOSEException e) {
+            throw new BadJwtException (DECODING_ERROR_MESSAGE + e.getMessage (), e);
+        } catch (JOSEException e) {
+            throw new JwtException (DECODING_ERROR_MESSAGE + e.getMessage (), e);
+        }
+        Map<String, Object> claims = claimSetConverter.convert (claimsSet.getClaims ());
+        Jwt jwt = Jwt.withTokenValue (token)
+                .headers (headers -> headers.putAll (signedJwt.getHeader ().toJSONObject ()))
+                .claims (jwtClaims -> jwtClaims.putAll (claims))
+                .build ();
+        OAuth2TokenValidatorResult result = jwtValidator.validate (jwt);
+        if (result.hasErrors ()) {
+            Collection<OAuth2Error> errors = result.getErrors ();
+            throw new JwtValidationException (DECODING_ERROR_MESSAGE + errors.iterator ().next ().getDescription (), errors);
+        }
+        Integer version = SigningKeySnapshot.versionOfKeyId (signedJwt.getHeader ().getKeyID ());
+        verifiedTokenCache.put (jwt, version != null ? version : keyVersionOf (claimsSet));
+        return jwt;
+    }
+
+    private List<? extends Key> selectKeys (JWSHeader header, JWTClaimsSet claimsSet, SecurityContext context) throws KeySourceException {
+        SignatureAlgorithm algorithm = SignatureAlgorithm.from (header.getAlgorithm ().getName ());
+        if (algorithm != SignatureAlgorithm.RS256 && algorithm != SignatureAlgorithm.ES256) {
+            return List.of ();
+        }
+        Integer version = SigningKeySnapshot.versionOfKeyId (header.getKeyID ());
+        if (version != null && SigningKeySnapshot.algorithmOfKeyId (header.getKeyID ()) != algorithm) {
+            // The key ID names a key of another algorithm
+            return List.of ();
+        }
+        if (version == null) {
+            version = keyVersionOf (claimsSet);
+        }
+        try {
+            return List.of (version == null ? publicKeyCache.getCurrent (algorithm) : publicKeyCache.get (algorithm, version));
+        } catch (Exception e) {
+            throw new KeySourceException ("Could not read the public key of version " + version, e);
+        }
+    }
+
+    private static Integer keyVersionOf (JWTClaimsSet claimsSet) {
+        Object version = claimsSet.getClaim (Constants.RSA_KEY_VERSION);
+        if (version instanceof Number number) {
+            return number.intValue ();
+        }
+        if (version != null && !version.toString ().isEmpty ()) {
+            try {
+                return Integer.parseInt (version.toString ());
+            } catch (NumberFormatException e) {
+                log.error ("Invalid RSA key version format: {}", version);
+            }
+        }
+        return null;
+    }
+
+    private static HttpServletRequest currentRequest () {
+        return RequestContextHolder.getRequestAttributes () instanceof ServletRequestAttributes attributes ? attributes.getRequest () : null;
+    }
+}
@@ -0,0 +1,259 @@
+package com.valmet.watermark.config.security;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.exception.InvalidJwtToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.stereotype.Component;
+
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory cache of the parsed public keys per Vault key version.
+ * <p>
+ * Every key version holds an RSA public key and, once ES256 signing is set up,
+ * a P-256 EC public key. Key versions of the Vault KV engine are immutable, so
+ * the parsed keys are kept until they are evicted by newer versions. The
+ * current keys are taken from every snapshot of the {@link SigningKeyHolder},
+ * which polls Vault for rotated keys, and when the application is ready the
+ * {@code security.jwt.public-key-cache.preload-versions} versions before it are
+ * loaded. A token with a version newer than the current one triggers a refresh
+ * of the signing key.
+ * </p>
+ * <p>
+ * Versions unknown to Vault are cached negatively for
+ * {@code security.jwt.public-key-cache.negative-ttl}, so tokens with made-up
+ * versions do not reach Vault on every request. When Vault cannot be reached
+ * the cached keys keep being served, so requests with known versions never
+ * depend on Vault.
+ * </p>
+ * <p>
+ * The cached keys are also published as a JWK set, so other services can
+ * verify the tokens without access to Vault.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class PublicKeyCache {
+    /**
+     * The version is read before the signature is checked, so the number of
+     * cached versions is bounded against tokens with made-up versions.
+     */
+    private static final int MAX_CACHED_VERSIONS = 32;
+    private static final int MAX_UNKNOWN_VERSIONS = 256;
+    private final WatermarkSecretsManager watermarkSecretsManager;
+    private final SigningKeyHolder signingKeyHolder;
+    private final int preloadVersions;
+    private final long negativeTtlNanos;
+    private final Map<Integer, VersionKeys> publicKeys = new ConcurrentHashMap<> ();
+    private final Map<Integer, Long> unknownVersions = new ConcurrentHashMap<> ();
+    private final Counter foundFetches;
+    private final Counter unknownFetches;
+    private volatile int currentVersion;
+    private volatile Map<String, Object> jwkSet = new JWKSet ().toJSONObject ();
+
+    /**
+     * Constructor to initialize the public key cache.
+     *
+     * @param watermarkSecretsManager the secrets manager reading the keys from Vault
+     * @param signingKeyHolder        the holder of the current key version
+     * @param meterRegistry           the registry used to publish cache metrics
+     * @param preloadVersions         the number of versions loaded at startup, including the current one
+     * @param negativeTtl             how long a version unknown to Vault is not looked up again
+     */
+    public PublicKeyCache (WatermarkSecretsManager watermarkSecretsManager, SigningKeyHolder signingKeyHolder, MeterRegistry meterRegistry,
+                           @Value ("${security.jwt.public-key-cache.preload-versions:3}") int preloadVersions,
+                           @Value ("${security.jwt.public-key-cache.negative-ttl:30s}") Duration negativeTtl) {
+        this.watermarkSecretsManager = watermarkSecretsManager;
+        this.signingKeyHolder = signingKeyHolder;
+        this.preloadVersions = preloadVersions;
+        this.negativeTtlNanos = negativeTtl.toNanos ();
+        this.foundFetches = Counter.builder ("jwt.public.key.fetches").tag ("outcome", "found")
+                .description ("Public key lookups in Vault").register (meterRegistry);
+        this.unknownFetches = Counter.builder ("jwt.public.key.fetches").tag ("outcome", "unknown")
+                .description ("Public key lookups in Vault").register (meterRegistry);
+        Gauge.builder ("jwt.public.keys.cached", publicKeys, Map::size)
+                .description ("Public key versions held in memory").register (meterRegistry);
+        signingKeyHolder.addListener (this::addCurrent);
+    }
+
+    /**
+     * Loads the versions preceding the current key version.
+     */
+    @EventListener (ApplicationReadyEvent.class)
+    public void preload () {
+        int current = signingKeyHolder.getSnapshot ().getVersion ();
+        for (int version = current - 1; version > 0 && version > current - preloadVersions; version--) {
+            if (!publicKeys.containsKey (version)) {
+                load (version);
+            }
+        }
+        log.info ("Preloaded public key versions {}", publicKeys.keySet ());
+    }
+
+    /**
+     * Returns the public key of a version for a signature algorithm, reading the
+     * version from Vault on a miss.
+     *
+     * @param signatureAlgorithm RS256 or ES256
+     * @param version            the Vault version of the key
+     * @return the public key
+     * @throws InvalidJwtToken if Vault has no such key for the version
+     */
+    public PublicKey get (SignatureAlgorithm signatureAlgorithm, int version) throws InvalidJwtToken {
+        VersionKeys versionKeys = publicKeys.get (version);
+        if (versionKeys == null) {
+            Long unknownUntil = unknownVersions.get (version);
+            if (unknownUntil != null) {
+                if (unknownUntil - System.nanoTime () > 0) {
+                    throw new InvalidJwtToken ("Unknown public key version: " + version);
+                }
+                unknownVersions.remove (version, unknownUntil);
+            }
+            versionKeys = load (version);
+            if (versionKeys == null) {
+                throw new InvalidJwtToken ("Unknown public key version: " + version);
+            }
+            if (version > currentVersion) {
+                // The key has been rotated since the last poll
+                signingKeyHolder.refreshAsync ();
+            }
+        }
+        return keyOf (versionKeys, signatureAlgorithm, version);
+    }
+
+    /**
+     * Returns the public key of the current version for a signature algorithm.
+     *
+     * @param signatureAlgorithm RS256 or ES256
+     * @return the public key
+     * @throws InvalidJwtToken if no current key is known
+     */
+    public PublicKey getCurrent (SignatureAlgorithm signatureAlgorithm) throws InvalidJwtToken {
+        SigningKeySnapshot snapshot = signingKeyHolder.getSnapshot ();
+        return keyOf (new VersionKeys (snapshot.getPublicKey (), snapshot.getEcPublicKey ()), signatureAlgorithm, snapshot.getVersion ());
+    }
+
+    /**
+     * Returns whether the keys of a version are held, which is the case for
+     * every version still accepted without a lookup in Vault.
+     *
+     * @param version the Vault version of the key
+     * @return true if the version is cached
+     */
+    public boolean contains (int version) {
+        return publicKeys.containsKey (version);
+    }
+
+    /**
+     * Returns the public keys of all cached versions as a JWK set, newest
+     * version first. Each key carries the key ID of its version and algorithm.
+     *
+     * @return the JSON object of the JWK set
+     */
+    public Map<String, Object> getJwkSet () {
+        return jwkSet;
+    }
+
+    private void addCurrent (SigningKeySnapshot snapshot) {
+        currentVersion = snapshot.getVersion ();
+        put (snapshot.getVersion (), new VersionKeys (snapshot.getPublicKey (), snapshot.getEcPublicKey ()));
+    }
+
+    private static PublicKey keyOf (VersionKeys versionKeys, SignatureAlgorithm signatureAlgorithm, int version) {
+        PublicKey publicKey = signatureAlgorithm == SignatureAlgorithm.ES256 ? versionKeys.ecPublicKey () : versionKeys.rsaPublicKey ();
+        if (publicKey == null) {
+            throw new InvalidJwtToken ("No " + signatureAlgorithm + " public key for version: " + version);
+        }
+        return publicKey;
+    }
+
+    private VersionKeys load (int version) {
+        VersionKeys versionKeys = null;
+        try {
+            Map<String, Object> secretData = watermarkSecretsManager.findSecretData (version);
+            if (secretData != null) {
+                String rsaPublicKey = (String) secretData.get (Constants.PUBLIC_KEY);
+                String ecPublicKey = (String) secretData.get (Constants.EC_PUBLIC_KEY);
+                if (rsaPublicKey != null && !rsaPublicKey.isEmpty ()) {
+                    versionKeys = new VersionKeys (watermarkSecretsManager.readPublicKey (rsaPublicKey),
+                            ecPublicKey != null && !ecPublicKey.isEmpty () ? watermarkSecretsManager.readEcPublicKey (ecPublicKey) : null);
+                }
+            }
+        } catch (Exception e) {
+            log.error ("Error reading public keys of version {}: {}", version, e.getMessage ());
+        }
+        if (versionKeys == null) {
+            unknownFetches.increment ();
+            if (unknownVersions.size () >= MAX_UNKNOWN_VERSIONS) {
+                long now = System.nanoTime ();
+                unknownVersions.values ().removeIf (until -> until - now <= 0);
+                if (unknownVersions.size () >= MAX_UNKNOWN_VERSIONS) {
+                    unknownVersions.clear ();
+                }
+            }
+            unknownVersions.put (version, System.nanoTime () + negativeTtlNanos);
+            return null;
+        }
+        foundFetches.increment ();
+        put (version, versionKeys);
+        return versionKeys;
+    }
+
+    private synchronized void put (int version, VersionKeys versionKeys) {
+        if (!publicKeys.containsKey (version) && publicKeys.size () >= MAX_CACHED_VERSIONS) {
+            // Keep the current and the newest versions, tokens of the oldest ones expire first
+            publicKeys.keySet ().stream ().filter (cached -> cached != currentVersion).min (Integer::compare)
+                    .ifPresent (publicKeys::remove);
+        }
+        publicKeys.put (version, versionKeys);
+        unknownVersions.remove (version);
+        List<JWK> keys = new ArrayList<> ();
+        new TreeMap<> (publicKeys).descendingMap ().forEach ((cached, cachedKeys) -> {
+            if (cachedKeys.ecPublicKey () != null) {
+                keys.add (new ECKey.Builder (Curve.P_256, cachedKeys.ecPublicKey ())
+                        .keyID (SigningKeySnapshot.keyIdOf (SignatureAlgorithm.ES256, cached))
+                        .keyUse (KeyUse.SIGNATURE)
+                        .algorithm (JWSAlgorithm.ES256)
+                        .build ());
+            }
+            keys.add (new RSAKey.Builder (cachedKeys.rsaPublicKey ())
+                    .keyID (SigningKeySnapshot.keyIdOf (SignatureAlgorithm.RS256, cached))
+                    .keyUse (KeyUse.SIGNATURE)
+                    .algorithm (JWSAlgorithm.RS256)
+                    .build ());
+        });
+        jwkSet = new JWKSet (keys).toJSONObject (true);
+    }
+
+    /**
+     * The public keys of one Vault key version; the EC key is null for versions
+     * without an EC key pair.
+     */
+    private record VersionKeys(RSAPublicKey rsaPublicKey, ECPublicKey ecPublicKey) {
+    }
+}
@@ -1,20 +1,12 @@
 package com.valmet.watermark.config.security;
 
-import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.jwk.source.JWKSource;
-import com.nimbusds.jose.proc.SecurityContext;
 import com.valmet.watermark.config.CustomAuthenticationEntryPoint;
 import com.valmet.watermark.config.CustomJwtAuthenticationFilter;
 import com.valmet.watermark.constants.Constants;
 import com.valmet.watermark.dto.SecretDto;
-import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
-import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
@@ -29,26 +21,11 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.oauth2.jwt.JwtDecoder;
-import org.springframework.security.oauth2.jwt.JwtEncoder;
-import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
-import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
-import org.springframework.web.context.WebApplicationContext;
-import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.io.IOException;
-import java.security.KeyFactory;
-import java.security.PrivateKey;
-import java.security.interfaces.RSAPublicKey;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.util.Base64;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
@@ -59,6 +36,11 @@ import static org.springframework.security.config.Customizer.withDefaults;
  * encoding, JWT token management, and session management. It also sets up
  * filters for handling JWT authentication and access control rules.
  * </p>
+ * <p>
+ * The {@code /api/admin} endpoints require the ADMIN role, granted to the
+ * service credentials with HTTP basic authentication; JWTs and API keys do
+ * not grant it.
+ * </p>
  *
  * @author BJIT
  * @version 1.0
@@ -69,12 +51,11 @@ import static org.springframework.security.config.Customizer.withDefaults;
 @EnableMethodSecurity
 public class SecurityConfig {
 
+    // Patterns are absolute: relative ones only match requests that a controller method matches as well
     private static final String[] AUTH_WHITELIST = {
-            "/actuator/health", "/actuator/metrics", "/actuator/metrics/**", "api/authenticate", "/actuator/refresh", "/actuator/prometheus",
-            "api/renewToken", "/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html", "/api/monitor/**", "/swagger-resources",
-            "/swagger-resources/**", "/apidocs/**"};
-    private final Map<String, JwtEncoder> jwtEncoderCache = new ConcurrentHashMap<> ();
-    private final Map<String, JwtDecoder> jwtDecoderCache = new ConcurrentHashMap<> ();
+            "/actuator/health", "/actuator/metrics", "/actuator/metrics/**", "/api/authenticate", "/actuator/refresh", "/actuator/prometheus",
+            "/api/renewToken", "/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html", "/api/monitor/**", "/swagger-resources",
+            "/swagger-resources/**", "/apidocs/**", "/.well-known/jwks.json"};
     private final WatermarkSecretsManager watermarkSecretsManager;
 
 
@@ -105,7 +86,8 @@ public class SecurityConfig {
         return httpSecurity
                 .authorizeHttpRequests (auth -> auth
                         .requestMatchers (AUTH_WHITELIST).permitAll ()
-                        .requestMatchers ("api/**").authenticated ())
+                        .requestMatchers ("/api/admin/**").hasRole ("ADMIN")
+                        .requestMatchers ("/api/**").authenticated ())
                 .csrf (AbstractHttpConfigurer::disable)
                 .sessionManagement (session -> session.sessionCreationPolicy (SessionCreationPolicy.STATELESS))
                 .oauth2ResourceServer (oauth2 -> oauth2.jwt (withDefaults ())
@@ -178,109 +160,4 @@ public class SecurityConfig {
         log.info ("Creating PasswordEncoder bean");
         return new BCryptPasswordEncoder ();
     }
-
-    /**
-     * Configures a JWT encoder using the RSA private key.
-     *
-     * @return a {@link JwtEncoder}.
-     * @throws Exception if encoding fails.
-     */
-    @Bean
-    @Scope (value = WebApplicationContext.SCOPE_REQUEST, proxyMode = ScopedProxyMode.TARGET_CLASS)
-    public JwtEncoder jwtEncoder () throws Exception {
-        log.info ("Inside jwtEncoder in Security Config");
-        SecretDto secretDto = watermarkSecretsManager.getSecretDto ();
-        String privateKeyEncoded = Base64.getEncoder ().encodeToString (readPrivateKey (secretDto).getEncoded ());
-
-        return jwtEncoderCache.computeIfAbsent (privateKeyEncoded, key -> {
-            try {
-                log.info ("Inside jwtEncoder value put to map in Security Config");
-                RSAKey rsaKey = new RSAKey.Builder (readPublicKey (secretDto))
-                        .privateKey (readPrivateKey (secretDto))
-                        .keyID (UUID.randomUUID ().toString ())
-                        .build ();
-                JWKSet jwkSet = new JWKSet (rsaKey);
-                JWKSource<SecurityContext> jwkSource = (jwkSelector, securityContext) -> jwkSelector.select (jwkSet);
-                return new NimbusJwtEncoder (jwkSource);
-            } catch (Exception e) {
-                throw new IllegalStateException (e);
-            }
-        });
-    }
-
-    /**
-     * Reads the RSA private key.
-     *
-     * @param secretDto the {@link SecretDto} containing the private key.
-     * @return the {@link PrivateKey}.
-     * @throws Exception if the private key cannot be read.
-     */
-    private PrivateKey readPrivateKey (SecretDto secretDto) throws Exception {
-        log.info ("Reading private key from SecretDto");
-        String key = secretDto.getData ().get (Constants.PRIVATE_KEY);
-        if (key == null) {
-            log.error ("Private key not found in vault");
-            throw new Exception ("Private key not found in vault");
-        }
-        byte[] keyBytes = java.util.Base64.getDecoder ().decode (key.replaceAll ("\\s", ""));
-        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec (keyBytes);
-        KeyFactory kf = KeyFactory.getInstance ("RSA");
-        return kf.generatePrivate (spec);
-    }
-
-    /**
-     * Reads the RSA public key.
-     *
-     * @param secretDto the {@link SecretDto} containing the public key.
-     * @return the {@link RSAPublicKey}.
-     * @throws Exception if the public key cannot be read.
-     */
-    private RSAPublicKey readPublicKey (SecretDto secretDto) throws Exception {
-        log.info ("Reading public key from SecretDto");
-        String key = secretDto.getData ().get (Constants.PUBLIC_KEY);
-        if (key == null) {
-            log.error ("Public key not found in vault");
-            throw new Exception ("Public key not found in vault");
-        }
-        return watermarkSecretsManager.readPublicKey (key);
-    }
-
-    /**
-     * Configures a JWT decoder using the RSA public key.
-     *
-     * @return a {@link JwtDecoder}.
-     * @throws JOSEException if decoding fails.
-     */
-    @Bean
-    @Scope (value = WebApplicationContext.SCOPE_REQUEST, proxyMode = ScopedProxyMode.TARGET_CLASS)
-    public JwtDecoder jwtDecoder () throws Exception {
-        log.info ("Creating JwtDecoder bean");
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes ();
-        if (attributes == null) {
-            log.info ("No token found in request");
-            return NimbusJwtDecoder.withPublicKey (readPublicKey (watermarkSecretsManager.getSecretDto ())).build ();
-        }
-
-        HttpServletRequest request = attributes.getRequest ();
-        String requestId = (String) request.getAttribute (Constants.REQUEST_ID);
-        log.info ("Request ID in Security Config: {}", requestId);
-        Integer intRsaKeyVersion = CustomJwtAuthenticationFilter.getMapVersion ().get (requestId);
-        log.info ("RSA key version in Security Config: {}", intRsaKeyVersion);
-        if (intRsaKeyVersion != null) {
-            RSAPublicKey rsaPublicKey = CustomJwtAuthenticationFilter.getMapRsaPublicKey ().get (intRsaKeyVersion);
-            if (rsaPublicKey != null) {
-                String publicKeyEncoded = Base64.getEncoder ().encodeToString (rsaPublicKey.getEncoded ());
-                return jwtDecoderCache.computeIfAbsent (publicKeyEncoded, key -> {
-                    try {
-                        log.info ("Creating new JwtDecoder for public key");
-                        return NimbusJwtDecoder.withPublicKey (rsaPublicKey).build ();
-                    } catch (Exception e) {
-                        log.error ("Error creating JwtDecoder", e);
-                        throw new IllegalStateException (e);
-                    }
-                });
-            }
-        }
-        return NimbusJwtDecoder.withPublicKey (readPublicKey (watermarkSecretsManager.getSecretDto ())).build ();
-    }
 }
\ No newline at end of file
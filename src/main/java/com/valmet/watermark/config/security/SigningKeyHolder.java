@@ -0,0 +1,221 @@
+package com.valmet.watermark.config.security;
+
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.dto.SecretDto;
+import com.valmet.watermark.exception.InvalidJwtToken;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+import org.springframework.stereotype.Component;
+
+import java.security.PrivateKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Holds the {@link SigningKeySnapshot} of the current Vault key version.
+ * <p>
+ * The secret is read from Vault once and its keys are parsed into an immutable
+ * snapshot that is swapped atomically. When the application is ready, Vault is
+ * polled every {@code security.jwt.signing-key.refresh-interval} in the
+ * background; a new snapshot is only built when Vault reports another version
+ * or other key material, and listeners such as the {@link PublicKeyCache}
+ * are notified of it. When Vault cannot be reached the last snapshot stays in
+ * use, so logins and token renewals never wait for Vault.
+ * </p>
+ * <p>
+ * Tokens are signed with {@code security.jwt.signing-key.algorithm}: RS256
+ * with the RSA key pair of the secret, or ES256 with the P-256 key pair stored
+ * next to it under {@code ec_private_key} and {@code ec_public_key}. A version
+ * without an EC key pair is signed with RS256, so ES256 can be switched on
+ * before the EC keys are added to Vault.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class SigningKeyHolder {
+    private final WatermarkSecretsManager watermarkSecretsManager;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final Duration refreshInterval;
+    private final SignatureAlgorithm signatureAlgorithm;
+    private final AtomicReference<SigningKeySnapshot> snapshot = new AtomicReference<> ();
+    private final List<Consumer<SigningKeySnapshot>> listeners = new CopyOnWriteArrayList<> ();
+    private String encodedPrivateKey;
+    private ScheduledFuture<?> refreshTask;
+
+    /**
+     * Constructor to initialize the signing key holder.
+     *
+     * @param watermarkSecretsManager the secrets manager reading the keys from Vault
+     * @param taskScheduler           the scheduler running the background refresh
+     * @param refreshInterval         the interval at which Vault is polled for a rotated key
+     * @param signatureAlgorithm      the algorithm signing the tokens, RS256 or ES256
+     */
+    public SigningKeyHolder (WatermarkSecretsManager watermarkSecretsManager,
+                             @Qualifier ("taskScheduler") ThreadPoolTaskScheduler taskScheduler,
+                             @Value ("${security.jwt.signing-key.refresh-interval:60s}") Duration refreshInterval,
+                             @Value ("${security.jwt.signing-key.algorithm:RS256}") SignatureAlgorithm signatureAlgorithm) {
+        if (signatureAlgorithm != SignatureAlgorithm.RS256 && signatureAlgorithm != SignatureAlgorithm.ES256) {
+            throw new IllegalArgumentException ("Unsupported signing algorithm " + signatureAlgorithm + ", use RS256 or ES256");
+        }
+        this.watermarkSecretsManager = watermarkSecretsManager;
+        this.taskScheduler = taskScheduler;
+        this.refreshInterval = refreshInterval;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Loads the current signing key and schedules the background refresh.
+     */
+    @EventListener (ApplicationReadyEvent.class)
+    public synchronized void start () {
+        if (refreshTask != null) {
+            return;
+        }
+        refresh ();
+        refreshTask = taskScheduler.scheduleWithFixedDelay (this::refresh, Instant.now ().plus (refreshInterval), refreshInterval);
+    }
+
+    @PreDestroy
+    public synchronized void stop () {
+        if (refreshTask != null) {
+            refreshTask.cancel (false);
+        }
+    }
+
+    /**
+     * Registers a listener called with every new snapshot, and immediately with
+     * the current one if it is loaded.
+     *
+     * @param listener the listener
+     */
+    public void addListener (Consumer<SigningKeySnapshot> listener) {
+        listeners.add (listener);
+        SigningKeySnapshot current = snapshot.get ();
+        if (current != null) {
+            listener.accept (current);
+        }
+    }
+
+    /**
+     * Returns the snapshot of the current key version, loading it on first use.
+     *
+     * @return the current {@link SigningKeySnapshot}
+     * @throws InvalidJwtToken if no signing key could be loaded
+     */
+    public SigningKeySnapshot getSnapshot () throws InvalidJwtToken {
+        SigningKeySnapshot current = snapshot.get ();
+        if (current == null) {
+            current = refresh ();
+        }
+        if (current == null) {
+            throw new InvalidJwtToken ("No signing key available");
+        }
+        return current;
+    }
+
+    /**
+     * Triggers a refresh on the task scheduler, for example when a token of an
+     * unknown newer version has been seen.
+     */
+    public void refreshAsync () {
+        if (refreshTask != null) {
+            taskScheduler.execute (this::refresh);
+        }
+    }
+
+    /**
+     * Reads the current secret from Vault and swaps in a new snapshot when the
+     * key version or key material has changed. Failures keep the last snapshot.
+     *
+     * @return the current snapshot, or null if none could be loaded
+     */
+    public synchronized SigningKeySnapshot refresh () {
+        SigningKeySnapshot current = snapshot.get ();
+        try {
+            SecretDto secretDto = watermarkSecretsManager.getSecretDto ();
+            if (secretDto == null || secretDto.getMetadata () == null || secretDto.getData () == null) {
+                return current;
+            }
+            Map<String, String> data = secretDto.getData ();
+            int version = secretDto.getMetadata ().getVersion ();
+            String privateKey = data.get (Constants.PRIVATE_KEY);
+            if (version <= 0 || privateKey == null || privateKey.isEmpty ()) {
+                return current;
+            }
+            if (current != null && current.getVersion () == version && privateKey.equals (encodedPrivateKey)) {
+                return current;
+            }
+            SigningKeySnapshot loaded = load (version, data);
+            snapshot.set (loaded);
+            encodedPrivateKey = privateKey;
+            if (current != null) {
+                log.info ("Signing key rotated from version {} to {}", current.getVersion (), version);
+            }
+            listeners.forEach (listener -> listener.accept (loaded));
+            return loaded;
+        } catch (Exception e) {
+            log.warn ("Could not refresh the signing key, keeping version {}: {}", current != null ? current.getVersion () : "none", e.getMessage ());
+            return current;
+        }
+    }
+
+    private SigningKeySnapshot load (int version, Map<String, String> data) throws Exception {
+        PrivateKey rsaPrivateKey = watermarkSecretsManager.readPrivateKey (data.get (Constants.PRIVATE_KEY));
+        RSAPublicKey publicKey = watermarkSecretsManager.readPublicKey (data.get (Constants.PUBLIC_KEY));
+        String ecPrivateKeyEncoded = data.get (Constants.EC_PRIVATE_KEY);
+        String ecPublicKeyEncoded = data.get (Constants.EC_PUBLIC_KEY);
+        ECPublicKey ecPublicKey = null;
+        ECPrivateKey ecPrivateKey = null;
+        if (ecPrivateKeyEncoded != null && !ecPrivateKeyEncoded.isEmpty () && ecPublicKeyEncoded != null && !ecPublicKeyEncoded.isEmpty ()) {
+            ecPublicKey = watermarkSecretsManager.readEcPublicKey (ecPublicKeyEncoded);
+            ecPrivateKey = watermarkSecretsManager.readEcPrivateKey (ecPrivateKeyEncoded);
+        }
+        SignatureAlgorithm algorithm = signatureAlgorithm;
+        if (algorithm == SignatureAlgorithm.ES256 && ecPrivateKey == null) {
+            log.warn ("Key version {} has no EC key pair, signing with RS256", version);
+            algorithm = SignatureAlgorithm.RS256;
+        }
+        String keyId = SigningKeySnapshot.keyIdOf (algorithm, version);
+        JWK signingKey = algorithm == SignatureAlgorithm.ES256
+                ? new ECKey.Builder (Curve.P_256, ecPublicKey).privateKey (ecPrivateKey).keyID (keyId).build ()
+                : new RSAKey.Builder (publicKey).privateKey (rsaPrivateKey).keyID (keyId).build ();
+        JWKSet jwkSet = new JWKSet (signingKey);
+        JWKSource<SecurityContext> jwkSource = (jwkSelector, securityContext) -> jwkSelector.select (jwkSet);
+        return SigningKeySnapshot.builder ()
+                .version (version)
+                .signatureAlgorithm (algorithm)
+                .privateKey (algorithm == SignatureAlgorithm.ES256 ? ecPrivateKey : rsaPrivateKey)
+                .publicKey (publicKey)
+                .ecPublicKey (ecPublicKey)
+                .jwtEncoder (new NimbusJwtEncoder (jwkSource))
+                .userName (data.get (Constants.WATERMARK_USERNAME))
+                .password (data.get (Constants.WATERMARK_PASSWORD))
+                .build ();
+    }
+}
@@ -0,0 +1,116 @@
+package com.valmet.watermark.config.security;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+
+import java.security.PrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+/**
+ * Immutable snapshot of the signing material of one Vault key version.
+ * <p>
+ * The keys are parsed and the {@link JwtEncoder} is built once when the
+ * version is loaded, so issuing a token with a snapshot only signs in memory.
+ * The key version, the signature algorithm, the keys and the encoder always
+ * belong together. Tokens carry the stable key ID {@code rsa-v<version>} for
+ * RS256 or {@code ec-v<version>} for ES256 in their {@code kid} header, which
+ * is also the key ID published in the JWKS.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Getter
+@Builder
+public class SigningKeySnapshot {
+    private static final String RSA_KEY_ID_PREFIX = "rsa-v";
+    private static final String EC_KEY_ID_PREFIX = "ec-v";
+    /**
+     * The Vault version of the key pairs.
+     */
+    private final int version;
+    /**
+     * The algorithm the tokens are signed with, RS256 or ES256.
+     */
+    private final SignatureAlgorithm signatureAlgorithm;
+    /**
+     * The private key signing the tokens, of the signature algorithm.
+     */
+    private final PrivateKey privateKey;
+    /**
+     * The RSA public key of the version.
+     */
+    private final RSAPublicKey publicKey;
+    /**
+     * The P-256 EC public key of the version, or null if the version has no EC
+     * key pair.
+     */
+    private final ECPublicKey ecPublicKey;
+    /**
+     * The encoder signing with the private key.
+     */
+    private final JwtEncoder jwtEncoder;
+    /**
+     * The fallback login user name stored with the keys.
+     */
+    private final String userName;
+    /**
+     * The fallback login password stored with the keys.
+     */
+    private final String password;
+
+    /**
+     * Returns the key ID of the signing key of this snapshot.
+     *
+     * @return the key ID
+     */
+    public String getKeyId () {
+        return keyIdOf (signatureAlgorithm, version);
+    }
+
+    /**
+     * Returns the key ID of a key version for a signature algorithm.
+     *
+     * @param signatureAlgorithm RS256 or ES256
+     * @param version            the Vault version of the key
+     * @return the key ID
+     */
+    public static String keyIdOf (SignatureAlgorithm signatureAlgorithm, int version) {
+        return (signatureAlgorithm == SignatureAlgorithm.ES256 ? EC_KEY_ID_PREFIX : RSA_KEY_ID_PREFIX) + version;
+    }
+
+    /**
+     * Returns the signature algorithm of a key ID.
+     *
+     * @param keyId the key ID, may be null
+     * @return RS256 or ES256, or null if the key ID does not name a key version
+     */
+    public static SignatureAlgorithm algorithmOfKeyId (String keyId) {
+        if (versionOfKeyId (keyId) == null) {
+            return null;
+        }
+        return keyId.startsWith (EC_KEY_ID_PREFIX) ? SignatureAlgorithm.ES256 : SignatureAlgorithm.RS256;
+    }
+
+    /**
+     * Returns the Vault key version of a key ID.
+     *
+     * @param keyId the key ID, may be null
+     * @return the version, or null if the key ID does not name a key version
+     */
+    public static Integer versionOfKeyId (String keyId) {
+        String prefix = keyId == null ? null : keyId.startsWith (RSA_KEY_ID_PREFIX) ? RSA_KEY_ID_PREFIX
+                : keyId.startsWith (EC_KEY_ID_PREFIX) ? EC_KEY_ID_PREFIX : null;
+        if (prefix == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt (keyId.substring (prefix.length ()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
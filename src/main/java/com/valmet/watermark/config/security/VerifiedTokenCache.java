@@ -0,0 +1,107 @@
+package com.valmet.watermark.config.security;
+
+import com.valmet.watermark.service.BoundedCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Bounded in-memory cache of verified JWTs.
+ * <p>
+ * Integrations reuse one access token for many requests, so the {@link Jwt}
+ * verified by the {@link JwtVerifier} is kept under the SHA-256 hash of the
+ * token string and returned without checking the signature again. An entry is
+ * dropped when the token expires, when its key version is no longer held by
+ * the {@link PublicKeyCache}, or when it has not been used for
+ * {@code security.jwt.verified-token-cache.expire-after-access}. Tokens
+ * without a key version are verified with the current key and are not cached.
+ * </p>
+ * <p>
+ * At most {@code security.jwt.verified-token-cache.max-size} tokens are held
+ * in a {@link BoundedCache}, which evicts approximately the least recently used
+ * ones beyond that. A size of 0 disables the cache. Hits, misses, evictions and
+ * the size are published as {@code cache.gets}, {@code cache.evictions} and
+ * {@code cache.size} tagged {@code cache=verified-tokens}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Component
+public class VerifiedTokenCache {
+    private static final String CACHE_NAME = "verified-tokens";
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial (() -> {
+        try {
+            return MessageDigest.getInstance ("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException (e);
+        }
+    });
+    private final boolean enabled;
+    private final BoundedCache<ByteBuffer, Entry> entries;
+
+    /**
+     * Constructor to initialize the verified token cache.
+     *
+     * @param publicKeyCache    the cache of the key versions still accepted
+     * @param meterRegistry     the registry used to publish cache metrics
+     * @param maxSize           the maximum number of cached tokens, 0 to disable the cache
+     * @param expireAfterAccess how long a token is kept after its last use
+     */
+    public VerifiedTokenCache (PublicKeyCache publicKeyCache, MeterRegistry meterRegistry,
+                               @Value ("${security.jwt.verified-token-cache.max-size:10000}") int maxSize,
+                               @Value ("${security.jwt.verified-token-cache.expire-after-access:30m}") Duration expireAfterAccess) {
+        this.enabled = maxSize > 0;
+        this.entries = new BoundedCache<> (CACHE_NAME, maxSize, expireAfterAccess,
+                entry -> publicKeyCache.contains (entry.version), meterRegistry);
+    }
+
+    /**
+     * Returns the cached {@link Jwt} of a token if it is still valid.
+     *
+     * @param token the JWT
+     * @return the verified {@link Jwt}, or null if the token has to be verified
+     */
+    public Jwt get (String token) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get (keyOf (token));
+        return entry != null && entry.jwt.getTokenValue ().equals (token) ? entry.jwt : null;
+    }
+
+    /**
+     * Caches a verified {@link Jwt} until it expires.
+     *
+     * @param jwt     the verified {@link Jwt}
+     * @param version the key version the signature was checked with, or null
+     *                if it was checked with the current key
+     */
+    public void put (Jwt jwt, Integer version) {
+        if (!enabled || version == null || jwt.getExpiresAt () == null) {
+            return;
+        }
+        Duration timeToLive = Duration.between (Instant.now (), jwt.getExpiresAt ());
+        if (!timeToLive.isNegative () && !timeToLive.isZero ()) {
+            entries.put (keyOf (jwt.getTokenValue ()), new Entry (jwt, version), timeToLive);
+        }
+    }
+
+    private static ByteBuffer keyOf (String token) {
+        return ByteBuffer.wrap (SHA_256.get ().digest (token.getBytes (StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * A verified token and the key version its signature was checked with.
+     */
+    private record Entry(Jwt jwt, int version) {
+    }
+}
@@ -13,8 +13,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.vault.support.VaultResponse;
 
 import java.security.KeyFactory;
+import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
 import java.util.HashMap;
@@ -134,18 +138,34 @@ public class WatermarkSecretsManager {
      * @return the public key as a String
      */
     public String getSpecificVersion (int version) {
+        Map<String, Object> secretData = findSecretData (version);
+        String publicKey = secretData != null ? (String) secretData.get (Constants.PUBLIC_KEY) : null;
+        if (publicKey != null && !publicKey.isEmpty ()) {
+            return publicKey;
+        }
+        log.warn ("No RSA public key found for version {}. Using public key of version {} from cache.", version, rsaKeyCache.getOrDefault (Constants.VERSION, "0"));
+        return rsaKeyCache.getOrDefault (Constants.PUBLIC_KEY, "");
+    }
+
+    /**
+     * Looks up the secret data of a specific version in the vault without
+     * falling back to the cached current secret.
+     *
+     * @param version the version of the secret
+     * @return the secret data, or null if the vault has no such version or
+     * cannot be reached
+     */
+    public Map<String, Object> findSecretData (int version) {
         log.info ("Retrieving specific version of RSA key: {}", version);
         VaultResponse vaultResponse = vaultService.getSpecificVersion (version);
         if (vaultResponse != null && vaultResponse.getData () != null) {
             Map<String, Object> secretData = (Map<String, Object>) vaultResponse.getData ().get ("data");
-            String publicKey = (String) secretData.get (Constants.PUBLIC_KEY);
-            if (publicKey != null && !publicKey.isEmpty ()) {
-                log.info ("Public key found in vault for version {}:", version);
-                return publicKey;
+            if (secretData != null) {
+                log.info ("Secret data found in vault for version {}:", version);
+                return secretData;
             }
         }
-        log.warn ("No RSA public key found for version {}. Using public key of version {} from cache.", version, rsaKeyCache.getOrDefault (Constants.VERSION, "0"));
-        return rsaKeyCache.getOrDefault (Constants.PUBLIC_KEY, "");
+        return null;
     }
 
     /**
@@ -170,6 +190,52 @@ public class WatermarkSecretsManager {
         }
     }
 
+    /**
+     * Reads the RSA private key from a string.
+     *
+     * @param privateKey the PKCS8 private key as a String
+     * @return the PrivateKey instance
+     * @throws Exception if the private key cannot be read
+     */
+    public PrivateKey readPrivateKey (String privateKey) throws Exception {
+        return readPrivateKey (privateKey, "RSA");
+    }
+
+    /**
+     * Reads the P-256 EC public key from a string.
+     *
+     * @param pubKey the X509 public key as a String
+     * @return the ECPublicKey instance
+     * @throws Exception if the public key cannot be read
+     */
+    public ECPublicKey readEcPublicKey (String pubKey) throws Exception {
+        byte[] keyBytes = Base64.getDecoder ().decode (pubKey.replaceAll ("\\s", ""));
+        return (ECPublicKey) KeyFactory.getInstance ("EC").generatePublic (new X509EncodedKeySpec (keyBytes));
+    }
+
+    /**
+     * Reads the P-256 EC private key from a string.
+     *
+     * @param privateKey the PKCS8 private key as a String
+     * @return the ECPrivateKey instance
+     * @throws Exception if the private key cannot be read
+     */
+    public ECPrivateKey readEcPrivateKey (String privateKey) throws Exception {
+        return (ECPrivateKey) readPrivateKey (privateKey, "EC");
+    }
+
+    private PrivateKey readPrivateKey (String privateKey, String algorithm) throws Exception {
+        log.info ("Reading {} private key.", algorithm);
+        if (privateKey == null) {
+            log.error ("Private key not found in vault");
+            throw new Exception ("Private key not found in vault");
+        }
+        byte[] keyBytes = Base64.getDecoder ().decode (privateKey.replaceAll ("\\s", ""));
+        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec (keyBytes);
+        KeyFactory kf = KeyFactory.getInstance (algorithm);
+        return kf.generatePrivate (spec);
+    }
+
     /**
      * Extracts the RSA key version from the JWT token.
      *
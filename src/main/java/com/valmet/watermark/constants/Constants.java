@@ -16,6 +16,7 @@ import java.text.SimpleDateFormat;
  */
 public class Constants {
     public static final String AUTHENTICATION_HEADER_NAME = "Authorization";
+    public static final String API_KEY_HEADER_NAME = "X-API-Key";
     public static final String SUCCESS_CODE = "200";
     public static final String TOKEN_TYPE = "token_type";
     public static final String RSA_KEY_VERSION = "ras_key_version";
@@ -27,6 +28,8 @@ public class Constants {
     public static final String REQUEST_ID = "requestId";
     public static final String PRIVATE_KEY = "private_key";
     public static final String PUBLIC_KEY = "public_key";
+    public static final String EC_PRIVATE_KEY = "ec_private_key";
+    public static final String EC_PUBLIC_KEY = "ec_public_key";
     public static final String VERSION = "version";
     public static final String WATERMARK_USERNAME = "watermark.username";
     public static final String WATERMARK_PASSWORD = "watermark.password";
@@ -21,7 +21,10 @@ public final class ErrorCode {
     public static final String FILE_SIZE_LIMIT = "40107";
     public static final String INVALID_PROPERTY_KEY = "40108";
     public static final String ACCESS_DENIED = "40109";
+    public static final String INVALID_PROPERTY_VALUE = "40110";
+    public static final String API_KEY_NOT_FOUND = "40401";
     public static final String INTERNAL_SERVER_ERROR = "5000";
+    public static final String SERVICE_OVERLOADED = "50301";
     public static final int MAINTENANCE_MODE = 9999;
 
     private ErrorCode () {
@@ -3,9 +3,12 @@ package com.valmet.watermark.controller;
 import com.valmet.watermark.exception.WatermarkApplicationException;
 import com.valmet.watermark.response.BaseResponse;
 import com.valmet.watermark.service.AddWaterMarkToPdfService;
+import com.valmet.watermark.service.AdmissionControlService;
+import com.valmet.watermark.service.WatermarkRequestContext;
 import io.github.resilience4j.bulkhead.annotation.Bulkhead;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
@@ -45,6 +48,7 @@ import static com.valmet.watermark.enums.ResponseType.ERROR;
 public class AddWaterMarkToPdfController {
     private static final String CIRCUIT_BREAKER_NAME = "watermark-api";
     private final AddWaterMarkToPdfService addWaterMarkToPdfService;
+    private final AdmissionControlService admissionControlService;
     private final HttpServletRequest request;
 
     /**
@@ -52,9 +56,13 @@ public class AddWaterMarkToPdfController {
      *
      * @param addWaterMarkToPdfService the service responsible for processing and adding
      *                                 watermarks to PDF files
+     * @param admissionControlService  the service that admits requests against the memory
+     *                                 and CPU budget
      */
-    public AddWaterMarkToPdfController (AddWaterMarkToPdfService addWaterMarkToPdfService, HttpServletRequest request) {
+    public AddWaterMarkToPdfController (AddWaterMarkToPdfService addWaterMarkToPdfService,
+                                        AdmissionControlService admissionControlService, HttpServletRequest request) {
         this.addWaterMarkToPdfService = addWaterMarkToPdfService;
+        this.admissionControlService = admissionControlService;
         this.request = request;
     }
 
@@ -65,12 +73,15 @@ public class AddWaterMarkToPdfController {
      * system) to apply watermarks to the files.
      * </p>
      *
-     * @param files    a list of {@link MultipartFile} objects representing the PDF
-     *                 files to be watermarked
-     * @param personID an optional string representing the person ID for watermark
-     *                 metadata
-     * @param system   an optional string representing the system for watermark
-     *                 metadata
+     * @param files          a list of {@link MultipartFile} objects representing the PDF
+     *                       files to be watermarked
+     * @param personID       an optional string representing the person ID for watermark
+     *                       metadata
+     * @param system         an optional string representing the system for watermark
+     *                       metadata
+     * @param email          an optional email used to derive the person ID
+     * @param requestContext the parts of the request the pipeline and the fallback
+     *                       use after the servlet thread has returned
      * @return a {@link ResponseEntity} containing the result of the watermarking
      * operation
      * @throws IOException if an error occurs during file processing
@@ -83,7 +94,8 @@ public class AddWaterMarkToPdfController {
 	    @RequestParam("file") List<MultipartFile> files,
 	    @RequestParam(value = "personID", required = false) String personID,
 	    @RequestParam(value = "system", required = false) String system,
-	    @RequestParam(value = "email", required = false) String email) throws IOException {
+	    @RequestParam(value = "email", required = false) String email,
+	    @Parameter (hidden = true) WatermarkRequestContext requestContext) throws IOException {
 
         String ipAddress = request.getHeader ("X-Forwarded-For");
         log.info ("User IP Address X-Forwarded-For: {}", ipAddress);
@@ -91,20 +103,53 @@ public class AddWaterMarkToPdfController {
             ipAddress = request.getRemoteAddr ();
         }
 
-        String clientAppName = request.getHeader ("X-Client-Application-Name");
-        log.info ("Request sender: {}", clientAppName);
-        if (system == null || system.isEmpty ()) {
-            system = clientAppName;
+        log.info ("Request sender: {}", requestContext.clientApplicationName ());
+        String clientSystem = requestContext.clientSystem (system);
+        log.info ("User IP Address: {}, Client System: {}", ipAddress, clientSystem);
+        AdmissionControlService.Permit permit = admissionControlService.admit (
+                admissionControlService.estimateCost (files, requestContext.contentLength ()));
+        try {
+            return addWaterMarkToPdfService.getWatermarkedPdfAsync (files, personID, clientSystem, email, permit,
+                            requestContext.scope (), requestContext.allocation ())
+                    .whenComplete ((response, throwable) -> permit.close ());
+        } catch (RuntimeException e) {
+            permit.close ();
+            throw e;
         }
-        log.info ("User IP Address: {}, Client System: {}", ipAddress, system);
-        return addWaterMarkToPdfService.getWatermarkedPdfAsync (files, personID, system, email);
     }
 
-    public CompletableFuture<ResponseEntity<?>> uploadFilesFallback (List<MultipartFile> files, String personID, String system, String email, Throwable throwable) {
+    /**
+     * Fallback of the watermark endpoint when the circuit breaker or bulkhead
+     * rejects a request or the regular pipeline fails.
+     * <p>
+     * With {@code watermark.degraded-mode.enabled}, the files are watermarked in
+     * degraded mode, admitted against the same memory and CPU budget. Otherwise
+     * the uploaded files are returned unchanged.
+     * </p>
+     * <p>
+     * When the pipeline fails, the fallback runs on the worker thread that
+     * completed it, to which no request is bound, so it only uses the request
+     * through the {@link WatermarkRequestContext} resolved on the servlet thread.
+     * </p>
+     */
+    public CompletableFuture<ResponseEntity<?>> uploadFilesFallback (List<MultipartFile> files, String personID, String system, String email,
+                                                                     WatermarkRequestContext requestContext, Throwable throwable) {
         log.error ("Fallback method triggered: {}", throwable.getMessage ());
         if (throwable instanceof WatermarkApplicationException) {
             throw (WatermarkApplicationException) throwable;
         }
+        if (addWaterMarkToPdfService.isDegradedModeEnabled ()) {
+            AdmissionControlService.Permit permit = admissionControlService.admit (
+                    admissionControlService.estimateCost (files, requestContext.contentLength ()));
+            try {
+                return addWaterMarkToPdfService.getDegradedWatermarkedPdfAsync (files, personID, requestContext.clientSystem (system), email,
+                                throwable, requestContext.scope (), requestContext.allocation ())
+                        .whenComplete ((response, failure) -> permit.close ());
+            } catch (RuntimeException e) {
+                permit.close ();
+                throw e;
+            }
+        }
         try {
             return addWaterMarkToPdfService.getInputPDFAsync (files);
         } catch (Exception e) {
@@ -0,0 +1,139 @@
+package com.valmet.watermark.controller;
+
+import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.dto.ApiKeyRequest;
+import com.valmet.watermark.enums.ResponseType;
+import com.valmet.watermark.enums.ResultCodeConstants;
+import com.valmet.watermark.response.ApiKeyResponseDTO;
+import com.valmet.watermark.response.BaseResponse;
+import com.valmet.watermark.service.ApiKeyStore;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static com.valmet.watermark.response.WatermarkResponseUtil.throwApplicationException;
+
+/**
+ * ApiKeyController for issuing and revoking the API keys of machine clients.
+ * <p>
+ * The endpoints require the ADMIN role, granted to the service credentials
+ * with HTTP basic authentication.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@RestController
+@RequestMapping ("/api/admin/api-keys")
+@Validated
+@Tag (name = "API Key Administration API")
+public class ApiKeyController {
+    private final ApiKeyStore apiKeyStore;
+
+    /**
+     * Constructor to inject the API key store.
+     *
+     * @param apiKeyStore the store of the issued API keys
+     */
+    public ApiKeyController (ApiKeyStore apiKeyStore) {
+        this.apiKeyStore = apiKeyStore;
+    }
+
+    /**
+     * Issues an API key for a client system.
+     *
+     * @param apiKeyRequest the name of the client system and the validity of the key
+     * @return a response containing the API key, which is not returned again
+     */
+    @PostMapping
+    @Operation (summary = "Issue API Key", description = "Issue an API key for a machine client. The key is only returned in this response.")
+    @ApiResponses (value = {
+            @ApiResponse (responseCode = "200", description = "API key issued.", content = @Content (mediaType = "application/json", schema = @Schema (implementation = BaseResponse.class))),
+            @ApiResponse (responseCode = "403", description = "The caller is not an admin.", content = @Content (mediaType = "application/json"))})
+    public BaseResponse issue (@Valid @RequestBody ApiKeyRequest apiKeyRequest) {
+        Duration validity = apiKeyRequest.getValidityDays () == null ? null : Duration.ofDays (apiKeyRequest.getValidityDays ());
+        ApiKeyStore.IssuedKey issuedKey = apiKeyStore.issue (apiKeyRequest.getName (), validity);
+        return BaseResponse.builder ()
+                .responseType (ResponseType.RESULT)
+                .message (Collections.singleton (HttpStatus.OK.getReasonPhrase ()))
+                .result (ApiKeyResponseDTO.builder ()
+                        .id (issuedKey.key ().getId ())
+                        .name (issuedKey.key ().getName ())
+                        .apiKey (issuedKey.apiKey ())
+                        .expiresAt (issuedKey.key ().getExpiresAt ())
+                        .build ())
+                .code (Constants.SUCCESS_CODE)
+                .build ();
+    }
+
+    /**
+     * Lists the issued API keys.
+     *
+     * @return a response containing the keys, without the keys themselves
+     */
+    @GetMapping
+    @Operation (summary = "List API Keys", description = "List the issued API keys that are not revoked.")
+    public BaseResponse list () {
+        return BaseResponse.builder ()
+                .responseType (ResponseType.RESULT)
+                .message (Collections.singleton (HttpStatus.OK.getReasonPhrase ()))
+                .result (apiKeyStore.list ())
+                .code (Constants.SUCCESS_CODE)
+                .build ();
+    }
+
+    /**
+     * Revokes an API key.
+     *
+     * @param id the identifier of the key
+     * @return a response confirming the revocation
+     */
+    @DeleteMapping ("/{id}")
+    @Operation (summary = "Revoke API Key", description = "Revoke an API key; requests with it are rejected from then on.")
+    @ApiResponses (value = {
+            @ApiResponse (responseCode = "200", description = "API key revoked.", content = @Content (mediaType = "application/json", schema = @Schema (implementation = BaseResponse.class))),
+            @ApiResponse (responseCode = "404", description = "Unknown API key.", content = @Content (mediaType = "application/json"))})
+    public BaseResponse revoke (@PathVariable String id) {
+        if (!apiKeyStore.revoke (id)) {
+            throwApplicationException (ResultCodeConstants.API_KEY_NOT_FOUND);
+        }
+        return BaseResponse.builder ()
+                .responseType (ResponseType.RESULT)
+                .message (Collections.singleton (HttpStatus.OK.getReasonPhrase ()))
+                .result (id)
+                .code (Constants.SUCCESS_CODE)
+                .build ();
+    }
+
+    /**
+     * Reads the API key file again.
+     *
+     * @return a response containing the number of keys read
+     */
+    @PostMapping ("/reload")
+    @Operation (summary = "Reload API Keys", description = "Read the API key file again, picking up keys issued or revoked by other instances.")
+    public BaseResponse reload () {
+        return BaseResponse.builder ()
+                .responseType (ResponseType.RESULT)
+                .message (Collections.singleton (HttpStatus.OK.getReasonPhrase ()))
+                .result (apiKeyStore.reload ())
+                .code (Constants.SUCCESS_CODE)
+                .build ();
+    }
+}
@@ -0,0 +1,62 @@
+package com.valmet.watermark.controller;
+
+import com.valmet.watermark.config.security.PublicKeyCache;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * JwksController publishing the public keys of the service as a JWK set.
+ * <p>
+ * Every token carries the key ID of its Vault key version and algorithm,
+ * {@code rsa-v<version>} or {@code ec-v<version>}, in the {@code kid} header,
+ * so other services can verify the tokens
+ * locally with the key of the same ID. The response may be cached for
+ * {@code security.jwt.jwks.max-age}; a service that sees an unknown key ID
+ * should fetch the set again.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@RestController
+@Tag (name = "JWKS API")
+public class JwksController {
+    private final PublicKeyCache publicKeyCache;
+    private final CacheControl cacheControl;
+
+    /**
+     * Constructor to inject the public key cache.
+     *
+     * @param publicKeyCache the cache holding the public key versions
+     * @param maxAge         how long clients may cache the JWK set
+     */
+    public JwksController (PublicKeyCache publicKeyCache, @Value ("${security.jwt.jwks.max-age:5m}") Duration maxAge) {
+        this.publicKeyCache = publicKeyCache;
+        this.cacheControl = CacheControl.maxAge (maxAge).cachePublic ();
+    }
+
+    /**
+     * Returns the public keys of all active key versions.
+     *
+     * @return the JWK set
+     */
+    @GetMapping (value = "/.well-known/jwks.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation (security = {}, summary = "JSON Web Key Set", description = "Public keys verifying the issued tokens, selected by the kid header of a token.")
+    @ApiResponses (value = {
+            @ApiResponse (responseCode = "200", description = "The JWK set of the active key versions.", content = @Content (mediaType = "application/json"))})
+    public ResponseEntity<Map<String, Object>> jwks () {
+        return ResponseEntity.ok ().cacheControl (cacheControl).body (publicKeyCache.getJwkSet ());
+    }
+}
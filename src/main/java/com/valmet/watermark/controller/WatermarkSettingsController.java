@@ -0,0 +1,109 @@
+package com.valmet.watermark.controller;
+
+import com.valmet.watermark.config.WatermarkSettingsHolder;
+import com.valmet.watermark.config.WatermarkSettingsSnapshot;
+import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.enums.ResponseType;
+import com.valmet.watermark.response.BaseResponse;
+import com.valmet.watermark.service.PropertyUpdaterService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * WatermarkSettingsController for reading, updating and reloading the
+ * watermark settings.
+ * <p>
+ * The endpoints require the ADMIN role. Every update or reload publishes a new
+ * settings version, used by documents started after it.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@RestController
+@RequestMapping ("/api/admin/settings")
+@Tag (name = "Watermark Settings Administration API")
+public class WatermarkSettingsController {
+    private final WatermarkSettingsHolder watermarkSettingsHolder;
+    private final PropertyUpdaterService propertyUpdaterService;
+
+    /**
+     * Constructor to inject the settings holder and the property updater.
+     *
+     * @param watermarkSettingsHolder the holder of the current settings
+     * @param propertyUpdaterService  the service updating single settings
+     */
+    public WatermarkSettingsController (WatermarkSettingsHolder watermarkSettingsHolder, PropertyUpdaterService propertyUpdaterService) {
+        this.watermarkSettingsHolder = watermarkSettingsHolder;
+        this.propertyUpdaterService = propertyUpdaterService;
+    }
+
+    /**
+     * Returns the current settings.
+     *
+     * @return a response containing the settings and their version
+     */
+    @GetMapping
+    @Operation (summary = "Get Watermark Settings", description = "Return the watermark settings in use and their version.")
+    public BaseResponse get () {
+        return response (describe (watermarkSettingsHolder.getSnapshot ()));
+    }
+
+    /**
+     * Changes one setting.
+     *
+     * @param key   the name of the setting, e.g. watermark.settings.opacity
+     * @param value the new value
+     * @return a response confirming the update
+     * @throws IOException if the settings file cannot be written
+     */
+    @PostMapping ("/update")
+    @Operation (summary = "Update Watermark Setting", description = "Change one watermark setting and publish a new settings version.")
+    public BaseResponse update (@RequestParam String key, @RequestParam String value) throws IOException {
+        return response (propertyUpdaterService.updateProperty (key, value));
+    }
+
+    /**
+     * Reads the settings again.
+     *
+     * @return a response containing the settings in use afterwards
+     */
+    @PostMapping ("/reload")
+    @Operation (summary = "Reload Watermark Settings", description = "Read the watermark settings again and publish them if they changed.")
+    public BaseResponse reload () {
+        return response (describe (watermarkSettingsHolder.reload ()));
+    }
+
+    private static BaseResponse response (Object result) {
+        return BaseResponse.builder ()
+                .responseType (ResponseType.RESULT)
+                .message (Collections.singleton (HttpStatus.OK.getReasonPhrase ()))
+                .result (result)
+                .code (Constants.SUCCESS_CODE)
+                .build ();
+    }
+
+    private static Map<String, Object> describe (WatermarkSettingsSnapshot settings) {
+        Map<String, Object> values = new LinkedHashMap<> ();
+        values.put ("version", settings.getVersion ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "opacity", settings.getOpacity ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "logoOpacity", settings.getLogoOpacity ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "colorCode", settings.getColorCode ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "xAxis", settings.getXAxis ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "yAxis", settings.getYAxis ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "fontName", settings.getFontName ());
+        values.put (WatermarkSettingsSnapshot.PREFIX + "fontStyle", settings.getFontStyle ());
+        return values;
+    }
+}
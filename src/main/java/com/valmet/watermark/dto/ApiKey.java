@@ -0,0 +1,45 @@
+package com.valmet.watermark.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * An API key issued to a machine client.
+ * <p>
+ * Only the SHA-256 hash of the key is kept; the key itself is returned once,
+ * when it is issued.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Builder (toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ApiKey {
+    /**
+     * The identifier of the key, used to revoke it.
+     */
+    private String id;
+    /**
+     * The name of the client system, used as the principal of its requests.
+     */
+    private String name;
+    /**
+     * The hex encoded SHA-256 hash of the key.
+     */
+    private String hash;
+    /**
+     * When the key was issued.
+     */
+    private Instant createdAt;
+    /**
+     * When the key expires, or null if it does not expire.
+     */
+    private Instant expiresAt;
+}
@@ -0,0 +1,33 @@
+package com.valmet.watermark.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Request to issue an API key for a machine client.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ApiKeyRequest {
+    /**
+     * The name of the client system the key is issued to.
+     */
+    @NotEmpty (message = "Name must not be empty")
+    private String name;
+    /**
+     * The number of days the key is valid; the key does not expire if absent.
+     */
+    @Positive (message = "Validity days must be positive")
+    private Integer validityDays;
+}
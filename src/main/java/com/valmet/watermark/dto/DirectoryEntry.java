@@ -0,0 +1,67 @@
+package com.valmet.watermark.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The identity attributes of an Active Directory user kept in the local
+ * directory index.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DirectoryEntry {
+    private static final String MAIL_ATTR = "mail";
+    private static final String USER_PRINCIPAL_NAME_ATTR = "userPrincipalName";
+    private static final String SAM_ACCOUNT_NAME_ATTR = "sAMAccountName";
+    private static final String EMPLOYEE_ID_ATTR = "employeeID";
+    /**
+     * The LDAP attributes held by an entry.
+     */
+    public static final String[] ATTRIBUTES = {MAIL_ATTR, USER_PRINCIPAL_NAME_ATTR, SAM_ACCOUNT_NAME_ATTR, EMPLOYEE_ID_ATTR};
+    private String email;
+    private String userPrincipalName;
+    private String accountName;
+    private String employeeId;
+
+    /**
+     * Returns whether an LDAP attribute is held by the entries.
+     *
+     * @param attribute the LDAP attribute name
+     * @return true if {@link #attribute(String)} answers it
+     */
+    public static boolean isIndexed (String attribute) {
+        for (String indexed : ATTRIBUTES) {
+            if (indexed.equalsIgnoreCase (attribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value of an LDAP attribute.
+     *
+     * @param attribute the LDAP attribute name, one of {@link #ATTRIBUTES}
+     * @return the value, or null if the user has none
+     * @throws IllegalArgumentException if the attribute is not held by the entries
+     */
+    public String attribute (String attribute) {
+        if (MAIL_ATTR.equalsIgnoreCase (attribute)) {
+            return email;
+        } else if (USER_PRINCIPAL_NAME_ATTR.equalsIgnoreCase (attribute)) {
+            return userPrincipalName;
+        } else if (SAM_ACCOUNT_NAME_ATTR.equalsIgnoreCase (attribute)) {
+            return accountName;
+        } else if (EMPLOYEE_ID_ATTR.equalsIgnoreCase (attribute)) {
+            return employeeId;
+        }
+        throw new IllegalArgumentException ("Attribute not indexed: " + attribute);
+    }
+}
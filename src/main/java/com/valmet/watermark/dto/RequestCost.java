@@ -0,0 +1,30 @@
+package com.valmet.watermark.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Estimated cost of a watermark request, used for admission control.
+ */
+@Getter
+@Builder
+@ToString
+public class RequestCost {
+    /**
+     * The request body size in bytes, taken from Content-Length or the sum of the uploaded file sizes.
+     */
+    private long bytes;
+    /**
+     * The number of uploaded files.
+     */
+    private int fileCount;
+    /**
+     * The number of pages, counted for small files and estimated from the file size for large ones.
+     */
+    private long pages;
+    /**
+     * The heap, in bytes, the request is expected to hold while it is processed.
+     */
+    private long memoryCost;
+}
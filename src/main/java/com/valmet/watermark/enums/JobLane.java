@@ -0,0 +1,11 @@
+package com.valmet.watermark.enums;
+
+/**
+ * Size classes used to schedule watermark jobs on separate worker lanes.
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+public enum JobLane {
+    SMALL, MEDIUM, LARGE
+}
@@ -13,7 +13,7 @@ package com.valmet.watermark.enums;
  * @version 1.0
  */
 public enum ResultCodeConstants {
-    INTERNAL_SERVER_ERROR, FILE_SIZE_LIMIT, FILE_REQUIRED, UNSUPPORTED_FILE_TYPE, WRONG_CREDENTIALS, TOKEN_EXPIRED, INVALID_PROPERTY_KEY,
+    INTERNAL_SERVER_ERROR, FILE_SIZE_LIMIT, FILE_REQUIRED, UNSUPPORTED_FILE_TYPE, WRONG_CREDENTIALS, TOKEN_EXPIRED, INVALID_PROPERTY_KEY, INVALID_PROPERTY_VALUE, SERVICE_OVERLOADED, API_KEY_NOT_FOUND,
     ResultCodeConstants () {
     }
 }
@@ -0,0 +1,35 @@
+package com.valmet.watermark.exception;
+
+import com.valmet.watermark.constants.ErrorCode;
+import com.valmet.watermark.enums.ResultCodeConstants;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.io.Serial;
+
+/**
+ * Thrown when a request is rejected by admission control because the memory or
+ * CPU budget of the service is exhausted.
+ */
+@Getter
+public class ServiceOverloadedException extends WatermarkApplicationException {
+    /**
+     * Serial version UID for ensuring consistent serialization.
+     */
+    @Serial
+    private static final long serialVersionUID = -6185372938510245113L;
+    /**
+     * The number of seconds the client should wait before retrying.
+     */
+    private final long retryAfterSeconds;
+
+    /**
+     * Constructs a new {@link ServiceOverloadedException}.
+     *
+     * @param retryAfterSeconds the number of seconds the client should wait before retrying
+     */
+    public ServiceOverloadedException (long retryAfterSeconds) {
+        super (ResultCodeConstants.SERVICE_OVERLOADED, ErrorCode.SERVICE_OVERLOADED, HttpStatus.SERVICE_UNAVAILABLE);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,36 @@
+package com.valmet.watermark.response;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Data Transfer Object (DTO) for a newly issued API key.
+ * <p>
+ * The key is only returned here; the service keeps its hash.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Data
+@Builder
+public class ApiKeyResponseDTO {
+    /**
+     * The identifier of the key, used to revoke it.
+     */
+    private String id;
+    /**
+     * The name of the client system.
+     */
+    private String name;
+    /**
+     * The API key, sent by the client in the {@code X-API-Key} header.
+     */
+    private String apiKey;
+    /**
+     * When the key expires, or null if it does not expire.
+     */
+    private Instant expiresAt;
+}
@@ -74,6 +74,18 @@ public class WatermarkResponseUtil {
                         ErrorCode.INVALID_PROPERTY_KEY,
                         HttpStatus.BAD_REQUEST
                 );
+            case INVALID_PROPERTY_VALUE:
+                throw new WatermarkApplicationException (
+                        authResultCode,
+                        ErrorCode.INVALID_PROPERTY_VALUE,
+                        HttpStatus.BAD_REQUEST
+                );
+            case API_KEY_NOT_FOUND:
+                throw new WatermarkApplicationException (
+                        authResultCode,
+                        ErrorCode.API_KEY_NOT_FOUND,
+                        HttpStatus.NOT_FOUND
+                );
             default:
                 // Default case for unhandled result codes
                 throw WatermarkApplicationException.builder ().resultCode (ResultCodeConstants.INTERNAL_SERVER_ERROR)
@@ -1,23 +1,29 @@
 package com.valmet.watermark.service;
 
+import com.itextpdf.kernel.exceptions.PdfException;
 import com.valmet.watermark.constants.Constants;
+import com.valmet.watermark.dto.RequestCost;
 import com.valmet.watermark.enums.ResultCodeConstants;
 import com.valmet.watermark.exception.WatermarkApplicationException;
 import com.valmet.watermark.service.impl.AddWaterMarkToPdfServiceImpl;
-import io.github.resilience4j.retry.annotation.Retry;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.Tags;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.tomcat.util.http.fileupload.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
@@ -30,8 +36,11 @@ import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
@@ -54,13 +63,20 @@ import static com.valmet.watermark.response.WatermarkResponseUtil.throwApplicati
 @Slf4j
 public class AddWaterMarkToPdfService {
     private static final Logger requestResponseLogger = LoggerFactory.getLogger ("REQUEST_RESPONSE_LOGGER");
-    private static final String WATERMARK_SEPARATOR = "_watermark_";
     private static final SimpleDateFormat dateFormat = new SimpleDateFormat ("dd-MM-yyyy");
-    private static final ScheduledExecutorService fileDeletionExecutor = Executors.newScheduledThreadPool (10);
     private final AddWaterMarkToPdfServiceImpl addWaterMarkToPdfServiceImpl;
     private final String RETRY_NAME = "watermark-api";
     private final FileDeletionService fileDeletionService;
     private final LdapService ldapService;
+    private final PdfBufferPool pdfBufferPool;
+    private final AdmissionControlService admissionControlService;
+    private final WatermarkLaneScheduler watermarkLaneScheduler;
+    private final AsyncTaskExecutor blockingTaskExecutor;
+    private final Executor taskExecutor;
+    private final ScheduledExecutorService taskScheduler;
+    private final Retry retry;
+    private final WatermarkMetrics watermarkMetrics;
+    private final WatermarkProfiles watermarkProfiles;
     @Value ("${watermark.file.upload.directory}")
     private String uploadDir;
     @Value ("${watermark.file.name}")
@@ -73,65 +89,206 @@ public class AddWaterMarkToPdfService {
     private String strDownloadDateLabel;
     @Value ("${watermark.system}")
     private String strSystemLabel;
+    @Value ("${watermark.degraded-mode.enabled:true}")
+    private boolean degradedModeEnabled;
 
     /**
      * Constructor to initialize the watermarking implementation service.
      *
      * @param addWaterMarkToPdfServiceImpl the service implementation for adding
      *                                     watermarks to PDF files
+     * @param pdfBufferPool                the pool providing in-memory or spilled
+     *                                     buffers for inputs and outputs
+     * @param admissionControlService      the service whose permits are corrected by the
+     *                                     counted pages of a request
+     * @param watermarkLaneScheduler       the scheduler running jobs on size-class lanes
+     * @param blockingTaskExecutor         the executor for blocking LDAP lookups and file copies
+     * @param taskExecutor                 the CPU-bound executor used for ZIP packaging
+     * @param taskScheduler                the scheduler used to delay retries
+     * @param retryRegistry                the registry providing the {@code watermark-api} retry policy
+     * @param watermarkMetrics             the per-stage latency and size metrics
+     * @param watermarkProfiles            the watermark profiles of the client systems
      */
-    public AddWaterMarkToPdfService (AddWaterMarkToPdfServiceImpl addWaterMarkToPdfServiceImpl, FileDeletionService fileDeletionService, LdapService ldapService) {
+    public AddWaterMarkToPdfService (AddWaterMarkToPdfServiceImpl addWaterMarkToPdfServiceImpl, FileDeletionService fileDeletionService, LdapService ldapService,
+                                     PdfBufferPool pdfBufferPool, AdmissionControlService admissionControlService,
+                                     WatermarkLaneScheduler watermarkLaneScheduler,
+                                     @Qualifier ("blockingTaskExecutor") AsyncTaskExecutor blockingTaskExecutor,
+                                     @Qualifier ("taskExecutor") Executor taskExecutor,
+                                     @Qualifier ("taskScheduler") ThreadPoolTaskScheduler taskScheduler, RetryRegistry retryRegistry,
+                                     WatermarkMetrics watermarkMetrics, WatermarkProfiles watermarkProfiles) {
         this.addWaterMarkToPdfServiceImpl = addWaterMarkToPdfServiceImpl;
         this.fileDeletionService = fileDeletionService;
         this.ldapService = ldapService;
+        this.pdfBufferPool = pdfBufferPool;
+        this.admissionControlService = admissionControlService;
+        this.watermarkLaneScheduler = watermarkLaneScheduler;
+        this.blockingTaskExecutor = blockingTaskExecutor;
+        this.taskExecutor = taskExecutor;
+        this.taskScheduler = taskScheduler.getScheduledExecutor ();
+        this.retry = retryRegistry.retry (RETRY_NAME);
+        this.watermarkMetrics = watermarkMetrics;
+        this.watermarkProfiles = watermarkProfiles;
     }
 
     /**
      * Asynchronously processes uploaded PDF files, applies watermarks, and returns a response.
+     * <p>
+     * The request runs as a pipeline of stages, and the servlet thread is released
+     * as soon as the files are validated:
+     * </p>
+     * <ol>
+     * <li>transfer: every upload is copied into a {@link PdfBuffer} on the blocking executor,</li>
+     * <li>identity: concurrently, the person ID is derived from the email through LDAP on the blocking executor,</li>
+     * <li>prepare: the watermark text and PDF metadata are built once both are done, and the pages of
+     * the buffered files are counted to correct the admitted cost of the request,</li>
+     * <li>stamp: the files are watermarked on the scheduling lane of the corrected cost, retried by the
+     * {@code watermark-api} retry policy,</li>
+     * <li>package: multiple files are zipped on the CPU-bound {@code taskExecutor},</li>
+     * <li>response: the single PDF or the ZIP archive is returned as a streamed resource.</li>
+     * </ol>
+     * <p>
+     * The latency of every stage and the input, output and page sizes of the
+     * request are recorded by {@link WatermarkMetrics}.
+     * </p>
      *
      * @param file        list of uploaded PDF files as {@link MultipartFile}
      * @param strPersonID optional person ID for watermark metadata
      * @param strSystem   optional system metadata for the watermark
+     * @param strEmail    optional email used to derive the person ID
+     * @param permit      the admission permit of the request, whose cost picks the lane
+     * @param scope       the scope of the request, which closes the buffer of the response
+     * @param allocation  the allocation of the request the pipeline stages add to
      * @return a {@link CompletableFuture} containing the {@link ResponseEntity} with the watermarked file or a ZIP archive of files
-     * @throws IOException if an error occurs during file handling
      */
-    @Async ("taskExecutor")
-    public CompletableFuture<ResponseEntity<?>> getWatermarkedPdfAsync (List<MultipartFile> file, String strPersonID, String strSystem, String strEmail) throws IOException {
-        return CompletableFuture.completedFuture (getWatermarkedPdf (file, strPersonID, strSystem, strEmail));
+    public CompletableFuture<ResponseEntity<?>> getWatermarkedPdfAsync (List<MultipartFile> file, String strPersonID, String strSystem, String strEmail,
+                                                                        AdmissionControlService.Permit permit, PdfBufferScope scope, RequestAllocation allocation) {
+        log.info ("Inside getWatermarkedPdfAsync method");
+        if (file == null || file.isEmpty () || file.get (0).isEmpty ()) {
+            throwApplicationException (ResultCodeConstants.FILE_REQUIRED);
+        }
+        // File validation
+        validateFiles (file);
+
+        Tags metricTags = watermarkMetrics.requestTags (strSystem, file.size ());
+        long transferStart = System.nanoTime ();
+        Map<String, CompletableFuture<PdfBuffer>> transfers = transferFilesAsync (file, allocation);
+        CompletableFuture<Void> transferred = CompletableFuture.allOf (transfers.values ().toArray (CompletableFuture[]::new))
+                .whenComplete ((ignored, throwable) -> watermarkMetrics.recordStage (WatermarkMetrics.STAGE_TRANSFER, metricTags, transferStart));
+        CompletableFuture<String> identity = CompletableFuture.supplyAsync (() -> watermarkMetrics.recordStage (WatermarkMetrics.STAGE_IDENTITY, metricTags,
+                () -> resolvePersonId (strPersonID, strEmail), allocation), blockingTaskExecutor);
+        CompletableFuture<ResponseEntity<?>> response = transferred
+                .thenCombine (identity, (ignored, personId) -> prepareWatermarkJob (transfers, personId, strSystem, file.size () > 1, metricTags,
+                        allocation))
+                .thenCompose (job -> stampWithRetry (job, refineCost (job, permit)))
+                .thenApplyAsync (this::packageWatermarkedFiles, taskExecutor)
+                .thenApply (job -> buildWatermarkResponse (job, scope));
+        // The inputs are only needed until stamping is done; close them whatever the outcome
+        response.whenComplete ((result, throwable) -> transfers.values ().forEach (transfer -> transfer.thenAccept (PdfBuffer::close)));
+        return response;
+    }
+
+    /**
+     * Returns whether requests bypassing the regular pipeline are watermarked in
+     * degraded mode instead of being returned unchanged.
+     *
+     * @return true if degraded mode is enabled
+     */
+    public boolean isDegradedModeEnabled () {
+        return degradedModeEnabled;
     }
 
     /**
-     * Processes uploaded PDF files, applies watermarks, and returns a response.
+     * Asynchronously watermarks uploaded PDF files in degraded mode, used when
+     * the circuit breaker or bulkhead rejects a request or the regular pipeline
+     * fails.
      * <p>
-     * If only one file is uploaded, a watermarked file is returned as PDF. For
-     * multiple files, a ZIP archive of watermarked files is generated and returned
-     * a ZIP.
+     * Degraded mode sheds the expensive parts of the pipeline but still never
+     * returns an unmarked file:
+     * </p>
+     * <ul>
+     * <li>the person ID is taken from the request or the local directory index, without querying LDAP;
+     * unknown emails are watermarked as given,</li>
+     * <li>the files are stamped once with the precompiled profile of the client system and the cached
+     * text image, in append mode, without scheduling lanes or retries,</li>
+     * <li>documents that append mode cannot preserve are rewritten as in the regular pipeline.</li>
+     * </ul>
+     * <p>
+     * Every degraded request is counted in {@code watermark.degraded}.
      * </p>
      *
      * @param file        list of uploaded PDF files as {@link MultipartFile}
      * @param strPersonID optional person ID for watermark metadata
      * @param strSystem   optional system metadata for the watermark
-     * @return a {@link ResponseEntity} containing the watermarked file or a ZIP
-     * archive of files
-     * @throws IOException if an error occurs during file handling
+     * @param strEmail    optional email used to derive the person ID
+     * @param cause       the exception that bypassed the regular pipeline
+     * @param scope       the scope of the request, which closes the buffer of the response
+     * @param allocation  the allocation of the request the pipeline stages add to
+     * @return a {@link CompletableFuture} containing the {@link ResponseEntity} with the watermarked file or a ZIP archive of files
      */
-    @Retry (name = RETRY_NAME)
-    public ResponseEntity<?> getWatermarkedPdf (List<MultipartFile> file, String strPersonID, String strSystem, String strEmail) throws IOException {
-        log.info ("Inside getWatermarkedPdf method");
-        File watermarkedFile = null;
+    public CompletableFuture<ResponseEntity<?>> getDegradedWatermarkedPdfAsync (List<MultipartFile> file, String strPersonID, String strSystem,
+                                                                                 String strEmail, Throwable cause, PdfBufferScope scope,
+                                                                                 RequestAllocation allocation) {
         if (file == null || file.isEmpty () || file.get (0).isEmpty ()) {
             throwApplicationException (ResultCodeConstants.FILE_REQUIRED);
         }
-        File uploadDirFile = new File (uploadDir);
-        if (!uploadDirFile.exists () && !uploadDirFile.mkdirs ()) {
-            log.error ("Failed to create upload directory in getWatermarkedPdf: {}", uploadDir);
-            return ResponseEntity.status (HttpStatus.INTERNAL_SERVER_ERROR).body ("File directory not found");
-        }
-        log.info ("System defined upload path: {}, created uploaded file path: {}", uploadDir, uploadDirFile.getPath ());
-
-        // File validation
         validateFiles (file);
 
+        Tags metricTags = watermarkMetrics.requestTags (strSystem, file.size ());
+        String reason = (cause instanceof CompletionException && cause.getCause () != null ? cause.getCause () : cause).getClass ().getSimpleName ();
+        log.warn ("Watermarking {} files in degraded mode: {}", file.size (), reason);
+        Map<String, CompletableFuture<PdfBuffer>> transfers = transferFilesAsync (file, allocation);
+        CompletableFuture<ResponseEntity<?>> response = CompletableFuture.allOf (transfers.values ().toArray (CompletableFuture[]::new))
+                .thenApplyAsync (ignored -> prepareWatermarkJob (transfers, resolveIndexedPersonId (strPersonID, strEmail), strSystem,
+                        file.size () > 1, metricTags, allocation), taskExecutor)
+                .thenApply (this::stampFilesDegraded)
+                .thenApply (this::packageWatermarkedFiles)
+                .thenApply (job -> buildWatermarkResponse (job, scope));
+        response.whenComplete ((result, throwable) -> {
+            transfers.values ().forEach (transfer -> transfer.thenAccept (PdfBuffer::close));
+            watermarkMetrics.recordDegraded (metricTags, reason, throwable == null);
+        });
+        return response;
+    }
+
+    /**
+     * Transfer stage: copies every uploaded file into a buffer on the blocking
+     * executor. Files with a duplicate name are skipped.
+     *
+     * @param files      list of uploaded PDF files as {@link MultipartFile}
+     * @param allocation the allocation of the request the transfers add to
+     * @return the pending buffers by cleaned file name, in upload order
+     */
+    private Map<String, CompletableFuture<PdfBuffer>> transferFilesAsync (List<MultipartFile> files, RequestAllocation allocation) {
+        Map<String, CompletableFuture<PdfBuffer>> transfers = new LinkedHashMap<> ();
+        for (MultipartFile multipartFile : files) {
+            String originalFileName = StringUtils.cleanPath (Objects.requireNonNull (multipartFile.getOriginalFilename ()));
+            log.info ("Uploaded original file name: {}", originalFileName);
+            requestResponseLogger.info ("Uploaded original file name: {}", originalFileName);
+            if (transfers.containsKey (originalFileName)) {
+                log.warn ("Skipping duplicate file name: {}", originalFileName);
+                continue;
+            }
+            transfers.put (originalFileName, CompletableFuture.supplyAsync (() -> {
+                long allocationStart = watermarkMetrics.currentThreadAllocatedBytes ();
+                try {
+                    return pdfBufferPool.copyOf (multipartFile);
+                } catch (IOException e) {
+                    log.error ("Could not transfer file {}", originalFileName, e);
+                    throw new CompletionException (e);
+                } finally {
+                    watermarkMetrics.addAllocation (allocation, allocationStart);
+                }
+            }, blockingTaskExecutor));
+        }
+        return transfers;
+    }
+
+    /**
+     * Prepare stage: builds the watermark text and the PDF metadata shared by all
+     * files of the request and selects the watermark profile of its client system.
+     */
+    private WatermarkJob prepareWatermarkJob (Map<String, CompletableFuture<PdfBuffer>> transfers, String strPersonID, String strSystem, boolean zip,
+                                              Tags metricTags, RequestAllocation allocation) {
         //Prepare custom metadata for watermark pdf file
         Map<String, String> mapPdfCustomProperties = new HashMap<> ();
         String strKeyWords;
@@ -140,13 +297,6 @@ public class AddWaterMarkToPdfService {
         String strCurrentDate = Constants.dateFormat.format (date);
         mapPdfCustomProperties.put (strDownloadDateLabel, strCurrentDate);
         strKeyWords = strDownloadDateLabel + ": " + strCurrentDate;
-        if (isEmpty(strPersonID) && isNotEmpty(strEmail)) {
-            long startTime = System.currentTimeMillis();
-            log.info("Deriving person ID from email: {}", strEmail);
-            strPersonID = ldapService.findUserPrincipalNameByEmail(strEmail, Constants.PERSON_ID);
-            log.info("Time taken to derive person ID from email: {} ms", System.currentTimeMillis() - startTime);
-            log.info("Person ID derived from email: {}", strPersonID);
-        }
         if (isNotEmpty(strPersonID)) {
             strWaterMark = strDownloadMessage + " " + strPersonID;
             mapPdfCustomProperties.put(strDownloaderIdLabel, strPersonID);
@@ -159,70 +309,217 @@ public class AddWaterMarkToPdfService {
         }
         log.info ("Keyword info: {}", strKeyWords);
 
+        Map<String, PdfBuffer> inputs = new LinkedHashMap<> ();
+        transfers.forEach ((name, transfer) -> inputs.put (name, transfer.join ()));
+        inputs.values ().forEach (input -> watermarkMetrics.recordInputBytes (metricTags, input.size ()));
         String dateTime = dateFormat.format (date) + Constants.UNDER_SCORE + date.getTime ();
-        String randomString = "";
-        // Save the original file
-        if (file.size () == 1) {
-            MultipartFile multipartFile = file.get (0);
-            String originalFilename = multipartFile.getOriginalFilename ();
-            log.info ("Original file name:{}", originalFilename);
-            requestResponseLogger.info ("Original file name:{}", originalFilename);
-            // File transfer to system provided directory
-            File originalFile = new File (uploadDir + dateTime + WATERMARK_SEPARATOR + originalFilename);
-            try {
-                multipartFile.transferTo (originalFile);
-            } catch (IOException e) {
-                log.error ("Failed to transfer file: {}", originalFilename, e);
-                fileDeletionService.scheduleFileDeletionIfExists (originalFile.getAbsolutePath (), "Input");
-            }
-            // Add watermarked to PDF
-            randomString = RandomStringUtils.randomAlphanumeric (16);
-            addWaterMarkToPdfServiceImpl.addWatermarkToExistingPdf (originalFile.getPath (), uploadDir + dateTime + Constants.UNDER_SCORE + originalFilename, strKeyWords, mapPdfCustomProperties, strWaterMark, uploadDir + randomString + ".png");
+        WatermarkProfile profile = watermarkProfiles.profileFor (strSystem);
+        return new WatermarkJob (inputs, strKeyWords, mapPdfCustomProperties, strWaterMark, profile, dateTime, zip, metricTags, allocation);
+    }
 
-            try {
-                watermarkedFile = new File (uploadDir + dateTime + Constants.UNDER_SCORE + originalFilename);
-                log.info ("Watermarked output file :{}", watermarkedFile.getName ());
-                requestResponseLogger.info ("Watermarked output file :{}", watermarkedFile.getName ());
-                FileSystemResource fileResource = new FileSystemResource (watermarkedFile);
-                HttpHeaders headers = new HttpHeaders ();
-                headers.add (HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + originalFilename);
-                headers.setContentType (MediaType.APPLICATION_PDF);
-                return ResponseEntity.ok ().headers (headers).contentLength (watermarkedFile.length ()).contentType (MediaType.APPLICATION_PDF).body (fileResource);
-            } catch (Exception e) {
-                log.error ("Failed to create watermarked file: {}", originalFilename, e);
-                return ResponseEntity.status (HttpStatus.INTERNAL_SERVER_ERROR).body ("Failed to create watermarked file");
-            } finally {
-                log.info ("Finally block executed in getWatermarkedPdf method");
-                fileDeletionService.scheduleFileDeletionIfExists (watermarkedFile.getAbsolutePath (), "Output");
+    /**
+     * Prepare stage: counts the pages of the buffered inputs and corrects the
+     * admitted cost of the request, so its lane and CPU budget follow the
+     * actual pages rather than the size-based estimate.
+     */
+    private RequestCost refineCost (WatermarkJob job, AdmissionControlService.Permit permit) {
+        long allocationStart = watermarkMetrics.currentThreadAllocatedBytes ();
+        try {
+            long pages = job.inputs.values ().stream ().mapToLong (admissionControlService::countPages).sum ();
+            return admissionControlService.refine (permit, pages);
+        } finally {
+            watermarkMetrics.addAllocation (job.allocation, allocationStart);
+        }
+    }
+
+    /**
+     * Stamp stage: watermarks all files of the job on the scheduling lane of the
+     * request. Each attempt writes fresh output buffers, so a failed attempt can
+     * be retried from the same inputs.
+     */
+    private CompletionStage<WatermarkJob> stampWithRetry (WatermarkJob job, RequestCost cost) {
+        Supplier<CompletionStage<WatermarkJob>> stamp = () -> watermarkLaneScheduler.submit (cost, () -> stampFiles (job));
+        return Retry.decorateCompletionStage (retry, taskScheduler, stamp).get ();
+    }
+
+    private WatermarkJob stampFiles (WatermarkJob job) throws IOException {
+        Map<String, PdfBuffer> outputs = new LinkedHashMap<> ();
+        long stampStart = System.nanoTime ();
+        long stampAllocationStart = watermarkMetrics.currentThreadAllocatedBytes ();
+        try {
+            for (Map.Entry<String, PdfBuffer> input : job.inputs.entrySet ()) {
+                PdfBuffer watermarkedFile = pdfBufferPool.allocate ("output", input.getValue ().size ());
+                outputs.put (input.getKey (), watermarkedFile);
+                int pages = addWaterMarkToPdfServiceImpl.addWatermarkToExistingPdf (input.getValue (), watermarkedFile, job.strKeyWords,
+                        job.mapPdfCustomProperties, job.strWaterMark, job.profile, job.metricTags);
+                if (pages == 0) {
+                    throw new IOException ("Could not watermark " + input.getKey () + ", it has no pages");
+                }
+                watermarkMetrics.recordPages (job.metricTags, pages);
+                watermarkMetrics.recordOutputBytes (job.metricTags, watermarkedFile.size ());
+                log.info ("Watermarked output file :{}", input.getKey ());
+                requestResponseLogger.info ("Watermarked output file :{}", input.getKey ());
             }
+        } catch (IOException | RuntimeException e) {
+            log.error ("Failed to create watermarked files", e);
+            outputs.values ().forEach (PdfBuffer::close);
+            throw e;
+        }
+        watermarkMetrics.recordStage (WatermarkMetrics.STAGE_STAMP, job.metricTags, stampStart, stampAllocationStart, job.allocation);
+        job.outputs = outputs;
+        return job;
+    }
 
-        } else {
-            List<String> fileNames = file.stream ().map (multipartFile -> transferFileToServerPath (multipartFile, uploadDir, dateTime)).filter (fileName -> fileName != null && !fileName.isEmpty ()).toList ();
+    /**
+     * Degraded stamp stage: watermarks all files of the job in append mode on the
+     * current thread, rewriting the documents append mode cannot preserve.
+     */
+    private WatermarkJob stampFilesDegraded (WatermarkJob job) {
+        Map<String, PdfBuffer> outputs = new LinkedHashMap<> ();
+        long stampStart = System.nanoTime ();
+        long stampAllocationStart = watermarkMetrics.currentThreadAllocatedBytes ();
+        try {
+            for (Map.Entry<String, PdfBuffer> input : job.inputs.entrySet ()) {
+                PdfBuffer watermarkedFile = pdfBufferPool.allocate ("output", input.getValue ().size ());
+                outputs.put (input.getKey (), watermarkedFile);
+                int pages;
+                try {
+                    pages = addWaterMarkToPdfServiceImpl.addWatermarkInAppendMode (input.getValue (), watermarkedFile, job.strKeyWords,
+                            job.mapPdfCustomProperties, job.strWaterMark, job.profile, job.metricTags);
+                } catch (PdfException e) {
+                    log.warn ("Could not watermark {} in append mode, rewriting it: {}", input.getKey (), e.getMessage ());
+                    watermarkedFile.close ();
+                    watermarkedFile = pdfBufferPool.allocate ("output", input.getValue ().size ());
+                    outputs.put (input.getKey (), watermarkedFile);
+                    pages = addWaterMarkToPdfServiceImpl.addWatermarkToExistingPdf (input.getValue (), watermarkedFile, job.strKeyWords,
+                            job.mapPdfCustomProperties, job.strWaterMark, job.profile, job.metricTags);
+                }
+                if (pages == 0) {
+                    throw new IOException ("Could not watermark " + input.getKey () + ", it has no pages");
+                }
+                watermarkMetrics.recordPages (job.metricTags, pages);
+                watermarkMetrics.recordOutputBytes (job.metricTags, watermarkedFile.size ());
+                log.info ("Watermarked output file in degraded mode :{}", input.getKey ());
+                requestResponseLogger.info ("Watermarked output file in degraded mode :{}", input.getKey ());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error ("Failed to create watermarked files in degraded mode", e);
+            outputs.values ().forEach (PdfBuffer::close);
+            throw new CompletionException (e);
+        }
+        watermarkMetrics.recordStage (WatermarkMetrics.STAGE_STAMP_DEGRADED, job.metricTags, stampStart, stampAllocationStart, job.allocation);
+        job.outputs = outputs;
+        return job;
+    }
 
-            for (String fileName : fileNames) {
-                randomString = RandomStringUtils.randomAlphanumeric (16);
-                addWaterMarkToPdfServiceImpl.addWatermarkToExistingPdf (uploadDir + dateTime + Constants.UNDER_SCORE + fileName, uploadDir + dateTime + WATERMARK_SEPARATOR + fileName, strKeyWords, mapPdfCustomProperties, strWaterMark, uploadDir + randomString + ".png");
+    /**
+     * Package stage: zips the watermarked files of a multi-file request.
+     */
+    private WatermarkJob packageWatermarkedFiles (WatermarkJob job) {
+        if (!job.zip) {
+            return job;
+        }
+        PdfBuffer zipOutput = null;
+        long zipStart = System.nanoTime ();
+        long zipAllocationStart = watermarkMetrics.currentThreadAllocatedBytes ();
+        try {
+            long totalSize = job.outputs.values ().stream ().mapToLong (PdfBuffer::size).sum ();
+            zipOutput = pdfBufferPool.allocate ("zip", totalSize);
+            writeZipArchive (job.outputs, zipOutput.getOutputStream ());
+            watermarkMetrics.recordStage (WatermarkMetrics.STAGE_ZIP, job.metricTags, zipStart, zipAllocationStart, job.allocation);
+            job.zipOutput = zipOutput;
+            return job;
+        } catch (IOException e) {
+            if (zipOutput != null) {
+                zipOutput.close ();
             }
+            throw new CompletionException (e);
+        } finally {
+            job.outputs.values ().forEach (PdfBuffer::close);
+        }
+    }
 
-            ByteArrayOutputStream zipOutput = new ByteArrayOutputStream ();
-            try (ZipOutputStream zipOutputStream = new ZipOutputStream (zipOutput)) {
-                for (String filename : fileNames) {
-                    File convertedFile = new File (uploadDir + dateTime + WATERMARK_SEPARATOR + filename);
-                    zipOutputStream.putNextEntry (new ZipEntry (filename));
-                    FileInputStream fileInputStream = new FileInputStream (convertedFile);
-                    IOUtils.copy (fileInputStream, zipOutputStream);
-                    fileInputStream.close ();
-                    zipOutputStream.closeEntry ();
-                    fileDeletionService.scheduleFileDeletionIfExists (convertedFile.getAbsolutePath (), "Output");
+    /**
+     * Writes the given buffers as entries of a ZIP archive. Each buffer is closed
+     * as soon as it has been written, so its memory can be reused for the next one.
+     *
+     * @param files        the buffers by entry name
+     * @param outputStream the stream receiving the archive, closed on return
+     * @throws IOException if a buffer cannot be read or the archive cannot be written
+     */
+    static void writeZipArchive (Map<String, PdfBuffer> files, OutputStream outputStream) throws IOException {
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream (outputStream)) {
+            for (Map.Entry<String, PdfBuffer> entry : files.entrySet ()) {
+                zipOutputStream.putNextEntry (new ZipEntry (entry.getKey ()));
+                try (InputStream inputStream = entry.getValue ().getInputStream ()) {
+                    inputStream.transferTo (zipOutputStream);
                 }
-                zipOutputStream.finish ();
+                zipOutputStream.closeEntry ();
+                entry.getValue ().close ();
             }
-            InputStreamResource resource = new InputStreamResource (new ByteArrayInputStream (zipOutput.toByteArray ()));
-            String zipFile = fileName + dateTime + ".zip";
+            zipOutputStream.finish ();
+        }
+    }
+
+    /**
+     * Response stage: returns the watermarked PDF or the ZIP archive as a
+     * resource. Its buffer is registered with the scope of the request, which
+     * closes it once the response has been written or abandoned.
+     */
+    private ResponseEntity<?> buildWatermarkResponse (WatermarkJob job, PdfBufferScope scope) {
+        if (job.zip) {
+            scope.register (job.zipOutput);
+            String zipFile = fileName + job.dateTime + ".zip";
             log.info ("Watermarked output zip file :{}", zipFile);
             requestResponseLogger.info ("Watermarked output zip file :{}", zipFile);
-            return ResponseEntity.ok ().header (HttpHeaders.CONTENT_DISPOSITION, "attachment; " + "filename=" + zipFile).contentType (MediaType.parseMediaType ("application/zip")).body (resource);
+            return ResponseEntity.ok ().header (HttpHeaders.CONTENT_DISPOSITION, "attachment; " + "filename=" + zipFile).contentLength (job.zipOutput.size ()).contentType (MediaType.parseMediaType ("application/zip")).body (timedResource (job.zipOutput.toResource (zipFile), job));
+        }
+        Map.Entry<String, PdfBuffer> watermarkedFile = job.outputs.entrySet ().iterator ().next ();
+        scope.register (watermarkedFile.getValue ());
+        String originalFilename = watermarkedFile.getKey ();
+        HttpHeaders headers = new HttpHeaders ();
+        headers.add (HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + originalFilename);
+        headers.setContentType (MediaType.APPLICATION_PDF);
+        return ResponseEntity.ok ().headers (headers).contentLength (watermarkedFile.getValue ().size ()).contentType (MediaType.APPLICATION_PDF).body (timedResource (watermarkedFile.getValue ().toResource (originalFilename), job));
+    }
+
+    private Resource timedResource (Resource resource, WatermarkJob job) {
+        return watermarkMetrics.timeResponseWrite (resource, job.metricTags, job.allocation);
+    }
+
+    /**
+     * Derives the person ID from the email through the local directory index only.
+     * Emails that are not indexed are used as they are, so the watermark still
+     * identifies the downloader.
+     *
+     * @param strPersonID optional person ID for watermark metadata
+     * @param strEmail    optional email used to look up the person ID
+     * @return the given or derived person ID, or the email
+     */
+    private String resolveIndexedPersonId (String strPersonID, String strEmail) {
+        if (isEmpty (strPersonID) && isNotEmpty (strEmail)) {
+            String indexedPersonId = ldapService.findIndexedAttributeByEmail (strEmail, Constants.PERSON_ID);
+            return isNotEmpty (indexedPersonId) ? indexedPersonId : strEmail;
         }
+        return strPersonID;
+    }
+
+    /**
+     * Derives the person ID from the email through LDAP when no person ID is given.
+     *
+     * @param strPersonID optional person ID for watermark metadata
+     * @param strEmail    optional email used to look up the person ID
+     * @return the given or derived person ID
+     */
+    public String resolvePersonId (String strPersonID, String strEmail) {
+        if (isEmpty (strPersonID) && isNotEmpty (strEmail)) {
+            long startTime = System.currentTimeMillis ();
+            log.info ("Deriving person ID from email: {}", strEmail);
+            strPersonID = ldapService.findUserPrincipalNameByEmail (strEmail, Constants.PERSON_ID);
+            log.info ("Time taken to derive person ID from email: {} ms", System.currentTimeMillis () - startTime);
+            log.info ("Person ID derived from email: {}", strPersonID);
+        }
+        return strPersonID;
     }
 
     /**
@@ -291,14 +588,19 @@ public class AddWaterMarkToPdfService {
     }
 
     /**
-     * Asynchronously processes uploaded PDF files and returns a response.
+     * Asynchronously processes uploaded PDF files on the blocking executor and returns a response.
      *
      * @param file list of uploaded PDF files as {@link MultipartFile}
      * @return a {@link CompletableFuture} containing the {@link ResponseEntity} with the uploaded file or a ZIP archive of files
-     * @throws IOException if an error occurs during file handling
      */
-    public CompletableFuture<ResponseEntity<?>> getInputPDFAsync (List<MultipartFile> file) throws IOException {
-        return CompletableFuture.completedFuture (getInputPDF (file));
+    public CompletableFuture<ResponseEntity<?>> getInputPDFAsync (List<MultipartFile> file) {
+        return CompletableFuture.supplyAsync (() -> {
+            try {
+                return getInputPDF (file);
+            } catch (IOException e) {
+                throw new CompletionException (e);
+            }
+        }, blockingTaskExecutor);
     }
 
     /**
@@ -372,4 +674,35 @@ public class AddWaterMarkToPdfService {
             return ResponseEntity.ok ().header (HttpHeaders.CONTENT_DISPOSITION, "attachment; " + "filename=" + fileName + dateTime + ".zip").contentType (MediaType.parseMediaType ("application/zip")).body (resource);
         }
     }
+
+    /**
+     * State of a watermark request passed between the pipeline stages.
+     */
+    private static final class WatermarkJob {
+        private final Map<String, PdfBuffer> inputs;
+        private final String strKeyWords;
+        private final Map<String, String> mapPdfCustomProperties;
+        private final String strWaterMark;
+        private final WatermarkProfile profile;
+        private final String dateTime;
+        private final boolean zip;
+        private final Tags metricTags;
+        private final RequestAllocation allocation;
+        private Map<String, PdfBuffer> outputs;
+        private PdfBuffer zipOutput;
+
+        private WatermarkJob (Map<String, PdfBuffer> inputs, String strKeyWords, Map<String, String> mapPdfCustomProperties,
+                              String strWaterMark, WatermarkProfile profile, String dateTime, boolean zip, Tags metricTags,
+                              RequestAllocation allocation) {
+            this.inputs = inputs;
+            this.strKeyWords = strKeyWords;
+            this.mapPdfCustomProperties = mapPdfCustomProperties;
+            this.strWaterMark = strWaterMark;
+            this.profile = profile;
+            this.dateTime = dateTime;
+            this.zip = zip;
+            this.metricTags = metricTags;
+            this.allocation = allocation;
+        }
+    }
 }
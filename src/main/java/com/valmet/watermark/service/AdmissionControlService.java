@@ -0,0 +1,346 @@
+package com.valmet.watermark.service;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.valmet.watermark.dto.RequestCost;
+import com.valmet.watermark.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cost-aware admission control for watermark requests.
+ * <p>
+ * Every request is priced by the heap it is expected to hold (derived from its
+ * size) and by the number of pages to stamp (estimated from its size). Requests
+ * are admitted while the in-flight totals
+ * stay within {@code watermark.admission.memory-budget} and
+ * {@code watermark.admission.cpu-budget-pages}; otherwise a
+ * {@link ServiceOverloadedException} carrying a Retry-After estimate is thrown.
+ * A request is always admitted when nothing else is in flight, so a single job
+ * larger than the budget can still run on an idle instance. Admission never
+ * parses the uploads, so rejected requests cost no more than their upload;
+ * the watermark pipeline counts the pages of admitted files up to
+ * {@code watermark.admission.page-count-limit} with {@link #countPages(PdfBuffer)}
+ * once they are buffered and corrects the permit with {@link #refine(Permit, long)}.
+ * </p>
+ * <p>
+ * The service also listens for JVM heap collection-usage threshold
+ * notifications. While the heap stays above
+ * {@code watermark.admission.memory-pressure-threshold} after a collection, the
+ * memory budget is reduced by {@code watermark.admission.pressure-budget-factor}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Service
+public class AdmissionControlService {
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+    private final long memoryBudget;
+    private final long cpuBudgetPages;
+    private final double memoryFactor;
+    private final long bytesPerPageEstimate;
+    private final long pageCountLimit;
+    private final double memoryPressureThreshold;
+    private final double pressureBudgetFactor;
+    private final long maxRetryAfterSeconds;
+    private final AtomicBoolean memoryPressure = new AtomicBoolean ();
+    private final NotificationListener memoryListener = this::handleMemoryNotification;
+    private final Counter rejectedRequests;
+    private long inFlightRequests;
+    private long inFlightMemory;
+    private long inFlightPages;
+    private double pagesPerSecondPerRequest;
+
+    /**
+     * Constructor to initialize the admission controller.
+     *
+     * @param meterRegistry           the registry used to publish admission metrics
+     * @param memoryBudget            the heap that admitted requests may hold, or a non-positive value for half of the max heap
+     * @param cpuBudgetPages          the pages that may be in flight, or a non-positive value for 500 pages per core
+     * @param memoryFactor            the multiple of the request size a request is expected to hold on the heap
+     * @param bytesPerPageEstimate    the average page size used to estimate page counts of large files
+     * @param pageCountLimit          the largest file whose pages are counted by the pipeline instead of estimated
+     * @param memoryPressureThreshold the fraction of a heap pool that signals memory pressure after a collection
+     * @param pressureBudgetFactor    the fraction of the memory budget that stays available under memory pressure
+     * @param maxRetryAfterSeconds    the upper bound of the Retry-After value returned to clients
+     */
+    public AdmissionControlService (MeterRegistry meterRegistry,
+                                    @Value ("${watermark.admission.memory-budget:0B}") DataSize memoryBudget,
+                                    @Value ("${watermark.admission.cpu-budget-pages:0}") long cpuBudgetPages,
+                                    @Value ("${watermark.admission.memory-factor:2.0}") double memoryFactor,
+                                    @Value ("${watermark.admission.bytes-per-page-estimate:100KB}") DataSize bytesPerPageEstimate,
+                                    @Value ("${watermark.admission.page-count-limit:4MB}") DataSize pageCountLimit,
+                                    @Value ("${watermark.admission.memory-pressure-threshold:0.85}") double memoryPressureThreshold,
+                                    @Value ("${watermark.admission.pressure-budget-factor:0.5}") double pressureBudgetFactor,
+                                    @Value ("${watermark.admission.max-retry-after-seconds:60}") long maxRetryAfterSeconds) {
+        this.memoryBudget = memoryBudget.toBytes () > 0 ? memoryBudget.toBytes () : Runtime.getRuntime ().maxMemory () / 2;
+        this.cpuBudgetPages = cpuBudgetPages > 0 ? cpuBudgetPages : 500L * Runtime.getRuntime ().availableProcessors ();
+        this.memoryFactor = memoryFactor;
+        this.bytesPerPageEstimate = Math.max (1, bytesPerPageEstimate.toBytes ());
+        this.pageCountLimit = pageCountLimit.toBytes ();
+        this.memoryPressureThreshold = memoryPressureThreshold;
+        this.pressureBudgetFactor = pressureBudgetFactor;
+        this.maxRetryAfterSeconds = Math.max (1, maxRetryAfterSeconds);
+        this.rejectedRequests = Counter.builder ("watermark.admission.rejected")
+                .description ("Requests rejected because the admission budget was exhausted")
+                .register (meterRegistry);
+        Gauge.builder ("watermark.admission.inflight.memory", this, AdmissionControlService::getInFlightMemory)
+                .baseUnit ("bytes").register (meterRegistry);
+        Gauge.builder ("watermark.admission.inflight.pages", this, AdmissionControlService::getInFlightPages)
+                .register (meterRegistry);
+        Gauge.builder ("watermark.admission.inflight.requests", this, AdmissionControlService::getInFlightRequests)
+                .register (meterRegistry);
+        Gauge.builder ("watermark.admission.memory.pressure", memoryPressure, pressure -> pressure.get () ? 1 : 0)
+                .register (meterRegistry);
+        registerMemoryPressureListener ();
+        log.info ("Admission control memory budget: {} bytes, CPU budget: {} pages", this.memoryBudget, this.cpuBudgetPages);
+    }
+
+    /**
+     * Estimates the cost of a watermark request from the size of its files,
+     * without reading them.
+     *
+     * @param files         the uploaded files
+     * @param contentLength the Content-Length of the request, or a negative value if unknown
+     * @return the estimated {@link RequestCost}
+     */
+    public RequestCost estimateCost (List<MultipartFile> files, long contentLength) {
+        long bytes = 0;
+        long pages = 0;
+        for (MultipartFile file : files) {
+            bytes += file.getSize ();
+            pages += estimatePages (file.getSize ());
+        }
+        bytes = Math.max (bytes, contentLength);
+        return RequestCost.builder ()
+                .bytes (bytes)
+                .fileCount (files.size ())
+                .pages (pages)
+                .memoryCost ((long) (bytes * memoryFactor))
+                .build ();
+    }
+
+    /**
+     * Admits a request against the memory and CPU budgets.
+     *
+     * @param cost the estimated cost of the request
+     * @return a {@link Permit} that must be closed once the request completes
+     * @throws ServiceOverloadedException if the request does not fit into the remaining budget
+     */
+    public Permit admit (RequestCost cost) {
+        long effectiveMemoryBudget = getEffectiveMemoryBudget ();
+        synchronized (this) {
+            boolean fits = inFlightMemory + cost.getMemoryCost () <= effectiveMemoryBudget
+                    && inFlightPages + cost.getPages () <= cpuBudgetPages;
+            if (fits || inFlightRequests == 0) {
+                inFlightRequests++;
+                inFlightMemory += cost.getMemoryCost ();
+                inFlightPages += cost.getPages ();
+                return new Permit (cost);
+            }
+            long retryAfterSeconds = estimateRetryAfter (cost, effectiveMemoryBudget);
+            rejectedRequests.increment ();
+            log.warn ("Rejecting request {}, in flight: {} requests, {} bytes, {} pages, retry after {}s",
+                    cost, inFlightRequests, inFlightMemory, inFlightPages, retryAfterSeconds);
+            throw new ServiceOverloadedException (retryAfterSeconds);
+        }
+    }
+
+    /**
+     * Replaces the estimated page count of an admitted request by its counted
+     * pages and moves the reserved CPU budget accordingly.
+     *
+     * @param permit the permit of the admitted request
+     * @param pages  the pages of the request, as returned by {@link #countPages(PdfBuffer)}
+     * @return the refined cost, also returned by {@link Permit#getCost()}
+     */
+    public RequestCost refine (Permit permit, long pages) {
+        RequestCost estimated = permit.getCost ();
+        if (pages == estimated.getPages ()) {
+            return estimated;
+        }
+        RequestCost refined = RequestCost.builder ()
+                .bytes (estimated.getBytes ())
+                .fileCount (estimated.getFileCount ())
+                .pages (pages)
+                .memoryCost (estimated.getMemoryCost ())
+                .build ();
+        synchronized (this) {
+            if (!permit.released.get ()) {
+                inFlightPages += pages - estimated.getPages ();
+                permit.cost = refined;
+            }
+        }
+        return permit.getCost ();
+    }
+
+    /**
+     * Counts the pages of a buffered upload up to
+     * {@code watermark.admission.page-count-limit}; larger files and files that
+     * cannot be read are estimated from their size. Only the page tree is read,
+     * not the page contents.
+     *
+     * @param input the buffered upload
+     * @return the pages of the upload
+     */
+    public long countPages (PdfBuffer input) {
+        long estimate = estimatePages (input.size ());
+        if (input.size () > pageCountLimit) {
+            return estimate;
+        }
+        try (PdfDocument document = new PdfDocument (input.openPdfReader ())) {
+            return Math.max (1, document.getNumberOfPages ());
+        } catch (Exception e) {
+            log.debug ("Could not count pages, using estimate {}: {}", estimate, e.getMessage ());
+            return estimate;
+        }
+    }
+
+    public synchronized long getInFlightMemory () {
+        return inFlightMemory;
+    }
+
+    public synchronized long getInFlightPages () {
+        return inFlightPages;
+    }
+
+    public synchronized long getInFlightRequests () {
+        return inFlightRequests;
+    }
+
+    /**
+     * Returns whether the heap is above the memory pressure threshold after the
+     * last collection.
+     *
+     * @return {@code true} while the JVM reports memory pressure
+     */
+    public boolean isUnderMemoryPressure () {
+        return memoryPressure.get ();
+    }
+
+    private long estimatePages (long bytes) {
+        return Math.max (1, bytes / bytesPerPageEstimate);
+    }
+
+    private long getEffectiveMemoryBudget () {
+        if (memoryPressure.get () && !isHeapAboveThreshold ()) {
+            memoryPressure.set (false);
+            log.info ("Heap usage back below {}, restoring the full memory budget", memoryPressureThreshold);
+        }
+        return memoryPressure.get () ? (long) (memoryBudget * pressureBudgetFactor) : memoryBudget;
+    }
+
+    /**
+     * Estimates how long it takes until the in-flight work has drained enough
+     * for the request to fit, based on the observed page throughput.
+     */
+    private long estimateRetryAfter (RequestCost cost, long effectiveMemoryBudget) {
+        long excessPages = inFlightPages + cost.getPages () - cpuBudgetPages;
+        long excessMemory = inFlightMemory + cost.getMemoryCost () - effectiveMemoryBudget;
+        long excess = Math.max (excessPages, (long) (excessMemory / memoryFactor / bytesPerPageEstimate));
+        double throughput = pagesPerSecondPerRequest * Math.max (1, inFlightRequests);
+        if (throughput <= 0) {
+            return 1;
+        }
+        long seconds = (long) Math.ceil (excess / throughput);
+        return Math.min (maxRetryAfterSeconds, Math.max (1, seconds));
+    }
+
+    private synchronized void release (RequestCost cost, long elapsedNanos) {
+        inFlightRequests--;
+        inFlightMemory -= cost.getMemoryCost ();
+        inFlightPages -= cost.getPages ();
+        if (elapsedNanos > 0 && cost.getPages () > 0) {
+            double pagesPerSecond = cost.getPages () / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos (1));
+            pagesPerSecondPerRequest = pagesPerSecondPerRequest == 0 ? pagesPerSecond
+                    : THROUGHPUT_SMOOTHING * pagesPerSecond + (1 - THROUGHPUT_SMOOTHING) * pagesPerSecondPerRequest;
+        }
+    }
+
+    private void registerMemoryPressureListener () {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans ()) {
+            MemoryUsage usage = pool.getUsage ();
+            if (pool.getType () == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported () && usage.getMax () > 0) {
+                pool.setCollectionUsageThreshold ((long) (usage.getMax () * memoryPressureThreshold));
+                log.info ("Watching collection usage of heap pool {}", pool.getName ());
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean ()).addNotificationListener (memoryListener, null, null);
+    }
+
+    private void handleMemoryNotification (Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals (notification.getType ())
+                && memoryPressure.compareAndSet (false, true)) {
+            log.warn ("Heap usage above {} after collection, reducing the admission memory budget", memoryPressureThreshold);
+        }
+    }
+
+    private boolean isHeapAboveThreshold () {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans ()) {
+            if (pool.getType () == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported ()
+                    && pool.getCollectionUsageThreshold () > 0 && pool.isCollectionUsageThresholdExceeded ()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    void unregisterMemoryPressureListener () {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean ()).removeNotificationListener (memoryListener);
+        } catch (ListenerNotFoundException e) {
+            log.debug ("Memory pressure listener was not registered");
+        }
+    }
+
+    /**
+     * Reservation of admission budget held by an in-flight request.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long admittedAt = System.nanoTime ();
+        private final AtomicBoolean released = new AtomicBoolean ();
+        private volatile RequestCost cost;
+
+        private Permit (RequestCost cost) {
+            this.cost = cost;
+        }
+
+        public RequestCost getCost () {
+            return cost;
+        }
+
+        /**
+         * Returns the reserved budget. Closing a permit more than once has no effect.
+         */
+        @Override
+        public void close () {
+            synchronized (AdmissionControlService.this) {
+                if (released.compareAndSet (false, true)) {
+                    release (cost, System.nanoTime () - admittedAt);
+                }
+            }
+        }
+    }
+}
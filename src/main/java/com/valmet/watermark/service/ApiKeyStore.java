@@ -0,0 +1,284 @@
+package com.valmet.watermark.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valmet.watermark.dto.ApiKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Store of the API keys issued to machine clients.
+ * <p>
+ * Machine clients send their key in the {@code X-API-Key} header instead of
+ * a JWT. Keys are random 256-bit values, so only their SHA-256 hashes are
+ * stored, and a key is checked with one hash and one map lookup, without
+ * LDAP, Vault or signature checks. Keys are issued and revoked by an admin;
+ * the key itself is returned once, when it is issued.
+ * </p>
+ * <p>
+ * With {@code watermark.api-keys.file} set to an absolute path, the keys are written to that file
+ * on every change and read again whenever the file changes, checked every
+ * {@code watermark.api-keys.reload-interval}, so all instances sharing the
+ * file pick up issued and revoked keys. Checks are published as
+ * {@code api.key.authentications} tagged with the {@code result}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Service
+public class ApiKeyStore {
+    private static final String KEY_PREFIX = "wmk_";
+    private static final int KEY_BYTES = 32;
+    private static final int ID_BYTES = 6;
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial (() -> {
+        try {
+            return MessageDigest.getInstance ("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException ("SHA-256 is not available", e);
+        }
+    });
+    private final SecureRandom random = new SecureRandom ();
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Path keyFile;
+    private final Duration reloadInterval;
+    private final Map<String, Counter> authenticationCounters = new ConcurrentHashMap<> ();
+    private volatile Map<String, ApiKey> keysByHash = Map.of ();
+    private FileTime loadedModifiedTime;
+    private ScheduledFuture<?> reloadTask;
+
+    /**
+     * Constructor to initialize the API key store.
+     *
+     * @param taskScheduler  the scheduler running the reload
+     * @param objectMapper   the mapper reading and writing the key file
+     * @param meterRegistry  the registry used to publish key metrics
+     * @param enabled        whether requests can authenticate with API keys
+     * @param keyFile        the absolute path of the file persisting the keys, empty to keep them in memory only
+     * @param reloadInterval the interval between checks of the key file
+     */
+    public ApiKeyStore (@Qualifier ("taskScheduler") ThreadPoolTaskScheduler taskScheduler, ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value ("${watermark.api-keys.enabled:true}") boolean enabled,
+                        @Value ("${watermark.api-keys.file:}") String keyFile,
+                        @Value ("${watermark.api-keys.reload-interval:30s}") Duration reloadInterval) {
+        this.taskScheduler = taskScheduler;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.keyFile = keyFile.isBlank () ? null : Path.of (keyFile);
+        if (this.keyFile != null && !this.keyFile.isAbsolute ()) {
+            // A relative path would depend on the working directory the service is started in
+            throw new IllegalArgumentException ("watermark.api-keys.file must be an absolute path, got " + keyFile);
+        }
+        this.reloadInterval = reloadInterval;
+        Gauge.builder ("api.keys", this, store -> store.keysByHash.size ())
+                .description ("API keys issued and not revoked").register (meterRegistry);
+    }
+
+    /**
+     * Loads the key file and schedules its reload.
+     */
+    @EventListener (ApplicationReadyEvent.class)
+    public synchronized void start () {
+        if (!enabled || reloadTask != null) {
+            return;
+        }
+        reload ();
+        if (keyFile != null) {
+            reloadTask = taskScheduler.scheduleWithFixedDelay (this::reloadIfModified, Instant.now ().plus (reloadInterval), reloadInterval);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop () {
+        if (reloadTask != null) {
+            reloadTask.cancel (false);
+        }
+    }
+
+    /**
+     * Returns the key matching an API key sent by a client.
+     *
+     * @param apiKey the API key
+     * @return the issued key, or null if the key is unknown or expired
+     */
+    public ApiKey authenticate (String apiKey) {
+        if (!enabled || apiKey == null || !apiKey.startsWith (KEY_PREFIX)) {
+            record ("unknown");
+            return null;
+        }
+        ApiKey key = keysByHash.get (hash (apiKey));
+        if (key == null) {
+            record ("unknown");
+            return null;
+        }
+        if (key.getExpiresAt () != null && !key.getExpiresAt ().isAfter (Instant.now ())) {
+            record ("expired");
+            return null;
+        }
+        record ("valid");
+        return key;
+    }
+
+    /**
+     * Issues a new API key.
+     *
+     * @param name     the name of the client system
+     * @param validity how long the key is valid, or null if it does not expire
+     * @return the issued key and the key itself, which is not stored
+     */
+    public synchronized IssuedKey issue (String name, Duration validity) {
+        reloadIfModified ();
+        byte[] secret = new byte[KEY_BYTES];
+        random.nextBytes (secret);
+        String apiKey = KEY_PREFIX + Base64.getUrlEncoder ().withoutPadding ().encodeToString (secret);
+        byte[] id = new byte[ID_BYTES];
+        random.nextBytes (id);
+        Instant now = Instant.now ();
+        ApiKey key = ApiKey.builder ()
+                .id (HexFormat.of ().formatHex (id))
+                .name (name)
+                .hash (hash (apiKey))
+                .createdAt (now)
+                .expiresAt (validity == null ? null : now.plus (validity))
+                .build ();
+        Map<String, ApiKey> keys = new HashMap<> (keysByHash);
+        keys.put (key.getHash (), key);
+        update (keys);
+        log.info ("Issued API key {} for {}", key.getId (), name);
+        return new IssuedKey (key, apiKey);
+    }
+
+    /**
+     * Revokes an API key.
+     *
+     * @param id the identifier of the key
+     * @return true if the key was revoked, false if it is unknown
+     */
+    public synchronized boolean revoke (String id) {
+        reloadIfModified ();
+        Map<String, ApiKey> keys = new HashMap<> (keysByHash);
+        if (!keys.values ().removeIf (key -> key.getId ().equals (id))) {
+            return false;
+        }
+        update (keys);
+        log.info ("Revoked API key {}", id);
+        return true;
+    }
+
+    /**
+     * Returns the issued keys, without their hashes.
+     *
+     * @return the keys ordered by issue time
+     */
+    public List<ApiKey> list () {
+        return keysByHash.values ().stream ()
+                .sorted (Comparator.comparing (ApiKey::getCreatedAt))
+                .map (key -> key.toBuilder ().hash (null).build ())
+                .toList ();
+    }
+
+    /**
+     * Reads the key file again, replacing the keys in memory.
+     *
+     * @return the number of keys read
+     */
+    public synchronized int reload () {
+        if (keyFile == null || !Files.isRegularFile (keyFile)) {
+            return keysByHash.size ();
+        }
+        try {
+            FileTime modifiedTime = Files.getLastModifiedTime (keyFile);
+            List<ApiKey> keys = objectMapper.readValue (keyFile.toFile (), new TypeReference<List<ApiKey>> () {
+            });
+            Map<String, ApiKey> keysByHash = new HashMap<> ();
+            keys.forEach (key -> keysByHash.put (key.getHash (), key));
+            this.keysByHash = Map.copyOf (keysByHash);
+            loadedModifiedTime = modifiedTime;
+            log.info ("Loaded {} API keys from {}", keysByHash.size (), keyFile);
+        } catch (IOException | RuntimeException e) {
+            // The keys read before keep being used
+            log.warn ("Could not read the API keys {}: {}", keyFile, e.getMessage ());
+        }
+        return keysByHash.size ();
+    }
+
+    private synchronized void reloadIfModified () {
+        try {
+            if (keyFile != null && Files.isRegularFile (keyFile) && !Files.getLastModifiedTime (keyFile).equals (loadedModifiedTime)) {
+                reload ();
+            }
+        } catch (IOException e) {
+            log.warn ("Could not check the API keys {}: {}", keyFile, e.getMessage ());
+        }
+    }
+
+    private void update (Map<String, ApiKey> keys) {
+        if (keyFile != null) {
+            try {
+                Path directory = keyFile.toAbsolutePath ().getParent ();
+                Files.createDirectories (directory);
+                Path tempFile = Files.createTempFile (directory, keyFile.getFileName ().toString (), ".tmp");
+                objectMapper.writerWithDefaultPrettyPrinter ().writeValue (tempFile.toFile (), new ArrayList<> (keys.values ()));
+                Files.move (tempFile, keyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                loadedModifiedTime = Files.getLastModifiedTime (keyFile);
+            } catch (IOException e) {
+                throw new IllegalStateException ("Could not write the API keys " + keyFile + ": " + e.getMessage (), e);
+            }
+        }
+        keysByHash = Map.copyOf (keys);
+    }
+
+    private static String hash (String apiKey) {
+        return HexFormat.of ().formatHex (SHA_256.get ().digest (apiKey.getBytes (StandardCharsets.UTF_8)));
+    }
+
+    private void record (String result) {
+        authenticationCounters.computeIfAbsent (result, key -> Counter.builder ("api.key.authentications").tag ("result", key)
+                .description ("API key checks by outcome").register (meterRegistry)).increment ();
+    }
+
+    /**
+     * A newly issued key with the API key handed to the client.
+     *
+     * @param key    the stored key
+     * @param apiKey the API key
+     */
+    public record IssuedKey(ApiKey key, String apiKey) {
+    }
+}
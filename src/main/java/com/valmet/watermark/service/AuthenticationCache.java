@@ -0,0 +1,149 @@
+package com.valmet.watermark.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived cache of successful directory authentications.
+ * <p>
+ * When enabled with {@code watermark.auth-cache.enabled}, a successful
+ * directory authentication is kept for {@code watermark.auth-cache.ttl} as a
+ * PBKDF2 hash of the password with a random salt of its own, never the
+ * password itself. A login with the same username and password within the TTL
+ * is then answered without binding to the directory. Every such login is
+ * logged, and a failed login removes the entry of its username, so a password
+ * changed or revoked in the directory is accepted from the cache at most until
+ * the next failed login or the end of the TTL.
+ * </p>
+ * <p>
+ * Lookups are published as {@code auth.cache.lookups} tagged with the
+ * {@code result}. The entries are held in a {@link BoundedCache} of at most
+ * {@code watermark.auth-cache.max-size} usernames, published as
+ * {@code cache=authentications}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class AuthenticationCache {
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_BITS = 256;
+    private static final String CACHE_NAME = "authentications";
+    private final SecureRandom random = new SecureRandom ();
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration ttl;
+    private final int iterations;
+    private final BoundedCache<String, Entry> entries;
+    private final Map<String, Counter> lookupCounters = new ConcurrentHashMap<> ();
+
+    /**
+     * Constructor to initialize the authentication cache.
+     *
+     * @param meterRegistry the registry used to publish lookup metrics
+     * @param enabled       whether successful authentications are cached
+     * @param ttl           how long a successful authentication is reused
+     * @param maxSize       the maximum number of cached usernames
+     * @param iterations    the PBKDF2 iterations of the password hashes
+     */
+    public AuthenticationCache (MeterRegistry meterRegistry,
+                                @Value ("${watermark.auth-cache.enabled:false}") boolean enabled,
+                                @Value ("${watermark.auth-cache.ttl:5m}") Duration ttl,
+                                @Value ("${watermark.auth-cache.max-size:1000}") int maxSize,
+                                @Value ("${watermark.auth-cache.pbkdf2-iterations:10000}") int iterations) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled && maxSize > 0 && ttl.toNanos () > 0;
+        this.ttl = ttl;
+        this.iterations = Math.max (1, iterations);
+        this.entries = new BoundedCache<> (CACHE_NAME, this.enabled ? maxSize : 0, meterRegistry);
+    }
+
+    /**
+     * Returns whether the username authenticated with the same password within
+     * the TTL.
+     *
+     * @param username the username of the login
+     * @param password the password of the login
+     * @return true if the login can be accepted without the directory
+     */
+    public boolean isAuthenticated (String username, String password) {
+        if (!enabled || username == null || password == null) {
+            return false;
+        }
+        Entry entry = entries.get (username);
+        if (entry == null) {
+            record ("miss");
+            return false;
+        }
+        if (!MessageDigest.isEqual (entry.hash, hash (password, entry.salt))) {
+            record ("mismatch");
+            return false;
+        }
+        record ("hit");
+        log.info ("Authentication of {} accepted from the authentication cache", username);
+        return true;
+    }
+
+    /**
+     * Caches a successful directory authentication.
+     *
+     * @param username the authenticated username
+     * @param password the password it authenticated with
+     */
+    public void put (String username, String password) {
+        if (!enabled || username == null || password == null) {
+            return;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes (salt);
+        entries.put (username, new Entry (salt, hash (password, salt)), ttl);
+    }
+
+    /**
+     * Removes the cached authentication of a username after a failed login.
+     *
+     * @param username the username of the failed login
+     */
+    public void invalidate (String username) {
+        if (enabled && username != null && entries.invalidate (username)) {
+            log.info ("Cached authentication of {} removed after a failed login", username);
+        }
+    }
+
+    private byte[] hash (String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec (password.toCharArray (), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance (HASH_ALGORITHM).generateSecret (spec).getEncoded ();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException (HASH_ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword ();
+        }
+    }
+
+    private void record (String result) {
+        lookupCounters.computeIfAbsent (result, key -> Counter.builder ("auth.cache.lookups").tag ("result", key)
+                .description ("Authentication cache lookups by outcome").register (meterRegistry)).increment ();
+    }
+
+    /**
+     * A cached authentication: the salted password hash.
+     */
+    private record Entry(byte[] salt, byte[] hash) {
+    }
+}
@@ -0,0 +1,214 @@
+package com.valmet.watermark.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-memory cache whose entries expire after a time to live, after a
+ * time without access, or when they no longer pass a validity check.
+ * <p>
+ * Entries are kept in a {@link ConcurrentHashMap}, so lookups take no lock.
+ * Beyond {@code maxSize} entries, the put that exceeds the size evicts entries
+ * in the order they were put, except that an entry read since the eviction
+ * last passed it gets a second chance; this approximates least recently used
+ * eviction in constant time per evicted entry, without scanning or sorting
+ * the cache. Expired and invalid entries are removed when they are looked up
+ * or reached by the eviction. A size of 0 disables the cache.
+ * </p>
+ * <p>
+ * Lookups, evictions and the size are published as {@code cache.gets} tagged
+ * with the {@code result}, {@code cache.evictions} and {@code cache.size}, all
+ * tagged with the {@code cache} name.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @author BJIT
+ * @version 1.0
+ */
+public class BoundedCache<K, V> {
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+    private final int maxSize;
+    private final long expireAfterAccessNanos;
+    private final Predicate<? super V> validity;
+    private final Map<K, Node<K, V>> entries = new ConcurrentHashMap<> ();
+    private final Queue<Node<K, V>> evictionQueue = new ConcurrentLinkedQueue<> ();
+    private final AtomicInteger queued = new AtomicInteger ();
+    private final ReentrantLock evictionLock = new ReentrantLock ();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    /**
+     * Constructor to initialize a cache whose entries expire only after the
+     * time to live they are put with.
+     *
+     * @param name          the cache name the metrics are tagged with
+     * @param maxSize       the maximum number of entries, 0 to disable the cache
+     * @param meterRegistry the registry used to publish cache metrics
+     */
+    public BoundedCache (String name, int maxSize, MeterRegistry meterRegistry) {
+        this (name, maxSize, Duration.ZERO, value -> true, meterRegistry);
+    }
+
+    /**
+     * Constructor to initialize the cache.
+     *
+     * @param name              the cache name the metrics are tagged with
+     * @param maxSize           the maximum number of entries, 0 to disable the cache
+     * @param expireAfterAccess how long an entry is kept after its last use, 0 for no limit
+     * @param validity          the check an entry has to pass to be returned
+     * @param meterRegistry     the registry used to publish cache metrics
+     */
+    public BoundedCache (String name, int maxSize, Duration expireAfterAccess, Predicate<? super V> validity,
+                         MeterRegistry meterRegistry) {
+        this.maxSize = Math.max (0, maxSize);
+        this.expireAfterAccessNanos = expireAfterAccess.toNanos ();
+        this.validity = validity;
+        this.hits = Counter.builder ("cache.gets").tag ("cache", name).tag ("result", "hit")
+                .description ("Cache lookups").register (meterRegistry);
+        this.misses = Counter.builder ("cache.gets").tag ("cache", name).tag ("result", "miss")
+                .description ("Cache lookups").register (meterRegistry);
+        this.evictions = Counter.builder ("cache.evictions").tag ("cache", name)
+                .description ("Cache entries removed before their next use").register (meterRegistry);
+        Gauge.builder ("cache.size", entries, Map::size).tag ("cache", name)
+                .description ("Cache entries held in memory").register (meterRegistry);
+    }
+
+    /**
+     * Returns the value of a key if it is cached, not expired and valid.
+     *
+     * @param key the key
+     * @return the value, or null if the key has to be loaded
+     */
+    public V get (K key) {
+        Node<K, V> node = entries.get (key);
+        if (node == null) {
+            misses.increment ();
+            return null;
+        }
+        long now = System.nanoTime ();
+        if (isExpired (node, now) || !validity.test (node.value)) {
+            if (entries.remove (key, node)) {
+                evictions.increment ();
+            }
+            misses.increment ();
+            return null;
+        }
+        if (expireAfterAccessNanos > 0) {
+            node.lastAccess = now;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        hits.increment ();
+        return node.value;
+    }
+
+    /**
+     * Caches a value, replacing the value cached for the key.
+     *
+     * @param key        the key
+     * @param value      the value
+     * @param timeToLive how long the value is kept at most, null for no limit
+     */
+    public void put (K key, V value, Duration timeToLive) {
+        if (maxSize == 0) {
+            return;
+        }
+        long now = System.nanoTime ();
+        Node<K, V> node = new Node<> (key, value, timeToLive == null ? NO_EXPIRY : now + timeToLive.toNanos (), now);
+        entries.put (key, node);
+        evictionQueue.offer (node);
+        // Replaced and removed entries stay queued until the eviction reaches them
+        if (queued.incrementAndGet () > maxSize * 2 || entries.size () > maxSize) {
+            evict ();
+        }
+    }
+
+    /**
+     * Removes the value of a key.
+     *
+     * @param key the key
+     * @return true if a value was cached
+     */
+    public boolean invalidate (K key) {
+        return entries.remove (key) != null;
+    }
+
+    /**
+     * Returns the number of cached entries, including expired ones not yet removed.
+     *
+     * @return the number of entries
+     */
+    public int size () {
+        return entries.size ();
+    }
+
+    private boolean isExpired (Node<K, V> node, long now) {
+        return (node.expiresAt != NO_EXPIRY && node.expiresAt - now <= 0)
+                || (expireAfterAccessNanos > 0 && now - node.lastAccess >= expireAfterAccessNanos);
+    }
+
+    private void evict () {
+        if (!evictionLock.tryLock ()) {
+            // Another put is already evicting
+            return;
+        }
+        try {
+            long now = System.nanoTime ();
+            // Every queued entry is passed at most twice, so concurrent puts cannot keep the eviction running
+            int remaining = queued.get () * 2;
+            Node<K, V> node;
+            while ((entries.size () > maxSize || queued.get () > entries.size ()) && remaining-- > 0
+                    && (node = evictionQueue.poll ()) != null) {
+                queued.decrementAndGet ();
+                if (entries.get (node.key) != node) {
+                    // Replaced or removed
+                    continue;
+                }
+                boolean overSize = entries.size () > maxSize;
+                if (!overSize || (node.referenced && !isExpired (node, now))) {
+                    if (overSize) {
+                        node.referenced = false;
+                    }
+                    evictionQueue.offer (node);
+                    queued.incrementAndGet ();
+                } else if (entries.remove (node.key, node)) {
+                    evictions.increment ();
+                }
+            }
+        } finally {
+            evictionLock.unlock ();
+        }
+    }
+
+    /**
+     * A cached value with its expiry and whether it was read since the
+     * eviction last passed it.
+     */
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final long expiresAt;
+        private volatile long lastAccess;
+        private volatile boolean referenced;
+
+        private Node (K key, V value, long expiresAt, long lastAccess) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.valmet.watermark.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.valmet.watermark.config.PooledLdapContextSource;
+import com.valmet.watermark.dto.DirectoryEntry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a local index of the Active Directory users, so email lookups on the
+ * watermark path do not wait for LDAP.
+ * <p>
+ * When the application is ready, and then every
+ * {@code watermark.directory-sync.interval}, the mail, userPrincipalName,
+ * sAMAccountName and employeeID attributes of the users matching
+ * {@code watermark.directory-sync.filter} are read with paged searches over
+ * one pooled connection. Only users changed since the last run, by their AD
+ * {@code uSNChanged}, are read, except for a full sync every
+ * {@code watermark.directory-sync.full-sync-interval} that also drops deleted
+ * users. Directories without {@code uSNChanged} are always synced in full.
+ * Every sync builds a new immutable index that replaces the previous one, and
+ * failed syncs keep it.
+ * </p>
+ * <p>
+ * With {@code watermark.directory-sync.index-file} set, the index is written
+ * to that file after every sync and read at startup, so a restarted service
+ * answers lookups before the first sync and continues incrementally. Emails
+ * not in the index are looked up in LDAP by the {@link LdapService}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Service
+public class DirectorySyncService {
+    private static final String USN_CHANGED_ATTR = "uSNChanged";
+    private final PooledLdapContextSource contextSource;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final String filter;
+    private final int pageSize;
+    private final Duration interval;
+    private final Duration fullSyncInterval;
+    private final Path indexFile;
+    private volatile DirectoryIndex index = DirectoryIndex.EMPTY;
+    private ScheduledFuture<?> syncTask;
+
+    /**
+     * Constructor to initialize the directory sync.
+     *
+     * @param contextSource    the pool of service account connections
+     * @param taskScheduler    the scheduler running the sync
+     * @param objectMapper     the mapper writing the index file
+     * @param meterRegistry    the registry used to publish sync metrics
+     * @param enabled          whether the directory is synced
+     * @param filter           the LDAP filter of the synced users
+     * @param pageSize         the number of users read per page
+     * @param interval         the interval between syncs
+     * @param fullSyncInterval the interval between full syncs
+     * @param indexFile        the file persisting the index, empty to keep it in memory only
+     */
+    public DirectorySyncService (PooledLdapContextSource contextSource, @Qualifier ("taskScheduler") ThreadPoolTaskScheduler taskScheduler,
+                                 ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                 @Value ("${watermark.directory-sync.enabled:true}") boolean enabled,
+                                 @Value ("${watermark.directory-sync.filter:(&(objectClass=user)(mail=*))}") String filter,
+                                 @Value ("${watermark.directory-sync.page-size:500}") int pageSize,
+                                 @Value ("${watermark.directory-sync.interval:15m}") Duration interval,
+                                 @Value ("${watermark.directory-sync.full-sync-interval:24h}") Duration fullSyncInterval,
+                                 @Value ("${watermark.directory-sync.index-file:}") String indexFile) {
+        this.contextSource = contextSource;
+        this.taskScheduler = taskScheduler;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.filter = filter;
+        this.pageSize = pageSize;
+        this.interval = interval;
+        this.fullSyncInterval = fullSyncInterval;
+        this.indexFile = indexFile.isBlank () ? null : Path.of (indexFile);
+        Gauge.builder ("directory.index.entries", this, service -> service.index.byAccount ().size ())
+                .description ("Users held in the local directory index").register (meterRegistry);
+        Gauge.builder ("directory.index.age", this, service -> service.index.syncedAt () == 0 ? Double.NaN
+                        : (System.currentTimeMillis () - service.index.syncedAt ()) / 1000.0)
+                .baseUnit ("seconds").description ("Time since the last successful directory sync").register (meterRegistry);
+    }
+
+    /**
+     * Loads the persisted index and schedules the sync.
+     */
+    @EventListener (ApplicationReadyEvent.class)
+    public synchronized void start () {
+        if (!enabled || syncTask != null) {
+            return;
+        }
+        load ();
+        syncTask = taskScheduler.scheduleWithFixedDelay (this::sync, Instant.now (), interval);
+    }
+
+    @PreDestroy
+    public synchronized void stop () {
+        if (syncTask != null) {
+            syncTask.cancel (false);
+        }
+    }
+
+    /**
+     * Returns the indexed user with an email address.
+     *
+     * @param email the email address
+     * @return the user, or null if the email is not in the index
+     */
+    public DirectoryEntry findByEmail (String email) {
+        return email == null ? null : index.byEmail ().get (email.toLowerCase (Locale.ROOT));
+    }
+
+    /**
+     * Reads the users changed since the last sync, or all users when a full
+     * sync is due, and swaps in the updated index.
+     */
+    public synchronized void sync () {
+        DirectoryIndex current = index;
+        long now = System.currentTimeMillis ();
+        boolean full = current.highestUsn () <= 0 || now - current.fullSyncedAt () >= fullSyncInterval.toMillis ();
+        String searchFilter = full ? filter : "(&" + filter + "(" + USN_CHANGED_ATTR + ">=" + (current.highestUsn () + 1) + "))";
+        Timer.Sample sample = Timer.start ();
+        String outcome = "failure";
+        try {
+            List<SyncedEntry> changed = search (searchFilter);
+            Map<String, DirectoryEntry> byAccount = full ? new HashMap<> () : new HashMap<> (current.byAccount ());
+            long highestUsn = full ? 0 : current.highestUsn ();
+            for (SyncedEntry synced : changed) {
+                byAccount.put (synced.entry ().getAccountName ().toLowerCase (Locale.ROOT), synced.entry ());
+                highestUsn = Math.max (highestUsn, synced.usn ());
+            }
+            index = DirectoryIndex.of (byAccount, highestUsn, full ? now : current.fullSyncedAt (), now);
+            outcome = "success";
+            log.info ("{} directory sync read {} users, {} indexed", full ? "Full" : "Incremental", changed.size (), byAccount.size ());
+            persist ();
+        } catch (Exception e) {
+            log.warn ("Directory sync failed, keeping {} indexed users: {}", current.byAccount ().size (), e.getMessage ());
+        } finally {
+            sample.stop (Timer.builder ("directory.sync").tag ("type", full ? "full" : "incremental").tag ("outcome", outcome)
+                    .description ("Duration of the directory syncs").register (meterRegistry));
+        }
+    }
+
+    private List<SyncedEntry> search (String searchFilter) {
+        SearchControls searchControls = new SearchControls ();
+        searchControls.setSearchScope (SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes (Stream.concat (Stream.of (DirectoryEntry.ATTRIBUTES), Stream.of (USN_CHANGED_ATTR))
+                .toArray (String[]::new));
+        AttributesMapper<SyncedEntry> mapper = DirectorySyncService::toSyncedEntry;
+        List<SyncedEntry> entries = new ArrayList<> ();
+        // The pages of a paged search have to be read over the same connection
+        SingleContextSource singleContextSource = new SingleContextSource (contextSource.getReadOnlyContext ());
+        try {
+            LdapTemplate ldapTemplate = new LdapTemplate (singleContextSource);
+            ldapTemplate.setIgnorePartialResultException (true);
+            PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor (pageSize);
+            do {
+                ldapTemplate.search ("", searchFilter, searchControls, mapper, processor).stream ()
+                        .filter (entry -> entry.entry ().getAccountName () != null)
+                        .forEach (entries::add);
+                processor = new PagedResultsDirContextProcessor (pageSize, processor.getCookie ());
+            } while (processor.getCookie () != null && processor.getCookie ().getCookie () != null);
+        } finally {
+            singleContextSource.destroy ();
+        }
+        return entries;
+    }
+
+    private static SyncedEntry toSyncedEntry (Attributes attributes) throws NamingException {
+        String usn = stringOf (attributes.get (USN_CHANGED_ATTR));
+        return new SyncedEntry (DirectoryEntry.builder ()
+                .email (stringOf (attributes.get (DirectoryEntry.ATTRIBUTES[0])))
+                .userPrincipalName (stringOf (attributes.get (DirectoryEntry.ATTRIBUTES[1])))
+                .accountName (stringOf (attributes.get (DirectoryEntry.ATTRIBUTES[2])))
+                .employeeId (stringOf (attributes.get (DirectoryEntry.ATTRIBUTES[3])))
+                .build (), usn == null ? 0 : Long.parseLong (usn));
+    }
+
+    private static String stringOf (Attribute attribute) throws NamingException {
+        return attribute == null || attribute.get () == null ? null : attribute.get ().toString ();
+    }
+
+    private void load () {
+        if (indexFile == null || !Files.isRegularFile (indexFile)) {
+            return;
+        }
+        try (InputStream inputStream = new GZIPInputStream (Files.newInputStream (indexFile))) {
+            PersistedIndex persisted = objectMapper.readValue (inputStream, PersistedIndex.class);
+            Map<String, DirectoryEntry> byAccount = new HashMap<> ();
+            persisted.entries ().forEach (entry -> byAccount.put (entry.getAccountName ().toLowerCase (Locale.ROOT), entry));
+            index = DirectoryIndex.of (byAccount, persisted.highestUsn (), persisted.fullSyncedAt (), persisted.syncedAt ());
+            log.info ("Loaded {} indexed users from {}", byAccount.size (), indexFile);
+        } catch (IOException | RuntimeException e) {
+            log.warn ("Could not read the directory index {}, starting with a full sync: {}", indexFile, e.getMessage ());
+        }
+    }
+
+    private void persist () {
+        if (indexFile == null) {
+            return;
+        }
+        DirectoryIndex current = index;
+        try {
+            Path directory = indexFile.toAbsolutePath ().getParent ();
+            Files.createDirectories (directory);
+            Path tempFile = Files.createTempFile (directory, indexFile.getFileName ().toString (), ".tmp");
+            try (OutputStream outputStream = new GZIPOutputStream (Files.newOutputStream (tempFile))) {
+                objectMapper.writeValue (outputStream, new PersistedIndex (current.highestUsn (), current.fullSyncedAt (), current.syncedAt (),
+                        List.copyOf (current.byAccount ().values ())));
+            }
+            Files.move (tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warn ("Could not write the directory index {}: {}", indexFile, e.getMessage ());
+        }
+    }
+
+    /**
+     * A user read by a sync with its update sequence number, 0 if the
+     * directory has none.
+     */
+    private record SyncedEntry(DirectoryEntry entry, long usn) {
+    }
+
+    /**
+     * The index of the users by lowercase account name and email.
+     */
+    private record DirectoryIndex(Map<String, DirectoryEntry> byAccount, Map<String, DirectoryEntry> byEmail, long highestUsn,
+                                  long fullSyncedAt, long syncedAt) {
+        private static final DirectoryIndex EMPTY = new DirectoryIndex (Map.of (), Map.of (), 0, 0, 0);
+
+        private static DirectoryIndex of (Map<String, DirectoryEntry> byAccount, long highestUsn, long fullSyncedAt, long syncedAt) {
+            Map<String, DirectoryEntry> byEmail = new HashMap<> ();
+            byAccount.values ().stream ().filter (entry -> entry.getEmail () != null)
+                    .forEach (entry -> byEmail.put (entry.getEmail ().toLowerCase (Locale.ROOT), entry));
+            return new DirectoryIndex (Map.copyOf (byAccount), Map.copyOf (byEmail), highestUsn, fullSyncedAt, syncedAt);
+        }
+    }
+
+    /**
+     * The content of the index file.
+     */
+    private record PersistedIndex(long highestUsn, long fullSyncedAt, long syncedAt, List<DirectoryEntry> entries) {
+    }
+}
@@ -1,5 +1,8 @@
 package com.valmet.watermark.service;
 
+import com.valmet.watermark.config.ExecutorMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -7,38 +10,49 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for scheduling and executing file deletions.
+ * <p>
+ * The deletion pool is instrumented through {@link ExecutorMetrics} with
+ * {@code name=fileDeletion}.
+ * </p>
  */
 @Slf4j
 @Component
 public class FileDeletionService {
-    /**
-     * The size of the thread pool for file deletion tasks.
-     */
-    @Value ("${file.deletion.thread.pool.size}")
-    private static int threadPoolSize;
+    private static final String EXECUTOR_NAME = "fileDeletion";
     /**
      * Executor service for scheduling file deletion tasks.
      */
-    private static final ScheduledExecutorService fileDeletionExecutor = Executors.newScheduledThreadPool (threadPoolSize, new ThreadFactory () {
-        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory ();
-        private final AtomicInteger threadNumber = new AtomicInteger (1); // Ensures thread-safe numbering
+    private final ScheduledThreadPoolExecutor fileDeletionExecutor;
+    private final Timer executionTimer;
+    @Value ("${watermark.file.delete.delay}")
+    private int fileDeletionDelay;
 
-        @Override
-        public Thread newThread (Runnable r) {
-            Thread thread = defaultFactory.newThread (r);
+    /**
+     * Constructor to initialize the file deletion executor.
+     *
+     * @param threadPoolSize the size of the thread pool for file deletion tasks
+     * @param meterRegistry  the registry used to publish executor metrics
+     */
+    public FileDeletionService (@Value ("${file.deletion.thread.pool.size}") int threadPoolSize, MeterRegistry meterRegistry) {
+        AtomicInteger threadNumber = new AtomicInteger (1); // Ensures thread-safe numbering
+        ThreadFactory defaultFactory = Executors.defaultThreadFactory ();
+        this.fileDeletionExecutor = new ScheduledThreadPoolExecutor (threadPoolSize, runnable -> {
+            Thread thread = defaultFactory.newThread (runnable);
             thread.setName ("FileDeletionThread-" + threadNumber.getAndIncrement ());
             return thread;
-        }
-    });
-    @Value ("${watermark.file.delete.delay}")
-    private int fileDeletionDelay;
+        }, ExecutorMetrics.countingRejections (meterRegistry, EXECUTOR_NAME, new ThreadPoolExecutor.AbortPolicy ()));
+        this.executionTimer = ExecutorMetrics.executionTimer (meterRegistry, EXECUTOR_NAME);
+        ExecutorMetrics.bindPoolGauges (meterRegistry, fileDeletionExecutor, EXECUTOR_NAME);
+        log.info ("Creating file deletion executor with pool size: {}", threadPoolSize);
+    }
 
     /**
      * Schedules the deletion of a file if it exists.
@@ -63,7 +77,7 @@ public class FileDeletionService {
      * @param deleteMessage the message to log upon deletion
      */
     private void scheduleFileDeletion (File file, String deleteMessage) {
-        fileDeletionExecutor.schedule (() -> {
+        fileDeletionExecutor.schedule (() -> executionTimer.record (() -> {
             try {
                 if (file.exists ()) {
                     if (file.delete ()) {
@@ -79,7 +93,7 @@ public class FileDeletionService {
                 log.error ("Security exception while deleting file: {}. Retrying in 10 seconds.", file.getAbsolutePath (), e);
                 retryFileDeletion (file);
             }
-        }, fileDeletionDelay, TimeUnit.MILLISECONDS);
+        }), fileDeletionDelay, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -88,13 +102,13 @@ public class FileDeletionService {
      * @param file the file to delete
      */
     private void retryFileDeletion (File file) {
-        fileDeletionExecutor.schedule (() -> {
+        fileDeletionExecutor.schedule (() -> executionTimer.record (() -> {
             if (file.exists () && file.delete ()) {
                 log.info ("File deleted successfully after retry. File path: {}", file.getAbsolutePath ());
             } else {
                 log.error ("Failed to delete file after retry. File path: {}", file.getAbsolutePath ());
             }
-        }, 3, TimeUnit.SECONDS);
+        }), 3, TimeUnit.SECONDS);
     }
 
     /**
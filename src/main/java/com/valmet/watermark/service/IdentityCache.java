@@ -0,0 +1,235 @@
+package com.valmet.watermark.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Two-tier cache of directory attributes looked up by email.
+ * <p>
+ * Lookups of users not yet in the directory index of the
+ * {@link DirectorySyncService} are answered by the first tier holding the
+ * key: a bounded in-process cache, then the Redis cache {@value #CACHE_NAME},
+ * then the directory. Values
+ * found in Redis or the directory are kept locally for
+ * {@code watermark.identity-cache.local.ttl}. Emails unknown to the directory
+ * are cached in both tiers for {@code watermark.identity-cache.negative-ttl},
+ * so repeated lookups of an unknown email do not reach the directory; failed
+ * lookups are not cached.
+ * </p>
+ * <p>
+ * Concurrent lookups of a key missing locally share one Redis and directory
+ * lookup: the first one loads the value and the others wait for it, for at
+ * most {@code watermark.identity-cache.coalescing.wait-timeout}. Lookups
+ * served this way are counted as {@code identity.lookups.coalesced}.
+ * </p>
+ * <p>
+ * Redis calls go through the {@value #CIRCUIT_BREAKER_NAME} circuit breaker.
+ * While it is open Redis is skipped, so an unreachable Redis does not add its
+ * command timeout to every lookup. Every tier reports its outcomes as
+ * {@code identity.lookups} tagged with {@code tier} and {@code result}; the
+ * local tier is a {@link BoundedCache} published as {@value #LOCAL_CACHE_NAME}.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class IdentityCache {
+    /**
+     * Name of the Redis cache holding the lookups.
+     */
+    public static final String CACHE_NAME = "emailToPersonId";
+    /**
+     * Name of the circuit breaker guarding the Redis calls.
+     */
+    public static final String CIRCUIT_BREAKER_NAME = "redis-cache";
+    /**
+     * Name of the local tier in the {@code cache.*} metrics.
+     */
+    public static final String LOCAL_CACHE_NAME = "identities";
+    private final CacheManager cacheManager;
+    private final CircuitBreaker circuitBreaker;
+    private final MeterRegistry meterRegistry;
+    private final Duration localTtl;
+    private final Duration negativeTtl;
+    private final Duration coalescingWaitTimeout;
+    private final BoundedCache<String, Entry> localCache;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<> ();
+    private final Counter coalesced;
+    private final Counter coalescingTimeouts;
+    private final Map<String, Counter> lookupCounters = new ConcurrentHashMap<> ();
+
+    /**
+     * Constructor to initialize the identity cache.
+     *
+     * @param cacheManager           the cache manager providing the Redis cache
+     * @param circuitBreakerRegistry the registry providing the Redis circuit breaker
+     * @param meterRegistry          the registry used to publish lookup metrics
+     * @param maxSize                the maximum number of locally cached keys
+     * @param localTtl               how long a value is kept locally
+     * @param negativeTtl            how long an unknown email is cached
+     * @param coalescingWaitTimeout  how long a lookup waits for the same lookup in flight
+     */
+    public IdentityCache (CacheManager cacheManager, CircuitBreakerRegistry circuitBreakerRegistry, MeterRegistry meterRegistry,
+                          @Value ("${watermark.identity-cache.local.max-size:10000}") int maxSize,
+                          @Value ("${watermark.identity-cache.local.ttl:10m}") Duration localTtl,
+                          @Value ("${watermark.identity-cache.negative-ttl:5m}") Duration negativeTtl,
+                          @Value ("${watermark.identity-cache.coalescing.wait-timeout:5s}") Duration coalescingWaitTimeout) {
+        this.cacheManager = cacheManager;
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker (CIRCUIT_BREAKER_NAME);
+        this.meterRegistry = meterRegistry;
+        this.localTtl = localTtl;
+        this.negativeTtl = negativeTtl;
+        this.coalescingWaitTimeout = coalescingWaitTimeout;
+        this.localCache = new BoundedCache<> (LOCAL_CACHE_NAME, maxSize, meterRegistry);
+        this.coalesced = Counter.builder ("identity.lookups.coalesced")
+                .description ("Lookups served by the same lookup in flight instead of their own").register (meterRegistry);
+        this.coalescingTimeouts = Counter.builder ("identity.lookups.coalescing.timeouts")
+                .description ("Lookups that gave up waiting for the same lookup in flight").register (meterRegistry);
+    }
+
+    /**
+     * Returns the cached value of a key, or loads it from the directory and
+     * caches it.
+     *
+     * @param key    the cache key
+     * @param loader the directory lookup, returning null if the email is
+     *               unknown and throwing if the lookup failed
+     * @return the value, or null if the email is unknown
+     * @throws IllegalStateException if the same lookup in flight failed or
+     *                               did not finish within the wait timeout
+     */
+    public String get (String key, Supplier<String> loader) {
+        Entry entry = localCache.get (key);
+        if (entry != null) {
+            record ("local", entry.value != null ? "hit" : "negative_hit");
+            return entry.value;
+        }
+        record ("local", "miss");
+        CompletableFuture<String> future = new CompletableFuture<> ();
+        CompletableFuture<String> running = inFlight.putIfAbsent (key, future);
+        if (running != null) {
+            return await (key, running);
+        }
+        try {
+            String value = load (key, loader);
+            future.complete (value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally (e);
+            throw e;
+        } finally {
+            inFlight.remove (key, future);
+        }
+    }
+
+    private String await (String key, CompletableFuture<String> running) {
+        try {
+            String value = running.get (coalescingWaitTimeout.toNanos (), TimeUnit.NANOSECONDS);
+            coalesced.increment ();
+            return value;
+        } catch (TimeoutException e) {
+            coalescingTimeouts.increment ();
+            throw new IllegalStateException ("Timed out waiting for the lookup of " + key, e);
+        } catch (ExecutionException e) {
+            coalesced.increment ();
+            throw new IllegalStateException ("Lookup of " + key + " failed: " + e.getCause ().getMessage (), e.getCause ());
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            throw new IllegalStateException ("Interrupted waiting for the lookup of " + key, e);
+        }
+    }
+
+    private String load (String key, Supplier<String> loader) {
+        Entry entry = localCache.get (key);
+        if (entry != null) {
+            // Loaded by a lookup that finished just before this one started
+            return entry.value;
+        }
+        Cache.ValueWrapper wrapper = getFromRedis (key);
+        if (wrapper != null) {
+            String value = (String) wrapper.get ();
+            putLocal (key, value);
+            return value;
+        }
+        String value;
+        try {
+            value = loader.get ();
+        } catch (RuntimeException e) {
+            record ("ldap", "error");
+            throw e;
+        }
+        record ("ldap", value != null ? "hit" : "miss");
+        putLocal (key, value);
+        putToRedis (key, value);
+        return value;
+    }
+
+    private Cache.ValueWrapper getFromRedis (String key) {
+        Cache cache = cacheManager.getCache (CACHE_NAME);
+        if (cache == null || !circuitBreaker.tryAcquirePermission ()) {
+            record ("redis", "skipped");
+            return null;
+        }
+        long start = System.nanoTime ();
+        try {
+            Cache.ValueWrapper wrapper = cache.get (key);
+            circuitBreaker.onSuccess (System.nanoTime () - start, TimeUnit.NANOSECONDS);
+            record ("redis", wrapper == null ? "miss" : wrapper.get () != null ? "hit" : "negative_hit");
+            return wrapper;
+        } catch (RuntimeException e) {
+            circuitBreaker.onError (System.nanoTime () - start, TimeUnit.NANOSECONDS, e);
+            record ("redis", "error");
+            log.warn ("Redis cache get failed for key {}: {}", key, e.getMessage ());
+            return null;
+        }
+    }
+
+    private void putToRedis (String key, String value) {
+        Cache cache = cacheManager.getCache (CACHE_NAME);
+        if (cache == null || !circuitBreaker.tryAcquirePermission ()) {
+            return;
+        }
+        long start = System.nanoTime ();
+        try {
+            // Unknown emails are stored as null values, which expire after the negative TTL
+            cache.put (key, value);
+            circuitBreaker.onSuccess (System.nanoTime () - start, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            circuitBreaker.onError (System.nanoTime () - start, TimeUnit.NANOSECONDS, e);
+            log.warn ("Redis cache put failed for key {}: {}", key, e.getMessage ());
+        }
+    }
+
+    private void putLocal (String key, String value) {
+        localCache.put (key, new Entry (value), value != null ? localTtl : negativeTtl);
+    }
+
+    private void record (String tier, String result) {
+        lookupCounters.computeIfAbsent (tier + "/" + result, key -> Counter.builder ("identity.lookups").tag ("tier", tier)
+                .tag ("result", result).description ("Identity lookups by cache tier and outcome").register (meterRegistry)).increment ();
+    }
+
+    /**
+     * A locally cached value; null for an unknown email.
+     */
+    private record Entry(String value) {
+    }
+}
@@ -1,25 +1,18 @@
 package com.valmet.watermark.service;
 
-import com.valmet.watermark.config.CustomJwtAuthenticationFilter;
-import com.valmet.watermark.config.security.WatermarkSecretsManager;
+import com.valmet.watermark.config.security.SigningKeySnapshot;
 import com.valmet.watermark.constants.Constants;
 import com.valmet.watermark.enums.TokenType;
 import com.valmet.watermark.exception.InvalidJwtToken;
-import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.jwt.*;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.io.IOException;
-import java.security.interfaces.RSAPublicKey;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Optional;
-import java.util.UUID;
 
 /**
  * JwtTokenService class for handling JWT token operations such as generation
@@ -38,21 +31,15 @@ import java.util.UUID;
 @Slf4j
 public class JwtTokenService {
 
-    private final JwtEncoder jwtEncoder;
     private final JwtDecoder jwtDecoder;
-    private final WatermarkSecretsManager watermarkSecretsManager;
 
     /**
-     * Constructor for initializing the JWT encoder and decoder.
+     * Constructor for initializing the JWT decoder.
      *
-     * @param jwtEncoder              the {@link JwtEncoder} responsible for encoding JWT tokens
-     * @param jwtDecoder              the {@link JwtDecoder} responsible for decoding and validating JWT tokens
-     * @param watermarkSecretsManager the {@link WatermarkSecretsManager} responsible for managing secrets
+     * @param jwtDecoder the {@link JwtDecoder} responsible for decoding and validating JWT tokens
      */
-    public JwtTokenService (JwtEncoder jwtEncoder, JwtDecoder jwtDecoder, WatermarkSecretsManager watermarkSecretsManager) {
-        this.jwtEncoder = jwtEncoder;
+    public JwtTokenService (JwtDecoder jwtDecoder) {
         this.jwtDecoder = jwtDecoder;
-        this.watermarkSecretsManager = watermarkSecretsManager;
     }
 
     /**
@@ -62,11 +49,11 @@ public class JwtTokenService {
      * @param expireTime     the expiration time for the token in minutes
      * @param tokenIssuer    the issuer of the token
      * @param tokenType      the type of the token, either ACCESS or REFRESH
-     * @param rsaKeyVersion  the version of the RSA key used
+     * @param signingKey     the signing key snapshot, whose version is stored in the token
      * @param scope          the scope of the token
      * @return the generated JWT token as a string
      */
-    public String generateToken (Authentication authentication, int expireTime, String tokenIssuer, TokenType tokenType, int rsaKeyVersion, String scope) {
+    public String generateToken (Authentication authentication, int expireTime, String tokenIssuer, TokenType tokenType, SigningKeySnapshot signingKey, String scope) {
         log.info ("Token expire time in minutes: {}, token type: {}, scope {}", expireTime, tokenType, scope);
         // Generate JWT claims
         Instant now = Instant.now ();
@@ -75,12 +62,12 @@ public class JwtTokenService {
                 .issuedAt (now)
                 .expiresAt (now.plus (expireTime, ChronoUnit.MINUTES))
                 .subject (authentication.getName ())
-                .claim (Constants.TOKEN_TYPE, tokenType).claim (Constants.RSA_KEY_VERSION, rsaKeyVersion)
+                .claim (Constants.TOKEN_TYPE, tokenType).claim (Constants.RSA_KEY_VERSION, signingKey.getVersion ())
                 .claim ("scope", scope).build ();
 
-        // Encode and return the JWT token
-
-        return this.jwtEncoder.encode (JwtEncoderParameters.from (claims)).getTokenValue ();
+        // Sign in memory with the key of the snapshot and return the JWT token
+        JwsHeader header = JwsHeader.with (signingKey.getSignatureAlgorithm ()).keyId (signingKey.getKeyId ()).build ();
+        return signingKey.getJwtEncoder ().encode (JwtEncoderParameters.from (header, claims)).getTokenValue ();
     }
 
     /**
@@ -94,16 +81,7 @@ public class JwtTokenService {
      */
     public Authentication validateRefreshToken (String refreshToken) throws JwtException, InvalidJwtToken, IOException {
         try {
-            Optional<Integer> optionalVersion = Optional.ofNullable (watermarkSecretsManager.getVaultKeyVersionFromToken (refreshToken));
-            optionalVersion.ifPresent (version -> {
-                log.info ("RSA key version in JWT Token Service: {}", version);
-                HttpServletRequest request = getCurrentRequest ();
-                if (request != null) {
-                    setRequestAttributes (request, version);
-                }
-            });
-
-            // Decode the JWT token
+            // Decode the JWT token with the key of its RSA key version
             Jwt decodedJwt = jwtDecoder.decode (refreshToken);
             validateTokenClaims (decodedJwt);
 
@@ -117,35 +95,6 @@ public class JwtTokenService {
         }
     }
 
-    /**
-     * Retrieves the current HTTP request.
-     *
-     * @return the current {@link HttpServletRequest}, or null if not available
-     */
-    private HttpServletRequest getCurrentRequest () {
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes ();
-        return attributes != null ? attributes.getRequest () : null;
-    }
-
-    /**
-     * Sets request attributes for the given RSA key version.
-     *
-     * @param request the current {@link HttpServletRequest}
-     * @param version the RSA key version
-     */
-    private void setRequestAttributes (HttpServletRequest request, Integer version) {
-        RSAPublicKey publicKey = watermarkSecretsManager.fetchPublicKey (version);
-        if (publicKey != null) {
-            String requestId = UUID.randomUUID ().toString ();
-            log.info ("Setting request attributes with request ID: {} and RSA key version: {}", requestId, version);
-            request.setAttribute (Constants.REQUEST_ID, requestId);
-            CustomJwtAuthenticationFilter.getMapRsaPublicKey ().put (version, publicKey);
-            CustomJwtAuthenticationFilter.getMapVersion ().put (requestId, version);
-        } else {
-            log.warn ("Public key not found for version: {}", version);
-        }
-    }
-
     /**
      * Validates the claims of a decoded JWT token.
      *
@@ -1,13 +1,18 @@
 package com.valmet.watermark.service;
 
+import com.valmet.watermark.dto.DirectoryEntry;
 import com.valmet.watermark.dto.MicroSoftADUser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.ldap.CommunicationException;
 import org.springframework.ldap.core.ContextMapper;
 import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.ldap.query.LdapQuery;
 import org.springframework.stereotype.Service;
 
@@ -32,15 +37,38 @@ public class LdapService {
     private static final String DISPLAY_NAME_ATTR = "displayName";
     private static final String MAIL_ATTR = "mail";
     private final LdapTemplate ldapTemplate;
+    private final LdapContextSource bindContextSource;
+    private final IdentityCache identityCache;
+    private final DirectorySyncService directorySyncService;
+    private final Timer searchTimer;
+    private final Timer bindTimer;
+    private final Counter indexHits;
+    private final Counter indexMisses;
 
     /**
      * Constructor for LdapService.
      *
-     * @param ldapTemplate the LdapTemplate to use for LDAP operations
+     * @param ldapTemplate      the LdapTemplate to use for searches over pooled connections
+     * @param bindContextSource the context source opening a new connection for every user bind
+     * @param identityCache        the cache of the attributes looked up by email
+     * @param directorySyncService the local index of the directory users
+     * @param meterRegistry        the registry used to publish LDAP latencies
      */
     @Autowired
-    public LdapService (LdapTemplate ldapTemplate) {
+    public LdapService (LdapTemplate ldapTemplate, LdapContextSource bindContextSource, IdentityCache identityCache,
+                        DirectorySyncService directorySyncService, MeterRegistry meterRegistry) {
         this.ldapTemplate = ldapTemplate;
+        this.bindContextSource = bindContextSource;
+        this.identityCache = identityCache;
+        this.directorySyncService = directorySyncService;
+        this.indexHits = Counter.builder ("identity.lookups").tag ("tier", "index").tag ("result", "hit")
+                .description ("Identity lookups by cache tier and outcome").register (meterRegistry);
+        this.indexMisses = Counter.builder ("identity.lookups").tag ("tier", "index").tag ("result", "miss")
+                .description ("Identity lookups by cache tier and outcome").register (meterRegistry);
+        this.searchTimer = Timer.builder ("ldap.requests").tag ("operation", "search")
+                .description ("Latency of LDAP searches and binds").register (meterRegistry);
+        this.bindTimer = Timer.builder ("ldap.requests").tag ("operation", "bind")
+                .description ("Latency of LDAP searches and binds").register (meterRegistry);
     }
 
 
@@ -51,9 +79,11 @@ public class LdapService {
      * @return an Optional containing the found MicroSoftADUser, or empty if not found
      */
     public Optional<MicroSoftADUser> findUserByUsername (String username) {
+        Timer.Sample sample = Timer.start ();
         try {
 
-            LdapQuery query = query ().filter ("(&(objectClass=user)(sAMAccountName={0}))", username);
+            LdapQuery query = query ().attributes (SAM_ACCOUNT_NAME_ATTR, USER_PRINCIPAL_NAME_ATTR, DISPLAY_NAME_ATTR, MAIL_ATTR, MEMBER_OF_ATTR)
+                    .filter ("(&(objectClass=user)(sAMAccountName={0}))", username);
             MicroSoftADUser user = ldapTemplate.searchForObject (query, new ContextMapper<MicroSoftADUser> () {
                 @Override
                 public MicroSoftADUser mapFromContext (Object ctx) {
@@ -67,6 +97,8 @@ public class LdapService {
         } catch (Exception e) {
             log.error ("An error occurred while searching for user", e);
             return Optional.empty ();
+        } finally {
+            sample.stop (searchTimer);
         }
     }
 
@@ -111,18 +143,21 @@ public class LdapService {
      * @return true if authentication succeeded, false otherwise
      */
     public boolean authenticate (String username, String password) {
+        Timer.Sample sample = Timer.start ();
         try {
             // Construct DN for the user
             String userDn = "cn=" + username + ",OU=JAR,OU=Finland,OU=External Users,OU=Root2,DC=vstage,DC=co";
 
             // Authenticate
-            DirContext context = ldapTemplate.getContextSource ().getContext (userDn, password);
+            DirContext context = bindContextSource.getContext (userDn, password);
             context.close (); // Close the context after use
             return true; // Authentication succeeded
         } catch (Exception e) {
             log.error ("Authentication failed", e);
             // Authentication failed
             return false;
+        } finally {
+            sample.stop (bindTimer);
         }
     }
 
@@ -134,14 +169,17 @@ public class LdapService {
      * @return true if authentication succeeded, false otherwise
      */
     public boolean authenticateToMicrosoftAD (String username, String password) {
+        Timer.Sample sample = Timer.start ();
         try {
             String downLevelLogon = "VSTAGE\\" + username;
-            DirContext context = ldapTemplate.getContextSource ().getContext (downLevelLogon, password);
+            DirContext context = bindContextSource.getContext (downLevelLogon, password);
             context.close ();
             return true;
         } catch (Exception e) {
             log.warn("Authentication failed for user: {} - {}", username, e.getMessage());
             return false;
+        } finally {
+            sample.stop (bindTimer);
         }
     }
 
@@ -153,14 +191,17 @@ public class LdapService {
      * @return true if authentication succeeded, false otherwise
      */
     public boolean authenticateWithUPN (String userPrincipalName, String password) {
+        Timer.Sample sample = Timer.start ();
         try {
             // Authenticate using UPN (email-like format)
-            DirContext context = ldapTemplate.getContextSource ().getContext (userPrincipalName, password);
+            DirContext context = bindContextSource.getContext (userPrincipalName, password);
             context.close ();
             return true; // Success
         } catch (Exception e) {
             log.warn("Authentication failed for user: {} - {}", userPrincipalName, e.getMessage());
             return false; // Failure
+        } finally {
+            sample.stop (bindTimer);
         }
     }
 
@@ -180,8 +221,13 @@ public class LdapService {
             }
 
             // Authenticate with UPN
-            DirContext context = ldapTemplate.getContextSource().getContext(upn, password);
-            context.close();
+            Timer.Sample sample = Timer.start ();
+            try {
+                DirContext context = bindContextSource.getContext (upn, password);
+                context.close ();
+            } finally {
+                sample.stop (bindTimer);
+            }
             return true;
         } catch (Exception e) {
             log.error("Authentication failed for email: {} - {}", email, e.getMessage());
@@ -192,26 +238,70 @@ public class LdapService {
     /**
      * Finds a user's attribute (such as userPrincipalName) in LDAP by their email address.
      * <p>
-     * The result is cached using the email and attribute as the cache key.
+     * Users synced into the local directory index by the
+     * {@link DirectorySyncService} are answered from the index. Other lookups
+     * are cached in the {@link IdentityCache} using the email and attribute as
+     * the cache key; emails unknown to LDAP are cached as well, failed lookups
+     * are not.
      *
      * @param email     the email address to search for
      * @param attribute the LDAP attribute to retrieve (e.g., "userPrincipalName")
      * @return the value of the specified attribute if found, or {@code null} if not found or on error
      */
-    @Cacheable(value = "emailToPersonId", key = "#email + '_' + #attribute")
     public String findUserPrincipalNameByEmail (String email, String attribute) {
+        if (DirectoryEntry.isIndexed (attribute)) {
+            DirectoryEntry directoryEntry = directorySyncService.findByEmail (email);
+            if (directoryEntry != null) {
+                indexHits.increment ();
+                return directoryEntry.attribute (attribute);
+            }
+            indexMisses.increment ();
+        }
+        try {
+            return identityCache.get (email + '_' + attribute, () -> searchAttributeByEmail (email, attribute));
+        } catch (Exception e) {
+            log.error ("Failed to find userPrincipalName for email: {} - {}", email, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds a user's attribute in the local directory index only, without
+     * querying LDAP. Used where a lookup must not wait for the directory.
+     *
+     * @param email     the email address to search for
+     * @param attribute the LDAP attribute to retrieve (e.g., "employeeID")
+     * @return the value of the attribute, or {@code null} if the user or attribute is not indexed
+     */
+    public String findIndexedAttributeByEmail (String email, String attribute) {
+        if (!DirectoryEntry.isIndexed (attribute)) {
+            return null;
+        }
+        DirectoryEntry directoryEntry = directorySyncService.findByEmail (email);
+        return directoryEntry == null ? null : directoryEntry.attribute (attribute);
+    }
+
+    /**
+     * Searches LDAP for an attribute of the user with an email address.
+     *
+     * @return the value of the attribute, or {@code null} if no user has the email
+     */
+    private String searchAttributeByEmail (String email, String attribute) {
+        Timer.Sample sample = Timer.start ();
         try {
             log.info("Finding userPrincipalName for email: {}", email+", attribute"+attribute);
-            LdapQuery query = query ().filter ("(&(objectClass=user)(mail={0}))", email);
+            // Only the requested attribute is returned by the directory
+            LdapQuery query = query ().attributes (attribute).filter ("(&(objectClass=user)(mail={0}))", email);
             return ldapTemplate.searchForObject (query, new ContextMapper<String> () {
                 @Override
                 public String mapFromContext (Object ctx) throws NamingException {
                     return ((DirContextOperations) ctx).getStringAttribute (attribute);
                 }
             });
-        } catch (Exception e) {
-            log.error ("Failed to find userPrincipalName for email: {} - {}", email, e.getMessage());
+        } catch (EmptyResultDataAccessException e) {
             return null;
+        } finally {
+            sample.stop (searchTimer);
         }
     }
 
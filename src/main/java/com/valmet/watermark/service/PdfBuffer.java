@@ -0,0 +1,446 @@
+package com.valmet.watermark.service;
+
+import com.itextpdf.io.source.IRandomAccessSource;
+import com.itextpdf.io.source.RandomAccessSourceFactory;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A write-once, read-many byte buffer that lives in pooled heap chunks and
+ * spills to a file when it grows past the memory threshold of its
+ * {@link PdfBufferPool} or when the pool's global memory budget is exhausted.
+ * <p>
+ * A buffer is filled through {@link #getOutputStream()} and can afterwards be
+ * read any number of times until it is {@link #close() closed}. Closing stops
+ * new readers; the chunks are returned to the pool and the spill file is
+ * removed once the last open reader is closed, so a stream that is still
+ * reading never sees a chunk that another buffer reuses.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+public class PdfBuffer implements Closeable {
+    private final PdfBufferPool pool;
+    private final String name;
+    private final List<byte[]> chunks = new ArrayList<> ();
+    private Path file;
+    private OutputStream fileOutputStream;
+    private long size;
+    private boolean writeClosed;
+    private boolean closed;
+    private volatile boolean released;
+    private int openReaders;
+
+    PdfBuffer (PdfBufferPool pool, String name) {
+        this.pool = pool;
+        this.name = name;
+    }
+
+    /**
+     * Returns the stream used to fill this buffer. Closing the stream completes
+     * the buffer.
+     *
+     * @return the output stream of this buffer
+     */
+    public OutputStream getOutputStream () {
+        return new OutputStream () {
+            @Override
+            public void write (int b) throws IOException {
+                write (new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write (byte[] bytes, int offset, int length) throws IOException {
+                append (bytes, offset, length);
+            }
+
+            @Override
+            public void flush () throws IOException {
+                if (fileOutputStream != null) {
+                    fileOutputStream.flush ();
+                }
+            }
+
+            @Override
+            public void close () throws IOException {
+                completeWrite ();
+            }
+        };
+    }
+
+    /**
+     * Opens a new stream over the content of this buffer.
+     *
+     * @return an input stream over the buffered bytes
+     * @throws IOException if the buffer is closed or the spill file cannot be read
+     */
+    public synchronized InputStream getInputStream () throws IOException {
+        ensureReadable ();
+        InputStream inputStream = file != null ? Files.newInputStream (file) : new ChunkInputStream ();
+        openReaders++;
+        return new FilterInputStream (inputStream) {
+            private boolean readerClosed;
+
+            @Override
+            public void close () throws IOException {
+                try {
+                    super.close ();
+                } finally {
+                    if (!readerClosed) {
+                        readerClosed = true;
+                        closeReader ();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens a {@link PdfReader} over the content of this buffer without copying
+     * in-memory chunks into a single array.
+     *
+     * @return a reader over the buffered PDF
+     * @throws IOException if the buffer is closed or the content cannot be read
+     */
+    public synchronized PdfReader openPdfReader () throws IOException {
+        ensureReadable ();
+        IRandomAccessSource source = file != null ? new RandomAccessSourceFactory ().createBestSource (file.toString ())
+                : new ChunkRandomAccessSource ();
+        openReaders++;
+        ReaderSource readerSource = new ReaderSource (source);
+        try {
+            return new PdfReader (readerSource, new ReaderProperties ());
+        } catch (IOException | RuntimeException e) {
+            readerSource.close ();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps this buffer as a {@link Resource} for a response body. Every stream
+     * of the resource is a reader of its own; the buffer itself is closed by its
+     * owner, e.g. the {@link PdfBufferScope} of the request.
+     *
+     * @param filename the file name reported by the resource
+     * @return a resource streaming this buffer
+     */
+    public Resource toResource (String filename) {
+        return new AbstractResource () {
+            @Override
+            public String getDescription () {
+                return "PDF buffer [" + filename + "]";
+            }
+
+            @Override
+            public String getFilename () {
+                return filename;
+            }
+
+            @Override
+            public long contentLength () {
+                return size;
+            }
+
+            @Override
+            public InputStream getInputStream () throws IOException {
+                return PdfBuffer.this.getInputStream ();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of bytes written to this buffer.
+     *
+     * @return the buffer size in bytes
+     */
+    public long size () {
+        return size;
+    }
+
+    /**
+     * Returns whether the content of this buffer is held on the heap.
+     *
+     * @return {@code true} if the buffer has not spilled to disk
+     */
+    public boolean isInMemory () {
+        return file == null;
+    }
+
+    /**
+     * Closes this buffer for new readers and releases its chunks and spill file,
+     * if any, once no reader is open anymore.
+     */
+    @Override
+    public synchronized void close () {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseIfUnused ();
+    }
+
+    private synchronized void closeReader () {
+        openReaders--;
+        releaseIfUnused ();
+    }
+
+    private void releaseIfUnused () {
+        if (!closed || openReaders > 0 || released) {
+            return;
+        }
+        released = true;
+        releaseChunks ();
+        if (file != null) {
+            closeFileOutputStream ();
+            pool.deleteSpillFile (file);
+        }
+    }
+
+    /**
+     * Moves the buffered content to a spill file; subsequent writes go to the
+     * file.
+     *
+     * @throws IOException if the spill file cannot be written
+     */
+    synchronized void spill () throws IOException {
+        if (file != null) {
+            return;
+        }
+        file = pool.createSpillFile (name);
+        fileOutputStream = new BufferedOutputStream (Files.newOutputStream (file), pool.getChunkSize ());
+        long remaining = size;
+        for (byte[] chunk : chunks) {
+            int length = (int) Math.min (chunk.length, remaining);
+            fileOutputStream.write (chunk, 0, length);
+            remaining -= length;
+        }
+        releaseChunks ();
+        log.info ("Buffer {} spilled {} bytes to {}", name, size, file);
+    }
+
+    private synchronized void append (byte[] bytes, int offset, int length) throws IOException {
+        if (writeClosed || closed) {
+            throw new IOException ("Buffer " + name + " is not writable");
+        }
+        if (file == null && size + length > pool.getMemoryThreshold ()) {
+            spill ();
+        }
+        while (file == null && length > 0) {
+            int chunkSize = pool.getChunkSize ();
+            int position = (int) (size % chunkSize);
+            if (position == 0 && size / chunkSize == chunks.size ()) {
+                byte[] chunk = pool.acquireChunk ();
+                if (chunk == null) {
+                    log.info ("Memory budget exhausted, spilling buffer {}", name);
+                    spill ();
+                    break;
+                }
+                chunks.add (chunk);
+            }
+            int count = Math.min (length, chunkSize - position);
+            System.arraycopy (bytes, offset, chunks.get (chunks.size () - 1), position, count);
+            size += count;
+            offset += count;
+            length -= count;
+        }
+        if (file != null && length > 0) {
+            fileOutputStream.write (bytes, offset, length);
+            size += length;
+        }
+    }
+
+    private synchronized void completeWrite () throws IOException {
+        if (writeClosed) {
+            return;
+        }
+        writeClosed = true;
+        if (fileOutputStream != null) {
+            fileOutputStream.close ();
+            fileOutputStream = null;
+        }
+    }
+
+    private void ensureReadable () throws IOException {
+        if (closed) {
+            throw new IOException ("Buffer " + name + " is closed");
+        }
+        if (!writeClosed) {
+            completeWrite ();
+        }
+    }
+
+    private void releaseChunks () {
+        chunks.forEach (pool::releaseChunk);
+        chunks.clear ();
+    }
+
+    private void closeFileOutputStream () {
+        if (fileOutputStream != null) {
+            try {
+                fileOutputStream.close ();
+            } catch (IOException e) {
+                log.warn ("Failed to close spill file {}: {}", file, e.getMessage ());
+            }
+            fileOutputStream = null;
+        }
+    }
+
+    /**
+     * Copies bytes starting at the given position out of the in-memory chunks.
+     * Takes no lock: the chunks are complete before the first reader opens and
+     * are not released while a reader is open.
+     *
+     * @return the number of bytes copied, or -1 at the end of the buffer
+     */
+    private int readChunks (long position, byte[] bytes, int offset, int length) throws IOException {
+        if (released) {
+            throw new IOException ("Buffer " + name + " is closed");
+        }
+        if (position >= size) {
+            return -1;
+        }
+        int chunkSize = pool.getChunkSize ();
+        byte[] chunk = chunks.get ((int) (position / chunkSize));
+        int chunkOffset = (int) (position % chunkSize);
+        int count = (int) Math.min (Math.min (length, chunkSize - chunkOffset), size - position);
+        System.arraycopy (chunk, chunkOffset, bytes, offset, count);
+        return count;
+    }
+
+    /**
+     * Returns the byte at the given position of the in-memory chunks, like
+     * {@link #readChunks(long, byte[], int, int)}. iText parses a document
+     * byte by byte, so this neither allocates nor locks.
+     *
+     * @return the byte, or -1 at the end of the buffer
+     */
+    private int readChunk (long position) throws IOException {
+        if (released) {
+            throw new IOException ("Buffer " + name + " is closed");
+        }
+        if (position >= size) {
+            return -1;
+        }
+        int chunkSize = pool.getChunkSize ();
+        return chunks.get ((int) (position / chunkSize))[(int) (position % chunkSize)] & 0xFF;
+    }
+
+    /**
+     * Input stream over the in-memory chunks of the enclosing buffer.
+     */
+    private class ChunkInputStream extends InputStream {
+        private long position;
+
+        @Override
+        public int read () throws IOException {
+            int value = readChunk (position);
+            if (value != -1) {
+                position++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read (byte[] bytes, int offset, int length) throws IOException {
+            int count = readChunks (position, bytes, offset, length);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public int available () {
+            return (int) Math.min (Integer.MAX_VALUE, size - position);
+        }
+    }
+
+    /**
+     * Source of a {@link PdfReader} that counts as an open reader of the
+     * enclosing buffer until the reader is closed.
+     */
+    private class ReaderSource implements IRandomAccessSource {
+        private final IRandomAccessSource source;
+        private boolean readerClosed;
+
+        private ReaderSource (IRandomAccessSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public int get (long position) throws IOException {
+            return source.get (position);
+        }
+
+        @Override
+        public int get (long position, byte[] bytes, int offset, int length) throws IOException {
+            return source.get (position, bytes, offset, length);
+        }
+
+        @Override
+        public long length () {
+            return source.length ();
+        }
+
+        @Override
+        public void close () throws IOException {
+            try {
+                source.close ();
+            } finally {
+                if (!readerClosed) {
+                    readerClosed = true;
+                    closeReader ();
+                }
+            }
+        }
+    }
+
+    /**
+     * Random access view of the in-memory chunks used by {@link PdfReader}.
+     */
+    private class ChunkRandomAccessSource implements IRandomAccessSource {
+        @Override
+        public int get (long position) throws IOException {
+            return readChunk (position);
+        }
+
+        @Override
+        public int get (long position, byte[] bytes, int offset, int length) throws IOException {
+            int total = 0;
+            while (total < length) {
+                int count = readChunks (position + total, bytes, offset + total, length - total);
+                if (count == -1) {
+                    break;
+                }
+                total += count;
+            }
+            return total == 0 && length > 0 ? -1 : total;
+        }
+
+        @Override
+        public long length () {
+            return size;
+        }
+
+        @Override
+        public void close () {
+            // Chunks are released when the enclosing buffer is closed and no reader is open
+        }
+    }
+}
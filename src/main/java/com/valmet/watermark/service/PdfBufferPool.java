@@ -0,0 +1,192 @@
+package com.valmet.watermark.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of spillable {@link PdfBuffer}s used by the watermark pipeline.
+ * <p>
+ * Inputs and outputs that are expected to stay below
+ * {@code watermark.buffer.memory-threshold} are kept in pooled, fixed-size heap
+ * chunks. Larger files, and buffers that cannot get a chunk because the global
+ * {@code watermark.buffer.memory-budget} is used up by concurrent requests,
+ * spill to {@code watermark.buffer.spill-directory}, which may point at a tmpfs
+ * mount.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class PdfBufferPool {
+    private final Deque<byte[]> freeChunks = new ConcurrentLinkedDeque<> ();
+    private final AtomicInteger pooledChunks = new AtomicInteger ();
+    private final AtomicLong reservedBytes = new AtomicLong ();
+    private final FileDeletionService fileDeletionService;
+    /**
+     * Size of a single pooled heap chunk.
+     */
+    @Getter
+    private final int chunkSize;
+    /**
+     * Largest buffer that is kept in memory before it spills to disk.
+     */
+    @Getter
+    private final long memoryThreshold;
+    /**
+     * Total heap, across all concurrent requests, that in-memory buffers may hold.
+     */
+    @Getter
+    private final long memoryBudget;
+    private final int maxPooledChunks;
+    private final String spillDirectory;
+
+    /**
+     * Constructor to initialize the buffer pool.
+     *
+     * @param fileDeletionService the service used to clean up spill files that cannot be deleted immediately
+     * @param chunkSize           the size of a single pooled heap chunk
+     * @param memoryThreshold     the largest buffer that is kept in memory
+     * @param memoryBudget        the total heap that in-memory buffers may hold
+     * @param pooledBytes         the amount of released chunks that is retained for reuse
+     * @param spillDirectory      the directory (disk or tmpfs) used for large buffers
+     */
+    public PdfBufferPool (FileDeletionService fileDeletionService,
+                          @Value ("${watermark.buffer.chunk-size:64KB}") DataSize chunkSize,
+                          @Value ("${watermark.buffer.memory-threshold:8MB}") DataSize memoryThreshold,
+                          @Value ("${watermark.buffer.memory-budget:256MB}") DataSize memoryBudget,
+                          @Value ("${watermark.buffer.pooled-bytes:32MB}") DataSize pooledBytes,
+                          @Value ("${watermark.buffer.spill-directory:${watermark.file.upload.directory}}") String spillDirectory) {
+        this.fileDeletionService = fileDeletionService;
+        this.chunkSize = (int) chunkSize.toBytes ();
+        this.memoryThreshold = memoryThreshold.toBytes ();
+        this.memoryBudget = memoryBudget.toBytes ();
+        this.maxPooledChunks = (int) (pooledBytes.toBytes () / this.chunkSize);
+        this.spillDirectory = spillDirectory;
+        log.info ("Creating PDF buffer pool with chunk size: {}, memory threshold: {}, memory budget: {}, spill directory: {}",
+                chunkSize, memoryThreshold, memoryBudget, spillDirectory);
+    }
+
+    /**
+     * Allocates an empty buffer. Buffers that are expected to exceed the memory
+     * threshold are created directly on disk.
+     *
+     * @param name         a short name used for the spill file and log messages
+     * @param expectedSize the expected number of bytes, or a negative value if unknown
+     * @return a new, writable {@link PdfBuffer}
+     * @throws IOException if a spill file cannot be created
+     */
+    public PdfBuffer allocate (String name, long expectedSize) throws IOException {
+        PdfBuffer buffer = new PdfBuffer (this, name);
+        if (expectedSize > memoryThreshold) {
+            log.info ("Expected size {} of buffer {} exceeds memory threshold, using spill file", expectedSize, name);
+            buffer.spill ();
+        }
+        return buffer;
+    }
+
+    /**
+     * Copies an uploaded file into a new buffer sized after the upload.
+     *
+     * @param multipartFile the uploaded file
+     * @return a {@link PdfBuffer} holding the uploaded content
+     * @throws IOException if the upload cannot be read or a spill file cannot be written
+     */
+    public PdfBuffer copyOf (MultipartFile multipartFile) throws IOException {
+        PdfBuffer buffer = allocate ("input", multipartFile.getSize ());
+        try (InputStream inputStream = multipartFile.getInputStream (); OutputStream outputStream = buffer.getOutputStream ()) {
+            inputStream.transferTo (outputStream);
+        } catch (IOException | RuntimeException e) {
+            buffer.close ();
+            throw e;
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the number of heap bytes currently held by in-memory buffers.
+     *
+     * @return the reserved heap in bytes
+     */
+    public long getReservedBytes () {
+        return reservedBytes.get ();
+    }
+
+    /**
+     * Reserves one chunk against the global memory budget.
+     *
+     * @return a chunk, or {@code null} if the budget is exhausted
+     */
+    byte[] acquireChunk () {
+        long reserved;
+        do {
+            reserved = reservedBytes.get ();
+            if (reserved + chunkSize > memoryBudget) {
+                return null;
+            }
+        } while (!reservedBytes.compareAndSet (reserved, reserved + chunkSize));
+        byte[] chunk = freeChunks.pollFirst ();
+        if (chunk != null) {
+            pooledChunks.decrementAndGet ();
+            return chunk;
+        }
+        return new byte[chunkSize];
+    }
+
+    /**
+     * Returns a chunk to the pool and releases its reservation.
+     *
+     * @param chunk the chunk to release
+     */
+    void releaseChunk (byte[] chunk) {
+        reservedBytes.addAndGet (-chunkSize);
+        if (pooledChunks.incrementAndGet () <= maxPooledChunks) {
+            freeChunks.offerFirst (chunk);
+        } else {
+            pooledChunks.decrementAndGet ();
+        }
+    }
+
+    /**
+     * Creates a new spill file.
+     *
+     * @param name a short name used as part of the file name
+     * @return the path of the created file
+     * @throws IOException if the file cannot be created
+     */
+    Path createSpillFile (String name) throws IOException {
+        Path directory = Path.of (spillDirectory);
+        Files.createDirectories (directory);
+        return Files.createTempFile (directory, name + "_", ".pdf.tmp");
+    }
+
+    /**
+     * Removes a spill file, falling back to the delayed deletion service if the
+     * file is still locked.
+     *
+     * @param file the spill file to remove
+     */
+    void deleteSpillFile (Path file) {
+        try {
+            Files.deleteIfExists (file);
+        } catch (IOException e) {
+            log.warn ("Failed to delete spill file {}: {}", file, e.getMessage ());
+            fileDeletionService.scheduleFileDeletionIfExists (file.toString (), "Spill");
+        }
+    }
+}
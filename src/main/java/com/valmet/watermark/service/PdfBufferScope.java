@@ -0,0 +1,86 @@
+package com.valmet.watermark.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link PdfBuffer}s whose lifetime ends with an HTTP request.
+ * <p>
+ * Response bodies are streamed from buffers after the pipeline has completed,
+ * so they cannot be closed by the pipeline itself. They are registered with the
+ * scope of their request instead, which {@code PdfBufferScopeFilter} closes
+ * when the request, including its asynchronous processing, has completed,
+ * failed or timed out. Buffers registered after that, e.g. by a pipeline that
+ * completes after its request timed out, are closed right away.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+public class PdfBufferScope implements Closeable {
+    private static final String REQUEST_ATTRIBUTE = PdfBufferScope.class.getName ();
+    private final List<PdfBuffer> buffers = new ArrayList<> ();
+    private boolean closed;
+
+    /**
+     * Returns the scope of a request, creating it on first use.
+     *
+     * @param request the request
+     * @return the scope of the request
+     */
+    public static PdfBufferScope of (HttpServletRequest request) {
+        PdfBufferScope scope = (PdfBufferScope) request.getAttribute (REQUEST_ATTRIBUTE);
+        if (scope == null) {
+            scope = new PdfBufferScope ();
+            request.setAttribute (REQUEST_ATTRIBUTE, scope);
+        }
+        return scope;
+    }
+
+    /**
+     * Returns the scope of a request if one was created.
+     *
+     * @param request the request
+     * @return the scope of the request, or null
+     */
+    public static PdfBufferScope find (HttpServletRequest request) {
+        return (PdfBufferScope) request.getAttribute (REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Registers a buffer to be closed with this scope.
+     *
+     * @param buffer the buffer
+     * @return the buffer
+     */
+    public PdfBuffer register (PdfBuffer buffer) {
+        synchronized (this) {
+            if (!closed) {
+                buffers.add (buffer);
+                return buffer;
+            }
+        }
+        buffer.close ();
+        return buffer;
+    }
+
+    /**
+     * Closes all registered buffers.
+     */
+    @Override
+    public void close () {
+        List<PdfBuffer> registered;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            registered = new ArrayList<> (buffers);
+            buffers.clear ();
+        }
+        registered.forEach (PdfBuffer::close);
+    }
+}
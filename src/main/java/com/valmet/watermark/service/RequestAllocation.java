@@ -0,0 +1,53 @@
+package com.valmet.watermark.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bytes allocated on behalf of an HTTP request by all threads working on it.
+ * <p>
+ * The request thread adds its own allocation, and the stages of the watermark
+ * pipeline add theirs on the worker threads they run on.
+ * {@code CustomJwtAuthenticationFilter} records the total in
+ * {@code watermark.request.allocated} when the request, including its
+ * asynchronous processing and the writing of the response, has completed.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+public class RequestAllocation {
+    private static final String REQUEST_ATTRIBUTE = RequestAllocation.class.getName ();
+    private final AtomicLong allocatedBytes = new AtomicLong ();
+
+    /**
+     * Returns the allocation of a request, creating it on first use.
+     *
+     * @param request the request
+     * @return the allocation of the request
+     */
+    public static RequestAllocation of (HttpServletRequest request) {
+        RequestAllocation allocation = (RequestAllocation) request.getAttribute (REQUEST_ATTRIBUTE);
+        if (allocation == null) {
+            allocation = new RequestAllocation ();
+            request.setAttribute (REQUEST_ATTRIBUTE, allocation);
+        }
+        return allocation;
+    }
+
+    /**
+     * Adds bytes allocated by a thread working on the request.
+     *
+     * @param bytes the allocated bytes; negative values, i.e. unmeasured ones, are ignored
+     */
+    public void add (long bytes) {
+        if (bytes > 0) {
+            allocatedBytes.addAndGet (bytes);
+        }
+    }
+
+    public long getAllocatedBytes () {
+        return allocatedBytes.get ();
+    }
+}
@@ -0,0 +1,211 @@
+package com.valmet.watermark.service;
+
+import com.valmet.watermark.config.ExecutorMetrics;
+import com.valmet.watermark.config.LaneSettings;
+import com.valmet.watermark.dto.RequestCost;
+import com.valmet.watermark.enums.JobLane;
+import com.valmet.watermark.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules watermark jobs on separate small, medium and large lanes so that
+ * interactive downloads do not queue behind large batches.
+ * <p>
+ * Each lane owns a fixed number of workers and a bounded queue. A job runs on
+ * its own lane when that lane has an idle worker; otherwise it borrows an idle
+ * worker of a lane configured as {@code lendable}, and only if none is idle it
+ * waits in its own lane's queue. A job is rejected with a
+ * {@link ServiceOverloadedException} when its lane's queue is full.
+ * </p>
+ * <p>
+ * Besides the {@link ExecutorMetrics} of every lane ({@code name=lane-small}
+ * and so on), the time a job waits for a worker is recorded in
+ * {@code watermark.lane.queue.wait}, tagged by the job's lane and the lane
+ * that ran it.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class WatermarkLaneScheduler {
+    private final LaneSettings laneSettings;
+    private final Map<JobLane, LaneExecutor> lanes = new EnumMap<> (JobLane.class);
+
+    /**
+     * Constructor to initialize the lane executors.
+     *
+     * @param laneSettings  the lane sizing and classification settings
+     * @param meterRegistry the registry used to publish lane metrics
+     */
+    public WatermarkLaneScheduler (LaneSettings laneSettings, MeterRegistry meterRegistry) {
+        this.laneSettings = laneSettings;
+        for (JobLane jobLane : JobLane.values ()) {
+            lanes.put (jobLane, new LaneExecutor (jobLane, laneSettings.get (jobLane), laneSettings.resolveWorkers (jobLane), meterRegistry));
+        }
+    }
+
+    /**
+     * Classifies a request into a lane by size and page count.
+     *
+     * @param cost the estimated cost of the request
+     * @return the lane the request belongs to
+     */
+    public JobLane classify (RequestCost cost) {
+        for (JobLane jobLane : JobLane.values ()) {
+            LaneSettings.Lane lane = laneSettings.get (jobLane);
+            if (lane.getMaxBytes () == null || (cost.getBytes () <= lane.getMaxBytes ().toBytes ()
+                    && (lane.getMaxPages () <= 0 || cost.getPages () <= lane.getMaxPages ()))) {
+                return jobLane;
+            }
+        }
+        return JobLane.LARGE;
+    }
+
+    /**
+     * Submits a job to the lane of the given request.
+     *
+     * @param cost the estimated cost of the request
+     * @param job  the job to run
+     * @param <T>  the result type of the job
+     * @return a {@link CompletableFuture} completed with the result of the job
+     * @throws ServiceOverloadedException if the lane's queue is full
+     */
+    public <T> CompletableFuture<T> submit (RequestCost cost, Callable<T> job) {
+        JobLane jobLane = classify (cost);
+        LaneExecutor own = lanes.get (jobLane);
+        LaneExecutor target = own.tryReserveIdle () ? own : borrowIdle (jobLane);
+        if (target == null) {
+            if (!own.tryReserveQueued ()) {
+                log.warn ("Queue of {} lane is full, rejecting request {}", jobLane, cost);
+                own.rejected.increment ();
+                throw new ServiceOverloadedException (own.estimateRetryAfterSeconds ());
+            }
+            target = own;
+        } else if (target != own) {
+            log.debug ("Running {} job on idle {} lane", jobLane, target.jobLane);
+        }
+        return target.execute (jobLane, job);
+    }
+
+    private LaneExecutor borrowIdle (JobLane jobLane) {
+        for (LaneExecutor lane : lanes.values ()) {
+            if (lane.jobLane != jobLane && lane.settings.isLendable () && lane.tryReserveIdle ()) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    @PreDestroy
+    void shutdown () {
+        lanes.values ().forEach (lane -> lane.executor.shutdown ());
+    }
+
+    /**
+     * Worker pool of a single lane. {@code scheduled} counts running and queued
+     * jobs, so a lane is idle while it is below its worker count.
+     */
+    private static final class LaneExecutor {
+        private final JobLane jobLane;
+        private final LaneSettings.Lane settings;
+        private final ThreadPoolExecutor executor;
+        private final AtomicInteger scheduled = new AtomicInteger ();
+        private final Map<JobLane, Timer> queueWaitTimers = new EnumMap<> (JobLane.class);
+        private final Timer executionTimer;
+        private final Counter rejected;
+
+        private LaneExecutor (JobLane jobLane, LaneSettings.Lane settings, int workers, MeterRegistry meterRegistry) {
+            this.jobLane = jobLane;
+            this.settings = settings;
+            this.executor = new ThreadPoolExecutor (workers, workers, 1, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<> (Math.max (1, settings.getQueueCapacity ())),
+                    new CustomizableThreadFactory ("Lane-" + jobLane.name ().toLowerCase () + "-"));
+            String lane = jobLane.name ().toLowerCase ();
+            for (JobLane owner : JobLane.values ()) {
+                queueWaitTimers.put (owner, Timer.builder ("watermark.lane.queue.wait")
+                        .description ("Time a watermark job waited for a worker")
+                        .tag ("lane", owner.name ().toLowerCase ())
+                        .tag ("executor", lane)
+                        .publishPercentiles (0.5, 0.95, 0.99)
+                        .register (meterRegistry));
+            }
+            Gauge.builder ("watermark.lane.queue.depth", executor, pool -> pool.getQueue ().size ())
+                    .tag ("lane", lane).register (meterRegistry);
+            ExecutorMetrics.bindPoolGauges (meterRegistry, executor, "lane-" + lane);
+            executionTimer = ExecutorMetrics.executionTimer (meterRegistry, "lane-" + lane);
+            rejected = ExecutorMetrics.rejectionCounter (meterRegistry, "lane-" + lane);
+            Gauge.builder ("watermark.executor.saturation", executor, pool -> (double) pool.getActiveCount () / workers)
+                    .description ("Busy workers as a fraction of the executor's capacity")
+                    .tag ("name", "lane-" + lane).register (meterRegistry);
+            log.info ("Creating {} lane with {} workers and queue capacity {}", jobLane, workers, settings.getQueueCapacity ());
+        }
+
+        private boolean tryReserveIdle () {
+            return tryReserve (executor.getMaximumPoolSize ());
+        }
+
+        private boolean tryReserveQueued () {
+            return tryReserve (executor.getMaximumPoolSize () + settings.getQueueCapacity ());
+        }
+
+        private boolean tryReserve (int limit) {
+            int current;
+            do {
+                current = scheduled.get ();
+                if (current >= limit) {
+                    return false;
+                }
+            } while (!scheduled.compareAndSet (current, current + 1));
+            return true;
+        }
+
+        private <T> CompletableFuture<T> execute (JobLane owner, Callable<T> job) {
+            CompletableFuture<T> future = new CompletableFuture<> ();
+            long submittedAt = System.nanoTime ();
+            Timer queueWaitTimer = queueWaitTimers.get (owner);
+            try {
+                executor.execute (() -> {
+                    long startedAt = System.nanoTime ();
+                    queueWaitTimer.record (startedAt - submittedAt, TimeUnit.NANOSECONDS);
+                    try {
+                        future.complete (job.call ());
+                    } catch (Throwable e) {
+                        future.completeExceptionally (e);
+                    } finally {
+                        scheduled.decrementAndGet ();
+                        executionTimer.record (System.nanoTime () - startedAt, TimeUnit.NANOSECONDS);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                scheduled.decrementAndGet ();
+                rejected.increment ();
+                throw new ServiceOverloadedException (estimateRetryAfterSeconds ());
+            }
+            return future;
+        }
+
+        private long estimateRetryAfterSeconds () {
+            Timer timer = queueWaitTimers.get (jobLane);
+            return Math.max (1, (long) Math.ceil (timer.mean (TimeUnit.SECONDS)));
+        }
+    }
+}
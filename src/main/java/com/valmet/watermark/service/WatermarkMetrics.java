@@ -0,0 +1,381 @@
+package com.valmet.watermark.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Per-stage latency and size metrics of the {@code /api/watermark} pipeline.
+ * <p>
+ * Stage latencies are recorded in the {@code watermark.stage} timer with a
+ * {@code stage} tag: {@code transfer}, {@code identity}, {@code render},
+ * {@code stamp.page}, {@code stamp}, {@code stamp.degraded}, {@code zip} and
+ * {@code response.write}.
+ * Input bytes, output bytes and pages are recorded in the
+ * {@code watermark.input.bytes}, {@code watermark.output.bytes} and
+ * {@code watermark.pages} distribution summaries. All meters are tagged with
+ * the client {@code system} and a {@code files} bucket (1, 2-5, 6-20, 21+) and
+ * publish histograms, so percentiles can be aggregated across instances.
+ * Only the first {@code watermark.metrics.max-systems} distinct systems get
+ * their own tag value, later ones are recorded as {@code other}.
+ * </p>
+ * <p>
+ * Requests served in degraded mode are counted in {@code watermark.degraded},
+ * tagged with the {@code reason} the regular pipeline was bypassed and the
+ * {@code outcome}.
+ * </p>
+ * <p>
+ * Stages that run on a single thread also record the bytes that thread
+ * allocated in the {@code watermark.stage.allocated} summary and add them to
+ * the {@link RequestAllocation} of their request. {@code CustomJwtAuthenticationFilter}
+ * records the total of the request thread and the pipeline stages per endpoint
+ * in {@code watermark.request.allocated}. Allocation is measured with
+ * {@link com.sun.management.ThreadMXBean} and not recorded on JVMs that do not
+ * support it.
+ * </p>
+ * <p>
+ * Meters are registered once per name and tag set and then looked up in local
+ * maps, so the per-page and per-stage calls on the stamping path do not build
+ * and register meters again.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class WatermarkMetrics {
+    public static final String STAGE_TRANSFER = "transfer";
+    public static final String STAGE_IDENTITY = "identity";
+    public static final String STAGE_RENDER = "render";
+    public static final String STAGE_STAMP_PAGE = "stamp.page";
+    public static final String STAGE_STAMP = "stamp";
+    public static final String STAGE_STAMP_DEGRADED = "stamp.degraded";
+    public static final String STAGE_ZIP = "zip";
+    public static final String STAGE_RESPONSE_WRITE = "response.write";
+    private static final String UNKNOWN_SYSTEM = "unknown";
+    private static final String OTHER_SYSTEM = "other";
+    private static final int MAX_SYSTEM_TAG_LENGTH = 64;
+    private static final String UNKNOWN_URI = "UNKNOWN";
+    private static final int DEFAULT_MAX_SYSTEMS = 100;
+    private final MeterRegistry meterRegistry;
+    private final int maxSystems;
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final Set<String> systems = ConcurrentHashMap.newKeySet ();
+    private final Map<MeterKey, Timer> stageTimers = new ConcurrentHashMap<> ();
+    private final Map<MeterKey, DistributionSummary> summaries = new ConcurrentHashMap<> ();
+    private final Map<MeterKey, Counter> degradedCounters = new ConcurrentHashMap<> ();
+
+    /**
+     * Constructor to initialize the pipeline metrics with the default limit of
+     * distinct client systems.
+     *
+     * @param meterRegistry the registry to publish to
+     */
+    public WatermarkMetrics (MeterRegistry meterRegistry) {
+        this (meterRegistry, DEFAULT_MAX_SYSTEMS);
+    }
+
+    /**
+     * Constructor to initialize the pipeline metrics.
+     *
+     * @param meterRegistry the registry to publish to
+     * @param maxSystems    the number of distinct client systems that get their own tag value
+     */
+    @Autowired
+    public WatermarkMetrics (MeterRegistry meterRegistry, @Value ("${watermark.metrics.max-systems:100}") int maxSystems) {
+        this.meterRegistry = meterRegistry;
+        this.maxSystems = maxSystems;
+        this.threadMXBean = ManagementFactory.getThreadMXBean () instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported () ? bean : null;
+    }
+
+    /**
+     * Returns the tags identifying a request. The system is sent by the client,
+     * so systems beyond {@code watermark.metrics.max-systems} are tagged
+     * {@code other} instead of growing the registry without bound.
+     *
+     * @param system    the client system, may be empty
+     * @param fileCount the number of uploaded files
+     * @return the request tags
+     */
+    public Tags requestTags (String system, int fileCount) {
+        return Tags.of ("system", systemTag (system), "files", fileCountBucket (fileCount));
+    }
+
+    /**
+     * Records the latency of a stage that started at the given time.
+     *
+     * @param stage      the stage name
+     * @param tags       the request tags
+     * @param startNanos the {@link System#nanoTime()} at which the stage started
+     */
+    public void recordStage (String stage, Tags tags, long startNanos) {
+        stageTimer (stage, tags).record (System.nanoTime () - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the latency and the allocation of a stage that started on the
+     * current thread.
+     *
+     * @param stage               the stage name
+     * @param tags                the request tags
+     * @param startNanos          the {@link System#nanoTime()} at which the stage started
+     * @param startAllocatedBytes the {@link #currentThreadAllocatedBytes()} at which the stage started
+     * @param allocation          the allocation of the request the stage adds to, or null
+     */
+    public void recordStage (String stage, Tags tags, long startNanos, long startAllocatedBytes, RequestAllocation allocation) {
+        recordStage (stage, tags, startNanos);
+        recordAllocation (stageAllocationSummary (stage, tags), startAllocatedBytes, allocation);
+    }
+
+    /**
+     * Runs a stage on the current thread and records its latency and allocation.
+     *
+     * @param stage    the stage name
+     * @param tags     the request tags
+     * @param supplier the stage
+     * @param <T>      the result type of the stage
+     * @return the result of the stage
+     */
+    public <T> T recordStage (String stage, Tags tags, Supplier<T> supplier) {
+        return recordStage (stage, tags, supplier, null);
+    }
+
+    /**
+     * Runs a stage on the current thread, records its latency and allocation and
+     * adds the allocation to its request.
+     *
+     * @param stage      the stage name
+     * @param tags       the request tags
+     * @param supplier   the stage
+     * @param allocation the allocation of the request the stage adds to, or null
+     * @param <T>        the result type of the stage
+     * @return the result of the stage
+     */
+    public <T> T recordStage (String stage, Tags tags, Supplier<T> supplier, RequestAllocation allocation) {
+        long startAllocatedBytes = currentThreadAllocatedBytes ();
+        T result = stageTimer (stage, tags).record (supplier);
+        recordAllocation (stageAllocationSummary (stage, tags), startAllocatedBytes, allocation);
+        return result;
+    }
+
+    /**
+     * Adds the bytes the current thread allocated since it started working on a
+     * request, e.g. in a stage that records no metrics of its own.
+     *
+     * @param allocation          the allocation of the request
+     * @param startAllocatedBytes the {@link #currentThreadAllocatedBytes()} at which the thread started
+     */
+    public void addAllocation (RequestAllocation allocation, long startAllocatedBytes) {
+        if (startAllocatedBytes >= 0) {
+            allocation.add (currentThreadAllocatedBytes () - startAllocatedBytes);
+        }
+    }
+
+    /**
+     * Records the bytes allocated for a completed request, by the request thread
+     * and the pipeline stages, for an endpoint.
+     *
+     * @param uri        the matched URI pattern, {@code null} if no handler matched
+     * @param allocation the allocation of the request
+     */
+    public void recordRequestAllocation (String uri, RequestAllocation allocation) {
+        if (threadMXBean == null) {
+            return;
+        }
+        String uriTag = uri == null ? UNKNOWN_URI : uri;
+        summaries.computeIfAbsent (new MeterKey ("watermark.request.allocated", uriTag, Tags.empty ()),
+                key -> DistributionSummary.builder (key.name ())
+                        .description ("Bytes allocated by the request thread and the pipeline stages of a request")
+                        .baseUnit ("bytes")
+                        .tag ("uri", key.qualifier ())
+                        .register (meterRegistry)).record (allocation.getAllocatedBytes ());
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread.
+     *
+     * @return the allocated bytes, or -1 if the JVM cannot measure them
+     */
+    public long currentThreadAllocatedBytes () {
+        return threadMXBean == null ? -1 : threadMXBean.getCurrentThreadAllocatedBytes ();
+    }
+
+    public void recordInputBytes (Tags tags, long bytes) {
+        sizeSummary ("watermark.input.bytes", "bytes", tags).record (bytes);
+    }
+
+    public void recordOutputBytes (Tags tags, long bytes) {
+        sizeSummary ("watermark.output.bytes", "bytes", tags).record (bytes);
+    }
+
+    public void recordPages (Tags tags, long pages) {
+        sizeSummary ("watermark.pages", "pages", tags).record (pages);
+    }
+
+    /**
+     * Counts a request served in degraded mode.
+     *
+     * @param tags    the request tags
+     * @param reason  the simple name of the exception that bypassed the regular pipeline
+     * @param success whether the degraded request returned a watermarked file
+     */
+    public void recordDegraded (Tags tags, String reason, boolean success) {
+        Tags degradedTags = tags.and ("reason", reason, "outcome", success ? "success" : "failure");
+        degradedCounters.computeIfAbsent (new MeterKey ("watermark.degraded", null, degradedTags),
+                key -> Counter.builder (key.name ())
+                        .description ("Requests watermarked in degraded mode")
+                        .tags (key.tags ())
+                        .register (meterRegistry)).increment ();
+    }
+
+    /**
+     * Wraps a response body so that the time from opening to closing its stream,
+     * i.e. writing the response, is recorded as the {@code response.write} stage,
+     * and the allocation of the writing thread is added to the request when the
+     * stream is closed on the thread that opened it.
+     *
+     * @param resource   the response body
+     * @param tags       the request tags
+     * @param allocation the allocation of the request, or null
+     * @return the timed response body
+     */
+    public Resource timeResponseWrite (Resource resource, Tags tags, RequestAllocation allocation) {
+        return new AbstractResource () {
+            @Override
+            public String getDescription () {
+                return resource.getDescription ();
+            }
+
+            @Override
+            public String getFilename () {
+                return resource.getFilename ();
+            }
+
+            @Override
+            public long contentLength () throws IOException {
+                return resource.contentLength ();
+            }
+
+            @Override
+            public InputStream getInputStream () throws IOException {
+                long startNanos = System.nanoTime ();
+                long startAllocatedBytes = currentThreadAllocatedBytes ();
+                Thread writer = Thread.currentThread ();
+                AtomicBoolean recorded = new AtomicBoolean ();
+                return new FilterInputStream (resource.getInputStream ()) {
+                    @Override
+                    public void close () throws IOException {
+                        try {
+                            super.close ();
+                        } finally {
+                            if (recorded.compareAndSet (false, true)) {
+                                recordStage (STAGE_RESPONSE_WRITE, tags, startNanos);
+                                if (allocation != null && Thread.currentThread () == writer) {
+                                    addAllocation (allocation, startAllocatedBytes);
+                                }
+                            }
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    private String systemTag (String system) {
+        if (system == null || system.isBlank ()) {
+            return UNKNOWN_SYSTEM;
+        }
+        String systemTag = system.trim ().substring (0, Math.min (system.trim ().length (), MAX_SYSTEM_TAG_LENGTH));
+        if (systems.contains (systemTag)) {
+            return systemTag;
+        }
+        synchronized (systems) {
+            if (systems.size () < maxSystems) {
+                systems.add (systemTag);
+                return systemTag;
+            }
+        }
+        log.warn ("More than {} client systems, recording the metrics of system {} as {}", maxSystems, systemTag, OTHER_SYSTEM);
+        return OTHER_SYSTEM;
+    }
+
+    private Timer stageTimer (String stage, Tags tags) {
+        return stageTimers.computeIfAbsent (new MeterKey ("watermark.stage", stage, tags),
+                key -> Timer.builder (key.name ())
+                        .description ("Latency of a stage of the watermark pipeline")
+                        .tags (key.tags ())
+                        .tag ("stage", key.qualifier ())
+                        .publishPercentileHistogram ()
+                        .register (meterRegistry));
+    }
+
+    private DistributionSummary stageAllocationSummary (String stage, Tags tags) {
+        return summaries.computeIfAbsent (new MeterKey ("watermark.stage.allocated", stage, tags),
+                key -> DistributionSummary.builder (key.name ())
+                        .description ("Bytes allocated by a stage of the watermark pipeline")
+                        .baseUnit ("bytes")
+                        .tags (key.tags ())
+                        .tag ("stage", key.qualifier ())
+                        .register (meterRegistry));
+    }
+
+    private void recordAllocation (DistributionSummary summary, long startAllocatedBytes, RequestAllocation allocation) {
+        if (startAllocatedBytes >= 0) {
+            long allocatedBytes = currentThreadAllocatedBytes () - startAllocatedBytes;
+            if (allocatedBytes >= 0) {
+                summary.record (allocatedBytes);
+                if (allocation != null) {
+                    allocation.add (allocatedBytes);
+                }
+            }
+        }
+    }
+
+    private DistributionSummary sizeSummary (String name, String baseUnit, Tags tags) {
+        return summaries.computeIfAbsent (new MeterKey (name, baseUnit, tags),
+                key -> DistributionSummary.builder (key.name ())
+                        .baseUnit (key.qualifier ())
+                        .tags (key.tags ())
+                        .publishPercentileHistogram ()
+                        .register (meterRegistry));
+    }
+
+    private static String fileCountBucket (int fileCount) {
+        if (fileCount <= 1) {
+            return "1";
+        } else if (fileCount <= 5) {
+            return "2-5";
+        } else if (fileCount <= 20) {
+            return "6-20";
+        }
+        return "21+";
+    }
+
+    /**
+     * Identifies a registered meter: its name, the stage, URI or unit that
+     * distinguishes meters of the same name, and the request tags.
+     */
+    private record MeterKey(String name, String qualifier, Tags tags) {
+    }
+}
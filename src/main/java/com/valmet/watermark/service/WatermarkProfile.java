@@ -0,0 +1,56 @@
+package com.valmet.watermark.service;
+
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.valmet.watermark.config.WatermarkSettingsSnapshot;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Compiled watermark profile of one or more client systems.
+ * <p>
+ * The settings of the profile are resolved against the current settings
+ * version, and its logo is decoded once when the profile is loaded, so stamping
+ * a document only creates the per-document PDF objects from them.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Getter
+@Builder
+public class WatermarkProfile {
+    /**
+     * The name of the profile.
+     */
+    private final String name;
+    /**
+     * The watermark settings of the profile.
+     */
+    private final WatermarkSettingsSnapshot settings;
+    /**
+     * The decoded logo image, shared by all documents of the profile.
+     */
+    private final ImageData logo;
+    /**
+     * The compression level of the output streams, null for the iText default.
+     */
+    private final Integer compressionLevel;
+    /**
+     * Whether the output uses object and cross-reference streams.
+     */
+    private final boolean fullCompression;
+
+    /**
+     * Creates the writer properties of one output document.
+     *
+     * @return new {@link WriterProperties}, which are not shared between documents
+     */
+    public WriterProperties newWriterProperties () {
+        WriterProperties writerProperties = new WriterProperties ().setFullCompressionMode (fullCompression);
+        if (compressionLevel != null) {
+            writerProperties.setCompressionLevel (compressionLevel);
+        }
+        return writerProperties;
+    }
+}
@@ -0,0 +1,157 @@
+package com.valmet.watermark.service;
+
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.valmet.watermark.config.WatermarkProfileSettings;
+import com.valmet.watermark.config.WatermarkSettingsHolder;
+import com.valmet.watermark.config.WatermarkSettingsSnapshot;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Compiled watermark profiles of the client systems.
+ * <p>
+ * The profiles configured under {@code watermark.profiles} are compiled when
+ * the service starts: their logos are decoded once and their settings are
+ * resolved against the current settings version, failing the startup if a
+ * profile is invalid. Whenever a new settings version is published, the
+ * settings of all profiles are resolved again and the registered listeners are
+ * called. A request looks up the profile of its client system in a map, falling
+ * back to the {@code default} profile.
+ * </p>
+ *
+ * @author BJIT
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class WatermarkProfiles {
+    private static final String DEFAULT_LOGO = "classpath:static/images/valmet_logo.png";
+    private final Map<String, WatermarkProfileSettings.Profile> configuredProfiles;
+    private final Map<String, ImageData> logos = new HashMap<> ();
+    private final List<Consumer<WatermarkProfile>> listeners = new CopyOnWriteArrayList<> ();
+    private volatile WatermarkProfile defaultProfile;
+    private volatile Map<String, WatermarkProfile> profilesBySystem;
+
+    /**
+     * Constructor to compile the configured profiles.
+     *
+     * @param watermarkSettingsHolder  the holder of the current settings
+     * @param watermarkProfileSettings the configured profiles
+     * @param resourceLoader           the loader of the logo images
+     * @param meterRegistry            the registry used to publish the number of profiles
+     * @throws IllegalArgumentException if a profile is invalid
+     */
+    public WatermarkProfiles (WatermarkSettingsHolder watermarkSettingsHolder, WatermarkProfileSettings watermarkProfileSettings,
+                              ResourceLoader resourceLoader, MeterRegistry meterRegistry) {
+        this.configuredProfiles = Map.copyOf (watermarkProfileSettings.getProfiles ());
+        logos.put (DEFAULT_LOGO, decodeLogo (resourceLoader, DEFAULT_LOGO));
+        configuredProfiles.values ().stream ()
+                .map (WatermarkProfileSettings.Profile::getLogo)
+                .filter (logo -> logo != null && !logo.isBlank ())
+                .forEach (logo -> logos.computeIfAbsent (logo, location -> decodeLogo (resourceLoader, location)));
+        compile (watermarkSettingsHolder.getSnapshot ());
+        watermarkSettingsHolder.addListener (this::recompile);
+        Gauge.builder ("watermark.profiles", this, profiles -> profiles.configuredProfiles.size ())
+                .description ("Number of configured watermark profiles").register (meterRegistry);
+    }
+
+    /**
+     * Returns the profile of a client system.
+     *
+     * @param system the client system, compared without case, may be empty
+     * @return the profile of the system, the default profile if it has none
+     */
+    public WatermarkProfile profileFor (String system) {
+        if (system == null || system.isBlank ()) {
+            return defaultProfile;
+        }
+        return profilesBySystem.getOrDefault (system.trim ().toLowerCase (Locale.ROOT), defaultProfile);
+    }
+
+    /**
+     * Returns the profile of client systems without a profile of their own.
+     *
+     * @return the default profile
+     */
+    public WatermarkProfile getDefaultProfile () {
+        return defaultProfile;
+    }
+
+    /**
+     * Registers a listener called with the new default profile whenever the
+     * profiles are compiled again.
+     *
+     * @param listener the listener
+     */
+    public void addListener (Consumer<WatermarkProfile> listener) {
+        listeners.add (listener);
+    }
+
+    private void recompile (WatermarkSettingsSnapshot settings) {
+        try {
+            compile (settings);
+        } catch (IllegalArgumentException e) {
+            // Profile overrides are validated at startup, so only a broken base leads here
+            log.warn ("Could not compile the watermark profiles for settings version {}: {}", settings.getVersion (), e.getMessage ());
+            return;
+        }
+        listeners.forEach (listener -> listener.accept (defaultProfile));
+    }
+
+    private synchronized void compile (WatermarkSettingsSnapshot settings) {
+        WatermarkProfileSettings.Profile defaultSettings = configuredProfiles.getOrDefault (WatermarkProfileSettings.DEFAULT_PROFILE,
+                new WatermarkProfileSettings.Profile ());
+        WatermarkProfile compiledDefault = compile (WatermarkProfileSettings.DEFAULT_PROFILE, defaultSettings, settings);
+        Map<String, WatermarkProfile> bySystem = new HashMap<> ();
+        configuredProfiles.forEach ((name, profile) -> {
+            WatermarkProfile compiled = name.equals (WatermarkProfileSettings.DEFAULT_PROFILE) ? compiledDefault : compile (name, profile, settings);
+            for (String system : profile.getSystems ()) {
+                WatermarkProfile previous = bySystem.put (system.trim ().toLowerCase (Locale.ROOT), compiled);
+                if (previous != null && previous != compiled) {
+                    throw new IllegalArgumentException ("Client system " + system + " is in the watermark profiles " + previous.getName () + " and " + name);
+                }
+            }
+        });
+        profilesBySystem = Map.copyOf (bySystem);
+        defaultProfile = compiledDefault;
+        log.info ("Compiled {} watermark profiles for settings version {}", configuredProfiles.size (), settings.getVersion ());
+    }
+
+    private WatermarkProfile compile (String name, WatermarkProfileSettings.Profile profile, WatermarkSettingsSnapshot settings) {
+        Integer compressionLevel = profile.getCompressionLevel ();
+        if (compressionLevel != null && (compressionLevel < -1 || compressionLevel > 9)) {
+            throw new IllegalArgumentException ("Invalid compression level of watermark profile " + name + ": " + compressionLevel + ", expected -1 to 9");
+        }
+        String logo = profile.getLogo () == null || profile.getLogo ().isBlank () ? DEFAULT_LOGO : profile.getLogo ();
+        return WatermarkProfile.builder ()
+                .name (name)
+                .settings (settings.override (profile.getOpacity (), profile.getLogoOpacity (), profile.getColorCode (), profile.getXAxis (),
+                        profile.getYAxis (), profile.getFontName (), profile.getFontStyle ()))
+                .logo (logos.get (logo))
+                .compressionLevel (compressionLevel)
+                .fullCompression (Boolean.TRUE.equals (profile.getFullCompression ()))
+                .build ();
+    }
+
+    private static ImageData decodeLogo (ResourceLoader resourceLoader, String location) {
+        try (InputStream inputStream = resourceLoader.getResource (location).getInputStream ()) {
+            return ImageDataFactory.create (inputStream.readAllBytes ());
+        } catch (IOException e) {
+            throw new UncheckedIOException ("Could not read the watermark logo " + location, e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.valmet.watermark.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * The parts of a watermark request that its pipeline and fallback need after
+ * the servlet thread has returned.
+ * <p>
+ * The regular pipeline completes, and its Resilience4j fallback runs, on
+ * worker threads to which no request is bound, so the request-scoped
+ * {@link HttpServletRequest} proxy cannot be used there. The context is
+ * resolved on the servlet thread, as a handler argument registered by
+ * {@code WebMvcConfig}, and passed on with the other arguments of the call.
+ * </p>
+ *
+ * @param clientApplicationName the {@code X-Client-Application-Name} header, or null
+ * @param contentLength         the Content-Length of the request, or a negative value if unknown
+ * @param scope                 the scope closing the response buffers of the request
+ * @param allocation            the allocation of the request
+ * @author BJIT
+ * @version 1.0
+ */
+public record WatermarkRequestContext(String clientApplicationName, long contentLength, PdfBufferScope scope,
+                                      RequestAllocation allocation) {
+    private static final String CLIENT_APPLICATION_NAME_HEADER = "X-Client-Application-Name";
+
+    /**
+     * Resolves the context of a request; must be called on the thread the
+     * request is bound to.
+     *
+     * @param request the request
+     * @return the context of the request
+     */
+    public static WatermarkRequestContext of (HttpServletRequest request) {
+        return new WatermarkRequestContext (request.getHeader (CLIENT_APPLICATION_NAME_HEADER), request.getContentLengthLong (),
+                PdfBufferScope.of (request), RequestAllocation.of (request));
+    }
+
+    /**
+     * Returns the system to watermark with: the given system, or the client
+     * application name if none is given.
+     *
+     * @param system the system parameter of the request
+     * @return the client system, or null
+     */
+    public String clientSystem (String system) {
+        return system == null || system.isEmpty () ? clientApplicationName : system;
+    }
+}
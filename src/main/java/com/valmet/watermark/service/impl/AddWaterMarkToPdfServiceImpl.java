@@ -3,6 +3,7 @@ package com.valmet.watermark.service.impl;
 import com.itextpdf.io.image.ImageData;
 import com.itextpdf.io.image.ImageDataFactory;
 import com.itextpdf.kernel.colors.PatternColor;
+import com.itextpdf.kernel.exceptions.PdfException;
 import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.geom.Rectangle;
 import com.itextpdf.kernel.pdf.*;
@@ -15,22 +16,25 @@ import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Image;
 import com.itextpdf.layout.layout.LayoutPosition;
 import com.itextpdf.layout.properties.Property;
-import com.valmet.watermark.config.WatermarkSettings;
-import com.valmet.watermark.service.FileDeletionService;
+import com.valmet.watermark.config.WatermarkSettingsSnapshot;
+import com.valmet.watermark.service.PdfBuffer;
+import com.valmet.watermark.service.WatermarkMetrics;
+import com.valmet.watermark.service.WatermarkProfile;
+import com.valmet.watermark.service.WatermarkProfiles;
+import io.micrometer.core.instrument.Tags;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.Math.PI;
 
@@ -62,7 +66,7 @@ import static java.lang.Math.PI;
  * <ol>
  * <li>Inject this service into a AddWaterMarkToPdfService.</li>
  * <li>Call the `addWatermarkToExistingPdf` method with the necessary input
- * file, output path, and user metadata.</li>
+ * and output buffers, and user metadata.</li>
  * </ol>
  *
  * <p>
@@ -78,81 +82,172 @@ import static java.lang.Math.PI;
 @Service
 @Slf4j
 public class AddWaterMarkToPdfServiceImpl {
-    static Tiling tiling = null;
-    private static Image img;
-    private final WatermarkSettings watermarkSettings;
-    private final FileDeletionService fileDeletionService;
-    private ClassPathResource LogoFilePath = null;
+    private final WatermarkProfiles watermarkProfiles;
+    private final WatermarkMetrics watermarkMetrics;
+    private final int textImageCacheSize;
+    /**
+     * Rendered watermark text images by profile settings, text and font size;
+     * cleared when the profiles are compiled for a new settings version.
+     */
+    private final Map<TextImageKey, byte[]> textImages = new ConcurrentHashMap<> ();
 
     /**
      * Constructor to initialize watermark settings.
      *
-     * @param watermarkSettings Watermark configuration settings.
+     * @param watermarkProfiles  Compiled watermark profiles of the client systems.
+     * @param watermarkMetrics   Metrics for text rendering and per-page stamping.
+     * @param textImageCacheSize Maximum number of cached text images, 0 renders every text.
      */
-    public AddWaterMarkToPdfServiceImpl (WatermarkSettings watermarkSettings, FileDeletionService fileDeletionService) {
-        this.watermarkSettings = watermarkSettings;
-        this.fileDeletionService = fileDeletionService;
+    public AddWaterMarkToPdfServiceImpl (WatermarkProfiles watermarkProfiles, WatermarkMetrics watermarkMetrics,
+                                         @Value ("${watermark.text-image-cache.max-size:1000}") int textImageCacheSize) {
+        this.watermarkProfiles = watermarkProfiles;
+        this.watermarkMetrics = watermarkMetrics;
+        this.textImageCacheSize = textImageCacheSize;
+        watermarkProfiles.addListener (profile -> textImages.clear ());
     }
 
     /**
-     * Applies a watermark to an existing PDF file, including text and logo-based
-     * watermarks.
+     * Applies a watermark to an existing PDF document, including text and
+     * logo-based watermarks.
      *
-     * @param inputPdf               The path to the input PDF file.
-     * @param outputPdf              The path to save the watermarked PDF file.
+     * @param inputPdf               The buffer holding the input PDF document.
+     * @param outputPdf              The buffer receiving the watermarked PDF document.
      * @param strKeyWords            The keywords to include in the PDF metadata.
      * @param mapPdfCustomProperties The custom properties to include in the PDF metadata.
      * @param strWaterMark           The watermark text to apply.
-     * @param strWaterMarkImageFile  Path to the watermark image file.
-     * @throws IOException If an I/O error occurs during processing.
+     * @return The number of stamped pages.
+     * @throws IOException  If an I/O error occurs during processing.
+     * @throws PdfException If the document cannot be read or stamped.
      */
-    public void addWatermarkToExistingPdf (String inputPdf, String outputPdf, String strKeyWords, Map<String, String> mapPdfCustomProperties,
-                                           String strWaterMark, String strWaterMarkImageFile) throws IOException {
-        log.info ("Starting watermark process for input PDF: {}, output PDF: {}", inputPdf, outputPdf);
-        try {
-            if (!inputPdf.equalsIgnoreCase (outputPdf)) {
-                try (PdfDocument pdfDocument = new PdfDocument (new PdfReader (inputPdf), new PdfWriter (outputPdf))) {
-                    PdfDocumentInfo info = pdfDocument.getDocumentInfo ();
-                    info.setMoreInfo (mapPdfCustomProperties);
-                    info.setKeywords (strKeyWords);
-                    Image imgLogoWatermark = loadLogoWatermark ();
-                    Document document = new Document (pdfDocument);
-                    PdfExtGState transparentGraphicState = new PdfExtGState ().setFillOpacity (0.5f);
-                    for (int i = 1; i <= document.getPdfDocument ().getNumberOfPages (); i++) {
-                        addWatermarkToExistingPage (document, i, strWaterMark, transparentGraphicState, imgLogoWatermark,
-                                strWaterMarkImageFile);
-                    }
-                }
-            }
-            log.info ("Watermark process completed successfully for input PDF: {}, output PDF: {}", inputPdf, outputPdf);
+    public int addWatermarkToExistingPdf (PdfBuffer inputPdf, PdfBuffer outputPdf, String strKeyWords, Map<String, String> mapPdfCustomProperties,
+                                          String strWaterMark) throws IOException {
+        return addWatermarkToExistingPdf (inputPdf, outputPdf, strKeyWords, mapPdfCustomProperties, strWaterMark, Tags.empty ());
+    }
 
-        } catch (Exception e) {
-            log.error ("Error adding watermark: {}", e.getMessage ());
-        } finally {
-            log.info ("Finally block in Add Watermark to PDF IMPLEMENTATION");
-            fileDeletionService.scheduleFileDeletionIfExists (strWaterMarkImageFile, "Watermark Image");
-            fileDeletionService.scheduleFileDeletionIfExists (inputPdf, "Input PDF");
+    /**
+     * Applies a watermark to an existing PDF document and records the render and
+     * per-page stamp latencies with the given request tags.
+     *
+     * @param inputPdf               The buffer holding the input PDF document.
+     * @param outputPdf              The buffer receiving the watermarked PDF document.
+     * @param strKeyWords            The keywords to include in the PDF metadata.
+     * @param mapPdfCustomProperties The custom properties to include in the PDF metadata.
+     * @param strWaterMark           The watermark text to apply.
+     * @param metricTags             The request tags of the recorded metrics.
+     * @return The number of stamped pages.
+     * @throws IOException  If an I/O error occurs during processing.
+     * @throws PdfException If the document cannot be read or stamped.
+     */
+    public int addWatermarkToExistingPdf (PdfBuffer inputPdf, PdfBuffer outputPdf, String strKeyWords, Map<String, String> mapPdfCustomProperties,
+                                          String strWaterMark, Tags metricTags) throws IOException {
+        return addWatermarkToExistingPdf (inputPdf, outputPdf, strKeyWords, mapPdfCustomProperties, strWaterMark,
+                watermarkProfiles.getDefaultProfile (), metricTags);
+    }
+
+    /**
+     * Applies a watermark to an existing PDF document with the settings, logo and
+     * output options of a client system profile.
+     *
+     * @param inputPdf               The buffer holding the input PDF document.
+     * @param outputPdf              The buffer receiving the watermarked PDF document.
+     * @param strKeyWords            The keywords to include in the PDF metadata.
+     * @param mapPdfCustomProperties The custom properties to include in the PDF metadata.
+     * @param strWaterMark           The watermark text to apply.
+     * @param profile                The watermark profile of the client system.
+     * @param metricTags             The request tags of the recorded metrics.
+     * @return The number of stamped pages.
+     * @throws IOException  If an I/O error occurs during processing.
+     * @throws PdfException If the document cannot be read or stamped.
+     */
+    public int addWatermarkToExistingPdf (PdfBuffer inputPdf, PdfBuffer outputPdf, String strKeyWords, Map<String, String> mapPdfCustomProperties,
+                                          String strWaterMark, WatermarkProfile profile, Tags metricTags) throws IOException {
+        int pages;
+        log.info ("Starting watermark process for input PDF of {} bytes (in memory: {}) with profile {}", inputPdf.size (),
+                inputPdf.isInMemory (), profile.getName ());
+        try (PdfDocument pdfDocument = new PdfDocument (inputPdf.openPdfReader (),
+                new PdfWriter (outputPdf.getOutputStream (), profile.newWriterProperties ()))) {
+            pages = stampDocument (pdfDocument, strKeyWords, mapPdfCustomProperties, strWaterMark, profile, metricTags);
         }
+        log.info ("Watermark process completed successfully, output PDF of {} bytes (in memory: {})", outputPdf.size (), outputPdf.isInMemory ());
+        return pages;
     }
 
     /**
-     * Loads the logo watermark image from the classpath.
+     * Applies a watermark to an existing PDF document in append mode, used by the
+     * degraded mode. The original document is copied unchanged and only the
+     * watermark objects are appended as an incremental update, so no existing
+     * object is parsed for rewriting or compressed again.
      *
-     * @return An `Image` object containing the logo watermark.
-     * @throws IOException If an I/O error occurs during loading.
+     * @param inputPdf               The buffer holding the input PDF document.
+     * @param outputPdf              The buffer receiving the watermarked PDF document.
+     * @param strKeyWords            The keywords to include in the PDF metadata.
+     * @param mapPdfCustomProperties The custom properties to include in the PDF metadata.
+     * @param strWaterMark           The watermark text to apply.
+     * @param profile                The watermark profile of the client system.
+     * @param metricTags             The request tags of the recorded metrics.
+     * @return The number of stamped pages.
+     * @throws IOException  If an I/O error occurs during processing.
+     * @throws PdfException If the document cannot be stamped, e.g. because it
+     *                      has errors that append mode cannot preserve.
      */
-    private Image loadLogoWatermark () throws IOException {
-        if (LogoFilePath == null) {
-            LogoFilePath = new ClassPathResource ("static/images/valmet_logo.png");
+    public int addWatermarkInAppendMode (PdfBuffer inputPdf, PdfBuffer outputPdf, String strKeyWords, Map<String, String> mapPdfCustomProperties,
+                                         String strWaterMark, WatermarkProfile profile, Tags metricTags) throws IOException {
+        log.info ("Starting append mode watermark process for input PDF of {} bytes with profile {}", inputPdf.size (), profile.getName ());
+        try (PdfDocument pdfDocument = new PdfDocument (inputPdf.openPdfReader (), new PdfWriter (outputPdf.getOutputStream ()),
+                new StampingProperties ().useAppendMode ())) {
+            return stampDocument (pdfDocument, strKeyWords, mapPdfCustomProperties, strWaterMark, profile, metricTags);
         }
-        try (InputStream imgInputStream = LogoFilePath.getInputStream ()) {
-            ImageData imageData = ImageDataFactory.create (imgInputStream.readAllBytes ());
-            Image imgLogoWatermark = new Image (imageData);
-            log.info ("Logo Opacity: {}", watermarkSettings.getLogoOpacity ());
-            log.info ("Text Opacity: {}", watermarkSettings.getOpacity ());
-            imgLogoWatermark.setOpacity (watermarkSettings.getLogoOpacity ());
-            return imgLogoWatermark;
+    }
+
+    /**
+     * Sets the metadata of a document and stamps all of its pages.
+     *
+     * @return The number of stamped pages.
+     */
+    private int stampDocument (PdfDocument pdfDocument, String strKeyWords, Map<String, String> mapPdfCustomProperties, String strWaterMark,
+                               WatermarkProfile profile, Tags metricTags) throws IOException {
+        int pages = 0;
+        // One version of the settings for the whole document
+        WatermarkSettingsSnapshot settings = profile.getSettings ();
+        PdfDocumentInfo info = pdfDocument.getDocumentInfo ();
+        info.setMoreInfo (mapPdfCustomProperties);
+        info.setKeywords (strKeyWords);
+        Image imgLogoWatermark = loadLogoWatermark (profile);
+        Document document = new Document (pdfDocument);
+        PdfExtGState transparentGraphicState = new PdfExtGState ().setFillOpacity (0.5f);
+        DocumentStamp stamp = new DocumentStamp ();
+        for (int i = 1; i <= document.getPdfDocument ().getNumberOfPages (); i++) {
+            long pageStart = System.nanoTime ();
+            addWatermarkToExistingPage (document, i, strWaterMark, transparentGraphicState, imgLogoWatermark, stamp, settings, metricTags);
+            watermarkMetrics.recordStage (WatermarkMetrics.STAGE_STAMP_PAGE, metricTags, pageStart);
+            pages = i;
         }
+        return pages;
+    }
+
+    /**
+     * Creates the logo watermark image of the default profile. Package-private
+     * for the JMH benchmarks.
+     *
+     * @return An `Image` object containing the logo watermark.
+     */
+    Image loadLogoWatermark () {
+        return loadLogoWatermark (watermarkProfiles.getDefaultProfile ());
+    }
+
+    /**
+     * Creates the logo watermark image from the logo decoded with the profile.
+     *
+     * @param profile The watermark profile of the document.
+     * @return An `Image` object containing the logo watermark.
+     */
+    private Image loadLogoWatermark (WatermarkProfile profile) {
+        WatermarkSettingsSnapshot settings = profile.getSettings ();
+        Image imgLogoWatermark = new Image (profile.getLogo ());
+        log.info ("Logo Opacity: {}", settings.getLogoOpacity ());
+        log.info ("Text Opacity: {}", settings.getOpacity ());
+        imgLogoWatermark.setOpacity (settings.getLogoOpacity ());
+        return imgLogoWatermark;
     }
 
     /**
@@ -164,11 +259,15 @@ public class AddWaterMarkToPdfServiceImpl {
      * @param strWatermark          The watermark text.
      * @param graphicState          The graphic state for watermark transparency.
      * @param imgLogoWatermark      The image logo watermark.
-     * @param strWaterMarkImageFile Path to the watermark image file.
+     * @param stamp                 The text image and logo pattern of the document,
+     *                              created on the first page.
+     * @param settings              The watermark settings of the document.
+     * @param metricTags            The request tags of the recorded metrics.
      * @throws IOException If an I/O error occurs during processing.
      */
     private void addWatermarkToExistingPage (Document document, int pageIndex, String strWatermark,
-                                             PdfExtGState graphicState, Image imgLogoWatermark, String strWaterMarkImageFile) throws IOException, ExecutionException, InterruptedException {
+                                             PdfExtGState graphicState, Image imgLogoWatermark, DocumentStamp stamp, WatermarkSettingsSnapshot settings,
+                                             Tags metricTags) throws IOException {
         PdfDocument pdfDocument = document.getPdfDocument ();
         PdfPage pdfPage = pdfDocument.getPage (pageIndex);
         PageSize pageSize = (PageSize) pdfPage.getPageSizeWithRotation ();
@@ -179,7 +278,6 @@ public class AddWaterMarkToPdfServiceImpl {
         float pageX = pageSize.getLeft () + document.getLeftMargin ();
         float pageY = pageSize.getBottom ();
         if (pageIndex == 1) {
-            img = null;
             int logoWidth = 450;
             int logoHeight = 400;
             float fontSize = (pageSize.getWidth () + pageSize.getHeight () * 0.8f) / 100;
@@ -209,27 +307,32 @@ public class AddWaterMarkToPdfServiceImpl {
                 logoHeight = 300;
             }
             if (!strWatermark.isEmpty ()) {
-                img = getWaterMarkedImageByPdfFontSize (strWatermark, (int) fontSize, strWaterMarkImageFile);
+                int textFontSize = (int) fontSize;
+                stamp.textImage = watermarkMetrics.recordStage (WatermarkMetrics.STAGE_RENDER, metricTags,
+                        () -> getWaterMarkedImageByPdfFontSize (strWatermark, textFontSize, settings));
             }
 
             float rotationInRadians = (float) (PI / 180 * 45f);
             imgLogoWatermark.setRotationAngle (rotationInRadians);
-            tiling = new Tiling (new Rectangle (logoWidth, logoHeight));
-            new Canvas (new PdfPatternCanvas (tiling, pdfDocument), tiling.getBBox ()).add (imgLogoWatermark);
+            stamp.tiling = new Tiling (new Rectangle (logoWidth, logoHeight));
+            new Canvas (new PdfPatternCanvas (stamp.tiling, pdfDocument), stamp.tiling.getBBox ()).add (imgLogoWatermark);
         }
-        if (img != null) {
-            img.setFixedPosition (pageIndex, pageX + watermarkSettings.getXAxis (), pageY + watermarkSettings.getYAxis ());
-            document.add (img);
+        if (stamp.textImage != null) {
+            stamp.textImage.setFixedPosition (pageIndex, pageX + settings.getXAxis (), pageY + settings.getYAxis ());
+            document.add (stamp.textImage);
         }
         new PdfCanvas (pdfPage.newContentStreamAfter (), pdfPage.getResources (), pdfDocument).saveState ()
-                .setExtGState (graphicState).setFillColor (new PatternColor (tiling)).rectangle (pdfPage.getCropBox ())
+                .setExtGState (graphicState).setFillColor (new PatternColor (stamp.tiling)).rectangle (pdfPage.getCropBox ())
                 .fill ().restoreState ();
     }
 
-    public Image getWaterMarkedImageByPdfFontSize (String strWatermark, int fontSize, String strWaterMarkImageFile) {
+    public Image getWaterMarkedImageByPdfFontSize (String strWatermark, int fontSize) {
+        return getWaterMarkedImageByPdfFontSize (strWatermark, fontSize, watermarkProfiles.getDefaultProfile ().getSettings ());
+    }
+
+    private Image getWaterMarkedImageByPdfFontSize (String strWatermark, int fontSize, WatermarkSettingsSnapshot settings) {
         try {
-            createTextToImage (strWatermark, fontSize, strWaterMarkImageFile);
-            ImageData imageData = ImageDataFactory.create (strWaterMarkImageFile);
+            ImageData imageData = ImageDataFactory.create (renderTextImage (strWatermark, fontSize, settings));
             Image img = new Image (imageData);
             img.setProperty (Property.POSITION, LayoutPosition.FIXED);
             img.setProperty (Property.FLUSH_ON_DRAW, true);
@@ -241,16 +344,52 @@ public class AddWaterMarkToPdfServiceImpl {
     }
 
     /**
-     * Creates an image file containing the specified watermark text.
+     * Returns the rendered text image of the profile settings, rendering and
+     * caching it on first use.
+     */
+    private byte[] renderTextImage (String strWatermark, int fontSize, WatermarkSettingsSnapshot settings) throws IOException {
+        if (textImageCacheSize <= 0) {
+            return createTextToImage (strWatermark, fontSize, settings);
+        }
+        TextImageKey key = new TextImageKey (settings, strWatermark, fontSize);
+        byte[] png = textImages.get (key);
+        if (png == null) {
+            png = createTextToImage (strWatermark, fontSize, settings);
+            if (textImages.size () >= textImageCacheSize) {
+                // Texts are per user, so a full cache is rebuilt from the current users
+                textImages.clear ();
+            }
+            textImages.put (key, png);
+        }
+        return png;
+    }
+
+    /**
+     * Renders the specified watermark text into an in-memory PNG image with the
+     * settings of the default profile. Package-private for the JMH benchmarks.
+     *
+     * @param strWatermark The watermark text to render on the image.
+     * @param fontSize     The font size for the watermark text.
+     * @return The PNG encoded image.
+     * @throws IOException If the image cannot be encoded.
+     */
+    byte[] createTextToImage (String strWatermark, int fontSize) throws IOException {
+        return createTextToImage (strWatermark, fontSize, watermarkProfiles.getDefaultProfile ().getSettings ());
+    }
+
+    /**
+     * Renders the specified watermark text into an in-memory PNG image.
      *
-     * @param strWatermark          The watermark text to render on the image.
-     * @param fontSize              The font size for the watermark text.
-     * @param strWaterMarkImageFile Path to save the generated watermark image.
+     * @param strWatermark The watermark text to render on the image.
+     * @param fontSize     The font size for the watermark text.
+     * @param settings     The watermark settings of the document.
+     * @return The PNG encoded image.
+     * @throws IOException If the image cannot be encoded.
      */
-    private void createTextToImage (String strWatermark, int fontSize, String strWaterMarkImageFile) {
+    private byte[] createTextToImage (String strWatermark, int fontSize, WatermarkSettingsSnapshot settings) throws IOException {
         BufferedImage image = new BufferedImage (3, 3, BufferedImage.TYPE_INT_ARGB);
         Graphics2D graphics2d = image.createGraphics ();
-        Font font = new Font (watermarkSettings.getFontName (), getFontStyle (watermarkSettings.getFontStyle ()), fontSize);
+        Font font = settings.getFont ().deriveFont ((float) fontSize);
         graphics2d.setFont (font);
         FontMetrics fontmetrics = graphics2d.getFontMetrics ();
         int width = fontmetrics.stringWidth (strWatermark);
@@ -273,52 +412,28 @@ public class AddWaterMarkToPdfServiceImpl {
         graphics2d.setRenderingHint (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         graphics2d.setRenderingHint (RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
 
-        AlphaComposite alphaChannel = AlphaComposite.getInstance (AlphaComposite.SRC_OVER,
-                watermarkSettings.getOpacity ());
-        graphics2d.setComposite (alphaChannel);
+        graphics2d.setComposite (settings.getTextComposite ());
         graphics2d.setFont (font);
-        Color color = Color.decode (watermarkSettings.getColorCode ());
         fontmetrics = graphics2d.getFontMetrics ();
-        graphics2d.setColor (color);
+        graphics2d.setColor (settings.getColor ());
         graphics2d.drawString (strWatermark, 0, fontmetrics.getAscent ());
         graphics2d.dispose ();
-        try {
-            ImageIO.write (image, "PNG", new File (strWaterMarkImageFile));
-        } catch (IOException ex) {
-            log.error ("Error to write watermark image: {}", ex.getMessage ());
-        }
-    }
-
-    /**
-     * Retrieves the appropriate font style based on the input string.
-     *
-     * @param style A string representing the font style (e.g., "BOLD", "ITALIC").
-     * @return The corresponding integer value for the font style.
-     */
-    private int getFontStyle (String style) {
-        return switch (style.toUpperCase ()) {
-            case "LAYOUT_LEFT_TO_RIGHT" -> Font.LAYOUT_LEFT_TO_RIGHT;
-            case "BOLD" -> Font.BOLD;
-            case "ITALIC" -> Font.ITALIC;
-            case "LAYOUT_RIGHT_TO_LEFT" -> Font.LAYOUT_RIGHT_TO_LEFT;
-            case "BOLDITALIC", "BOLD_ITALIC" -> Font.BOLD | Font.ITALIC;
-            default -> Font.PLAIN;
-        };
+        ByteArrayOutputStream imageOutput = new ByteArrayOutputStream ();
+        ImageIO.write (image, "PNG", imageOutput);
+        return imageOutput.toByteArray ();
     }
 
     /**
      * Generates an image based on the given text, font size, and style.
      *
-     * @param strWatermark          The watermark text.
-     * @param fontSize              The font size for the watermark.
-     * @param strWaterMarkImageFile Path to save the generated image.
+     * @param strWatermark The watermark text.
+     * @param fontSize     The font size for the watermark.
      * @return An `Image` object containing the watermark.
      */
     @Async ("taskExecutor")
-    public CompletableFuture<Image> getWaterMarkedImageByPdfFontSize_ (String strWatermark, int fontSize, String strWaterMarkImageFile) {
+    public CompletableFuture<Image> getWaterMarkedImageByPdfFontSize_ (String strWatermark, int fontSize) {
         try {
-            createTextToImage (strWatermark, fontSize, strWaterMarkImageFile);
-            ImageData imageData = ImageDataFactory.create (strWaterMarkImageFile);
+            ImageData imageData = ImageDataFactory.create (createTextToImage (strWatermark, fontSize));
             Image img = new Image (imageData);
             img.setProperty (Property.POSITION, LayoutPosition.FIXED);
             img.setProperty (Property.FLUSH_ON_DRAW, true);
@@ -332,4 +447,21 @@ public class AddWaterMarkToPdfServiceImpl {
             return CompletableFuture.completedFuture (null);
         }
     }
+
+    /**
+     * Key of a rendered text image. Settings are compared by identity, so the
+     * images of one profile or settings version are not served to another.
+     */
+    private record TextImageKey(WatermarkSettingsSnapshot settings, String text, int fontSize) {
+    }
+
+    /**
+     * Text image and logo pattern of one document. PDF patterns belong to the
+     * document they are written to, so they are built on its first page from the
+     * precompiled profile and never shared between concurrent documents.
+     */
+    private static final class DocumentStamp {
+        private Image textImage;
+        private Tiling tiling;
+    }
 }
@@ -1,16 +1,17 @@
 package com.valmet.watermark.service.impl;
 
 import com.valmet.watermark.config.JwtSettings;
-import com.valmet.watermark.config.security.WatermarkSecretsManager;
+import com.valmet.watermark.config.security.SigningKeyHolder;
+import com.valmet.watermark.config.security.SigningKeySnapshot;
 import com.valmet.watermark.constants.Constants;
 import com.valmet.watermark.dto.JwtTokenRequest;
 import com.valmet.watermark.dto.RefreshTokenRequest;
-import com.valmet.watermark.dto.SecretDto;
 import com.valmet.watermark.enums.ResultCodeConstants;
 import com.valmet.watermark.enums.TokenType;
 import com.valmet.watermark.exception.WatermarkApplicationException;
 import com.valmet.watermark.response.AuthenticationResponseDTO;
 import com.valmet.watermark.service.AuthService;
+import com.valmet.watermark.service.AuthenticationCache;
 import com.valmet.watermark.service.JwtTokenService;
 import com.valmet.watermark.service.LdapService;
 import lombok.extern.slf4j.Slf4j;
@@ -40,9 +41,10 @@ import static com.valmet.watermark.response.WatermarkResponseUtil.throwApplicati
 @Service
 public class AuthServiceImpl implements AuthService {
     private final JwtTokenService tokenService;
-    private final WatermarkSecretsManager watermarkSecretsManager;
+    private final SigningKeyHolder signingKeyHolder;
     private final JwtSettings jwtSettings;
     private final LdapService ldapService;
+    private final AuthenticationCache authenticationCache;
     private final Pattern emailPattern = Pattern.compile ("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}$");
 
     /**
@@ -50,17 +52,21 @@ public class AuthServiceImpl implements AuthService {
      *
      * @param tokenService            the service used for JWT token generation and
      *                                validation
-     * @param watermarkSecretsManager the secrets manager for retrieving valid
-     *                                credentials
-     * @param jwtSettings             the JWT settings, including expiration times
-     *                                for tokens
+     * @param signingKeyHolder the holder of the signing key and the valid
+     *                         fallback credentials
+     * @param jwtSettings      the JWT settings, including expiration times
+     *                         for tokens
+     * @param ldapService         the service authenticating against the directory
+     * @param authenticationCache the cache of recent successful directory
+     *                            authentications
      */
-    public AuthServiceImpl (JwtTokenService tokenService, WatermarkSecretsManager watermarkSecretsManager,
-                            JwtSettings jwtSettings, LdapService ldapService) {
+    public AuthServiceImpl (JwtTokenService tokenService, SigningKeyHolder signingKeyHolder,
+                            JwtSettings jwtSettings, LdapService ldapService, AuthenticationCache authenticationCache) {
         this.tokenService = tokenService;
-        this.watermarkSecretsManager = watermarkSecretsManager;
+        this.signingKeyHolder = signingKeyHolder;
         this.jwtSettings = jwtSettings;
         this.ldapService = ldapService;
+        this.authenticationCache = authenticationCache;
     }
 
     /**
@@ -77,9 +83,13 @@ public class AuthServiceImpl implements AuthService {
     @Override
     public AuthenticationResponseDTO authenticate (JwtTokenRequest request) throws IOException {
         log.info ("User name: {}", request.getUsername ());
-        SecretDto secretDto = watermarkSecretsManager.getSecretDto ();
+        SigningKeySnapshot signingKey = signingKeyHolder.getSnapshot ();
         boolean isAuthenticated = false;
         Matcher matcher = emailPattern.matcher (request.getUsername ());
+        if (authenticationCache.isAuthenticated (request.getUsername (), request.getPassword ())) {
+            // The TTL counts from the directory authentication, hits do not extend it
+            return generateTokens (request, signingKey);
+        }
         if (matcher.matches ()) {
             log.info ("Email address provided for authentication");
             isAuthenticated = ldapService.authenticateWithUPN (request.getUsername (), request.getPassword ());
@@ -92,27 +102,35 @@ public class AuthServiceImpl implements AuthService {
             isAuthenticated = ldapService.authenticateToMicrosoftAD (request.getUsername (), request.getPassword ());
             log.info ("Authentication with Microsoft AD result: {}", isAuthenticated);
         }
+        if (isAuthenticated) {
+            // Only directory authentications are cached, the fallback credentials are checked every time
+            authenticationCache.put (request.getUsername (), request.getPassword ());
+        } else {
+            authenticationCache.invalidate (request.getUsername ());
+        }
         log.info ("isAuthenticated: {}", isAuthenticated);
         if (!isAuthenticated) {
-            String userName = secretDto.getData ().get (Constants.WATERMARK_USERNAME);
-            String password = secretDto.getData ().get (Constants.WATERMARK_PASSWORD);
+            String userName = signingKey.getUserName ();
+            String password = signingKey.getPassword ();
             // Validate login credentials
-            if (!userName.equals (request.getUsername ()) || !password.equals (request.getPassword ())) {
+            if (userName == null || password == null || !userName.equals (request.getUsername ()) || !password.equals (request.getPassword ())) {
                 throwApplicationException (ResultCodeConstants.WRONG_CREDENTIALS);
             }
 
         }
+        return generateTokens (request, signingKey);
+    }
 
+    private AuthenticationResponseDTO generateTokens (JwtTokenRequest request, SigningKeySnapshot signingKey) {
         // Create authentication token
         var authenticationToken = new UsernamePasswordAuthenticationToken (request.getUsername (), request.getPassword ());
-        Integer intRSAKeyVersion = secretDto.getMetadata ().getVersion ();
-        log.info ("intRSAKeyVersion in AuthService impl: {}", intRSAKeyVersion);
+        log.info ("intRSAKeyVersion in AuthService impl: {}", signingKey.getVersion ());
 
         return AuthenticationResponseDTO.builder ()
                 .accessToken (tokenService.generateToken (authenticationToken, jwtSettings.getTokenExpirationTime (), jwtSettings.getTokenIssuer (),
-                        TokenType.ACCESS, intRSAKeyVersion, Constants.WATERMARK_ADD))
+                        TokenType.ACCESS, signingKey, Constants.WATERMARK_ADD))
                 .refreshToken (tokenService.generateToken (authenticationToken, jwtSettings.getRefreshTokenExpTime (), jwtSettings.getTokenIssuer (),
-                        TokenType.REFRESH, intRSAKeyVersion, Constants.TOKEN_RENEW))
+                        TokenType.REFRESH, signingKey, Constants.TOKEN_RENEW))
                 .build ();
     }
 
@@ -130,7 +148,7 @@ public class AuthServiceImpl implements AuthService {
         // Generate new access token
         return AuthenticationResponseDTO.builder ().accessToken (
                         tokenService.generateToken (authentication, jwtSettings.getTokenExpirationTime (), jwtSettings.getTokenIssuer (),
-                                TokenType.ACCESS, watermarkSecretsManager.getSecretDto ().getMetadata ().getVersion (), Constants.WATERMARK_ADD))
+                                TokenType.ACCESS, signingKeyHolder.getSnapshot (), Constants.WATERMARK_ADD))
                 .refreshToken (refreshTokenRequest.getRefreshToken ()).build ();
     }
 }
\ No newline at end of file
@@ -0,0 +1,237 @@
+package com.valmet.watermark.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.UncategorizedLdapException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests borrowing, returning, evicting and closing of {@link PooledLdapContextSource}
+ * against connections that record how they are used.
+ */
+class PooledLdapContextSourceTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry ();
+    private final List<FakeConnection> connections = new CopyOnWriteArrayList<> ();
+    private final List<String> violations = new CopyOnWriteArrayList<> ();
+    private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler ();
+    private final ContextSource target = new ContextSource () {
+        @Override
+        public DirContext getReadOnlyContext () {
+            return open ();
+        }
+
+        @Override
+        public DirContext getReadWriteContext () {
+            return open ();
+        }
+
+        @Override
+        public DirContext getContext (String principal, String credentials) {
+            return open ();
+        }
+    };
+
+    @AfterEach
+    void shutdownScheduler () {
+        taskScheduler.shutdown ();
+    }
+
+    @Test
+    void borrowFailsAfterMaxWaitAndSucceedsOnceAConnectionIsReturned () throws Exception {
+        LdapPoolSettings settings = settings (1);
+        settings.setMaxWait (Duration.ofMillis (100));
+        PooledLdapContextSource pool = pool (settings);
+        DirContext first = pool.getReadOnlyContext ();
+
+        long start = System.nanoTime ();
+        assertThrows (UncategorizedLdapException.class, pool::getReadOnlyContext);
+        assertTrue (System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos (100), "gave up before max-wait");
+
+        settings.setMaxWait (Duration.ofSeconds (5));
+        CompletableFuture<DirContext> waiting = CompletableFuture.supplyAsync (pool::getReadOnlyContext);
+        Thread.sleep (50);
+        assertFalse (waiting.isDone (), "borrowed beyond max-active");
+        first.close ();
+        DirContext second = waiting.get (5, TimeUnit.SECONDS);
+        second.lookup ("cn=reused");
+        second.close ();
+
+        assertEquals (1, connections.size ());
+        assertEquals (2, meterRegistry.get ("ldap.pool.wait").timer ().count ());
+    }
+
+    @Test
+    void connectionFailingWithACommunicationErrorIsClosedOnRelease () throws NamingException {
+        PooledLdapContextSource pool = pool (settings (2));
+        DirContext context = pool.getReadOnlyContext ();
+        FakeConnection broken = connections.get (0);
+        broken.failure = new CommunicationException ("connection reset");
+
+        assertThrows (CommunicationException.class, () -> context.lookup ("cn=user"));
+        context.close ();
+        assertTrue (broken.closed.get ());
+        assertEquals (1.0, meterRegistry.get ("ldap.pool.connections.closed").tag ("reason", "broken").counter ().count ());
+
+        DirContext next = pool.getReadOnlyContext ();
+        FakeConnection replacement = connections.get (1);
+        replacement.failure = new NameNotFoundException ("cn=missing");
+        assertThrows (NameNotFoundException.class, () -> next.lookup ("cn=missing"));
+        next.close ();
+        replacement.failure = null;
+        pool.getReadOnlyContext ().close ();
+
+        assertFalse (replacement.closed.get (), "closed after an error that is not a communication error");
+        assertEquals (2, connections.size ());
+    }
+
+    @Test
+    void evictionNeverClosesOrHandsOutAConnectionInUse () throws Exception {
+        LdapPoolSettings settings = settings (4);
+        settings.setMinIdle (2);
+        settings.setValidationInterval (Duration.ZERO);
+        settings.setMaxIdleTime (Duration.ofMillis (2));
+        settings.setEvictionInterval (Duration.ofMillis (1));
+        PooledLdapContextSource pool = pool (settings);
+        pool.start ();
+
+        ExecutorService borrowers = Executors.newFixedThreadPool (8);
+        try {
+            List<Future<?>> futures = new CopyOnWriteArrayList<> ();
+            for (int i = 0; i < 8; i++) {
+                futures.add (borrowers.submit (() -> {
+                    for (int j = 0; j < 300; j++) {
+                        DirContext context = pool.getReadOnlyContext ();
+                        try {
+                            context.lookup ("cn=user");
+                        } finally {
+                            context.close ();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get (60, TimeUnit.SECONDS);
+            }
+        } finally {
+            borrowers.shutdownNow ();
+        }
+        pool.close ();
+        taskScheduler.shutdown ();
+        taskScheduler.getScheduledExecutor ().awaitTermination (5, TimeUnit.SECONDS);
+
+        assertEquals (List.of (), violations);
+        assertTrue (meterRegistry.get ("ldap.pool.connections.closed").tag ("reason", "idle").counter ().count () > 0, "nothing evicted");
+        assertEquals (0.0, meterRegistry.get ("ldap.pool.active").gauge ().value ());
+        assertTrue (connections.stream ().allMatch (connection -> connection.closed.get ()), "connection left open after close");
+    }
+
+    @Test
+    void closeWhileContextsAreLentOutClosesThemWhenReturned () throws NamingException {
+        PooledLdapContextSource pool = pool (settings (2));
+        DirContext lent = pool.getReadOnlyContext ();
+        DirContext returned = pool.getReadOnlyContext ();
+        returned.close ();
+        FakeConnection lentConnection = connections.get (0);
+        FakeConnection idleConnection = connections.get (1);
+
+        pool.close ();
+        assertTrue (idleConnection.closed.get ());
+        assertFalse (lentConnection.closed.get ());
+        lent.lookup ("cn=user");
+
+        lent.close ();
+        assertTrue (lentConnection.closed.get ());
+        assertThrows (IllegalStateException.class, () -> lent.lookup ("cn=user"));
+        assertEquals (2.0, meterRegistry.get ("ldap.pool.connections.closed").tag ("reason", "shutdown").counter ().count ());
+
+        DirContext unpooled = pool.getReadOnlyContext ();
+        assertSame (connections.get (2).context, unpooled);
+        assertEquals (2.0, meterRegistry.get ("ldap.pool.connections.created").counter ().count ());
+    }
+
+    private LdapPoolSettings settings (int maxActive) {
+        LdapPoolSettings settings = new LdapPoolSettings ();
+        settings.setMaxActive (maxActive);
+        settings.setMinIdle (0);
+        return settings;
+    }
+
+    private PooledLdapContextSource pool (LdapPoolSettings settings) {
+        taskScheduler.initialize ();
+        return new PooledLdapContextSource (target, taskScheduler, settings, meterRegistry);
+    }
+
+    private DirContext open () {
+        FakeConnection connection = new FakeConnection ();
+        connections.add (connection);
+        return connection.context;
+    }
+
+    /**
+     * A directory connection that fails on request and reports use after close
+     * and use by two threads at once as violations.
+     */
+    private final class FakeConnection {
+        private final AtomicBoolean closed = new AtomicBoolean ();
+        private final AtomicInteger users = new AtomicInteger ();
+        private final DirContext context;
+        private volatile NamingException failure;
+
+        private FakeConnection () {
+            context = (DirContext) Proxy.newProxyInstance (DirContext.class.getClassLoader (), new Class<?>[] {DirContext.class},
+                    (proxy, method, args) -> switch (method.getName ()) {
+                        case "close" -> {
+                            closed.set (true);
+                            yield null;
+                        }
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> System.identityHashCode (proxy);
+                        case "toString" -> "FakeConnection";
+                        default -> use (method.getName ());
+                    });
+        }
+
+        private Object use (String operation) throws NamingException {
+            if (closed.get ()) {
+                violations.add (operation + " on a closed connection");
+            }
+            if (users.incrementAndGet () > 1) {
+                violations.add (operation + " on a connection in use");
+            }
+            try {
+                Thread.yield ();
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            } finally {
+                users.decrementAndGet ();
+            }
+        }
+    }
+}
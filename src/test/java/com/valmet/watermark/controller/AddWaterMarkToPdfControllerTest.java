@@ -0,0 +1,154 @@
+package com.valmet.watermark.controller;
+
+import com.valmet.watermark.service.AddWaterMarkToPdfService;
+import com.valmet.watermark.service.AdmissionControlService;
+import com.valmet.watermark.service.PdfBufferScope;
+import com.valmet.watermark.service.RequestAllocation;
+import com.valmet.watermark.service.WatermarkRequestContext;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that the watermark endpoint falls back to degraded mode when its
+ * pipeline fails on a worker thread to which no request is bound, as
+ * Resilience4j runs the fallback of a failed {@link CompletableFuture}.
+ */
+class AddWaterMarkToPdfControllerTest {
+    private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler ();
+    private final AdmissionControlService admissionControlService = new AdmissionControlService (new SimpleMeterRegistry (),
+            DataSize.ofMegabytes (64), 1000, 2.0, DataSize.ofKilobytes (100), DataSize.ofMegabytes (4), 0.85, 0.5, 60);
+    private final Map<String, Object> degradedCall = new ConcurrentHashMap<> ();
+    private final CompletableFuture<ResponseEntity<?>> pipeline = new CompletableFuture<> ();
+    // Like the request-scoped proxy Spring injects, delegates to the request bound to the calling thread
+    private final HttpServletRequest requestProxy = (HttpServletRequest) Proxy.newProxyInstance (HttpServletRequest.class.getClassLoader (),
+            new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                try {
+                    return method.invoke (((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes ()).getRequest (), args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause ();
+                }
+            });
+
+    @AfterEach
+    void shutdown () {
+        RequestContextHolder.resetRequestAttributes ();
+        taskScheduler.shutdown ();
+    }
+
+    @Test
+    void failedPipelineIsWatermarkedInDegradedModeWithoutTheRequest () throws Exception {
+        taskScheduler.initialize ();
+        AddWaterMarkToPdfController controller = new AddWaterMarkToPdfController (new FailingWatermarkService (), admissionControlService,
+                requestProxy);
+        List<MultipartFile> files = List.of (pdf ());
+        HttpServletRequest request = request (Map.of ("X-Client-Application-Name", "SAP"));
+
+        RequestContextHolder.setRequestAttributes (new ServletRequestAttributes (request));
+        WatermarkRequestContext requestContext = WatermarkRequestContext.of (request);
+        CompletableFuture<ResponseEntity<?>> response = controller.uploadFilesAndAddWatermark (files, "12345", null, null, requestContext)
+                .exceptionallyCompose (failure -> controller.uploadFilesFallback (files, "12345", null, null, requestContext,
+                        failure instanceof CompletionException ? failure.getCause () : failure));
+        RequestContextHolder.resetRequestAttributes ();
+        // The stamp stage fails on a worker thread after the servlet thread has returned
+        CompletableFuture.runAsync (() -> pipeline.completeExceptionally (new CompletionException (new IOException ("stamp failed"))))
+                .get (5, TimeUnit.SECONDS);
+
+        assertEquals ("degraded", response.get (5, TimeUnit.SECONDS).getBody ());
+        assertEquals ("SAP", degradedCall.get ("system"));
+        assertSame (requestContext.scope (), degradedCall.get ("scope"));
+        assertSame (requestContext.allocation (), degradedCall.get ("allocation"));
+        assertInstanceOf (IOException.class, degradedCall.get ("cause"));
+        assertEquals (0, admissionControlService.getInFlightRequests ());
+        assertThrows (IllegalStateException.class, () -> requestProxy.getHeader ("X-Client-Application-Name"));
+    }
+
+    private static HttpServletRequest request (Map<String, String> headers) {
+        Map<String, Object> attributes = new ConcurrentHashMap<> ();
+        return (HttpServletRequest) Proxy.newProxyInstance (HttpServletRequest.class.getClassLoader (), new Class<?>[] {HttpServletRequest.class},
+                (proxy, method, args) -> switch (method.getName ()) {
+                    case "getHeader" -> headers.get ((String) args[0]);
+                    case "getContentLengthLong" -> -1L;
+                    case "getRemoteAddr" -> "127.0.0.1";
+                    case "getAttribute" -> attributes.get ((String) args[0]);
+                    case "setAttribute" -> attributes.put ((String) args[0], args[1]);
+                    case "hashCode" -> System.identityHashCode (proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    private static MultipartFile pdf () {
+        byte[] content = "%PDF-1.7".getBytes ();
+        return (MultipartFile) Proxy.newProxyInstance (MultipartFile.class.getClassLoader (), new Class<?>[] {MultipartFile.class},
+                (proxy, method, args) -> switch (method.getName ()) {
+                    case "getName" -> "file";
+                    case "getOriginalFilename" -> "file.pdf";
+                    case "getContentType" -> "application/pdf";
+                    case "isEmpty" -> false;
+                    case "getSize" -> (long) content.length;
+                    case "getBytes" -> content;
+                    case "getInputStream" -> new ByteArrayInputStream (content);
+                    case "hashCode" -> System.identityHashCode (proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    /**
+     * A watermark service whose regular pipeline fails with {@link #pipeline}
+     * and whose degraded mode records how it was called.
+     */
+    private final class FailingWatermarkService extends AddWaterMarkToPdfService {
+        private FailingWatermarkService () {
+            super (null, null, null, null, admissionControlService, null, null, null, taskScheduler, RetryRegistry.ofDefaults (), null, null);
+        }
+
+        @Override
+        public CompletableFuture<ResponseEntity<?>> getWatermarkedPdfAsync (List<MultipartFile> file, String strPersonID, String strSystem,
+                                                                            String strEmail, AdmissionControlService.Permit permit,
+                                                                            PdfBufferScope scope, RequestAllocation allocation) {
+            return pipeline;
+        }
+
+        @Override
+        public boolean isDegradedModeEnabled () {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<ResponseEntity<?>> getDegradedWatermarkedPdfAsync (List<MultipartFile> file, String strPersonID, String strSystem,
+                                                                                     String strEmail, Throwable cause, PdfBufferScope scope,
+                                                                                     RequestAllocation allocation) {
+            degradedCall.put ("system", strSystem);
+            degradedCall.put ("cause", cause);
+            degradedCall.put ("scope", scope);
+            degradedCall.put ("allocation", allocation);
+            return CompletableFuture.completedFuture (ResponseEntity.ok ("degraded"));
+        }
+    }
+}
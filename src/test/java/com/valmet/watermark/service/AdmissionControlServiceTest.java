@@ -0,0 +1,80 @@
+package com.valmet.watermark.service;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.valmet.watermark.dto.RequestCost;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the page counting of buffered uploads and the correction of admitted
+ * costs by {@link AdmissionControlService}.
+ */
+class AdmissionControlServiceTest {
+    private final AdmissionControlService admissionControlService = service (DataSize.ofMegabytes (4));
+    @TempDir
+    Path spillDirectory;
+
+    @AfterEach
+    void unregister () {
+        admissionControlService.unregisterMemoryPressureListener ();
+    }
+
+    @Test
+    void countsPagesOfSmallFilesAndEstimatesLargeAndUnreadableOnes () throws IOException {
+        PdfBufferPool pool = new PdfBufferPool (null, DataSize.ofKilobytes (4), DataSize.ofMegabytes (1), DataSize.ofMegabytes (8),
+                DataSize.ofKilobytes (64), spillDirectory.toString ());
+        PdfBuffer document = pool.allocate ("test", -1);
+        try (PdfDocument pdfDocument = new PdfDocument (new PdfWriter (document.getOutputStream ()))) {
+            for (int i = 0; i < 3; i++) {
+                pdfDocument.addNewPage ();
+            }
+        }
+        PdfBuffer unreadable = pool.allocate ("test", -1);
+        try (OutputStream outputStream = unreadable.getOutputStream ()) {
+            outputStream.write ("not a PDF".getBytes (StandardCharsets.US_ASCII));
+        }
+        AdmissionControlService estimating = service (DataSize.ofBytes (1));
+        try {
+            assertEquals (3, admissionControlService.countPages (document));
+            assertEquals (1, admissionControlService.countPages (unreadable));
+            assertEquals (1, estimating.countPages (document));
+        } finally {
+            estimating.unregisterMemoryPressureListener ();
+            document.close ();
+            unreadable.close ();
+        }
+        assertEquals (0, pool.getReservedBytes ());
+    }
+
+    @Test
+    void refineMovesTheReservedPagesUntilThePermitIsClosed () {
+        AdmissionControlService.Permit permit = admissionControlService.admit (RequestCost.builder ()
+                .bytes (1024).fileCount (1).pages (1).memoryCost (2048).build ());
+
+        RequestCost refined = admissionControlService.refine (permit, 40);
+        assertEquals (40, refined.getPages ());
+        assertEquals (40, permit.getCost ().getPages ());
+        assertEquals (40, admissionControlService.getInFlightPages ());
+
+        permit.close ();
+        admissionControlService.refine (permit, 80);
+        assertEquals (0, admissionControlService.getInFlightPages ());
+        assertEquals (0, admissionControlService.getInFlightRequests ());
+    }
+
+    private static AdmissionControlService service (DataSize pageCountLimit) {
+        return new AdmissionControlService (new SimpleMeterRegistry (), DataSize.ofMegabytes (64), 1000, 2.0, DataSize.ofKilobytes (100),
+                pageCountLimit, 0.85, 0.5, 60);
+    }
+}
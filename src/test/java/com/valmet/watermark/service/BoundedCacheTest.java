@@ -0,0 +1,94 @@
+package com.valmet.watermark.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the eviction, expiry and metrics of {@link BoundedCache}.
+ */
+class BoundedCacheTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry ();
+
+    @Test
+    void evictsTheOldestEntriesButGivesReadEntriesASecondChance () {
+        BoundedCache<String, String> cache = new BoundedCache<> ("test", 3, meterRegistry);
+        cache.put ("a", "1", null);
+        cache.put ("b", "2", null);
+        cache.put ("c", "3", null);
+        assertEquals ("1", cache.get ("a"));
+
+        cache.put ("d", "4", null);
+        cache.put ("e", "5", null);
+
+        assertEquals (3, cache.size ());
+        assertEquals ("1", cache.get ("a"));
+        assertNull (cache.get ("b"));
+        assertNull (cache.get ("c"));
+        assertEquals (2.0, meterRegistry.get ("cache.evictions").tag ("cache", "test").counter ().count ());
+        assertEquals (3.0, meterRegistry.get ("cache.size").tag ("cache", "test").gauge ().value ());
+    }
+
+    @Test
+    void expiresEntriesAfterTheirTimeToLiveAndAfterAccess () throws InterruptedException {
+        BoundedCache<String, String> timeToLive = new BoundedCache<> ("ttl", 10, meterRegistry);
+        timeToLive.put ("short", "1", Duration.ofMillis (20));
+        timeToLive.put ("long", "2", Duration.ofMinutes (5));
+        BoundedCache<String, String> afterAccess = new BoundedCache<> ("access", 10, Duration.ofMillis (40), value -> true, meterRegistry);
+        afterAccess.put ("used", "1", null);
+        afterAccess.put ("unused", "2", null);
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep (20);
+            assertEquals ("1", afterAccess.get ("used"));
+        }
+
+        assertNull (timeToLive.get ("short"));
+        assertEquals ("2", timeToLive.get ("long"));
+        assertNull (afterAccess.get ("unused"));
+        assertEquals (1, afterAccess.size ());
+    }
+
+    @Test
+    void dropsEntriesThatAreNoLongerValid () {
+        AtomicBoolean valid = new AtomicBoolean (true);
+        BoundedCache<String, String> cache = new BoundedCache<> ("test", 10, Duration.ZERO, value -> valid.get (), meterRegistry);
+        cache.put ("a", "1", null);
+        assertEquals ("1", cache.get ("a"));
+
+        valid.set (false);
+        assertNull (cache.get ("a"));
+        assertEquals (0, cache.size ());
+        assertEquals (1.0, meterRegistry.get ("cache.gets").tag ("cache", "test").tag ("result", "hit").counter ().count ());
+        assertEquals (1.0, meterRegistry.get ("cache.gets").tag ("cache", "test").tag ("result", "miss").counter ().count ());
+    }
+
+    @Test
+    void replacingEntriesDoesNotEvictOthers () {
+        BoundedCache<String, String> cache = new BoundedCache<> ("test", 2, meterRegistry);
+        cache.put ("a", "1", null);
+        cache.put ("b", "2", null);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put ("b", String.valueOf (i), null);
+        }
+        assertTrue (cache.invalidate ("b"));
+        assertFalse (cache.invalidate ("b"));
+
+        assertEquals ("1", cache.get ("a"));
+        assertEquals (0.0, meterRegistry.get ("cache.evictions").tag ("cache", "test").counter ().count ());
+    }
+
+    @Test
+    void sizeZeroDisablesTheCache () {
+        BoundedCache<String, String> cache = new BoundedCache<> ("test", 0, meterRegistry);
+        cache.put ("a", "1", null);
+        assertNull (cache.get ("a"));
+        assertEquals (0, cache.size ());
+    }
+}
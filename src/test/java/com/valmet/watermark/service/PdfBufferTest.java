@@ -0,0 +1,119 @@
+package com.valmet.watermark.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the reader counting of {@link PdfBuffer} and the release of buffers by
+ * their {@link PdfBufferScope}.
+ */
+class PdfBufferTest {
+    private static final byte[] CONTENT = "%PDF-1.4 content spanning several chunks".getBytes (StandardCharsets.US_ASCII);
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void closedBufferKeepsChunksUntilTheLastReaderIsClosed () throws IOException {
+        PdfBufferPool pool = pool (DataSize.ofKilobytes (1));
+        PdfBuffer buffer = write (pool);
+        InputStream first = buffer.getInputStream ();
+        InputStream second = buffer.getInputStream ();
+        first.close ();
+        buffer.close ();
+
+        assertTrue (pool.getReservedBytes () > 0, "chunks are released while a reader is open");
+        assertArrayEquals (CONTENT, second.readAllBytes ());
+        second.close ();
+        assertEquals (0, pool.getReservedBytes ());
+        assertThrows (IOException.class, buffer::getInputStream);
+    }
+
+    @Test
+    void closingAResourceStreamDoesNotCloseTheBuffer () throws IOException {
+        PdfBufferPool pool = pool (DataSize.ofKilobytes (1));
+        PdfBuffer buffer = write (pool);
+        Resource resource = buffer.toResource ("file.pdf");
+        try (InputStream inputStream = resource.getInputStream ()) {
+            assertArrayEquals (CONTENT, inputStream.readAllBytes ());
+        }
+        try (InputStream inputStream = resource.getInputStream ()) {
+            assertArrayEquals (CONTENT, inputStream.readAllBytes ());
+        }
+        buffer.close ();
+        assertEquals (0, pool.getReservedBytes ());
+    }
+
+    @Test
+    void singleByteReadsCrossChunkBoundaries () throws IOException {
+        PdfBufferPool pool = pool (DataSize.ofKilobytes (1));
+        PdfBuffer buffer = write (pool);
+        byte[] read = new byte[CONTENT.length];
+        try (InputStream inputStream = buffer.getInputStream ()) {
+            for (int i = 0; i < read.length; i++) {
+                int value = inputStream.read ();
+                assertTrue (value >= 0, "end of buffer at " + i);
+                read[i] = (byte) value;
+            }
+            assertEquals (-1, inputStream.read ());
+        }
+        assertArrayEquals (CONTENT, read);
+        buffer.close ();
+        assertEquals (0, pool.getReservedBytes ());
+    }
+
+    @Test
+    void closedSpilledBufferKeepsItsFileUntilTheLastReaderIsClosed () throws IOException {
+        PdfBufferPool pool = pool (DataSize.ofBytes (8));
+        PdfBuffer buffer = write (pool);
+        assertFalse (buffer.isInMemory ());
+        InputStream reader = buffer.getInputStream ();
+        buffer.close ();
+
+        assertArrayEquals (CONTENT, reader.readAllBytes ());
+        reader.close ();
+        try (var files = Files.list (spillDirectory)) {
+            assertEquals (0, files.count ());
+        }
+    }
+
+    @Test
+    void scopeClosesRegisteredBuffersAndLateRegistrations () throws IOException {
+        PdfBufferPool pool = pool (DataSize.ofKilobytes (1));
+        PdfBufferScope scope = new PdfBufferScope ();
+        PdfBuffer registered = scope.register (write (pool));
+        scope.close ();
+        assertThrows (IOException.class, registered::getInputStream);
+
+        PdfBuffer late = scope.register (write (pool));
+        assertThrows (IOException.class, late::getInputStream);
+        assertEquals (0, pool.getReservedBytes ());
+    }
+
+    private PdfBufferPool pool (DataSize memoryThreshold) {
+        return new PdfBufferPool (null, DataSize.ofBytes (16), memoryThreshold, DataSize.ofKilobytes (64), DataSize.ofKilobytes (1),
+                spillDirectory.toString ());
+    }
+
+    private static PdfBuffer write (PdfBufferPool pool) throws IOException {
+        PdfBuffer buffer = pool.allocate ("test", -1);
+        try (OutputStream outputStream = buffer.getOutputStream ()) {
+            outputStream.write (CONTENT);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,43 @@
+package com.valmet.watermark.service;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the meter caching and the client system limit of {@link WatermarkMetrics}.
+ */
+class WatermarkMetricsTest {
+
+    @Test
+    void recordsRepeatedStagesOnTheSameTimer () {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry ();
+        WatermarkMetrics metrics = new WatermarkMetrics (registry);
+        Tags tags = metrics.requestTags ("SAP", 1);
+        for (int i = 0; i < 5; i++) {
+            metrics.recordStage (WatermarkMetrics.STAGE_STAMP_PAGE, metrics.requestTags ("SAP", 1), System.nanoTime ());
+            metrics.recordPages (tags, 1);
+        }
+
+        assertEquals (1, registry.find ("watermark.stage").timers ().size ());
+        assertEquals (5, registry.get ("watermark.stage").tag ("stage", WatermarkMetrics.STAGE_STAMP_PAGE).timer ().count ());
+        assertEquals (5, registry.get ("watermark.pages").summary ().count ());
+    }
+
+    @Test
+    void tagsSystemsBeyondTheLimitAsOther () {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry ();
+        WatermarkMetrics metrics = new WatermarkMetrics (registry, 2);
+        metrics.recordPages (metrics.requestTags ("SAP", 1), 1);
+        metrics.recordPages (metrics.requestTags ("PLM", 1), 1);
+        metrics.recordPages (metrics.requestTags ("CRM", 1), 1);
+        metrics.recordPages (metrics.requestTags ("ERP", 1), 1);
+        metrics.recordPages (metrics.requestTags ("SAP", 1), 1);
+
+        assertEquals (3, registry.find ("watermark.pages").summaries ().size ());
+        assertEquals (2, registry.get ("watermark.pages").tag ("system", "SAP").summary ().count ());
+        assertEquals (2, registry.get ("watermark.pages").tag ("system", "other").summary ().count ());
+    }
+}